@@ -20,6 +20,16 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostAllocatorIndex index;
+
+    private List<HostVO> allocateFromIndex() {
+        if (!index.isEnabled() || usePagination()) {
+            return null;
+        }
+
+        return index.getHostsAttachedToL3Networks(spec.getL3NetworkUuids(), amITheFirstFlow() ? null : candidates);
+    }
 
     @Transactional(readOnly = true)
     private List<HostVO> allocate(Collection<String> l3NetworkUuids, Collection<String> hostUuids) {
@@ -93,7 +103,10 @@ public class AttachedL2NetworkAllocatorFlow extends AbstractHostAllocatorFlow {
             }
         }
 
-        if (amITheFirstFlow()) {
+        List<HostVO> ret = allocateFromIndex();
+        if (ret != null) {
+            candidates = ret;
+        } else if (amITheFirstFlow()) {
             candidates = allocate(spec.getL3NetworkUuids(), new ArrayList<>());
         } else {
             candidates = allocate(spec.getL3NetworkUuids(), getHostUuidsFromCandidates());
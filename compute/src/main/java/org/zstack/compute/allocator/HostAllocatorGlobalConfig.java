@@ -26,6 +26,18 @@ public class HostAllocatorGlobalConfig {
     @GlobalConfigValidation(inNumberRange = {1, 255})
     @GlobalConfigDef(defaultValue = "10", type = Integer.class,  description = "allocator concurrency level, if enabled.")
     public static GlobalConfig HOST_ALLOCATOR_CONCURRENT_LEVEL = new GlobalConfig(CATEGORY, "hostAllocator.concurrent.level");
+    @GlobalConfigValidation(validValues = {"none", "zone", "cluster"})
+    @GlobalConfigDef(defaultValue = "none", type = String.class, description = "partition the host allocation queue by zone or cluster, allocations of different partitions run in parallel")
+    public static GlobalConfig HOST_ALLOCATOR_PARTITION = new GlobalConfig(CATEGORY, "hostAllocator.partition");
+    @GlobalConfigValidation(inNumberRange = {0, 100})
+    @GlobalConfigDef(defaultValue = "3", type = Integer.class, description = "times to re-run the allocation when all candidates were taken by concurrent allocations")
+    public static GlobalConfig HOST_ALLOCATOR_RESERVE_CONFLICT_RETRY_TIMES = new GlobalConfig(CATEGORY, "hostAllocator.reserveConflictRetryTimes");
+    @GlobalConfigValidation
+    @GlobalConfigDef(defaultValue = "false", type = Boolean.class, description = "filter hosts by state, L2 network attachment and capacity on an in-memory index instead of the database")
+    public static GlobalConfig HOST_ALLOCATOR_USE_INDEX = new GlobalConfig(CATEGORY, "hostAllocator.index.enabled");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    @GlobalConfigDef(defaultValue = "60", type = Long.class, description = "interval in seconds to reload the in-memory host index from the database")
+    public static GlobalConfig HOST_ALLOCATOR_INDEX_RESYNC_INTERVAL = new GlobalConfig(CATEGORY, "hostAllocator.index.resyncInterval");
     @GlobalConfigValidation
     public static GlobalConfig HOST_ALLOCATOR_MAX_MEMORY = new GlobalConfig(CATEGORY, "hostAllocator.checkHostMem");
 }
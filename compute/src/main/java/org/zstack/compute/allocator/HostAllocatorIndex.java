@@ -0,0 +1,501 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.EntityEvent;
+import org.zstack.core.db.Q;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.host.*;
+import org.zstack.header.network.l2.L2NetworkClusterRefVO;
+import org.zstack.header.network.l3.L3NetworkVO;
+import org.zstack.header.network.l3.L3NetworkVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A management node local index of hosts, their capacity, and the L2 networks
+ * attached to their clusters, used by allocator flows instead of querying the database.
+ *
+ * Hosts are numbered and filters work on BitSets of host numbers; flows get detached
+ * copies of HostVO carrying a copy of HostCapacityVO, so the capacity filters don't
+ * touch the database either. The index may lag behind the database, the capacity
+ * reservation is still done on HostCapacityVO under a row lock and is the final check.
+ *
+ * The index is updated by entity lifecycle callbacks of this node, host canonical events
+ * of all nodes, and a periodic resync which also picks up changes other management nodes
+ * make to the database. Changes arriving while a resync is loading the database are
+ * replayed on the loaded topology before it replaces the current one.
+ *
+ * Only HostStateAndHypervisorAllocatorFlow and AttachedL2NetworkAllocatorFlow use the index,
+ * replacing the host state query and the L2 attachment join of every allocation. The primary
+ * storage flows still query the database, they depend on primary storage capacity, host
+ * connections and image caches that change with almost every allocation. The tag flow does too,
+ * its filters are plugin extension points reading their own tags. lookups and misses count how
+ * many filters the index answered and how many fell back to the database for an unknown L3
+ * network; both are logged on each resync.
+ *
+ * Nothing is tracked while hostAllocator.index.enabled is false.
+ */
+public class HostAllocatorIndex implements Component {
+    private static final CLogger logger = Utils.getLogger(HostAllocatorIndex.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private static class Topology {
+        final Map<String, Integer> hostIds = new HashMap<>();
+        final List<HostVO> hosts = new ArrayList<>();
+        final BitSet freeIds = new BitSet();
+        final Map<String, BitSet> hostsByCluster = new HashMap<>();
+        final Map<String, Set<String>> clustersByL2 = new HashMap<>();
+        final Map<String, String> l2ByL3 = new HashMap<>();
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Topology topology = new Topology();
+    // changes made during a resync, null if no resync is loading
+    private List<Consumer<Topology>> changesDuringLoad;
+    private volatile boolean tracking;
+    private volatile boolean loaded;
+    private boolean callbacksInstalled;
+    private Future<Void> resyncTask;
+    private final List<EventCallback> eventCallbacks = new ArrayList<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public boolean isEnabled() {
+        return loaded && HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.value(Boolean.class);
+    }
+
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private static HostVO copyOf(HostVO vo) {
+        HostVO h = new HostVO();
+        h.setUuid(vo.getUuid());
+        h.setName(vo.getName());
+        h.setDescription(vo.getDescription());
+        h.setZoneUuid(vo.getZoneUuid());
+        h.setClusterUuid(vo.getClusterUuid());
+        h.setManagementIp(vo.getManagementIp());
+        h.setHypervisorType(vo.getHypervisorType());
+        h.setState(vo.getState());
+        h.setStatus(vo.getStatus());
+        h.setCreateDate(vo.getCreateDate());
+        h.setLastOpDate(vo.getLastOpDate());
+        h.setCapacity(vo.getCapacity() == null ? null : copyOf(vo.getCapacity()));
+        return h;
+    }
+
+    private static HostCapacityVO copyOf(HostCapacityVO vo) {
+        HostCapacityVO c = new HostCapacityVO();
+        c.setUuid(vo.getUuid());
+        c.setTotalCpu(vo.getTotalCpu());
+        c.setAvailableCpu(vo.getAvailableCpu());
+        c.setCpuNum(vo.getCpuNum());
+        c.setCpuSockets(vo.getCpuSockets());
+        c.setTotalMemory(vo.getTotalMemory());
+        c.setAvailableMemory(vo.getAvailableMemory());
+        c.setTotalPhysicalMemory(vo.getTotalPhysicalMemory());
+        c.setAvailablePhysicalMemory(vo.getAvailablePhysicalMemory());
+        return c;
+    }
+
+    private static void putHost(Topology t, HostVO vo) {
+        HostVO h = copyOf(vo);
+        Integer id = t.hostIds.get(h.getUuid());
+        if (id != null) {
+            HostVO old = t.hosts.get(id);
+            if (!Objects.equals(old.getClusterUuid(), h.getClusterUuid())) {
+                removeFromCluster(t, old.getClusterUuid(), id);
+            }
+            if (h.getCapacity() == null) {
+                h.setCapacity(old.getCapacity());
+            }
+            t.hosts.set(id, h);
+        } else {
+            id = t.freeIds.isEmpty() ? t.hosts.size() : t.freeIds.nextSetBit(0);
+            if (id == t.hosts.size()) {
+                t.hosts.add(h);
+            } else {
+                t.freeIds.clear(id);
+                t.hosts.set(id, h);
+            }
+            t.hostIds.put(h.getUuid(), id);
+        }
+
+        t.hostsByCluster.computeIfAbsent(h.getClusterUuid(), k -> new BitSet()).set(id);
+    }
+
+    private static void removeFromCluster(Topology t, String clusterUuid, int id) {
+        BitSet hosts = t.hostsByCluster.get(clusterUuid);
+        if (hosts != null) {
+            hosts.clear(id);
+            if (hosts.isEmpty()) {
+                t.hostsByCluster.remove(clusterUuid);
+            }
+        }
+    }
+
+    private void write(Runnable r) {
+        lock.writeLock().lock();
+        try {
+            r.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * a change must only read its arguments and the topology it's applied to,
+     * it may be applied again to the topology a resync is loading
+     */
+    private void apply(Consumer<Topology> change) {
+        if (!tracking) {
+            return;
+        }
+
+        write(() -> {
+            change.accept(topology);
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(change);
+            }
+        });
+    }
+
+    private void removeHost(String hostUuid) {
+        apply(t -> {
+            Integer id = t.hostIds.remove(hostUuid);
+            if (id == null) {
+                return;
+            }
+
+            removeFromCluster(t, t.hosts.get(id).getClusterUuid(), id);
+            t.hosts.set(id, null);
+            t.freeIds.set(id);
+        });
+    }
+
+    private void updateHost(HostVO vo) {
+        HostVO h = copyOf(vo);
+        apply(t -> putHost(t, h));
+    }
+
+    // flows may still hold the old copy, never modify a copy in the index
+    private void updateHostStatus(String hostUuid, HostStatus status) {
+        apply(t -> {
+            Integer id = t.hostIds.get(hostUuid);
+            if (id != null) {
+                HostVO h = copyOf(t.hosts.get(id));
+                h.setStatus(status);
+                t.hosts.set(id, h);
+            }
+        });
+    }
+
+    private void updateCapacity(HostCapacityVO vo) {
+        HostCapacityVO cap = copyOf(vo);
+        apply(t -> {
+            Integer id = t.hostIds.get(cap.getUuid());
+            if (id != null) {
+                HostVO h = copyOf(t.hosts.get(id));
+                h.setCapacity(cap);
+                t.hosts.set(id, h);
+            }
+        });
+    }
+
+    private void attachL2(L2NetworkClusterRefVO ref) {
+        String l2Uuid = ref.getL2NetworkUuid();
+        String clusterUuid = ref.getClusterUuid();
+        apply(t -> t.clustersByL2.computeIfAbsent(l2Uuid, k -> new HashSet<>()).add(clusterUuid));
+    }
+
+    private void detachL2(L2NetworkClusterRefVO ref) {
+        String l2Uuid = ref.getL2NetworkUuid();
+        String clusterUuid = ref.getClusterUuid();
+        apply(t -> {
+            Set<String> clusters = t.clustersByL2.get(l2Uuid);
+            if (clusters != null) {
+                clusters.remove(clusterUuid);
+            }
+        });
+    }
+
+    private Topology load() {
+        Topology t = new Topology();
+        List<HostVO> hosts = Q.New(HostVO.class).list();
+        hosts.forEach(vo -> putHost(t, vo));
+
+        List<L2NetworkClusterRefVO> refs = Q.New(L2NetworkClusterRefVO.class).list();
+        refs.forEach(ref -> t.clustersByL2.computeIfAbsent(ref.getL2NetworkUuid(), k -> new HashSet<>()).add(ref.getClusterUuid()));
+
+        List<Tuple> l3s = Q.New(L3NetworkVO.class).select(L3NetworkVO_.uuid, L3NetworkVO_.l2NetworkUuid).listTuple();
+        l3s.forEach(tuple -> t.l2ByL3.put(tuple.get(0, String.class), tuple.get(1, String.class)));
+        return t;
+    }
+
+    synchronized void resync() {
+        if (!tracking) {
+            return;
+        }
+
+        write(() -> changesDuringLoad = new ArrayList<>());
+
+        Topology t;
+        try {
+            t = load();
+        } catch (RuntimeException e) {
+            write(() -> changesDuringLoad = null);
+            throw e;
+        }
+
+        write(() -> {
+            changesDuringLoad.forEach(change -> change.accept(t));
+            changesDuringLoad = null;
+            topology = t;
+        });
+        loaded = true;
+        logger.debug(String.format("[Host Allocator Index]: loaded %s hosts, %s lookups answered, %s missed",
+                t.hostIds.size(), lookups.get(), misses.get()));
+    }
+
+    private List<HostVO> toHosts(BitSet ids) {
+        List<HostVO> ret = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            ret.add(topology.hosts.get(id));
+        }
+        return ret;
+    }
+
+    private BitSet toIds(List<HostVO> hosts) {
+        BitSet ids = new BitSet(topology.hosts.size());
+        for (HostVO vo : hosts) {
+            Integer id = topology.hostIds.get(vo.getUuid());
+            if (id != null) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return hosts that are Enabled and Connected and have the hypervisor type if it's not null
+     */
+    public List<HostVO> getEnabledAndConnectedHosts(String hypervisorType) {
+        lock.readLock().lock();
+        try {
+            BitSet ids = new BitSet(topology.hosts.size());
+            lookups.incrementAndGet();
+            for (int id = 0; id < topology.hosts.size(); id++) {
+                HostVO h = topology.hosts.get(id);
+                if (h == null || h.getCapacity() == null || h.getState() != HostState.Enabled || h.getStatus() != HostStatus.Connected) {
+                    continue;
+                }
+
+                if (hypervisorType == null || hypervisorType.equals(h.getHypervisorType())) {
+                    ids.set(id);
+                }
+            }
+
+            return toHosts(ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param candidates null means all hosts
+     * @return hosts in clusters attached to all L2 networks of the L3 networks, or null if
+     * any of the L3 networks is unknown to the index
+     */
+    public List<HostVO> getHostsAttachedToL3Networks(Collection<String> l3NetworkUuids, List<HostVO> candidates) {
+        lock.readLock().lock();
+        try {
+            Set<String> clusterUuids = null;
+            for (String l3Uuid : l3NetworkUuids) {
+                String l2Uuid = topology.l2ByL3.get(l3Uuid);
+                if (l2Uuid == null) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+
+                Set<String> clusters = topology.clustersByL2.getOrDefault(l2Uuid, Collections.emptySet());
+                if (clusterUuids == null) {
+                    clusterUuids = new HashSet<>(clusters);
+                } else {
+                    clusterUuids.retainAll(clusters);
+                }
+            }
+
+            lookups.incrementAndGet();
+            BitSet ids = new BitSet(topology.hosts.size());
+            if (clusterUuids != null) {
+                for (String clusterUuid : clusterUuids) {
+                    BitSet hosts = topology.hostsByCluster.get(clusterUuid);
+                    if (hosts != null) {
+                        ids.or(hosts);
+                    }
+                }
+            }
+
+            if (candidates != null) {
+                ids.and(toIds(candidates));
+            }
+
+            return toHosts(ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // entity lifecycle callbacks can't be uninstalled, they do nothing while not tracking
+    private void installCallbacks() {
+        if (callbacksInstalled) {
+            return;
+        }
+
+        callbacksInstalled = true;
+        dbf.installEntityLifeCycleCallback(HostVO.class, EntityEvent.POST_PERSIST, (evt, o) -> updateHost((HostVO) o));
+        dbf.installEntityLifeCycleCallback(HostVO.class, EntityEvent.POST_UPDATE, (evt, o) -> updateHost((HostVO) o));
+        dbf.installEntityLifeCycleCallback(HostVO.class, EntityEvent.POST_REMOVE, (evt, o) -> removeHost(((HostVO) o).getUuid()));
+        dbf.installEntityLifeCycleCallback(HostCapacityVO.class, EntityEvent.POST_PERSIST, (evt, o) -> updateCapacity((HostCapacityVO) o));
+        dbf.installEntityLifeCycleCallback(HostCapacityVO.class, EntityEvent.POST_UPDATE, (evt, o) -> updateCapacity((HostCapacityVO) o));
+        dbf.installEntityLifeCycleCallback(L2NetworkClusterRefVO.class, EntityEvent.POST_PERSIST, (evt, o) -> attachL2((L2NetworkClusterRefVO) o));
+        dbf.installEntityLifeCycleCallback(L2NetworkClusterRefVO.class, EntityEvent.POST_REMOVE, (evt, o) -> detachL2((L2NetworkClusterRefVO) o));
+        dbf.installEntityLifeCycleCallback(L3NetworkVO.class, EntityEvent.POST_PERSIST, (evt, o) -> {
+            String l3Uuid = ((L3NetworkVO) o).getUuid();
+            String l2Uuid = ((L3NetworkVO) o).getL2NetworkUuid();
+            apply(t -> t.l2ByL3.put(l3Uuid, l2Uuid));
+        });
+        dbf.installEntityLifeCycleCallback(L3NetworkVO.class, EntityEvent.POST_REMOVE, (evt, o) -> {
+            String l3Uuid = ((L3NetworkVO) o).getUuid();
+            apply(t -> t.l2ByL3.remove(l3Uuid));
+        });
+    }
+
+    private void subscribeEvents() {
+        EventCallback statusChanged = new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostStatusChangedData d = (HostCanonicalEvents.HostStatusChangedData) data;
+                updateHostStatus(d.getHostUuid(), HostStatus.valueOf(d.getNewStatus()));
+            }
+        };
+        evtf.on(HostCanonicalEvents.HOST_STATUS_CHANGED_PATH, statusChanged);
+        eventCallbacks.add(statusChanged);
+
+        EventCallback deleted = new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                HostCanonicalEvents.HostDeletedData d = (HostCanonicalEvents.HostDeletedData) data;
+                removeHost(d.getHostUuid());
+            }
+        };
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, deleted);
+        eventCallbacks.add(deleted);
+    }
+
+    private synchronized void startTracking() {
+        if (tracking) {
+            return;
+        }
+
+        tracking = true;
+        installCallbacks();
+        subscribeEvents();
+        try {
+            resync();
+        } catch (Throwable t) {
+            logger.warn("failed to load the host allocator index, the periodic resync will try again", t);
+        }
+
+        resyncTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.HOST_ALLOCATOR_INDEX_RESYNC_INTERVAL.value(Long.class);
+            }
+
+            @Override
+            public String getName() {
+                return "resync-host-allocator-index";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    resync();
+                } catch (Throwable t) {
+                    logger.warn("failed to resync the host allocator index", t);
+                }
+            }
+        });
+    }
+
+    private synchronized void stopTracking() {
+        if (!tracking) {
+            return;
+        }
+
+        tracking = false;
+        loaded = false;
+        if (resyncTask != null) {
+            resyncTask.cancel(true);
+            resyncTask = null;
+        }
+
+        eventCallbacks.forEach(evtf::off);
+        eventCallbacks.clear();
+        write(() -> topology = new Topology());
+    }
+
+    @Override
+    public boolean start() {
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.installUpdateExtension((oldConfig, newConfig) -> {
+            if (newConfig.value(Boolean.class)) {
+                startTracking();
+            } else {
+                stopTracking();
+            }
+        });
+
+        if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.value(Boolean.class)) {
+            startTracking();
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        stopTracking();
+        return true;
+    }
+}
@@ -31,6 +31,8 @@ import org.zstack.header.image.APIGetCandidateBackupStorageForCreatingImageReply
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.message.MessageReply;
+import org.zstack.header.network.l3.L3NetworkVO;
+import org.zstack.header.network.l3.L3NetworkVO_;
 import org.zstack.header.storage.backup.BackupStorageInventory;
 import org.zstack.header.storage.backup.BackupStorageState;
 import org.zstack.header.storage.backup.BackupStorageStatus;
@@ -312,12 +314,62 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         bus.reply(msg, new MessageReply());
     }
 
+    /**
+     * allocations only serialize within a partition. Partitions may still share hosts
+     * (e.g. a zone-wide allocation and a cluster one), that's fine because capacity is
+     * reserved under a row lock of HostCapacityVO and a lost race is retried, see
+     * sortAndReserve()
+     */
+    private String getAllocationSyncSignature(AllocateHostMsg msg) {
+        String partition = HostAllocatorGlobalConfig.HOST_ALLOCATOR_PARTITION.value();
+        if ("none".equals(partition)) {
+            return "host-allocator";
+        }
+
+        String zoneUuid = null;
+        String clusterUuid = null;
+        if (msg instanceof DesignatedAllocateHostMsg) {
+            DesignatedAllocateHostMsg dmsg = (DesignatedAllocateHostMsg) msg;
+            if (dmsg.getHostUuid() != null) {
+                Tuple t = Q.New(HostVO.class).select(HostVO_.zoneUuid, HostVO_.clusterUuid)
+                        .eq(HostVO_.uuid, dmsg.getHostUuid()).findTuple();
+                if (t != null) {
+                    zoneUuid = t.get(0, String.class);
+                    clusterUuid = t.get(1, String.class);
+                }
+            } else {
+                zoneUuid = dmsg.getZoneUuid();
+                clusterUuid = dmsg.getClusterUuid();
+            }
+
+            if (zoneUuid == null && clusterUuid != null) {
+                zoneUuid = Q.New(ClusterVO.class).eq(ClusterVO_.uuid, clusterUuid).select(ClusterVO_.zoneUuid).findValue();
+            }
+        }
+
+        if (zoneUuid == null && msg.getL3NetworkUuids() != null && !msg.getL3NetworkUuids().isEmpty()) {
+            // all L3 networks of a VM are in the same zone
+            zoneUuid = Q.New(L3NetworkVO.class).eq(L3NetworkVO_.uuid, msg.getL3NetworkUuids().get(0))
+                    .select(L3NetworkVO_.zoneUuid).findValue();
+        }
+
+        if ("cluster".equals(partition) && clusterUuid != null) {
+            return "host-allocator-cluster-" + clusterUuid;
+        } else if (zoneUuid != null) {
+            return "host-allocator-zone-" + zoneUuid;
+        } else {
+            return "host-allocator";
+        }
+    }
+
     private void handle(final AllocateHostMsg msg) {
+        final String syncSignature = getAllocationSyncSignature(msg);
+
         if (HostAllocatorGlobalConfig.HOST_ALLOCATOR_ALLOW_CONCURRENT.value(Boolean.class)) {
             thdf.chainSubmit(new ChainTask(msg) {
                 @Override
                 public String getSyncSignature() {
-                    return "host-allocator";
+                    return syncSignature;
                 }
 
                 @Override
@@ -352,7 +404,7 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         thdf.chainSubmit(new ChainTask(msg) {
             @Override
             public String getSyncSignature() {
-                return "host-allocator";
+                return syncSignature;
             }
 
             @Override
@@ -489,7 +541,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    sortors.sort(spec, (List<HostInventory>) data.get(allocatedHosts), new ReturnValueCompletion<HostInventory>(completion, msg) {
+                    int retryTimes = HostAllocatorGlobalConfig.HOST_ALLOCATOR_RESERVE_CONFLICT_RETRY_TIMES.value(Integer.class);
+                    sortAndReserve(spec, factory, sortors, (List<HostInventory>) data.get(allocatedHosts), retryTimes, new ReturnValueCompletion<HostInventory>(completion, msg) {
                         @Override
                         public void success(HostInventory returnValue) {
                             reply.setHost(returnValue);
@@ -538,6 +591,46 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         }
     }
 
+    /**
+     * candidates are chosen without holding any capacity lock, the reservation on
+     * HostCapacityVO is the only check that counts. If concurrent allocations have taken
+     * the capacity of every candidate, run the allocator chain again on the current capacity,
+     * other errors fail the allocation right away
+     */
+    private void sortAndReserve(HostAllocatorSpec spec, HostAllocatorStrategyFactory factory, HostSortorStrategy sortors,
+                                List<HostInventory> candidates, int retryTimes, ReturnValueCompletion<HostInventory> completion) {
+        sortors.sort(spec, candidates, new ReturnValueCompletion<HostInventory>(completion) {
+            @Override
+            public void success(HostInventory returnValue) {
+                completion.success(returnValue);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                if (retryTimes <= 0 || !errorCode.isError(HostAllocatorError.UNABLE_TO_RESERVE_CAPACITY)) {
+                    completion.fail(errorCode);
+                    return;
+                }
+
+                logger.debug(String.format("[Host Allocation]: failed to reserve capacity on all %s candidates for vm[uuid:%s]," +
+                        " they may be taken by concurrent allocations, allocate again. %s", candidates.size(),
+                        spec.getVmInstance().getUuid(), errorCode));
+
+                factory.getHostAllocatorStrategy().allocate(spec, new ReturnValueCompletion<List<HostInventory>>(completion) {
+                    @Override
+                    public void success(List<HostInventory> hosts) {
+                        sortAndReserve(spec, factory, factory.getHostSortorStrategy(), hosts, retryTimes - 1, completion);
+                    }
+
+                    @Override
+                    public void fail(ErrorCode err) {
+                        completion.fail(err);
+                    }
+                });
+            }
+        });
+    }
+
     private void handleApiMessage(APIMessage msg) {
         if (msg instanceof APIGetCpuMemoryCapacityMsg) {
             handle((APIGetCpuMemoryCapacityMsg) msg);
@@ -17,4 +17,10 @@ public interface HostCapacityReserveManager {
     ReservedHostCapacity getReservedHostCapacityByHosts(List<String> hostUuids);
 
     void reserveCapacity(String hostUuid, long requiredCpu, long requiredMemory);
+
+    /**
+     * @param requireEnabledAndConnected if true, throw UnableToReserveHostCapacityException when
+     *                                   the host is no longer Enabled and Connected in the database
+     */
+    void reserveCapacity(String hostUuid, long requiredCpu, long requiredMemory, boolean requireEnabledAndConnected);
 }
@@ -229,8 +229,17 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
 
     @Override
     public void reserveCapacity(final String hostUuid, final long requestCpu, final long requestMemory) {
+        reserveCapacity(hostUuid, requestCpu, requestMemory, false);
+    }
+
+    @Override
+    public void reserveCapacity(final String hostUuid, final long requestCpu, final long requestMemory, boolean requireEnabledAndConnected) {
         HostCapacityUpdater updater = new HostCapacityUpdater(hostUuid);
         HostVO host = dbf.findByUuid(hostUuid, HostVO.class);
+        if (requireEnabledAndConnected && (host == null || host.getState() != HostState.Enabled || host.getStatus() != HostStatus.Connected)) {
+            throw new UnableToReserveHostCapacityException(String.format("host[uuid:%s] is no longer Enabled and Connected", hostUuid));
+        }
+
         HostReservedCapacityExtensionPoint ext = exts.get(host.getHypervisorType());
 
         ReservedHostCapacity ret = new ReservedHostCapacity();
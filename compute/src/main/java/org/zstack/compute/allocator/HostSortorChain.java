@@ -25,7 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static org.zstack.core.Platform.operr;
+import static org.zstack.core.Platform.err;
 
 /**
  * Created by mingjian.deng on 2017/11/6.
@@ -39,6 +39,8 @@ public class HostSortorChain implements HostSortorStrategy {
     protected ErrorFacade errf;
     @Autowired
     private HostCapacityReserveManager reserveMgr;
+    @Autowired
+    private HostAllocatorIndex index;
 
     private HostAllocatorSpec allocationSpec;
 
@@ -124,7 +126,7 @@ public class HostSortorChain implements HostSortorStrategy {
                         } catch (UnableToReserveHostCapacityException e) {
                             logger.debug(String.format("[Host Allocation]: %s on host[uuid:%s]. try next one",
                                     e.getMessage(), host.getUuid()), e);
-                            trigger.fail(operr(
+                            trigger.fail(err(HostAllocatorError.UNABLE_TO_RESERVE_CAPACITY,
                                     "[Host Allocation]: %s on host[uuid:%s]. try next one. %s", e.getMessage(), host.getUuid(), e.getMessage()));
                         }
                     }
@@ -201,7 +203,8 @@ public class HostSortorChain implements HostSortorStrategy {
     }
 
     private void reserveCapacity(final HostInventory host) {
-        reserveMgr.reserveCapacity(host.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity());
+        // the index may lag behind, a host it offers may have been disabled or disconnected meanwhile
+        reserveMgr.reserveCapacity(host.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), index.isEnabled());
         logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] on host[uuid:%s] for vm[uuid:%s]",
                 allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), host.getUuid(),
                 allocationSpec.getVmInstance().getUuid()));
@@ -27,8 +27,14 @@ public class HostStateAndHypervisorAllocatorFlow extends AbstractHostAllocatorFl
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private HostAllocatorIndex index;
 
     private List<HostVO> allocate(String hypervisorType) {
+        if (index.isEnabled() && !usePagination()) {
+            return index.getEnabledAndConnectedHosts(hypervisorType);
+        }
+
         SimpleQuery<HostVO> query = dbf.createQuery(HostVO.class);
         query.add(HostVO_.state, Op.EQ, HostState.Enabled);
         query.add(HostVO_.status, Op.EQ, HostStatus.Connected);
@@ -26,6 +26,12 @@ public class HostGlobalConfig {
     public static GlobalConfig PING_HOST_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation(numberGreaterThan = 1)
     public static GlobalConfig PING_HOST_TIMEOUT = new GlobalConfig(CATEGORY, "ping.timeout");
+    @GlobalConfigValidation
+    public static GlobalConfig PING_IN_BATCH = new GlobalConfig(CATEGORY, "ping.batchMode");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PING_BATCH_SIZE = new GlobalConfig(CATEGORY, "ping.batchSize");
+    @GlobalConfigValidation(numberGreaterThan = -1)
+    public static GlobalConfig PING_BATCH_JITTER = new GlobalConfig(CATEGORY, "ping.batchJitter");
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig MAXIMUM_PING_FAILURE = new GlobalConfig(CATEGORY, "ping.maxFailure");
     @GlobalConfigValidation(numberGreaterThan = -1)
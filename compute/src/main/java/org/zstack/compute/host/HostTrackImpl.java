@@ -6,7 +6,9 @@ import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.db.SQLBatch;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.AsyncTimer;
+import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.Completion;
@@ -21,17 +23,22 @@ import org.zstack.header.message.MessageReply;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.management.MXBean;
 import javax.persistence.Tuple;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint {
+@MXBean
+public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener, Component, ManagementNodeReadyExtensionPoint, HostTrackerMXBean {
     private final static CLogger logger = Utils.getLogger(HostTrackImpl.class);
 
-    private Map<String, Tracker> trackers = new HashMap<>();
+    private Map<String, Tracker> trackers = new ConcurrentHashMap<>();
 
     @Autowired
     private DatabaseFacade dbf;
@@ -45,11 +52,60 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
     private PluginRegistry pluginRgty;
     @Autowired
     protected EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private static Map<String, HostReconnectTaskFactory> hostReconnectTaskFactories = new HashMap<>();
 
     private Map<String, AtomicInteger> hostDisconnectCount = new ConcurrentHashMap<>();
 
+    private Map<String, PingLatency> pingLatencies = new ConcurrentHashMap<>();
+
+    // trackers waiting for a ping slot in batch mode, at most ping.parallelismDegree pings are in flight
+    private final Queue<Tracker> pingQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inflightPings = new AtomicInteger(0);
+    private Future<Void> batchPingTask;
+
+    private static class PingLatency {
+        private static final int SAMPLE_NUM = 64;
+
+        private final long[] samples = new long[SAMPLE_NUM];
+        private int count;
+        private int pos;
+
+        synchronized void add(long latency) {
+            samples[pos] = latency;
+            pos = (pos + 1) % SAMPLE_NUM;
+            count = Math.min(count + 1, SAMPLE_NUM);
+        }
+
+        synchronized HostPingLatencyStatistics toStatistics(String hostUuid) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+
+            HostPingLatencyStatistics s = new HostPingLatencyStatistics();
+            s.setHostUuid(hostUuid);
+            s.setSampleCount(count);
+            s.setP50(percentile(sorted, 50));
+            s.setP90(percentile(sorted, 90));
+            s.setP99(percentile(sorted, 99));
+            return s;
+        }
+
+        private static long percentile(long[] sorted, int p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+
+            int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(idx, 0)];
+        }
+    }
+
+    private static boolean isBatchMode() {
+        return HostGlobalConfig.PING_IN_BATCH.value(Boolean.class);
+    }
+
     @Override
     public void managementNodeReady() {
         reScanHost();
@@ -85,6 +141,8 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         private String uuid;
         private String hypervisorType;
         private HostReconnectTask reconnectTask;
+        // in batch mode, whether the host can be picked up by the next round of pings
+        private volatile boolean idle = true;
 
         Tracker(String uuid) {
             super(TimeUnit.SECONDS, HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class));
@@ -99,6 +157,26 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             __name__ = String.format("host-tracker-%s-hypervisor-%s", uuid, hypervisorType);
         }
 
+        @Override
+        public void start() {
+            if (isBatchMode()) {
+                // pinged by the batch ping task
+                return;
+            }
+
+            super.start();
+        }
+
+        @Override
+        protected void continueToRunThisTimer() {
+            if (isBatchMode()) {
+                idle = true;
+                return;
+            }
+
+            super.continueToRunThisTimer();
+        }
+
         @Override
         protected void execute() {
             track();
@@ -114,19 +192,40 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
 
             HostState state = t.get(0, HostState.class);
+            if (skipPing(state)) {
+                continueToRunThisTimer();
+                return;
+            }
+
+            ping(null);
+        }
 
+        private boolean skipPing(HostState state) {
             if (state == HostState.PreMaintenance || state == HostState.Maintenance) {
                 logger.debug(String.format("host[uuid:%s] is in state of %s, not tracking it this time", uuid, state));
-                continueToRunThisTimer();
-                return;
+                return true;
             }
 
+            return false;
+        }
+
+        private void ping(Runnable onReply) {
+            long start = System.currentTimeMillis();
+
             PingHostMsg msg = new PingHostMsg();
             msg.setHostUuid(uuid);
             bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, uuid);
             bus.send(msg, new CloudBusCallBack(null) {
                 @Override
                 public void run(MessageReply reply) {
+                    // a reply coming after the tracker is cancelled must not bring back its latencies
+                    if (trackers.get(uuid) == Tracker.this) {
+                        pingLatencies.computeIfAbsent(uuid, k -> new PingLatency()).add(System.currentTimeMillis() - start);
+                    }
+                    if (onReply != null) {
+                        onReply.run();
+                    }
+
                     decideWhatToDoNext(makeReconnectDecision(reply));
                 }
 
@@ -225,10 +324,131 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
             super.cancel();
 
-            trackers.remove(uuid);
+            if (trackers.remove(uuid, this)) {
+                pingLatencies.remove(uuid);
+            }
         }
     }
 
+    private class BatchPingTask implements PeriodicTask {
+        @Override
+        public TimeUnit getTimeUnit() {
+            return TimeUnit.SECONDS;
+        }
+
+        @Override
+        public long getInterval() {
+            return HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class);
+        }
+
+        @Override
+        public String getName() {
+            return "batch-ping-hosts";
+        }
+
+        @Override
+        public void run() {
+            if (!isBatchMode()) {
+                return;
+            }
+
+            List<Tracker> toPing = trackers.values().stream().filter(t -> t.idle).collect(Collectors.toList());
+            toPing.forEach(t -> t.idle = false);
+
+            int batchSize = HostGlobalConfig.PING_BATCH_SIZE.value(Integer.class);
+            long jitter = TimeUnit.SECONDS.toMillis(HostGlobalConfig.PING_BATCH_JITTER.value(Long.class));
+            for (int i = 0; i < toPing.size(); i += batchSize) {
+                List<Tracker> batch = toPing.subList(i, Math.min(i + batchSize, toPing.size()));
+                long delay = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+                try {
+                    thdf.submitTimeoutTask(() -> pingBatch(batch), TimeUnit.MILLISECONDS, delay);
+                } catch (Throwable e) {
+                    logger.warn(String.format("unable to submit a batch of %s host pings, leave them to the next round", batch.size()), e);
+                    batch.forEach(t -> t.idle = true);
+                }
+            }
+        }
+    }
+
+    private void pingBatch(List<Tracker> batch) {
+        // trackers not handed to the ping queue must be released on failure, or they are never pinged again
+        Set<Tracker> queued = new HashSet<>();
+        try {
+            Map<String, Tracker> byUuid = new HashMap<>();
+            batch.forEach(t -> byUuid.put(t.uuid, t));
+
+            Map<String, HostState> states = new HashMap<>();
+            Q.New(HostVO.class).select(HostVO_.uuid, HostVO_.state)
+                    .in(HostVO_.uuid, byUuid.keySet()).listTuple().forEach(t -> states.put(t.get(0, String.class), t.get(1, HostState.class)));
+
+            byUuid.forEach((uuid, t) -> {
+                HostState state = states.get(uuid);
+                if (state == null) {
+                    logger.debug(String.format("host[uuid:%s] seems to be deleted, stop tracking it", uuid));
+                    t.cancel();
+                } else if (trackers.get(uuid) != t) {
+                    logger.trace(String.format("host[uuid:%s] is no longer tracked, skip pinging it", uuid));
+                } else if (t.skipPing(state)) {
+                    t.idle = true;
+                } else {
+                    pingQueue.offer(t);
+                    queued.add(t);
+                }
+            });
+        } catch (Throwable e) {
+            logger.warn(String.format("unable to ping a batch of %s hosts, leave them to the next round", batch.size()), e);
+            batch.stream().filter(t -> !queued.contains(t)).forEach(t -> t.idle = true);
+        }
+
+        dispatchPings();
+    }
+
+    private void dispatchPings() {
+        while (!pingQueue.isEmpty()) {
+            int n = inflightPings.get();
+            if (n >= HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class)) {
+                // a finishing ping will dispatch the queued ones
+                return;
+            }
+
+            if (!inflightPings.compareAndSet(n, n + 1)) {
+                continue;
+            }
+
+            Tracker t = pingQueue.poll();
+            if (t == null) {
+                inflightPings.decrementAndGet();
+                continue;
+            }
+
+            try {
+                t.ping(() -> {
+                    inflightPings.decrementAndGet();
+                    dispatchPings();
+                });
+            } catch (Throwable e) {
+                logger.warn(String.format("unable to ping host[uuid:%s]", t.uuid), e);
+                inflightPings.decrementAndGet();
+                t.continueToRunThisTimer();
+            }
+        }
+    }
+
+    private void startBatchPingTask() {
+        if (batchPingTask != null) {
+            batchPingTask.cancel(true);
+        }
+
+        batchPingTask = thdf.submitPeriodicTask(new BatchPingTask());
+    }
+
+    @Override
+    public List<HostPingLatencyStatistics> getPingLatencies() {
+        return pingLatencies.entrySet().stream()
+                .map(e -> e.getValue().toStatistics(e.getKey()))
+                .collect(Collectors.toList());
+    }
+
 
     public void trackHost(String hostUuid) {
         Tracker t = trackers.get(hostUuid);
@@ -249,6 +469,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             t.cancel();
         }
         trackers.remove(huuid);
+        pingLatencies.remove(huuid);
         logger.debug(String.format("stop tracking host[uuid:%s]", huuid));
     }
 
@@ -325,6 +546,13 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
         onHostStatusChange();
 
         HostGlobalConfig.PING_HOST_INTERVAL.installUpdateExtension((oldConfig, newConfig) -> {
+            logger.debug(String.format("%s change from %s to %s, restart host trackers",
+                    oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
+            startBatchPingTask();
+            reScanHost();
+        });
+
+        HostGlobalConfig.PING_IN_BATCH.installUpdateExtension((oldConfig, newConfig) -> {
             logger.debug(String.format("%s change from %s to %s, restart host trackers",
                     oldConfig.getCanonicalName(), oldConfig.value(), newConfig.value()));
             reScanHost();
@@ -338,6 +566,9 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
         });
 
+        startBatchPingTask();
+        jmxf.registerBean("HostTracker", this);
+
         return true;
     }
 
@@ -370,6 +601,10 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
     @Override
     public boolean stop() {
+        if (batchPingTask != null) {
+            batchPingTask.cancel(true);
+        }
+
         return true;
     }
 }
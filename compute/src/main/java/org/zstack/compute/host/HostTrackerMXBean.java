@@ -0,0 +1,9 @@
+package org.zstack.compute.host;
+
+import java.util.List;
+
+/**
+ */
+public interface HostTrackerMXBean {
+    List<HostPingLatencyStatistics> getPingLatencies();
+}
@@ -88,6 +88,31 @@ public interface CloudBus extends Component {
         throw new AbstractMethodError("not supported");
     }
 
+    /**
+     *  this method should be inherited by implementations supporting CloudBus.httpBatchTransport,
+     *  the body is a JSON array of messages
+     * @param e
+     * @param rsp
+     */
+    default void handleHttpBatchRequest(HttpEntity<String> e, HttpServletResponse rsp) {
+        throw new AbstractMethodError("not supported");
+    }
+
+    /**
+     * called by EventFacade when a canonical event path glob gets its first listener on this node,
+     * implementations routing events by subscriptions advertise it to other nodes
+     * @param glob
+     */
+    default void trackCanonicalEventPath(String glob) {
+    }
+
+    /**
+     * called by EventFacade when a canonical event path glob loses a listener on this node
+     * @param glob
+     */
+    default void untrackCanonicalEventPath(String glob) {
+    }
+
     String HEADER_NO_NEED_REPLY_MSG = "noReply";
     String HEADER_CORRELATION_ID = "correlationId";
     String HEADER_REPLY_TO = "replyTo";
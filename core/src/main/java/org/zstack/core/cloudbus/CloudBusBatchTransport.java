@@ -0,0 +1,233 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.*;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.retry.Retry;
+import org.zstack.core.retry.RetryCondition;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.header.message.Message;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * Pipelined transport used by CloudBusImpl3 when CloudBus.httpBatchTransport is on.
+ *
+ * Messages to the same management node are queued and shipped as one JSON array
+ * per HTTP POST over a pool of keep-alive connections. While a batch is in flight,
+ * new messages pile up in the queue and go out with the next batch, so batching
+ * adds no delay to a lightly loaded bus.
+ *
+ * With a linger time, a sender waits that long before draining the queue, so frames
+ * produced in a burst (e.g. events) are coalesced into fewer batches.
+ *
+ * Messages are serialized when queued, later changes of a sent message don't leak
+ * into the wire. A batch is resent only if the connection to the peer could not be
+ * established; once the request may have reached the peer it's never resent, as
+ * that would deliver its messages twice, the frames are failed instead.
+ */
+public class CloudBusBatchTransport {
+    private static final CLogger logger = Utils.getLogger(CloudBusBatchTransport.class);
+
+    private final ThreadFacade thdf;
+    private final long lingerMillis;
+    private final RestTemplate http;
+    private final Map<String, NodeChannel> channels = new ConcurrentHashMap<>();
+
+    private static class Frame {
+        final JsonElement body;
+        final String msgName;
+        final Consumer<ErrorCode> onFailure;
+
+        Frame(Message msg, Consumer<ErrorCode> onFailure) {
+            this.body = CloudBusGson.toJsonTree(msg);
+            this.msgName = msg.getClass().getName();
+            this.onFailure = onFailure;
+        }
+    }
+
+    private class NodeChannel {
+        final String url;
+        final Queue<Frame> frames = new ConcurrentLinkedQueue<>();
+        final AtomicInteger senders = new AtomicInteger(0);
+
+        NodeChannel(String url) {
+            this.url = url;
+        }
+
+        void offer(Frame frame) {
+            frames.offer(frame);
+            kick();
+        }
+
+        private void kick() {
+            while (!frames.isEmpty()) {
+                int n = senders.get();
+                if (n >= CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE) {
+                    // a running sender will pick up the frame
+                    return;
+                }
+
+                if (senders.compareAndSet(n, n + 1)) {
+                    if (lingerMillis > 0) {
+                        thdf.submitTimeoutTask(this::submitSender, TimeUnit.MILLISECONDS, lingerMillis);
+                    } else {
+                        submitSender();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void submitSender() {
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return String.format("cloudbus-batch-sender-%s", url);
+                }
+
+                @Override
+                public Void call() {
+                    drain();
+                    return null;
+                }
+            });
+        }
+
+        private List<Frame> poll() {
+            List<Frame> batch = new ArrayList<>();
+            Frame f;
+            while (batch.size() < CloudBusGlobalProperty.HTTP_BATCH_MAX_MESSAGES && (f = frames.poll()) != null) {
+                batch.add(f);
+            }
+            return batch;
+        }
+
+        private void drain() {
+            try {
+                List<Frame> batch;
+                while (!(batch = poll()).isEmpty()) {
+                    post(url, batch);
+                }
+            } finally {
+                senders.decrementAndGet();
+            }
+
+            // frames offered after our last poll but before the decrement
+            // found no free sender, pick them up
+            kick();
+        }
+    }
+
+    CloudBusBatchTransport(ThreadFacade thdf) {
+        this(thdf, 0);
+    }
+
+    CloudBusBatchTransport(ThreadFacade thdf, long lingerMillis) {
+        this(thdf, lingerMillis, createRestTemplate());
+    }
+
+    public CloudBusBatchTransport(ThreadFacade thdf, long lingerMillis, RestTemplate http) {
+        this.thdf = thdf;
+        this.lingerMillis = lingerMillis;
+        this.http = http;
+    }
+
+    private static RestTemplate createRestTemplate() {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        cm.setDefaultMaxPerRoute(CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE);
+        cm.setMaxTotal(CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE * 64);
+
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(
+                HttpClients.custom().setConnectionManager(cm).build());
+        factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
+        factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
+
+        RestTemplate http = new RestTemplate(factory);
+        http.getMessageConverters().add(0, new StringHttpMessageConverter(StandardCharsets.UTF_8));
+        return http;
+    }
+
+    public void send(String url, Message msg, Consumer<ErrorCode> onFailure) {
+        channels.computeIfAbsent(url, NodeChannel::new).offer(new Frame(msg, onFailure));
+    }
+
+    // the request never left this node, it's safe to send it again
+    private static boolean isConnectFailure(ResourceAccessException e) {
+        return e.getCause() instanceof ConnectException || e.getCause() instanceof ConnectTimeoutException;
+    }
+
+    private void post(String url, List<Frame> batch) {
+        JsonArray body = new JsonArray();
+        batch.forEach(f -> body.add(f.body));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> req = new HttpEntity<>(body.toString(), headers);
+
+        ErrorCode err = null;
+        try {
+            ResponseEntity<String> rsp = new Retry<ResponseEntity<String>>() {
+                @Override
+                @RetryCondition(onExceptions = {RetryException.class}, interval = 2)
+                protected ResponseEntity<String> call() {
+                    try {
+                        return http.exchange(url, HttpMethod.POST, req, String.class);
+                    } catch (ResourceAccessException e) {
+                        if (isConnectFailure(e)) {
+                            throw new RetryException(e.getMessage(), e);
+                        }
+
+                        throw e;
+                    }
+                }
+            }.run();
+
+            if (!rsp.getStatusCode().is2xxSuccessful()) {
+                err = operr("HTTP ERROR, status code: %s, body: %s", rsp.getStatusCode(), rsp.getBody());
+            }
+        } catch (OperationFailureException e) {
+            err = e.getErrorCode();
+        } catch (Throwable e) {
+            err = operr(e.getMessage());
+        }
+
+        if (err == null) {
+            return;
+        }
+
+        logger.warn(String.format("failed to send a batch of %s messages to %s, %s", batch.size(), url, err));
+        for (Frame f : batch) {
+            try {
+                f.onFailure.accept(err);
+            } catch (Throwable t) {
+                logger.warn(String.format("unhandled exception when failing message[%s]", f.msgName), t);
+            }
+        }
+    }
+}
@@ -51,4 +51,18 @@ public class CloudBusGlobalProperty {
     public static boolean HTTP_ALWAYS;
     @GlobalProperty(name="CloudBus.httpContextPath", defaultValue = "/zstack")
     public static String HTTP_CONTEXT_PATH;
+    @GlobalProperty(name="CloudBus.httpBatchTransport", defaultValue = "false")
+    public static boolean HTTP_BATCH_TRANSPORT;
+    @GlobalProperty(name="CloudBus.httpBatchMaxMessages", defaultValue = "256")
+    public static int HTTP_BATCH_MAX_MESSAGES;
+    @GlobalProperty(name="CloudBus.httpBatchConnectionsPerNode", defaultValue = "4")
+    public static int HTTP_BATCH_CONNECTIONS_PER_NODE;
+    @GlobalProperty(name="CloudBus.eventSubscriberAwareRouting", defaultValue = "false")
+    public static boolean EVENT_SUBSCRIBER_AWARE_ROUTING;
+    @GlobalProperty(name="CloudBus.eventSubscriptionAdvertiseInterval", defaultValue = "60")
+    public static int EVENT_SUBSCRIPTION_ADVERTISE_INTERVAL;
+    @GlobalProperty(name="CloudBus.eventSubscriptionAckTimeout", defaultValue = "10")
+    public static int EVENT_SUBSCRIPTION_ACK_TIMEOUT;
+    @GlobalProperty(name="CloudBus.eventCoalesceWindowInMillis", defaultValue = "0")
+    public static int EVENT_COALESCE_WINDOW_IN_MILLIS;
 }
@@ -128,6 +128,14 @@ public class CloudBusGson {
         return gson.fromJson(json, Message.class);
     }
 
+    public static Message fromJson(JsonElement json) {
+        return gson.fromJson(json, Message.class);
+    }
+
+    public static JsonElement toJsonTree(Message msg) {
+        return gson.toJsonTree(msg, Message.class);
+    }
+
     public static String toJson(Message msg) {
         return gson.toJson(msg, Message.class);
     }
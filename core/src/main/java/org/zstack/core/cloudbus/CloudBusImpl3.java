@@ -1,5 +1,8 @@
 package org.zstack.core.cloudbus;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import org.apache.logging.log4j.ThreadContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
@@ -50,6 +53,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.zstack.core.Platform.*;
 import static org.zstack.utils.BeanUtils.getProperty;
@@ -70,6 +75,8 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private PluginRegistry pluginRgty;
     @Autowired
     private DeadMessageManager deadMessageManager;
+    @Autowired
+    private EventSubscriptionRouter eventRouter;
 
     private final String NO_NEED_REPLY_MSG = "noReply";
     private final String CORRELATION_ID = "correlationId";
@@ -106,6 +113,10 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     private static TimeoutRestTemplate http = RESTFacade.createRestTemplate(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT, CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
 
     public static final String HTTP_BASE_URL = "/cloudbus";
+    public static final String HTTP_BATCH_URL = HTTP_BASE_URL + "/batch";
+
+    private volatile CloudBusBatchTransport batchTransport;
+    private volatile CloudBusBatchTransport eventTransport;
 
     {
         if (CloudBusGlobalProperty.MESSAGE_LOG != null) {
@@ -523,10 +534,25 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
             }
         }
 
+        private String makeUrl(String ip, String path) {
+            return CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
+                    ip, CloudBusGlobalProperty.HTTP_PORT, path) : String.format("http://%s:%s/%s/%s",
+                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, path);
+        }
+
         private void httpSend(String ip) {
-            String url = CloudBusGlobalProperty.HTTP_CONTEXT_PATH.isEmpty() ? String.format("http://%s:%s%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, HTTP_BASE_URL) : String.format("http://%s:%s/%s/%s",
-                    ip, CloudBusGlobalProperty.HTTP_PORT, CloudBusGlobalProperty.HTTP_CONTEXT_PATH, HTTP_BASE_URL);
+            // API messages report sending errors to the caller synchronously,
+            // so they stay on the plain HTTP path
+            if (CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT && !(msg instanceof APIMessage)) {
+                getBatchTransport().send(makeUrl(ip, HTTP_BATCH_URL), msg, this::replyErrorIfNeeded);
+                return;
+            }
+
+            plainHttpSend(ip);
+        }
+
+        private void plainHttpSend(String ip) {
+            String url = makeUrl(ip, HTTP_BASE_URL);
 
             HttpHeaders headers = new HttpHeaders();
             HttpEntity<String> req = new HttpEntity<>(CloudBusGson.toJson(msg), headers);
@@ -564,20 +590,35 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
 
         private void buildSchema(Message msg) {
             try {
-                msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(msg).build());
+                msg.putHeaderEntry(CloudBus.HEADER_SCHEMA, new JsonSchemaBuilder(msg, true).build());
             } catch (Exception e) {
                 throw new CloudRuntimeException(e);
             }
         }
 
         private void eventSend() {
-            buildSchema(msg);
-            localSend();
+            Event evt = (Event) msg;
+            List<String> ips = new ArrayList<>();
             destMaker.getAllNodeInfo().forEach(node -> {
-                if (!node.getNodeUuid().equals(Platform.getManagementServerId())) {
-                    httpSend(node.getNodeIP());
+                if (!node.getNodeUuid().equals(Platform.getManagementServerId())
+                        && eventRouter.isInterested(node.getNodeUuid(), evt)) {
+                    ips.add(node.getNodeIP());
                 }
             });
+
+            if (!ips.isEmpty()) {
+                buildSchema(msg);
+            }
+
+            localSend();
+
+            for (String ip : ips) {
+                if (CloudBusGlobalProperty.EVENT_COALESCE_WINDOW_IN_MILLIS > 0) {
+                    getEventTransport().send(makeUrl(ip, HTTP_BATCH_URL), msg, this::replyErrorIfNeeded);
+                } else {
+                    httpSend(ip);
+                }
+            }
         }
 
         private void localSend() {
@@ -591,6 +632,30 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
     }
 
 
+    private CloudBusBatchTransport getBatchTransport() {
+        if (batchTransport == null) {
+            synchronized (this) {
+                if (batchTransport == null) {
+                    batchTransport = new CloudBusBatchTransport(thdf);
+                }
+            }
+        }
+
+        return batchTransport;
+    }
+
+    private CloudBusBatchTransport getEventTransport() {
+        if (eventTransport == null) {
+            synchronized (this) {
+                if (eventTransport == null) {
+                    eventTransport = new CloudBusBatchTransport(thdf, CloudBusGlobalProperty.EVENT_COALESCE_WINDOW_IN_MILLIS);
+                }
+            }
+        }
+
+        return eventTransport;
+    }
+
     private void doPublish(Event evt) {
         evalThreadContextToMessage(evt);
 
@@ -771,8 +836,14 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         String key = Platform.getUuid();
 
         for (Event event : events) {
-            Map m = eventListeners.computeIfAbsent(event.getType().toString(), k->new ConcurrentHashMap<>());
+            String type = event.getType().toString();
+            Map m = eventListeners.computeIfAbsent(type, k->new ConcurrentHashMap<>());
             m.put(key, listener);
+
+            if (event instanceof CanonicalEvent && !(listener instanceof EventFacade)) {
+                eventRouter.disableCanonicalEventPathFiltering();
+            }
+            eventRouter.eventTypeSubscribed(type);
         }
 
         return new EventSubscriberReceipt() {
@@ -1167,13 +1238,30 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
         doSendAndCallExtensions(msg);
     }
 
-    private void restoreFromSchema(Message msg, Map raw) throws ClassNotFoundException {
+    private static final Map<String, Class> schemaClasses = new ConcurrentHashMap<>();
+    private static final Pattern INDEXED_PATH = Pattern.compile("(.*)\\[(\\d+)]");
+
+    private static JsonElement getJsonElement(JsonElement raw, String path) {
+        JsonElement e = raw;
+        for (String p : path.split("\\.")) {
+            Matcher m = INDEXED_PATH.matcher(p);
+            if (m.find()) {
+                e = e.getAsJsonObject().get(m.group(1)).getAsJsonArray().get(Integer.parseInt(m.group(2)));
+            } else {
+                e = e.getAsJsonObject().get(p);
+            }
+        }
+
+        return e;
+    }
+
+    private void restoreFromSchema(Message msg, JsonElement raw) throws ClassNotFoundException {
         Map<String, String> schema = msg.getHeaderEntry("schema");
         if (schema == null || schema.isEmpty()) {
             return;
         }
 
-        raw = (Map) raw.values().iterator().next();
+        raw = raw.getAsJsonObject().entrySet().iterator().next().getValue();
         List<String> paths = new ArrayList<>();
         paths.addAll(schema.keySet());
 
@@ -1185,29 +1273,71 @@ public class CloudBusImpl3 implements CloudBus, CloudBusIN {
                 continue;
             }
 
-            Class clz = Class.forName(type);
-            setProperty(msg, p, JSONObjectUtil.rehashObject(getProperty(raw, p), clz));
+            Class clz = schemaClasses.get(type);
+            if (clz == null) {
+                clz = Class.forName(type);
+                schemaClasses.put(type, clz);
+            }
+
+            setProperty(msg, p, JSONObjectUtil.toObject(getJsonElement(raw, p), clz));
         }
     }
 
+    private void deliverHttpMessage(JsonElement raw) {
+        Message msg = CloudBusGson.fromJson(raw);
+        try {
+            restoreFromSchema(msg, raw);
+        } catch (ClassNotFoundException e1) {
+            throw new CloudRuntimeException(e1);
+        }
+
+        new MessageSender(msg).localSend();
+    }
+
     @AsyncThread
     public void handleHttpRequest(HttpEntity<String> e, HttpServletResponse rsp) {
         try {
-            Message msg = CloudBusGson.fromJson(e.getBody());
-            Map raw = JSONObjectUtil.toObject(e.getBody(), LinkedHashMap.class);
-            try {
-                restoreFromSchema(msg, raw);
-            } catch (ClassNotFoundException e1) {
-                throw new CloudRuntimeException(e1);
-            }
-
-            new MessageSender(msg).localSend();
+            deliverHttpMessage(new JsonParser().parse(e.getBody()));
             rsp.setStatus(HttpStatus.OK.value());
         } catch (Throwable t) {
             logger.warn(String.format("unable to deliver a message received from HTTP. HTTP body: %s", e.getBody()), t);
         }
     }
 
+    @Override
+    @AsyncThread
+    public void handleHttpBatchRequest(HttpEntity<String> e, HttpServletResponse rsp) {
+        JsonArray batch;
+        try {
+            batch = new JsonParser().parse(e.getBody()).getAsJsonArray();
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to parse a message batch received from HTTP. HTTP body: %s", e.getBody()), t);
+            rsp.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        // messages of a batch are independent, one broken message must not drop the others
+        for (JsonElement raw : batch) {
+            try {
+                deliverHttpMessage(raw);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to deliver a message received from HTTP batch. message: %s", raw), t);
+            }
+        }
+
+        rsp.setStatus(HttpStatus.OK.value());
+    }
+
+    @Override
+    public void trackCanonicalEventPath(String glob) {
+        eventRouter.trackCanonicalEventPath(glob);
+    }
+
+    @Override
+    public void untrackCanonicalEventPath(String glob) {
+        eventRouter.untrackCanonicalEventPath(glob);
+    }
+
     @Override
     public int getEnvelopeSize() {
         return envelopes.size();
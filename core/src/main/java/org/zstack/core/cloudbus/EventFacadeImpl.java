@@ -168,22 +168,37 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        putGlobal(cb.uniqueIdentity, new CallbackWrapper(path, cb));
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        putGlobal(cb.uniqueIdentity, new CallbackWrapper(path, cb));
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        putGlobal(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+    }
+
+    private void putGlobal(String id, CallbackWrapper w) {
+        // track the path before the old one is released, so the glob is never missing
+        // from this node's subscriptions in between; a newly tracked glob is acknowledged
+        // by the peers before it returns, see EventSubscriptionRouter
+        bus.trackCanonicalEventPath(w.getGlob());
+
+        CallbackWrapper old = global.put(id, w);
+        if (old != null) {
+            bus.untrackCanonicalEventPath(old.getGlob());
+        }
     }
 
     @Override
     public void off(AbstractEventFacadeCallback cb) {
-        global.remove(cb.uniqueIdentity);
+        CallbackWrapper old = global.remove(cb.uniqueIdentity);
+        if (old != null) {
+            bus.untrackCanonicalEventPath(old.getGlob());
+        }
         local.remove(cb.uniqueIdentity);
     }
 
@@ -0,0 +1,49 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.Set;
+
+/**
+ * sent by a management node to each peer to tell which events it listens to,
+ * the reply acknowledges the peer has applied it, see EventSubscriptionRouter
+ */
+public class EventSubscriptionAdvertisementMsg extends NeedReplyMessage {
+    private String managementNodeUuid;
+    private long version;
+    private Set<String> eventTypes;
+    // null means the node wants all canonical events regardless of the path
+    private Set<String> canonicalEventPathGlobs;
+
+    public String getManagementNodeUuid() {
+        return managementNodeUuid;
+    }
+
+    public void setManagementNodeUuid(String managementNodeUuid) {
+        this.managementNodeUuid = managementNodeUuid;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public Set<String> getEventTypes() {
+        return eventTypes;
+    }
+
+    public void setEventTypes(Set<String> eventTypes) {
+        this.eventTypes = eventTypes;
+    }
+
+    public Set<String> getCanonicalEventPathGlobs() {
+        return canonicalEventPathGlobs;
+    }
+
+    public void setCanonicalEventPathGlobs(Set<String> canonicalEventPathGlobs) {
+        this.canonicalEventPathGlobs = canonicalEventPathGlobs;
+    }
+}
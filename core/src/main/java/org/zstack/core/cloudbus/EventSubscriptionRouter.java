@@ -0,0 +1,315 @@
+package org.zstack.core.cloudbus;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.AbstractService;
+import org.zstack.header.core.ExceptionSafe;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.managementnode.ManagementNodeInventory;
+import org.zstack.header.message.Event;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks which events every management node listens to, so CloudBusImpl3 only
+ * fans an event out to nodes that have a listener for it.
+ *
+ * Each node sends every peer an EventSubscriptionAdvertisementMsg carrying its subscribed
+ * event types and, for canonical events, the path globs registered through EventFacade.
+ * A peer replies after it has applied the advertisement. A new subscription waits for the
+ * replies of all peers before the subscriber returns, so an event a peer fires after that
+ * reaches this node. A peer that doesn't reply within CloudBus.eventSubscriptionAckTimeout
+ * may miss such events until it gets the next periodic advertisement, which is logged.
+ * Removed subscriptions are advertised by the periodic task, as over-delivering is harmless.
+ * A peer that hasn't advertised yet receives every event.
+ */
+public class EventSubscriptionRouter extends AbstractService implements ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(EventSubscriptionRouter.class);
+
+    public static final String SERVICE_ID = "eventSubscriptionRouter";
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private static class PeerSubscription {
+        final long version;
+        final Set<String> eventTypes;
+        // null means all canonical events
+        final List<Pattern> canonicalEventPaths;
+
+        PeerSubscription(EventSubscriptionAdvertisementMsg evt) {
+            version = evt.getVersion();
+            eventTypes = evt.getEventTypes() == null ? Collections.emptySet() : new HashSet<>(evt.getEventTypes());
+            canonicalEventPaths = evt.getCanonicalEventPathGlobs() == null ? null :
+                    evt.getCanonicalEventPathGlobs().stream().map(Pattern::compile).collect(Collectors.toList());
+        }
+
+        boolean isInterested(Event evt) {
+            if (!eventTypes.contains(evt.getType().toString())) {
+                return false;
+            }
+
+            if (!(evt instanceof CanonicalEvent) || canonicalEventPaths == null) {
+                return true;
+            }
+
+            String path = ((CanonicalEvent) evt).getPath();
+            for (Pattern p : canonicalEventPaths) {
+                if (p.matcher(path).matches()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private final Map<String, PeerSubscription> peers = new ConcurrentHashMap<>();
+
+    private final Set<String> localEventTypes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> localCanonicalEventPaths = new HashMap<>();
+    private volatile boolean canonicalEventPathFilteringDisabled = false;
+
+    // versions must keep growing across restarts of this node
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis() * 1000);
+    private volatile boolean started = false;
+    private Future<Void> advertiseTask;
+
+    boolean isEnabled() {
+        return CloudBusGlobalProperty.EVENT_SUBSCRIBER_AWARE_ROUTING;
+    }
+
+    boolean isInterested(String nodeUuid, Event evt) {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        PeerSubscription s = peers.get(nodeUuid);
+        return s == null || s.isInterested(evt);
+    }
+
+    void eventTypeSubscribed(String type) {
+        if (localEventTypes.add(type)) {
+            advertiseIfStarted();
+        }
+    }
+
+    /**
+     * called when a listener other than EventFacade subscribes canonical events,
+     * such a listener needs all paths
+     */
+    void disableCanonicalEventPathFiltering() {
+        if (!canonicalEventPathFilteringDisabled) {
+            canonicalEventPathFilteringDisabled = true;
+            advertiseIfStarted();
+        }
+    }
+
+    void trackCanonicalEventPath(String glob) {
+        boolean added;
+        synchronized (localCanonicalEventPaths) {
+            added = localCanonicalEventPaths.merge(glob, 1, Integer::sum) == 1;
+        }
+
+        if (added) {
+            advertiseIfStarted();
+        }
+    }
+
+    void untrackCanonicalEventPath(String glob) {
+        synchronized (localCanonicalEventPaths) {
+            localCanonicalEventPaths.computeIfPresent(glob, (k, v) -> v == 1 ? null : v - 1);
+        }
+    }
+
+    private void advertiseIfStarted() {
+        if (started) {
+            advertise(true);
+        }
+    }
+
+    /**
+     * @param waitForPeers wait till all peers acknowledge the advertisement
+     */
+    private synchronized void advertise(boolean waitForPeers) {
+        long ver = version.incrementAndGet();
+        Set<String> eventTypes = new HashSet<>(localEventTypes);
+        Set<String> globs = null;
+        if (!canonicalEventPathFilteringDisabled) {
+            synchronized (localCanonicalEventPaths) {
+                globs = new HashSet<>(localCanonicalEventPaths.keySet());
+            }
+        }
+
+        List<EventSubscriptionAdvertisementMsg> msgs = new ArrayList<>();
+        for (ResourceDestinationMaker.NodeInfo node : destMaker.getAllNodeInfo()) {
+            if (node.getNodeUuid().equals(Platform.getManagementServerId())) {
+                continue;
+            }
+
+            EventSubscriptionAdvertisementMsg msg = new EventSubscriptionAdvertisementMsg();
+            msg.setManagementNodeUuid(Platform.getManagementServerId());
+            msg.setVersion(ver);
+            msg.setEventTypes(eventTypes);
+            msg.setCanonicalEventPathGlobs(globs);
+            msg.setTimeout(TimeUnit.SECONDS.toMillis(CloudBusGlobalProperty.EVENT_SUBSCRIPTION_ACK_TIMEOUT));
+            bus.makeServiceIdByManagementNodeId(msg, SERVICE_ID, node.getNodeUuid());
+            msgs.add(msg);
+        }
+
+        if (msgs.isEmpty()) {
+            return;
+        }
+
+        if (!waitForPeers) {
+            bus.send(msgs, new CloudBusListCallBack(null) {
+                @Override
+                public void run(List<MessageReply> replies) {
+                    logUnacknowledged(msgs, replies);
+                }
+            });
+            return;
+        }
+
+        logUnacknowledged(msgs, bus.call(msgs));
+    }
+
+    private void logUnacknowledged(List<EventSubscriptionAdvertisementMsg> msgs, List<MessageReply> replies) {
+        for (int i = 0; i < replies.size(); i++) {
+            MessageReply r = replies.get(i);
+            if (!r.isSuccess()) {
+                logger.warn(String.format("management node[service id:%s] didn't acknowledge event subscriptions[version:%s]," +
+                        " it may not send us events subscribed since the last acknowledged version, %s",
+                        msgs.get(i).getServiceId(), msgs.get(i).getVersion(), r.getError()));
+            }
+        }
+    }
+
+    @AsyncThread
+    @ExceptionSafe
+    void advertiseInBackground() {
+        advertise(false);
+    }
+
+    private void handle(EventSubscriptionAdvertisementMsg msg) {
+        if (!Platform.getManagementServerId().equals(msg.getManagementNodeUuid())) {
+            peers.compute(msg.getManagementNodeUuid(), (k, old) -> {
+                if (old != null && old.version >= msg.getVersion()) {
+                    return old;
+                }
+
+                return new PeerSubscription(msg);
+            });
+        }
+
+        bus.reply(msg, new MessageReply());
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        if (msg instanceof EventSubscriptionAdvertisementMsg) {
+            handle((EventSubscriptionAdvertisementMsg) msg);
+        } else {
+            bus.dealWithUnknownMessage(msg);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return bus.makeLocalServiceId(SERVICE_ID);
+    }
+
+    @Override
+    public void nodeJoin(ManagementNodeInventory inv) {
+        peers.remove(inv.getUuid());
+
+        if (started) {
+            advertiseInBackground();
+        }
+    }
+
+    @Override
+    public void nodeLeft(ManagementNodeInventory inv) {
+        peers.remove(inv.getUuid());
+    }
+
+    @Override
+    public void iAmDead(ManagementNodeInventory inv) {
+        peers.clear();
+    }
+
+    @Override
+    public void iJoin(ManagementNodeInventory inv) {
+    }
+
+    @Override
+    public boolean start() {
+        if (!isEnabled()) {
+            return true;
+        }
+
+        bus.registerService(this);
+
+        started = true;
+        advertiseInBackground();
+
+        advertiseTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return CloudBusGlobalProperty.EVENT_SUBSCRIPTION_ADVERTISE_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "advertise-event-subscriptions";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    advertise(false);
+                } catch (Throwable t) {
+                    logger.warn("failed to advertise event subscriptions", t);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (!started) {
+            return true;
+        }
+
+        started = false;
+        if (advertiseTask != null) {
+            advertiseTask.cancel(true);
+        }
+        bus.unregisterService(this);
+        return true;
+    }
+}
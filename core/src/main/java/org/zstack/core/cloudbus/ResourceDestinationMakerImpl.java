@@ -8,10 +8,11 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.managementnode.ManagementNodeChangeListener;
 import org.zstack.header.managementnode.ManagementNodeInventory;
 import org.zstack.header.managementnode.ManagementNodeVO;
-import org.zstack.utils.hash.ApacheHash;
-import org.zstack.utils.hash.ConsistentHash;
+import org.zstack.utils.hash.ConsistentHashRing;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
 
 /**
  * Created with IntelliJ IDEA.
@@ -20,38 +21,46 @@ import java.util.*;
  * To change this template use File | Settings | File Templates.
  */
 public class ResourceDestinationMakerImpl implements ManagementNodeChangeListener, ResourceDestinationMaker {
-    private final ConsistentHash<String> nodeHash = new ConsistentHash<>(new ApacheHash(), 500, new ArrayList<String>()) ;
-    private final Map<String, NodeInfo> nodes = new HashMap<>();
+    // read on every message routed by resource uuid without locking, replaced as a whole on node changes
+    private volatile ConsistentHashRing nodeHash = new ConsistentHashRing(500);
+    private final Map<String, NodeInfo> nodes = new ConcurrentHashMap<>();
 
     @Autowired
     private DatabaseFacade dbf;
 
+    private synchronized void updateRing(UnaryOperator<ConsistentHashRing> updater) {
+        nodeHash = updater.apply(nodeHash);
+    }
+
     @Override
     public void nodeJoin(ManagementNodeInventory inv) {
-        nodeHash.add(inv.getUuid());
+        updateRing(ring -> ring.add(inv.getUuid()));
         nodes.put(inv.getUuid(), new NodeInfo(inv));
     }
 
     @Override
     public void nodeLeft(ManagementNodeInventory inv) {
         String nodeId = inv.getUuid();
-        nodeHash.remove(nodeId);
+        updateRing(ring -> ring.remove(nodeId));
         nodes.remove(nodeId);
     }
 
     @Override
     public void iAmDead(ManagementNodeInventory inv) {
         String nodeId = inv.getUuid();
-        nodeHash.remove(nodeId);
+        updateRing(ring -> ring.remove(nodeId));
         nodes.remove(nodeId);
     }
 
     @Override
     public void iJoin(ManagementNodeInventory inv) {
         List<ManagementNodeVO> lst = Q.New(ManagementNodeVO.class).list();
-        lst.forEach((ManagementNodeVO node) -> {
-            nodeHash.add(node.getUuid());
-            nodes.put(node.getUuid(), new NodeInfo(node));
+        lst.forEach((ManagementNodeVO node) -> nodes.put(node.getUuid(), new NodeInfo(node)));
+        updateRing(ring -> {
+            for (ManagementNodeVO node : lst) {
+                ring = ring.add(node.getUuid());
+            }
+            return ring;
         });
     }
 
@@ -85,7 +94,7 @@ public class ResourceDestinationMakerImpl implements ManagementNodeChangeListene
                 throw new ManagementNodeNotFoundException(nodeUuid);
             }
 
-            nodeHash.add(nodeUuid);
+            updateRing(ring -> ring.add(nodeUuid));
             info = nodes.put(nodeUuid, new NodeInfo(vo));
         }
 
@@ -79,6 +79,8 @@ public interface DatabaseFacade {
 
     DataSource getExtraDataSource();
 
+    DataSource getLockDataSource();
+
     Timestamp getCurrentSqlTime();
 
     String getDbVersion();
@@ -1,5 +1,6 @@
 package org.zstack.core.db;
 
+import com.mchange.v2.c3p0.ComboPooledDataSource;
 import com.mysql.jdbc.exceptions.jdbc4.MySQLIntegrityConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -29,6 +30,8 @@ import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.zstack.utils.CollectionDSL.list;
@@ -50,6 +53,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
 
     private DataSource dataSource = null;
     private DataSource extraDataSource = null;
+    private DataSource lockDataSource = null;
     private List<TransactionalCallback> transactionAsyncCallbacks = null;
     private List<TransactionalSyncCallback> transactionSyncCallbacks = null;
     private Map<Class, List<SoftDeleteEntityExtensionPoint>> softDeleteExtensions = new HashMap<Class, List<SoftDeleteEntityExtensionPoint>>();
@@ -67,7 +71,7 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         Field eoSoftDeleteColumn;
         Class eoClass;
         Class voClass;
-        Map<EntityEvent, EntityLifeCycleCallback> listeners = new HashMap<EntityEvent, EntityLifeCycleCallback>();
+        Map<EntityEvent, List<EntityLifeCycleCallback>> listeners = new ConcurrentHashMap<>();
 
         EntityInfo(Class voClazz) {
             voClass = voClazz;
@@ -437,13 +441,15 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         }
 
         void installLifeCycleCallback(EntityEvent evt, EntityLifeCycleCallback l) {
-            listeners.put(evt, l);
+            listeners.computeIfAbsent(evt, k -> new CopyOnWriteArrayList<>()).add(l);
         }
 
         void fireLifeCycleEvent(EntityEvent evt, Object o) {
-            EntityLifeCycleCallback cb = listeners.get(evt);
-            if (cb != null) {
-                cb.entityLifeCycleEvent(evt, o);
+            List<EntityLifeCycleCallback> cbs = listeners.get(evt);
+            if (cbs != null) {
+                for (EntityLifeCycleCallback cb : cbs) {
+                    cb.entityLifeCycleEvent(evt, o);
+                }
             }
         }
     }
@@ -458,6 +464,22 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
     void init() {
         buildEntityInfo();
         getDbVersionOnInit();
+        sizeLockPool();
+    }
+
+    // owner leases of GLock pin connections, leave room for locks taken meanwhile
+    private void sizeLockPool() {
+        if (!(lockDataSource instanceof ComboPooledDataSource)) {
+            return;
+        }
+
+        ComboPooledDataSource pool = (ComboPooledDataSource) lockDataSource;
+        int size = DatabaseGlobalProperty.GLockMaxOwnerLeases + DatabaseGlobalProperty.GLockPoolHeadroom;
+        if (pool.getMaxPoolSize() < size) {
+            logger.debug(String.format("raise the max pool size of the GLock data source from %s to %s for owner leases",
+                    pool.getMaxPoolSize(), size));
+            pool.setMaxPoolSize(size);
+        }
     }
 
     @Override
@@ -783,6 +805,15 @@ public class DatabaseFacadeImpl implements DatabaseFacade, Component {
         return extraDataSource;
     }
 
+    public void setLockDataSource(DataSource lockDataSource) {
+        this.lockDataSource = lockDataSource;
+    }
+
+    @Override
+    public DataSource getLockDataSource() {
+        return lockDataSource == null ? dataSource : lockDataSource;
+    }
+
     @Override
     public boolean start() {
         populateExtensions();
@@ -21,4 +21,13 @@ public class DatabaseGlobalProperty {
     public static String DbMaxIdleTime;
     @GlobalProperty(name="DB.glock.waitTimeout", defaultValue = "28800")
     public static Long GLockWaitTimeout;
+    @GlobalProperty(name="DB.glock.localForOwnedResource", defaultValue = "true")
+    public static boolean GLockLocalForOwnedResource;
+    @GlobalProperty(name="DB.glock.ownerLeaseLinger", defaultValue = "3")
+    public static long GLockOwnerLeaseLinger;
+    @GlobalProperty(name="DB.glock.maxOwnerLeases", defaultValue = "10")
+    public static int GLockMaxOwnerLeases;
+    // connections of the lock pool beyond those pinned by owner leases
+    @GlobalProperty(name="DB.glock.poolHeadroom", defaultValue = "20")
+    public static int GLockPoolHeadroom;
 }
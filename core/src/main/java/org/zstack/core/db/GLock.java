@@ -1,8 +1,13 @@
 package org.zstack.core.db;
 
+import com.mchange.v2.c3p0.ComboPooledDataSource;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
@@ -13,19 +18,81 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * A lock across management nodes, backed by mysql GET_LOCK on a connection held till unlock,
+ * with connections from the dedicated lock pool so holders of long critical sections don't
+ * drain the main pool.
+ *
+ * A GLock created with an owner resource uuid is mostly taken by the node managing the
+ * resource. On that node the mysql lock is kept as an owner lease after unlock, for
+ * DB.glock.ownerLeaseLinger seconds, and following acquisitions only take the memory lock
+ * while the lease is there. The lease still holds GET_LOCK, so the owner excludes other nodes
+ * taking the lock, including a node that also takes itself as the owner while the hash ring
+ * is changing; they wait at most the linger time after the owner is done.
+ *
+ * The lock pool is sized to DB.glock.maxOwnerLeases plus DB.glock.poolHeadroom connections.
+ * When it has no idle connection left, idle leases are released before checking one out,
+ * and a checkout that still times out fails the lock instead of waiting forever.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class GLock {
     private static final CLogger logger = Utils.getLogger(GLock.class);
 
-    private static final Map<String, ReentrantLock> memLocks = new HashMap<String, ReentrantLock>();
+    private static class MemoryLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int references;
+    }
+
+    private static final Map<String, MemoryLock> memLocks = new HashMap<String, MemoryLock>();
+
+    /**
+     * a mysql lock held by this node for the owner of a resource, only used by a thread
+     * holding the memory lock of the same name
+     */
+    private static class OwnerLease {
+        final Connection conn;
+        boolean inUse = true;
+        long idleSince;
+
+        OwnerLease(Connection conn) {
+            this.conn = conn;
+        }
+    }
+
+    private static final Map<String, OwnerLease> leases = new HashMap<>();
+    private static final AtomicBoolean leaseReaperStarted = new AtomicBoolean();
+
+    static class Statistics {
+        final LongAdder localAcquired = new LongAdder();
+        final LongAdder distributedAcquired = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder totalWaitMillis = new LongAdder();
+        final AtomicLong maxWaitMillis = new AtomicLong();
+        final Map<String, String> holders = new ConcurrentHashMap<>();
+
+        void acquired(String name, boolean local, long waitMillis) {
+            if (local) {
+                localAcquired.increment();
+            } else {
+                distributedAcquired.increment();
+            }
+
+            totalWaitMillis.add(waitMillis);
+            maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+            holders.put(name, String.format("thread[%s], %s, since %s", Thread.currentThread().getName(),
+                    local ? "local" : "distributed", new Date()));
+        }
+    }
+
+    static final Statistics statistics = new Statistics();
 
     private static long defaultWaitTimeout = DatabaseGlobalProperty.GLockWaitTimeout;
 
@@ -33,7 +100,10 @@ public class GLock {
     private Connection conn;
     private final String name;
     private final long timeout;
+    private final String ownerResourceUuid;
     private boolean success = false;
+    private boolean localOnly = false;
+    private OwnerLease lease;
     private static final ThreadLocal<List<String>> isLocked = new ThreadLocal<List<String>>() {
         @Override
         protected List<String> initialValue()
@@ -46,11 +116,22 @@ public class GLock {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
 
     public GLock(String name, long timeout) {
+        this(name, timeout, null);
+    }
+
+    /**
+     * @param ownerResourceUuid the resource the lock protects, the management node managing
+     *                          it keeps the mysql lock as an owner lease
+     */
+    public GLock(String name, long timeout, String ownerResourceUuid) {
         this.name = name;
         this.timeout = timeout;
-        dataSource = dbf.getDataSource();
+        this.ownerResourceUuid = ownerResourceUuid;
+        dataSource = dbf.getLockDataSource();
     }
 
     public boolean isAlsoUseMemoryLock() {
@@ -61,6 +142,11 @@ public class GLock {
         this.alsoUseMemoryLock = alsoUseMemoryLock;
     }
 
+    private boolean isOwnedByUs() {
+        return ownerResourceUuid != null && DatabaseGlobalProperty.GLockLocalForOwnedResource
+                && Platform.getComponentLoader().getComponent(ResourceDestinationMaker.class).isManagedByUs(ownerResourceUuid);
+    }
+
     private void checkInThread() {
         List<String> locks = isLocked.get();
         if (locks.contains(name)) {
@@ -75,28 +161,159 @@ public class GLock {
         locks.remove(name);
     }
 
-    public void lock() {
-        lock(defaultWaitTimeout);
+    static int getMemoryLockCount() {
+        synchronized (memLocks) {
+            return memLocks.size();
+        }
     }
 
-    public void lock(long waitTimeout) {
-        if (alsoUseMemoryLock) {
-            checkInThread();
+    static int getOwnerLeaseCount() {
+        synchronized (leases) {
+            return leases.size();
         }
+    }
 
-        ReentrantLock mlock = null;
-        if (alsoUseMemoryLock) {
-            synchronized (memLocks) {
-                mlock = memLocks.get(name);
-                if (mlock == null) {
-                    mlock = new ReentrantLock();
-                    memLocks.put(name, mlock);
+    // the memory lock must be held
+    private OwnerLease takeLease() {
+        synchronized (leases) {
+            OwnerLease l = leases.get(name);
+            if (l == null) {
+                return null;
+            }
+
+            try {
+                if (l.conn.isClosed()) {
+                    leases.remove(name);
+                    return null;
                 }
+            } catch (SQLException e) {
+                leases.remove(name);
+                return null;
+            }
+
+            DebugUtils.Assert(!l.inUse, String.format("owner lease of GLock[%s] is in use by another thread holding no memory lock", name));
+            l.inUse = true;
+            return l;
+        }
+    }
+
+    // the memory lock must be held
+    private OwnerLease createLease() {
+        synchronized (leases) {
+            if (leases.size() >= DatabaseGlobalProperty.GLockMaxOwnerLeases) {
+                return null;
+            }
+        }
+
+        // an idle lease never times out by wait_timeout, it's released by the reaper
+        lockInDatabase(0);
+        OwnerLease l = new OwnerLease(conn);
+        conn = null;
+        synchronized (leases) {
+            leases.put(name, l);
+        }
+
+        startLeaseReaper();
+        return l;
+    }
+
+    private static void returnLease(OwnerLease l) {
+        synchronized (leases) {
+            l.inUse = false;
+            l.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    private void startLeaseReaper() {
+        if (!leaseReaperStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return 1;
+            }
 
-                if (memLocks.size() > 100) {
-                    logger.warn(String.format("there are more than 100 GLocks[num:%s] are created, something must be wrong in our program", memLocks.size()));
+            @Override
+            public String getName() {
+                return "release-idle-glock-owner-leases";
+            }
+
+            @Override
+            public void run() {
+                releaseIdleLeases(TimeUnit.SECONDS.toMillis(DatabaseGlobalProperty.GLockOwnerLeaseLinger));
+            }
+        });
+    }
+
+    static void releaseIdleLeases(long idleMillis) {
+        Map<String, OwnerLease> idle = new HashMap<>();
+        long now = System.currentTimeMillis();
+        synchronized (leases) {
+            leases.entrySet().removeIf(e -> {
+                if (!e.getValue().inUse && now - e.getValue().idleSince >= idleMillis) {
+                    idle.put(e.getKey(), e.getValue());
+                    return true;
                 }
+
+                return false;
+            });
+        }
+
+        idle.forEach((name, l) -> {
+            try {
+                releaseInDatabase(name, l.conn);
+            } catch (Throwable t) {
+                logger.warn(String.format("failed to release the owner lease of GLock[%s]", name), t);
             }
+        });
+    }
+
+    private MemoryLock referenceMemoryLock() {
+        synchronized (memLocks) {
+            MemoryLock mlock = memLocks.computeIfAbsent(name, k -> new MemoryLock());
+            mlock.references ++;
+
+            if (memLocks.size() > 100) {
+                logger.warn(String.format("there are more than 100 GLocks[num:%s] are in use, something must be wrong in our program", memLocks.size()));
+            }
+
+            return mlock;
+        }
+    }
+
+    private void dereferenceMemoryLock(MemoryLock mlock) {
+        synchronized (memLocks) {
+            mlock.references --;
+            if (mlock.references == 0) {
+                memLocks.remove(name);
+            }
+        }
+    }
+
+    public void lock() {
+        lock(defaultWaitTimeout);
+    }
+
+    public void lock(long waitTimeout) {
+        localOnly = isOwnedByUs();
+        boolean useMemoryLock = alsoUseMemoryLock || localOnly;
+
+        if (useMemoryLock) {
+            checkInThread();
+        }
+
+        long startTime = System.currentTimeMillis();
+        MemoryLock mlock = null;
+        boolean memoryLocked = false;
+        if (useMemoryLock) {
+            mlock = referenceMemoryLock();
         }
 
         try {
@@ -104,45 +321,42 @@ public class GLock {
                 logger.trace(String.format("[GLock]: thread[%s] is acquiring lock[%s]", Thread.currentThread().getName(), name));
             }
 
-            if (alsoUseMemoryLock) {
-                mlock.lock();
+            if (useMemoryLock) {
+                if (localOnly) {
+                    if (!mlock.lock.tryLock(timeout, TimeUnit.SECONDS)) {
+                        throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+                    }
+                } else {
+                    mlock.lock.lock();
+                }
+                memoryLocked = true;
+
                 if (logger.isTraceEnabled()) {
                     logger.trace(String.format("[GLock Memory Lock]: thread[%s] got memory lock[%s]", Thread.currentThread().getName(), name));
                 }
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                conn = dataSource.getConnection();
-                conn.setAutoCommit(true);
-                pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
-                if (waitTimeout > 0) {
-                    pstmt.execute(String.format("set wait_timeout=%d", waitTimeout));
-                }
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    String err = "Unable to get DB lock: " + name + ", internal database error happened";
-                    throw new CloudRuntimeException(err);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
+            // whoever holds the memory lock may use a lease left by the owner, it holds the mysql lock
+            if (useMemoryLock) {
+                lease = takeLease();
+            }
+            if (lease == null && localOnly) {
+                lease = createLease();
+            }
+            if (lease == null) {
+                lockInDatabase(waitTimeout);
             }
+
             success = true;
+            statistics.acquired(name, localOnly, System.currentTimeMillis() - startTime);
         } catch (Throwable t) {
+            statistics.failed.increment();
+
+            if (lease != null) {
+                returnLease(lease);
+                lease = null;
+            }
+
             if (conn != null) {
                 try {
                     conn.close();
@@ -151,13 +365,17 @@ public class GLock {
                 }
             }
 
-            if (alsoUseMemoryLock) {
-                mlock.unlock();
+            if (memoryLocked) {
+                mlock.lock.unlock();
+            }
+
+            if (mlock != null) {
+                dereferenceMemoryLock(mlock);
             }
 
             success = false;
 
-            if (alsoUseMemoryLock) {
+            if (useMemoryLock) {
                 checkOutThread();
             }
 
@@ -169,6 +387,63 @@ public class GLock {
         }
     }
 
+    // give connections pinned by idle leases back if a checkout would block
+    private void releaseIdleLeasesIfPoolExhausted() {
+        if (!(dataSource instanceof ComboPooledDataSource) || getOwnerLeaseCount() == 0) {
+            return;
+        }
+
+        ComboPooledDataSource pool = (ComboPooledDataSource) dataSource;
+        try {
+            if (pool.getNumIdleConnectionsDefaultUser() == 0 && pool.getNumConnectionsDefaultUser() >= pool.getMaxPoolSize()) {
+                logger.debug(String.format("no idle connection in the GLock pool, release idle owner leases for lock[%s]", name));
+                releaseIdleLeases(0);
+            }
+        } catch (SQLException e) {
+            logger.warn("unable to get the state of the GLock pool", e);
+        }
+    }
+
+    private void lockInDatabase(long waitTimeout) {
+        releaseIdleLeasesIfPoolExhausted();
+
+        try {
+            conn = dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("lock[%s] failed, unable to get a connection from the GLock pool", name), e);
+        }
+
+        PreparedStatement pstmt = null;
+        try {
+            conn.setAutoCommit(true);
+            pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
+            if (waitTimeout > 0) {
+                pstmt.execute(String.format("set wait_timeout=%d", waitTimeout));
+            }
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null) {
+                String err = "Unable to get DB lock: " + name + ", internal database error happened";
+                throw new CloudRuntimeException(err);
+            } else if (rs.first() && rs.getInt(1) == 0) {
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
+        } finally {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                }
+            }
+        }
+    }
+
     public void unlock() {
         if (!success) {
             if (logger.isTraceEnabled()) {
@@ -179,15 +454,18 @@ public class GLock {
             return;
         }
 
-        ReentrantLock lock = null;
-        if (alsoUseMemoryLock) {
+        boolean useMemoryLock = alsoUseMemoryLock || localOnly;
+        MemoryLock lock = null;
+        if (useMemoryLock) {
             synchronized (memLocks) {
                 lock = memLocks.get(name);
             }
         }
 
+        statistics.holders.remove(name);
+
         try {
-            if (alsoUseMemoryLock) {
+            if (useMemoryLock) {
                 DebugUtils.Assert(lock != null, String.format("cannot find LockWrapper for GLock[%s], is unlock mistakenly called twice???", name));
             }
 
@@ -195,45 +473,21 @@ public class GLock {
                 logger.trace(String.format("[GLock]: thread[%s] is releasing lock[%s]", Thread.currentThread().getName(), name));
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                pstmt = conn.prepareStatement(String.format("select release_lock('%s')", name));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    throw new CloudRuntimeException("Mysql cannot find lock: " + name);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
-                    throw new CloudRuntimeException(err);
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException("Unable to release lock: " + name, e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
-
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
+            if (lease != null) {
+                returnLease(lease);
+                lease = null;
+            } else {
+                unlockInDatabase();
             }
         } finally {
-            if (alsoUseMemoryLock) {
+            if (useMemoryLock) {
                 if (lock != null) {
-                    lock.unlock();
+                    lock.lock.unlock();
+                    dereferenceMemoryLock(lock);
                 }
             }
 
-            if (alsoUseMemoryLock) {
+            if (useMemoryLock) {
                 checkOutThread();
             }
 
@@ -242,4 +496,42 @@ public class GLock {
             }
         }
     }
+
+    private void unlockInDatabase() {
+        releaseInDatabase(name, conn);
+    }
+
+    private static void releaseInDatabase(String name, Connection conn) {
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = conn.prepareStatement(String.format("select release_lock('%s')", name));
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null) {
+                throw new CloudRuntimeException("Mysql cannot find lock: " + name);
+            } else if (rs.first() && rs.getInt(1) == 0) {
+                String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
+                throw new CloudRuntimeException(err);
+            }
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to release lock: " + name, e);
+        } finally {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                }
+            }
+
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+    }
 }
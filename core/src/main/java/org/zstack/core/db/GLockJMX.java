@@ -0,0 +1,69 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+
+import javax.management.MXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * exposes acquisitions, wait time and current holders of GLocks in this management node
+ */
+@MXBean
+public class GLockJMX implements Component, GLockMXBean {
+    @Autowired
+    private JmxFacade jmxf;
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("GLock", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+
+    @Override
+    public long getLocalAcquiredCount() {
+        return GLock.statistics.localAcquired.sum();
+    }
+
+    @Override
+    public long getDistributedAcquiredCount() {
+        return GLock.statistics.distributedAcquired.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return GLock.statistics.failed.sum();
+    }
+
+    @Override
+    public long getTotalWaitMillis() {
+        return GLock.statistics.totalWaitMillis.sum();
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return GLock.statistics.maxWaitMillis.get();
+    }
+
+    @Override
+    public int getMemoryLockCount() {
+        return GLock.getMemoryLockCount();
+    }
+
+    @Override
+    public int getOwnerLeaseCount() {
+        return GLock.getOwnerLeaseCount();
+    }
+
+    @Override
+    public Map<String, String> getHolders() {
+        return new HashMap<>(GLock.statistics.holders);
+    }
+}
@@ -0,0 +1,21 @@
+package org.zstack.core.db;
+
+import java.util.Map;
+
+public interface GLockMXBean {
+    long getLocalAcquiredCount();
+
+    long getDistributedAcquiredCount();
+
+    long getFailedCount();
+
+    long getTotalWaitMillis();
+
+    long getMaxWaitMillis();
+
+    int getMemoryLockCount();
+
+    int getOwnerLeaseCount();
+
+    Map<String, String> getHolders();
+}
@@ -1,5 +1,6 @@
 package org.zstack.core.gc;
 
+import org.zstack.core.GlobalProperty;
 import org.zstack.core.GlobalPropertyDefinition;
 
 /**
@@ -7,4 +8,8 @@ import org.zstack.core.GlobalPropertyDefinition;
  */
 @GlobalPropertyDefinition
 public class GCGlobalProperty {
+    @GlobalProperty(name="gc.timeBased.concurrencyPerType", defaultValue = "10")
+    public static int TIME_BASED_GC_CONCURRENCY_PER_TYPE;
+    @GlobalProperty(name="gc.timeBased.maxBackoffInterval", defaultValue = "3600")
+    public static long TIME_BASED_GC_MAX_BACKOFF_INTERVAL;
 }
@@ -179,30 +179,59 @@ public abstract class GarbageCollector {
 
     @SyncThread(level = 50)
     void runTrigger() {
+        runTrigger(() -> {});
+    }
+
+    /**
+     * @param done called once the job succeeds, fails or is cancelled
+     */
+    void runTrigger(Runnable done) {
         GarbageCollector self = this;
+        AtomicBoolean completed = new AtomicBoolean(false);
+        Runnable doneOnce = () -> {
+            if (completed.compareAndSet(false, true)) {
+                done.run();
+            }
+        };
         EXECUTED_TIMES++;
 
         try {
             triggerNow(new GCCompletion(null) {
                 @Override
                 public void cancel() {
-                    self.cancel();
+                    try {
+                        self.cancel();
+                    } finally {
+                        doneOnce.run();
+                    }
                 }
 
                 @Override
                 public void success() {
-                    self.success();
+                    try {
+                        self.success();
+                    } finally {
+                        doneOnce.run();
+                    }
                 }
 
                 @Override
                 public void fail(ErrorCode errorCode) {
-                    self.fail(errorCode);
+                    try {
+                        self.fail(errorCode);
+                    } finally {
+                        doneOnce.run();
+                    }
                 }
             });
         } catch (Throwable t) {
             logger.warn(String.format("[GC] unhandled exception happened when" +
                     " running a GC job[name:%s, id:%s]", NAME, uuid), t);
-            fail(inerr(t.getMessage()));
+            try {
+                fail(inerr(t.getMessage()));
+            } finally {
+                doneOnce.run();
+            }
         }
     }
 }
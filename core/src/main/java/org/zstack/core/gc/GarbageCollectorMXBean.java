@@ -0,0 +1,13 @@
+package org.zstack.core.gc;
+
+import java.util.Map;
+
+public interface GarbageCollectorMXBean {
+    int getPendingTimeBasedJobCount();
+
+    Map<String, Integer> getPendingTimeBasedJobs();
+
+    Map<String, Integer> getRunningTimeBasedJobs();
+
+    long getDispatchedBatchCount();
+}
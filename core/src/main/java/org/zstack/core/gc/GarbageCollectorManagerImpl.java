@@ -1,6 +1,7 @@
 package org.zstack.core.gc;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.cloudbus.ResourceDestinationMaker;
@@ -9,12 +10,15 @@ import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.Q;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.ChainTask;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.SyncTaskChain;
 import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl;
 import org.zstack.header.AbstractService;
 import org.zstack.header.Component;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
@@ -25,18 +29,29 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import java.util.List;
+import javax.management.MXBean;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
 
 /**
  * Created by xing5 on 2017/3/1.
+ *
+ * Time based GC jobs are scheduled on the shared timeout scheduler of ThreadFacade rather than
+ * a thread each. Due jobs are queued by GC class, jobs of a class that become due together are
+ * run as one batch, at most TimeBasedGarbageCollector.getConcurrencyLimit() of them at a time.
  */
+@MXBean
 public class GarbageCollectorManagerImpl extends AbstractService
-        implements GarbageCollectorManager, Component, ManagementNodeReadyExtensionPoint {
+        implements GarbageCollectorManager, Component, ManagementNodeReadyExtensionPoint, GarbageCollectorMXBean {
     static final CLogger logger = Utils.getLogger(GarbageCollectorManagerImpl.class);
 
     @Autowired
@@ -49,11 +64,118 @@ public class GarbageCollectorManagerImpl extends AbstractService
     private DatabaseFacade dbf;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Future<Void> scanOrphanJobsTask;
 
     private ConcurrentHashMap<String, GarbageCollector> managedGarbageCollectors = new ConcurrentHashMap<>();
 
+    // uuid of scheduled time based job -> GC class
+    private final Map<String, String> pendingTimeBasedJobs = new ConcurrentHashMap<>();
+    private final Map<String, Queue<TimeBasedGarbageCollector>> dueTimeBasedJobs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicBoolean> dispatchingTypes = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> runningTimeBasedJobs = new ConcurrentHashMap<>();
+    private final LongAdder dispatchedBatchCount = new LongAdder();
+
+    void init() {
+        jmxf.registerBean("GarbageCollector", this);
+    }
+
+    ThreadFacadeImpl.TimeoutTaskReceipt schedule(TimeBasedGarbageCollector gc, long delayInMillis) {
+        String type = gc.getClass().getName();
+        pendingTimeBasedJobs.put(gc.uuid, type);
+        return thdf.submitTimeoutTask(() -> {
+            if (pendingTimeBasedJobs.remove(gc.uuid) == null) {
+                // cancelled
+                return;
+            }
+
+            dueTimeBasedJobs.computeIfAbsent(type, k -> new ConcurrentLinkedQueue<>()).add(gc);
+            dispatchDueJobs(type, gc.getConcurrencyLimit());
+        }, TimeUnit.MILLISECONDS, delayInMillis);
+    }
+
+    void unschedule(TimeBasedGarbageCollector gc) {
+        pendingTimeBasedJobs.remove(gc.uuid);
+    }
+
+    private void dispatchDueJobs(String type, int concurrencyLimit) {
+        AtomicBoolean dispatching = dispatchingTypes.computeIfAbsent(type, k -> new AtomicBoolean());
+        if (!dispatching.compareAndSet(false, true)) {
+            // the queued dispatch takes this job too
+            return;
+        }
+
+        thdf.chainSubmit(new ChainTask(null) {
+            @Override
+            public String getSyncSignature() {
+                return String.format("time-based-gc-%s", type);
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                dispatching.set(false);
+                Queue<TimeBasedGarbageCollector> queue = dueTimeBasedJobs.get(type);
+                List<TimeBasedGarbageCollector> batch = new ArrayList<>();
+                TimeBasedGarbageCollector gc;
+                while ((gc = queue.poll()) != null) {
+                    batch.add(gc);
+                }
+
+                if (batch.isEmpty()) {
+                    chain.next();
+                    return;
+                }
+
+                dispatchedBatchCount.increment();
+                logger.debug(String.format("[GC] run a batch of %s due jobs of %s", batch.size(), type));
+
+                AtomicInteger running = runningTimeBasedJobs.computeIfAbsent(type, k -> new AtomicInteger());
+                new While<>(batch).step((job, completion) -> {
+                    running.incrementAndGet();
+                    job.runTrigger(() -> {
+                        running.decrementAndGet();
+                        completion.done();
+                    });
+                }, Math.max(concurrencyLimit, 1)).run(new NoErrorCompletion(chain) {
+                    @Override
+                    public void done() {
+                        chain.next();
+                    }
+                });
+            }
+
+            @Override
+            public String getName() {
+                return getSyncSignature();
+            }
+        });
+    }
+
+    @Override
+    public int getPendingTimeBasedJobCount() {
+        return pendingTimeBasedJobs.size();
+    }
+
+    @Override
+    public Map<String, Integer> getPendingTimeBasedJobs() {
+        return pendingTimeBasedJobs.values().stream()
+                .collect(Collectors.groupingBy(it -> it, Collectors.summingInt(it -> 1)));
+    }
+
+    @Override
+    public Map<String, Integer> getRunningTimeBasedJobs() {
+        Map<String, Integer> ret = new HashMap<>();
+        runningTimeBasedJobs.forEach((type, count) -> ret.put(type, count.get()));
+        return ret;
+    }
+
+    @Override
+    public long getDispatchedBatchCount() {
+        return dispatchedBatchCount.sum();
+    }
+
     private void startScanOrphanJobs() {
         if (scanOrphanJobsTask != null) {
             scanOrphanJobsTask.cancel(true);
@@ -1,9 +1,8 @@
 package org.zstack.core.gc;
 
+import org.zstack.core.thread.ThreadFacadeImpl;
 import org.zstack.header.errorcode.ErrorCode;
 
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -15,39 +14,73 @@ public abstract class TimeBasedGarbageCollector extends GarbageCollector {
     @GC
     public volatile TimeUnit NEXT_TIME_UNIT;
 
-    private TimerTask currentTimer;
+    private ThreadFacadeImpl.TimeoutTaskReceipt currentTimer;
+    private volatile boolean cancelled;
+    // consecutive failures, the next run is delayed exponentially
+    volatile int failures;
 
     public TimeBasedGarbageCollector() {
         canceller = () -> {};
     }
 
-    protected void setupTimer() {
-        logger.debug(String.format("[GC] schedule a GC job[name:%s, id:%s] to run after %s %s",
-                NAME, uuid, NEXT_TIME, NEXT_TIME_UNIT));
+    /**
+     * at most this number of jobs of the same GC class run at the same time
+     */
+    protected int getConcurrencyLimit() {
+        return GCGlobalProperty.TIME_BASED_GC_CONCURRENCY_PER_TYPE;
+    }
 
-        currentTimer = new TimerTask() {
-            @Override
-            public void run() {
-                runTrigger();
-            }
-        };
+    long getNextDelayInMillis() {
+        long delay = NEXT_TIME_UNIT.toMillis(NEXT_TIME);
+        if (failures == 0) {
+            return delay;
+        }
 
-        new Timer().schedule(currentTimer, NEXT_TIME_UNIT.toMillis(NEXT_TIME));
+        long maxDelay = Math.max(delay, TimeUnit.SECONDS.toMillis(GCGlobalProperty.TIME_BASED_GC_MAX_BACKOFF_INTERVAL));
+        long backoff = delay << Math.min(failures, 20);
+        return backoff <= 0 ? maxDelay : Math.min(backoff, maxDelay);
     }
 
-    @Override
-    protected void cancel() {
+    protected void setupTimer() {
+        long delay = getNextDelayInMillis();
+        logger.debug(String.format("[GC] schedule a GC job[name:%s, id:%s] to run after %s ms",
+                NAME, uuid, delay));
+
+        currentTimer = gcMgr.schedule(this, delay);
+    }
+
+    /**
+     * drop the pending run without touching the job in database
+     */
+    protected void cancelTimer() {
         if (currentTimer != null)  {
             currentTimer.cancel();
         }
+        gcMgr.unschedule(this);
+    }
+
+    @Override
+    protected void cancel() {
+        cancelled = true;
+        cancelTimer();
 
         super.cancel();
     }
 
+    @Override
+    protected void success() {
+        failures = 0;
+        super.success();
+    }
+
     @Override
     protected void fail(ErrorCode err) {
+        failures ++;
         super.fail(err);
-        setupTimer();
+
+        if (!cancelled) {
+            setupTimer();
+        }
     }
 
     public void load(GarbageCollectorVO vo) {
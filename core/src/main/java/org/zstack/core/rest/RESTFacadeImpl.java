@@ -34,6 +34,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -223,7 +224,7 @@ public class RESTFacadeImpl implements RESTFacade {
         asyncJson(url, body, headers, HttpMethod.GET, callback, unit, timeout);
     }
 
-    private void asyncJson(final String url, final String body, Map<String, String> headers, HttpMethod method, final AsyncRESTCallback callback, final TimeUnit unit, final long timeout) {
+    private long beforeAsyncJson(final String url, final String body, final TimeUnit unit, final long timeout) {
         synchronized (interceptors) {
             for (BeforeAsyncJsonPostInterceptor ic : interceptors) {
                 ic.beforeAsyncJsonPost(url, body, unit, timeout);
@@ -241,8 +242,12 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         }
 
+        return stime;
+    }
+
+    private void asyncJson(final String url, final String body, Map<String, String> headers, HttpMethod method, final AsyncRESTCallback callback, final TimeUnit unit, final long timeout) {
+        final long stime = beforeAsyncJson(url, body, unit, timeout);
         final String taskUuid = Platform.getUuid();
-        final long finalStime = stime;
 
         HttpHeaders requestHeaders = new HttpHeaders();
         requestHeaders.setContentLength(body.length());
@@ -266,7 +271,108 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         };
 
-        AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
+        AsyncHttpWrapper wrapper = createAsyncHttpWrapper(taskUuid, url, body, callback, unit, timeout, stime, retry::stop);
+
+        try {
+            wrappers.put(taskUuid, wrapper);
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("json %s [%s], %s", method.toString(), url, req.toString()));
+            }
+
+            ResponseEntity<String> rsp;
+
+            try {
+                if (CoreGlobalProperty.UNIT_TEST_ON && !CoreGlobalProperty.SIMULATORS_ON) {
+                    rsp = template.exchange(url, HttpMethod.POST, req, String.class);
+                } else {
+                    rsp = retry.run();
+                }
+            } catch (HttpClientErrorException e) {
+                wrapper.fail(err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", e.getStatusCode(), e.getResponseBodyAsString()));
+                return;
+            }
+
+            if (rsp.getStatusCode() != org.springframework.http.HttpStatus.OK) {
+                String err = String.format("http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody());
+                logger.warn(err);
+                wrapper.fail(err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody()));
+            }
+        } catch (Throwable e) {
+            logger.warn(String.format("Unable to post to %s", url), e);
+            wrapper.fail(ExceptionDSL.isCausedBy(e, ResourceAccessException.class) ? err(SysErrors.IO_ERROR, e.getMessage()) : inerr(e.getMessage()));
+        }
+    }
+
+    @Override
+    public void asyncJsonPostBatch(final String url, List<AsyncJsonBatchItem> items) {
+        List<String> taskUuids = new ArrayList<>();
+        List<Map<String, Object>> commands = new ArrayList<>();
+        for (AsyncJsonBatchItem item : items) {
+            String taskUuid = Platform.getUuid();
+            taskUuids.add(taskUuid);
+
+            Map<String, Object> command = new LinkedHashMap<>();
+            command.put("path", UriComponentsBuilder.fromHttpUrl(item.getUrl()).build().getPath());
+            command.put("taskUuid", taskUuid);
+            command.put("headers", item.getHeaders());
+            command.put("body", item.getBody());
+            commands.add(command);
+        }
+
+        String body = JSONObjectUtil.toJsonString(commands);
+        HttpHeaders requestHeaders = new HttpHeaders();
+        requestHeaders.setContentLength(body.length());
+        requestHeaders.set(RESTConstant.CALLBACK_URL, callbackUrl);
+        requestHeaders.setContentType(MediaType.parseMediaType(RESTConstant.APP_JSON_UTF8));
+        HttpEntity<String> req = new HttpEntity<>(body, requestHeaders);
+
+        Retry<ResponseEntity<String>> retry = new Retry<ResponseEntity<String>>() {
+            @Override
+            @RetryCondition(onExceptions = {ResourceAccessException.class, RestClientException.class, HttpClientErrorException.class})
+            protected ResponseEntity<String> call() {
+                return template.exchange(url, HttpMethod.POST, req, String.class);
+            }
+        };
+
+        List<AsyncHttpWrapper> batchWrappers = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            AsyncJsonBatchItem item = items.get(i);
+            long stime = beforeAsyncJson(item.getUrl(), item.getBody(), item.getUnit(), item.getTimeout());
+            AsyncHttpWrapper wrapper = createAsyncHttpWrapper(taskUuids.get(i), item.getUrl(), item.getBody(), item.getCallback(),
+                    item.getUnit(), item.getTimeout(), stime, retry::stop);
+            wrappers.put(taskUuids.get(i), wrapper);
+            batchWrappers.add(wrapper);
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("json post a batch of %s commands [%s], %s", items.size(), url, req.toString()));
+        }
+
+        ErrorCode error = null;
+        try {
+            ResponseEntity<String> rsp = retry.run();
+            if (rsp.getStatusCode() != org.springframework.http.HttpStatus.OK) {
+                error = err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody());
+            }
+        } catch (HttpClientErrorException e) {
+            error = err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", e.getStatusCode(), e.getResponseBodyAsString());
+        } catch (Throwable e) {
+            logger.warn(String.format("Unable to post to %s", url), e);
+            error = ExceptionDSL.isCausedBy(e, ResourceAccessException.class) ? err(SysErrors.IO_ERROR, e.getMessage()) : inerr(e.getMessage());
+        }
+
+        if (error != null) {
+            logger.warn(String.format("failed to post a batch of %s commands to %s, %s", items.size(), url, error));
+            for (AsyncHttpWrapper wrapper : batchWrappers) {
+                wrapper.fail(error);
+            }
+        }
+    }
+
+    private AsyncHttpWrapper createAsyncHttpWrapper(final String taskUuid, final String url, final String body, final AsyncRESTCallback callback,
+                                                    final TimeUnit unit, final long timeout, final long stime, final Runnable stopRetry) {
+        return new AsyncHttpWrapper() {
             final AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
@@ -285,7 +391,7 @@ public class RESTFacadeImpl implements RESTFacade {
             }
 
             public void fail(ErrorCode err) {
-                retry.stop();
+                stopRetry.run();
                 if (!called.compareAndSet(false, true)) {
                     logger.warn(String.format("Failed callback many times, taskId=%s, currentTimeMillis=%s", taskUuid, System.currentTimeMillis()));
                     return;
@@ -309,7 +415,7 @@ public class RESTFacadeImpl implements RESTFacade {
 
                 if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
                     HttpCallStatistic stat = statistics.get(url);
-                    stat.addStatistic(System.currentTimeMillis() - finalStime);
+                    stat.addStatistic(System.currentTimeMillis() - stime);
                 }
 
                 wrappers.remove(taskUuid);
@@ -347,36 +453,6 @@ public class RESTFacadeImpl implements RESTFacade {
                 }
             }
         };
-
-        try {
-            wrappers.put(taskUuid, wrapper);
-
-            if (logger.isTraceEnabled()) {
-                logger.trace(String.format("json %s [%s], %s", method.toString(), url, req.toString()));
-            }
-
-            ResponseEntity<String> rsp;
-
-            try {
-                if (CoreGlobalProperty.UNIT_TEST_ON && !CoreGlobalProperty.SIMULATORS_ON) {
-                    rsp = template.exchange(url, HttpMethod.POST, req, String.class);
-                } else {
-                    rsp = retry.run();
-                }
-            } catch (HttpClientErrorException e) {
-                wrapper.fail(err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", e.getStatusCode(), e.getResponseBodyAsString()));
-                return;
-            }
-
-            if (rsp.getStatusCode() != org.springframework.http.HttpStatus.OK) {
-                String err = String.format("http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody());
-                logger.warn(err);
-                wrapper.fail(err(SysErrors.HTTP_ERROR, "http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody()));
-            }
-        } catch (Throwable e) {
-            logger.warn(String.format("Unable to post to %s", url), e);
-            wrapper.fail(ExceptionDSL.isCausedBy(e, ResourceAccessException.class) ? err(SysErrors.IO_ERROR, e.getMessage()) : inerr(e.getMessage()));
-        }
     }
 
     @Override
@@ -32,8 +32,11 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Autowired
     ThreadFacade _threadFacade;
 
-    private final HashMap<String, SyncTaskQueueWrapper> syncTasks = new HashMap<String, SyncTaskQueueWrapper>();
-    private final Map<String, ChainTaskQueueWrapper> chainTasks = Collections.synchronizedMap(new HashMap<>());
+    // queues are created and retired inside ConcurrentHashMap.compute(), which only locks
+    // the bin of the signature, so submitting/completing tasks of different signatures never
+    // contend on a map-wide lock
+    private final ConcurrentHashMap<String, SyncTaskQueueWrapper> syncTasks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChainTaskQueueWrapper> chainTasks = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> apiRunningSignature = new ConcurrentHashMap<>();
     private static final CLogger _logger = CLoggerImpl.getLogger(DispatchQueueImpl.class);
 
@@ -45,26 +48,24 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
         List<String> asyncTasks = new ArrayList<>();
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
-            for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
-                StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", e.getKey()));
-                ChainTaskQueueWrapper w = e.getValue();
-                tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
-                tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
-                tb.append(String.format("\nASYNC LEVEL: %s", w.maxThreadNum));
-
-                int index = 0;
-                for (Object obj : w.runningQueue) {
-                    ChainFuture cf = (ChainFuture) obj;
-                    tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
-                }
+        for (Map.Entry<String, ChainTaskQueueWrapper> e : chainTasks.entrySet()) {
+            StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", e.getKey()));
+            ChainTaskQueueWrapper w = e.getValue();
+            tb.append(String.format("\nRUNNING TASK NUMBER: %s", w.runningQueue.size()));
+            tb.append(String.format("\nPENDING TASK NUMBER: %s", w.pendingQueue.size()));
+            tb.append(String.format("\nASYNC LEVEL: %s", w.maxThreadNum));
 
-                for (Object obj : w.pendingQueue) {
-                    ChainFuture cf = (ChainFuture) obj;
-                    tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
-                }
-                asyncTasks.add(tb.toString());
+            int index = 0;
+            for (Object obj : w.runningQueue) {
+                ChainFuture cf = (ChainFuture) obj;
+                tb.append(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
             }
+
+            for (Object obj : w.pendingQueue) {
+                ChainFuture cf = (ChainFuture) obj;
+                tb.append(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
+            }
+            asyncTasks.add(tb.toString());
         }
 
         sb.append(StringUtils.join(asyncTasks, "\n"));
@@ -76,25 +77,23 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     @Override
     public ChainInfo getChainTaskInfo(String signature) {
         long now = System.currentTimeMillis();
-        synchronized (chainTasks) {
-            ChainInfo info = new ChainInfo();
-            ChainTaskQueueWrapper w = chainTasks.get(signature);
-            if (w == null) {
-                return info;
-            }
+        ChainInfo info = new ChainInfo();
+        ChainTaskQueueWrapper w = chainTasks.get(signature);
+        if (w == null) {
+            return info;
+        }
 
-            int index = 0;
-            for (Object obj : w.runningQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                info.addRunningTask(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
-            }
+        int index = 0;
+        for (Object obj : w.runningQueue) {
+            ChainFuture cf = (ChainFuture) obj;
+            info.addRunningTask(TaskInfoBuilder.buildRunningTaskInfo(cf, now, index++));
+        }
 
-            for (Object obj : w.pendingQueue) {
-                ChainFuture cf = (ChainFuture) obj;
-                info.addPendingTask(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
-            }
-            return info;
+        for (Object obj : w.pendingQueue) {
+            ChainFuture cf = (ChainFuture) obj;
+            info.addPendingTask(TaskInfoBuilder.buildPendingTaskInfo(cf, now, index++));
         }
+        return info;
     }
 
     @Override
@@ -153,8 +152,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private class SyncTaskQueueWrapper {
         ConcurrentLinkedQueue queue = new ConcurrentLinkedQueue();
         AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
-        String syncSignature;
+        volatile int maxThreadNum = -1;
+        volatile String syncSignature;
 
         void addTask(SyncTaskFuture task) {
             queue.offer(task);
@@ -166,6 +165,26 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             }
         }
 
+        /**
+         * called by a worker found the queue empty, the check runs in the signature's
+         * bin lock so it cannot race with doSyncSubmit() adding a task to this wrapper
+         *
+         * @return true if the worker should exit
+         */
+        boolean retireIfEmpty() {
+            boolean[] retired = new boolean[1];
+            syncTasks.compute(syncSignature, (k, w) -> {
+                if (!queue.isEmpty()) {
+                    return w;
+                }
+
+                retired[0] = true;
+                return counter.decrementAndGet() == 0 ? null : w;
+            });
+
+            return retired[0];
+        }
+
         void startThreadIfNeeded() {
             if (counter.get() >= maxThreadNum) {
                 return;
@@ -185,14 +204,8 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                             stask.run();
                         }
 
-                        synchronized (syncTasks) {
-                            if (queue.isEmpty()) {
-                                if (counter.decrementAndGet() == 0) {
-                                    syncTasks.remove(syncSignature);
-                                }
-
-                                break;
-                            }
+                        if (retireIfEmpty()) {
+                            break;
                         }
                     }
 
@@ -210,17 +223,15 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     private <T> Future<T> doSyncSubmit(final SyncTask<T> syncTask) {
         assert syncTask.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
 
-        SyncTaskFuture f;
-        synchronized (syncTasks) {
-            SyncTaskQueueWrapper wrapper = syncTasks.get(syncTask.getSyncSignature());
+        SyncTaskFuture f = new SyncTaskFuture(syncTask);
+        syncTasks.compute(syncTask.getSyncSignature(), (k, wrapper) -> {
             if (wrapper == null) {
                 wrapper = new SyncTaskQueueWrapper();
-                syncTasks.put(syncTask.getSyncSignature(), wrapper);
             }
-            f = new SyncTaskFuture(syncTask);
             wrapper.addTask(f);
             wrapper.startThreadIfNeeded();
-        }
+            return wrapper;
+        });
 
         return f;
     }
@@ -312,12 +323,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
     private class ChainTaskQueueWrapper {
-        LinkedList pendingQueue = new LinkedList();
+        final ConcurrentLinkedQueue pendingQueue = new ConcurrentLinkedQueue();
         final Map<String, AtomicInteger> subPendingMap = new ConcurrentHashMap<>();
-        final LinkedList runningQueue = new LinkedList();
+        final ConcurrentLinkedQueue runningQueue = new ConcurrentLinkedQueue();
         AtomicInteger counter = new AtomicInteger(0);
-        int maxThreadNum = -1;
-        String syncSignature;
+        volatile int maxThreadNum = -1;
+        volatile String syncSignature;
 
         int addSubPending(String deduplicateStr) {
             subPendingMap.compute(deduplicateStr, (k, v) -> {
@@ -387,6 +398,27 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             return true;
         }
 
+        /**
+         * called by a worker found the pending queue empty. Runs in the signature's bin lock
+         * so a task added by doChainSyncSubmit() concurrently is either returned here or
+         * sees the worker still counted
+         *
+         * @return the next task, or null if the worker has retired
+         */
+        ChainFuture pollOrRetire() {
+            ChainFuture[] next = new ChainFuture[1];
+            chainTasks.compute(syncSignature, (k, w) -> {
+                next[0] = (ChainFuture) pendingQueue.poll();
+                if (next[0] != null) {
+                    return w;
+                }
+
+                return counter.decrementAndGet() == 0 ? null : w;
+            });
+
+            return next[0];
+        }
+
         void startThreadIfNeeded() {
             if (counter.get() >= maxThreadNum) {
                 logger.debug(String.format("syncSignature: %s is arrived maxThreadNum: %s, it would be thrown!", syncSignature, maxThreadNum));
@@ -403,16 +435,11 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                 // start a new thread every time to avoid stack overflow
                 @AsyncThread
                 private void runQueue() {
-                    ChainFuture cf;
-                    synchronized (chainTasks) {
-                        // remove from pending queue and add to running queue later
-                        cf = (ChainFuture) pendingQueue.poll();
-
+                    // remove from pending queue and add to running queue later
+                    ChainFuture cf = (ChainFuture) pendingQueue.poll();
+                    if (cf == null) {
+                        cf = pollOrRetire();
                         if (cf == null) {
-                            if (counter.decrementAndGet() == 0) {
-                                chainTasks.remove(syncSignature);
-                            }
-
                             return;
                         }
                     }
@@ -424,8 +451,13 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
                         logger.debug(String.format("Start executing runningQueue: %s, task name: %s", syncSignature, cf.getTask().getName()));
                         runningQueue.offer(cf);
                         Optional.ofNullable(getApiId(cf))
-                                .ifPresent(apiId -> apiRunningSignature.computeIfAbsent(apiId,
-                                        k -> new HashSet<>()).add(syncSignature));
+                                .ifPresent(apiId -> apiRunningSignature.compute(apiId, (k, sigs) -> {
+                                    if (sigs == null) {
+                                        sigs = ConcurrentHashMap.newKeySet();
+                                    }
+                                    sigs.add(syncSignature);
+                                    return sigs;
+                                }));
                     }
 
                     if (cf.getTask().getDeduplicateString() != null) {
@@ -496,25 +528,33 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
         DebugUtils.Assert(task.getSyncLevel() >= 1, "getSyncLevel() must return 1 at least ");
 
-        synchronized (chainTasks) {
-            final String signature = task.getSyncSignature();
-            ChainTaskQueueWrapper wrapper = chainTasks.get(signature);
+        final String signature = task.getSyncSignature();
+        ChainFuture cf = new ChainFuture(task);
+        boolean[] succeed = new boolean[1];
+        chainTasks.compute(signature, (k, wrapper) -> {
             if (wrapper == null) {
                 wrapper = new ChainTaskQueueWrapper();
-                chainTasks.put(signature, wrapper);
             }
 
-            ChainFuture cf = new ChainFuture(task);
-            boolean succeed = wrapper.addTask(cf, task.getMaxPendingTasks());
-            if (!succeed) {
-                cf.cancel();
-                logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", task.getSyncSignature(), task.getName()));
-                task.exceedMaxPendingCallback();
-            } else {
+            succeed[0] = wrapper.addTask(cf, task.getMaxPendingTasks());
+            if (succeed[0]) {
                 wrapper.startThreadIfNeeded();
+            } else if (wrapper.counter.get() == 0 && wrapper.pendingQueue.isEmpty()) {
+                // the task is rejected by a newly created queue, don't leave it in the map
+                return null;
             }
-            return cf;
+
+            return wrapper;
+        });
+
+        if (!succeed[0]) {
+            // callbacks run out of the bin lock, they may submit tasks of the same signature
+            cf.cancel();
+            logger.debug(String.format("Pending queue[%s] exceed max size, task name: %s, start execute callback", task.getSyncSignature(), task.getName()));
+            task.exceedMaxPendingCallback();
         }
+
+        return cf;
     }
 
 
@@ -558,8 +598,6 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
 
     @Override
     public boolean isChainTaskRunning(String signature) {
-        synchronized (chainTasks) {
-            return chainTasks.containsKey(signature);
-        }
+        return chainTasks.containsKey(signature);
     }
 }
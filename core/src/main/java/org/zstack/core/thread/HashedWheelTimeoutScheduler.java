@@ -0,0 +1,259 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.logging.CLoggerImpl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel for one-shot timeout tasks.
+ *
+ * Scheduling and cancelling are O(1). A new timeout goes into a lock-free queue and the wheel
+ * thread moves it into its bucket on the next tick; a cancelled timeout is unlinked from its
+ * bucket on the next tick as well. The wheel thread only moves timeouts around, expired ones
+ * are handed to the dispatcher, so slow timeout tasks don't hold back other expiries.
+ */
+class HashedWheelTimeoutScheduler {
+    private static final CLogger logger = CLoggerImpl.getLogger(HashedWheelTimeoutScheduler.class);
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Consumer<Runnable> dispatcher;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean stopped;
+    private final long startTime = System.nanoTime();
+    // accessed by the wheel thread only
+    private long tick;
+
+    private final AtomicLong pendingNum = new AtomicLong();
+    private final AtomicLong expiredNum = new AtomicLong();
+    private final AtomicLong cancelledNum = new AtomicLong();
+    private final AtomicLong totalExpiryLagNanos = new AtomicLong();
+    private volatile long maxExpiryLagNanos;
+
+    class Timeout implements ThreadFacadeImpl.TimeoutTaskReceipt {
+        private final Runnable task;
+        // relative to startTime
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(INIT);
+
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+
+            pendingNum.decrementAndGet();
+            cancelledNum.incrementAndGet();
+            cancelledTimeouts.offer(this);
+            return true;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) {
+                return;
+            }
+
+            pendingNum.decrementAndGet();
+            expiredNum.incrementAndGet();
+
+            long lag = System.nanoTime() - startTime - deadline;
+            totalExpiryLagNanos.addAndGet(lag);
+            if (lag > maxExpiryLagNanos) {
+                maxExpiryLagNanos = lag;
+            }
+
+            dispatcher.accept(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+                }
+            });
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            if (t == head) {
+                head = t.next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        void expire(long deadline) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.state.get() != INIT) {
+                    remove(t);
+                } else if (t.remainingRounds <= 0 && t.deadline <= deadline) {
+                    remove(t);
+                    t.expire();
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+    }
+
+    HashedWheelTimeoutScheduler(long tickMillis, int wheelSize, Consumer<Runnable> dispatcher) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.dispatcher = dispatcher;
+
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+
+        worker = new Thread(this::run, "zs-timeout-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    ThreadFacadeImpl.TimeoutTaskReceipt schedule(Runnable task, TimeUnit unit, long delay) {
+        Timeout t = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0)));
+        pendingNum.incrementAndGet();
+        newTimeouts.offer(t);
+        return t;
+    }
+
+    void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    TimeoutTaskStatistic getStatistic() {
+        long expired = expiredNum.get();
+        return new TimeoutTaskStatistic(
+                pendingNum.get(),
+                expired,
+                cancelledNum.get(),
+                expired == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalExpiryLagNanos.get() / expired),
+                TimeUnit.NANOSECONDS.toMillis(maxExpiryLagNanos)
+        );
+    }
+
+    private void run() {
+        while (!stopped) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                continue;
+            }
+
+            try {
+                removeCancelledTimeouts();
+                transferNewTimeouts();
+                wheel[(int) (tick & mask)].expire(deadline);
+            } catch (Throwable t) {
+                logger.warn("unhandled exception in the timeout wheel", t);
+            }
+
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - current + 999999) / 1000000;
+            if (sleepMillis <= 0) {
+                return current;
+            }
+
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout t;
+        while ((t = cancelledTimeouts.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout t = newTimeouts.poll();
+            if (t == null) {
+                return;
+            }
+
+            if (t.state.get() != INIT) {
+                continue;
+            }
+
+            long calculated = t.deadline / tickNanos;
+            t.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private ScheduledThreadPoolExecutorExt _syncpool;  // for sync tasks
     private DispatchQueue dpq;
     private final TimerPool timerPool = new TimerPool(5);
+    private HashedWheelTimeoutScheduler timeoutWheel;
 
     @Autowired
     private JmxFacade jmxf;
@@ -42,13 +43,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         int poolSize;
         List<TimerWrapper> pool;
 
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
+        // getTimer() is called from many threads concurrently, the counter must be atomic.
+        // floorMod keeps the index positive after the counter overflows
+        final AtomicInteger counter = new AtomicInteger();
 
         private TimerPool(int poolSize) {
             this.poolSize = poolSize;
@@ -59,11 +56,7 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         }
 
         TimerWrapper getTimer() {
-            int index = ++counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
+            return pool.get(Math.floorMod(counter.incrementAndGet(), poolSize));
         }
 
         void stop() {
@@ -83,6 +76,15 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         return dpq.getChainTaskStatistics();
     }
 
+    @Override
+    public TimeoutTaskStatistic getTimeoutTaskStatistic() {
+        if (timeoutWheel == null) {
+            return new TimeoutTaskStatistic(0, 0, 0, 0, 0);
+        }
+
+        return timeoutWheel.getStatistic();
+    }
+
     @Override
     public ThreadPoolStatistic getThreadPoolStatistic() {
         long completedTask = _pool.getCompletedTaskCount();
@@ -136,6 +138,11 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
         dpq = new DispatchQueueImpl();
 
+        if (ThreadGlobalProperty.TIMEOUT_WHEEL) {
+            timeoutWheel = new HashedWheelTimeoutScheduler(ThreadGlobalProperty.TIMEOUT_WHEEL_TICK_IN_MILLIS,
+                    ThreadGlobalProperty.TIMEOUT_WHEEL_SIZE, _pool::execute);
+        }
+
         jmxf.registerBean("ThreadFacade", this);
     }
 
@@ -241,6 +248,10 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
+        if (timeoutWheel != null) {
+            return timeoutWheel.schedule(task, unit, delay);
+        }
+
         final TimerWrapper timer = timerPool.getTimer();
 
         class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
@@ -271,6 +282,10 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public Runnable submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
+        if (timeoutWheel != null) {
+            return timeoutWheel.schedule(task::run, unit, delay)::cancel;
+        }
+
         final TimerWrapper timer = timerPool.getTimer();
         java.util.TimerTask t = new java.util.TimerTask() {
             @Override
@@ -298,6 +313,9 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     public boolean stop() {
         _pool.shutdown();
         timerPool.stop();
+        if (timeoutWheel != null) {
+            timeoutWheel.stop();
+        }
         return true;
     }
 
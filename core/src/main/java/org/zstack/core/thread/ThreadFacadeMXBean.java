@@ -10,4 +10,6 @@ public interface ThreadFacadeMXBean {
     Map<String, ChainTaskStatistic> getChainTaskStatistics();
 
     ThreadPoolStatistic getThreadPoolStatistic();
+
+    TimeoutTaskStatistic getTimeoutTaskStatistic();
 }
@@ -9,4 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "150")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.timeoutWheel", defaultValue = "false")
+    public static boolean TIMEOUT_WHEEL;
+    @GlobalProperty(name="ThreadFacade.timeoutWheelTickInMillis", defaultValue = "10")
+    public static long TIMEOUT_WHEEL_TICK_IN_MILLIS;
+    @GlobalProperty(name="ThreadFacade.timeoutWheelSize", defaultValue = "4096")
+    public static int TIMEOUT_WHEEL_SIZE;
 }
@@ -0,0 +1,42 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TimeoutTaskStatistic {
+    private long pendingTaskNum;
+    private long expiredTaskNum;
+    private long cancelledTaskNum;
+    private long averageExpiryLagInMillis;
+    private long maxExpiryLagInMillis;
+
+    @ConstructorProperties({"pendingTaskNum", "expiredTaskNum", "cancelledTaskNum", "averageExpiryLagInMillis", "maxExpiryLagInMillis"})
+    public TimeoutTaskStatistic(long pendingTaskNum, long expiredTaskNum, long cancelledTaskNum, long averageExpiryLagInMillis, long maxExpiryLagInMillis) {
+        this.pendingTaskNum = pendingTaskNum;
+        this.expiredTaskNum = expiredTaskNum;
+        this.cancelledTaskNum = cancelledTaskNum;
+        this.averageExpiryLagInMillis = averageExpiryLagInMillis;
+        this.maxExpiryLagInMillis = maxExpiryLagInMillis;
+    }
+
+    public long getPendingTaskNum() {
+        return pendingTaskNum;
+    }
+
+    public long getExpiredTaskNum() {
+        return expiredTaskNum;
+    }
+
+    public long getCancelledTaskNum() {
+        return cancelledTaskNum;
+    }
+
+    public long getAverageExpiryLagInMillis() {
+        return averageExpiryLagInMillis;
+    }
+
+    public long getMaxExpiryLagInMillis() {
+        return maxExpiryLagInMillis;
+    }
+}
@@ -4,7 +4,8 @@ package org.zstack.header.allocator;
  */
 public enum HostAllocatorError {
     NO_AVAILABLE_HOST(1000),
-    NO_AVAILABLE_NIC(1001);
+    NO_AVAILABLE_NIC(1001),
+    UNABLE_TO_RESERVE_CAPACITY(1002);
 
     private String code;
 
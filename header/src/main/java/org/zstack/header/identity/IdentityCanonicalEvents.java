@@ -12,6 +12,8 @@ public class IdentityCanonicalEvents {
     public static final String USER_DELETED_PATH = "/user/delete";
     public static final String ACCOUNT_LOGIN_PATH = "/account/login";
     public static final String SESSION_FORCE_LOGOUT_PATH = "/session/logout";
+    public static final String SESSION_CHANGED_PATH = "/session/change";
+    public static final String POLICY_CHANGED_PATH = "/policy/change";
 
     public static final String SESSION_FORCE_LOGOUT = "SessionForceLogout";
 
@@ -147,4 +149,65 @@ public class IdentityCanonicalEvents {
             this.userUuid = userUuid;
         }
     }
+
+    /**
+     * fired when policies, policy attachments or user group memberships change.
+     * userUuid is null when the change may affect more than one user
+     */
+    @NeedJsonSchema
+    public static class PolicyChangedData {
+        private String userUuid;
+        private Date date = new Date();
+
+        public String getUserUuid() {
+            return userUuid;
+        }
+
+        public void setUserUuid(String userUuid) {
+            this.userUuid = userUuid;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+
+    /**
+     * a session renewed or removed on a management node, other nodes update their session cache
+     */
+    @NeedJsonSchema
+    public static class SessionChangedData {
+        private String nodeUuid;
+        private String sessionUuid;
+        // null if the session is removed
+        private Date expiredDate;
+
+        public String getNodeUuid() {
+            return nodeUuid;
+        }
+
+        public void setNodeUuid(String nodeUuid) {
+            this.nodeUuid = nodeUuid;
+        }
+
+        public String getSessionUuid() {
+            return sessionUuid;
+        }
+
+        public void setSessionUuid(String sessionUuid) {
+            this.sessionUuid = sessionUuid;
+        }
+
+        public Date getExpiredDate() {
+            return expiredDate;
+        }
+
+        public void setExpiredDate(Date expiredDate) {
+            this.expiredDate = expiredDate;
+        }
+    }
 }
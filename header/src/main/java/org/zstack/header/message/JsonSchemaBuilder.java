@@ -10,71 +10,141 @@ import org.zstack.utils.logging.CLogger;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by xing5 on 2016/12/12.
+ *
+ * Fields to walk of a class are worked out once and cached as a plan, fields of primitive types
+ * and of final JRE types like String can never hold an org.zstack object so they are not in the plan.
  */
 public class JsonSchemaBuilder {
     private static final CLogger logger = Utils.getLogger(JsonSchemaBuilder.class);
 
+    private enum ValueKind {
+        JRE,
+        ZSTACK,
+        OTHER
+    }
+
+    private static class FieldPlan {
+        final Field field;
+        // generic type of a collection or map field, null if it's not an org.zstack class
+        final Class elementType;
+
+        FieldPlan(Field field, Class elementType) {
+            this.field = field;
+            this.elementType = elementType;
+        }
+    }
+
+    private static final Map<Class, List<FieldPlan>> plans = new ConcurrentHashMap<>();
+    private static final Map<Class, ValueKind> valueKinds = new ConcurrentHashMap<>();
+
     Object object;
 
+    private boolean onlyPolymorphic;
+
     private LinkedHashMap<String, String> schema = new LinkedHashMap<>();
 
     public JsonSchemaBuilder(Object object) {
         this.object = object;
     }
 
-    private boolean isSkip(Field f) {
-        return f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
-                || f.isAnnotationPresent(GsonTransient.class);
+    /**
+     * @param onlyPolymorphic only record objects whose classes differ from the declared types,
+     *                        for a receiver deserializing the object by its class, which gets
+     *                        other objects right by itself
+     */
+    public JsonSchemaBuilder(Object object, boolean onlyPolymorphic) {
+        this.object = object;
+        this.onlyPolymorphic = onlyPolymorphic;
     }
 
-    private void build(Object o, Stack<String> paths) throws IllegalAccessException {
-        List<Field> fields = FieldUtils.getAllFields(o.getClass());
+    private static boolean isSkip(Field f) {
+        if (f.isAnnotationPresent(NoJsonSchema.class) || Modifier.isStatic(f.getModifiers())
+                || f.isAnnotationPresent(GsonTransient.class)) {
+            return true;
+        }
 
-        for (Field f : fields) {
-            try {
-                if (isSkip(f)) {
-                    continue;
-                }
+        Class type = f.getType();
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
 
-                f.setAccessible(true);
+        return type.isPrimitive() || (Modifier.isFinal(type.getModifiers()) && type.getName().startsWith("java."));
+    }
+
+    private static List<FieldPlan> getPlan(Class clz) {
+        List<FieldPlan> plan = plans.get(clz);
+        if (plan != null) {
+            return plan;
+        }
+
+        plan = new ArrayList<>();
+        for (Field f : FieldUtils.getAllFields(clz)) {
+            if (isSkip(f)) {
+                continue;
+            }
+
+            f.setAccessible(true);
+            Class elementType = null;
+            if (Collection.class.isAssignableFrom(f.getType()) || Map.class.isAssignableFrom(f.getType())) {
+                Class gtype = FieldUtils.getGenericType(f);
+                elementType = gtype != null && !gtype.getName().startsWith("java.") ? gtype : null;
+            }
+
+            plan.add(new FieldPlan(f, elementType));
+        }
+
+        plans.put(clz, plan);
+        return plan;
+    }
+
+    private static ValueKind getValueKind(Class clz) {
+        return valueKinds.computeIfAbsent(clz, k -> {
+            String canonicalName = k.getCanonicalName();
+            if (canonicalName == null) {
+                return ValueKind.OTHER;
+            } else if (canonicalName.startsWith("java.")) {
+                return ValueKind.JRE;
+            } else if (canonicalName.startsWith("org.zstack")) {
+                return ValueKind.ZSTACK;
+            } else {
+                return ValueKind.OTHER;
+            }
+        });
+    }
+
+    private void build(Object o, Class declaredType, Stack<String> paths) throws IllegalAccessException {
+        for (FieldPlan fp : getPlan(o.getClass())) {
+            Field f = fp.field;
+            try {
                 Object value = f.get(o);
                 if (value == null) {
                     // null value
                     continue;
                 }
 
-                final String valueClassCanonicalName = value.getClass().getCanonicalName();
-                if (valueClassCanonicalName == null) {
-                    continue;
-                }
-
-                if (valueClassCanonicalName.startsWith("java.")) {
+                ValueKind kind = getValueKind(value.getClass());
+                if (kind == ValueKind.JRE) {
                     // for JRE classes, only deal with Collection and Map
                     if (value instanceof Collection) {
-                        Collection c = (Collection) value;
-
-                        Class gtype = FieldUtils.getGenericType(f);
-
-                        if (gtype != null && !gtype.getName().startsWith("java.")) {
+                        if (fp.elementType != null) {
                             int i = 0;
-                            for (Object co : c) {
+                            for (Object co : (Collection) value) {
                                 paths.push(String.format("%s[%s]", f.getName(), i++));
-                                build(co, paths);
+                                build(co, fp.elementType, paths);
                                 paths.pop();
                             }
                         }
 
                     } else if (value instanceof Map) {
-                        Class gtype = FieldUtils.getGenericType(f);
-
-                        if (gtype != null && !gtype.getName().startsWith("java.")) {
+                        if (fp.elementType != null) {
                             for (Object me : ((Map) value).entrySet()) {
                                 Map.Entry e = (Map.Entry) me;
                                 paths.push(String.format("%s.%s", f.getName(), e.getKey().toString()));
-                                build(e.getValue(), paths);
+                                build(e.getValue(), fp.elementType, paths);
                                 paths.pop();
                             }
                         }
@@ -82,9 +152,9 @@ public class JsonSchemaBuilder {
 
                     // don't record standard JRE classes
 
-                } else if (valueClassCanonicalName.startsWith("org.zstack")) {
+                } else if (kind == ValueKind.ZSTACK) {
                     paths.push(f.getName());
-                    build(value, paths);
+                    build(value, f.getType(), paths);
                     paths.pop();
                 }
             } catch (StackOverflowError e) {
@@ -93,7 +163,7 @@ public class JsonSchemaBuilder {
             }
         }
 
-        if (!paths.isEmpty()) {
+        if (!paths.isEmpty() && (!onlyPolymorphic || o.getClass() != declaredType)) {
             schema.put(StringUtils.join(paths, "."), o.getClass().getName());
         }
     }
@@ -124,10 +194,10 @@ public class JsonSchemaBuilder {
                         for (Object it : c) {
                             Stack<String> path = new Stack<>();
                             path.add(String.format("%s[%s]", e.getKey(), i++));
-                            build(it, path);
+                            build(it, null, path);
                         }
                     } else {
-                        build(e.getValue(), new Stack<String>() {
+                        build(e.getValue(), null, new Stack<String>() {
                             {
                                 add(e.getKey().toString());
                             }
@@ -135,7 +205,7 @@ public class JsonSchemaBuilder {
                     }
                 }
             } else {
-                build(object, new Stack<>());
+                build(object, object.getClass(), new Stack<>());
             }
 
             List<String> keys = new ArrayList<>(schema.keySet());
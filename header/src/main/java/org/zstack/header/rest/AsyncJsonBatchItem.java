@@ -0,0 +1,49 @@
+package org.zstack.header.rest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a command of RESTFacade.asyncJsonPostBatch()
+ */
+public class AsyncJsonBatchItem {
+    private String url;
+    private String body;
+    private Map<String, String> headers;
+    private AsyncRESTCallback callback;
+    private TimeUnit unit;
+    private long timeout;
+
+    public AsyncJsonBatchItem(String url, String body, Map<String, String> headers, AsyncRESTCallback callback, TimeUnit unit, long timeout) {
+        this.url = url;
+        this.body = body;
+        this.headers = headers;
+        this.callback = callback;
+        this.unit = unit;
+        this.timeout = timeout;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public AsyncRESTCallback getCallback() {
+        return callback;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+}
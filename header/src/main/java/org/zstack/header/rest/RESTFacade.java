@@ -11,6 +11,7 @@ import org.zstack.header.core.Completion;
 import javax.net.ssl.SSLContext;
 import javax.servlet.http.HttpServletRequest;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -28,6 +29,13 @@ public interface RESTFacade {
     void asyncJsonPost(String url, Object body, AsyncRESTCallback callback);
 
     void asyncJsonPost(String url, String body, AsyncRESTCallback callback);
+
+    /**
+     * post many async commands to the same agent in one request, each command
+     * gets its own taskUuid and is answered through the callback url like a single async post
+     */
+    void asyncJsonPostBatch(String url, List<AsyncJsonBatchItem> items);
+
     void asyncJsonDelete(String url, String body, Map<String, String> headers, AsyncRESTCallback callback, TimeUnit unit, long timeout);
     void asyncJsonGet(String url, String body, Map<String, String> headers, AsyncRESTCallback callback, TimeUnit unit, long timeout);
 
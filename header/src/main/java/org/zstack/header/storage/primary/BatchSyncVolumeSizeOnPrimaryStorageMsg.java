@@ -0,0 +1,33 @@
+package org.zstack.header.storage.primary;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * get sizes of many volumes on the primary storage at once,
+ * primary storages not able to do it in batch fall back to SyncVolumeSizeOnPrimaryStorageMsg
+ */
+public class BatchSyncVolumeSizeOnPrimaryStorageMsg extends NeedReplyMessage implements PrimaryStorageMessage {
+    private String primaryStorageUuid;
+    // volume uuid -> install path
+    private Map<String, String> volumeInstallPaths = new HashMap<>();
+
+    @Override
+    public String getPrimaryStorageUuid() {
+        return primaryStorageUuid;
+    }
+
+    public void setPrimaryStorageUuid(String primaryStorageUuid) {
+        this.primaryStorageUuid = primaryStorageUuid;
+    }
+
+    public Map<String, String> getVolumeInstallPaths() {
+        return volumeInstallPaths;
+    }
+
+    public void setVolumeInstallPaths(Map<String, String> volumeInstallPaths) {
+        this.volumeInstallPaths = volumeInstallPaths;
+    }
+}
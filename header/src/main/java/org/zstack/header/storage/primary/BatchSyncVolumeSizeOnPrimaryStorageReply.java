@@ -0,0 +1,31 @@
+package org.zstack.header.storage.primary;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * volumes failed to get sizes are not in the maps
+ */
+public class BatchSyncVolumeSizeOnPrimaryStorageReply extends MessageReply {
+    // volume uuid -> size
+    private Map<String, Long> actualSizes = new HashMap<>();
+    private Map<String, Long> sizes = new HashMap<>();
+
+    public Map<String, Long> getActualSizes() {
+        return actualSizes;
+    }
+
+    public void setActualSizes(Map<String, Long> actualSizes) {
+        this.actualSizes = actualSizes;
+    }
+
+    public Map<String, Long> getSizes() {
+        return sizes;
+    }
+
+    public void setSizes(Map<String, Long> sizes) {
+        this.sizes = sizes;
+    }
+}
@@ -3,6 +3,9 @@ package org.zstack.header.storage.primary;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.message.NeedJsonSchema;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by xing5 on 2016/3/23.
  */
@@ -12,6 +15,7 @@ public class PrimaryStorageCanonicalEvent {
     public static final String PRIMARY_STORAGE_STATE_CHANGED_PATH = "/primaryStorage/state/change";
     public static final String PRIMARY_STORAGE_HOST_STATUS_CHANGED_PATH = "/primaryStorage/host/status/change";
     public static final String PRIMARY_STORAGE_DISCONNECTED = "/primaryStorage/disconnected";
+    public static final String PRIMARY_STORAGE_USAGE_CHANGED_PATH = "/primaryStorage/usage/change";
 
     public static class DisconnectedData {
         private String primaryStorageUuid;
@@ -184,4 +188,66 @@ public class PrimaryStorageCanonicalEvent {
             this.reason = reason;
         }
     }
+
+    public static class PrimaryStorageUsageChange {
+        private String type;
+        private String key;
+        // null if the entity no longer takes space on any primary storage
+        private String primaryStorageUuid;
+        private long size;
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getPrimaryStorageUuid() {
+            return primaryStorageUuid;
+        }
+
+        public void setPrimaryStorageUuid(String primaryStorageUuid) {
+            this.primaryStorageUuid = primaryStorageUuid;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+    }
+
+    @NeedJsonSchema
+    public static class PrimaryStorageUsageChangedData {
+        private String nodeUuid;
+        private List<PrimaryStorageUsageChange> changes = new ArrayList<>();
+
+        public String getNodeUuid() {
+            return nodeUuid;
+        }
+
+        public void setNodeUuid(String nodeUuid) {
+            this.nodeUuid = nodeUuid;
+        }
+
+        public List<PrimaryStorageUsageChange> getChanges() {
+            return changes;
+        }
+
+        public void setChanges(List<PrimaryStorageUsageChange> changes) {
+            this.changes = changes;
+        }
+    }
 }
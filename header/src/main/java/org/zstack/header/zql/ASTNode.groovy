@@ -71,6 +71,8 @@ class ASTNode {
         String text
         transient Class type
         String ctype
+        // index of the literal in the token stream, -1 if not from a literal
+        transient int tokenIndex = -1
     }
 
     static class ListValue extends ASTNode implements Value {
@@ -23,6 +23,7 @@ import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PolicyChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.role.RolePolicyStatementVO;
 import org.zstack.header.identity.role.RolePolicyStatementVO_;
@@ -343,20 +344,33 @@ public class AccountBase extends AbstractAccount {
         bus.publish(evt);
     }
 
+    private void firePolicyChangedEvent(String userUuid) {
+        PolicyChangedData d = new PolicyChangedData();
+        d.setUserUuid(userUuid);
+        evtf.fire(IdentityCanonicalEvents.POLICY_CHANGED_PATH, d);
+    }
+
     @Transactional
-    private void handle(APIDetachPoliciesFromUserMsg msg) {
+    private void detachPoliciesFromUser(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
+
+    private void handle(APIDetachPoliciesFromUserMsg msg) {
+        // fire the event after the transaction committed, otherwise a node may
+        // reload the policies before the change is visible
+        detachPoliciesFromUser(msg);
+        firePolicyChangedEvent(msg.getUserUuid());
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPoliciesToUser(APIAttachPoliciesToUserMsg msg) {
         for (String puuid : msg.getPolicyUuids()) {
             try {
                 UserPolicyRefVO refVO = new UserPolicyRefVO();
@@ -372,6 +386,11 @@ public class AccountBase extends AbstractAccount {
                 // the policy is already attached
             }
         }
+    }
+
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPoliciesToUser(msg);
+        firePolicyChangedEvent(msg.getUserUuid());
 
         APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
@@ -596,6 +615,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupUserRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid());
         }
 
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
@@ -608,6 +628,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(null);
         }
 
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
@@ -620,6 +641,7 @@ public class AccountBase extends AbstractAccount {
         UserPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            firePolicyChangedEvent(msg.getUserUuid());
         }
 
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
@@ -627,6 +649,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        firePolicyChangedEvent(null);
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -649,6 +672,7 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeleteUserGroupMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        firePolicyChangedEvent(null);
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -658,6 +682,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        firePolicyChangedEvent(msg.getUserUuid());
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -677,6 +702,7 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        firePolicyChangedEvent(null);
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -722,6 +748,7 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        firePolicyChangedEvent(msg.getUserUuid());
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
     }
@@ -23,4 +23,6 @@ public class IdentityGlobalConfig {
     public static GlobalConfig ACCOUNT_API_CONTROL = new GlobalConfig(CATEGORY, "account.api.control");
     @GlobalConfigValidation(validValues = {"true", "false"})
     public static GlobalConfig ENABLE_UNIQUE_SESSION = new GlobalConfig(CATEGORY, "enable.unique.session");
+    @GlobalConfigValidation(validValues = {"true", "false"})
+    public static GlobalConfig RBAC_POLICY_CACHE = new GlobalConfig(CATEGORY, "rbac.policyCache");
 }
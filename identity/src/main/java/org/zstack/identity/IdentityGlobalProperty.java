@@ -9,4 +9,8 @@ public class IdentityGlobalProperty {
     public static int AUTHORIZATION_SESSION_CACHE_SIZE;
     @GlobalProperty(name = "identity.init.type", defaultValue = "IAM,IAM2")
     public static String IDENTITY_INIT_TYPE;
+    @GlobalProperty(name = "identity.session.cache.ttl", defaultValue = "300")
+    public static long SESSION_CACHE_TTL;
+    @GlobalProperty(name = "identity.session.renew.minInterval", defaultValue = "60")
+    public static long SESSION_RENEW_MIN_INTERVAL;
 }
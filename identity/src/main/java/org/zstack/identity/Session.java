@@ -7,6 +7,7 @@ import org.zstack.core.cloudbus.EventCallback;
 import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.*;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
@@ -16,6 +17,7 @@ import org.zstack.header.identity.*;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.management.MXBean;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.sql.Timestamp;
@@ -25,11 +27,19 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.*;
 
-public class Session implements Component {
+/**
+ * Sessions are cached on each management node for IdentityGlobalProperty.SESSION_CACHE_TTL seconds,
+ * a cached session is validated against its expired date with the database clock estimated
+ * locally, so validating a valid session doesn't touch the database. A management node renewing
+ * or removing a session broadcasts the change to the others.
+ */
+@MXBean
+public class Session implements Component, SessionCacheMXBean {
     private static final CLogger logger = Utils.getLogger(Session.class);
 
     @Autowired
@@ -38,10 +48,51 @@ public class Session implements Component {
     private DatabaseFacade dbf;
     @Autowired
     private EventFacade evtf;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Future<Void> expiredSessionCollector;
 
-    private static Map<String, SessionInventory> sessions = new ConcurrentHashMap<>();
+    private static class CachedSession {
+        final SessionInventory inventory;
+        final long cachedUntil;
+
+        CachedSession(SessionInventory inventory) {
+            this.inventory = inventory;
+            this.cachedUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(IdentityGlobalProperty.SESSION_CACHE_TTL);
+        }
+    }
+
+    private static Map<String, CachedSession> sessions = new ConcurrentHashMap<>();
+
+    // database time - local time
+    private static volatile long sqlTimeOffset;
+
+    private static final LongAdder hitCount = new LongAdder();
+    private static final LongAdder missCount = new LongAdder();
+    private static final LongAdder invalidationCount = new LongAdder();
+    private static final LongAdder skippedRenewCount = new LongAdder();
+
+    private static void updateSqlTimeOffset(Timestamp sqlTime) {
+        sqlTimeOffset = sqlTime.getTime() - System.currentTimeMillis();
+    }
+
+    private static Timestamp getCurrentSqlTime() {
+        return new Timestamp(System.currentTimeMillis() + sqlTimeOffset);
+    }
+
+    private static SessionInventory cache(SessionInventory s) {
+        sessions.put(s.getUuid(), new CachedSession(s));
+        return s;
+    }
+
+    private static void broadcast(String uuid, Timestamp expiredDate) {
+        IdentityCanonicalEvents.SessionChangedData data = new IdentityCanonicalEvents.SessionChangedData();
+        data.setNodeUuid(Platform.getManagementServerId());
+        data.setSessionUuid(uuid);
+        data.setExpiredDate(expiredDate);
+        getComponentLoader().getComponent(EventFacade.class).fire(IdentityCanonicalEvents.SESSION_CHANGED_PATH, data);
+    }
 
     public static SessionInventory login(String accountUuid, String userUuid) {
         if (IdentityGlobalConfig.ENABLE_UNIQUE_SESSION.value(Boolean.class)) {
@@ -83,53 +134,54 @@ public class Session implements Component {
                 vo.setUuid(Platform.getUuid());
                 vo.setAccountUuid(accountUuid);
                 vo.setUserUuid(userUuid);
-                long expiredTime = getCurrentSqlDate().getTime() + TimeUnit.SECONDS.toMillis(IdentityGlobalConfig.SESSION_TIMEOUT.value(Long.class));
+                Timestamp curr = getCurrentSqlDate();
+                updateSqlTimeOffset(curr);
+                long expiredTime = curr.getTime() + TimeUnit.SECONDS.toMillis(IdentityGlobalConfig.SESSION_TIMEOUT.value(Long.class));
                 vo.setExpiredDate(new Timestamp(expiredTime));
                 persist(vo);
                 reload(vo);
-                SessionInventory inv = SessionInventory.valueOf(vo);
-                sessions.put(inv.getUuid(), inv);
 
-                return inv;
+                return cache(SessionInventory.valueOf(vo));
             }
         }.execute();
     }
 
+    /**
+     * @param extendPeriod seconds to extend the session from now, if null, extend SESSION_TIMEOUT
+     *                     and skip it when the session was renewed in SESSION_RENEW_MIN_INTERVAL seconds
+     */
     public static SessionInventory renewSession(String uuid, Long extendPeriod) {
         errorOnTimeout(uuid);
 
+        boolean implicit = extendPeriod == null;
         if (extendPeriod == null) {
             extendPeriod = IdentityGlobalConfig.SESSION_TIMEOUT.value(Long.class);
         }
 
-        Long finalExtendPeriod = extendPeriod;
-        SessionInventory session = new SQLBatchWithReturn<SessionInventory>() {
-            @Transactional(readOnly = true)
-            private Timestamp getCurrentSqlDate() {
-                Query query = databaseFacade.getEntityManager().createNativeQuery("select current_timestamp()");
-                return (Timestamp) query.getSingleResult();
-            }
-
-            @Override
-            protected SessionInventory scripts() {
-               Timestamp expiredDate = new Timestamp(TimeUnit.SECONDS.toMillis(finalExtendPeriod) + getCurrentSqlDate().getTime());
-               SessionInventory s = getSession(uuid);
-               s.setExpiredDate(expiredDate);
+        SessionInventory s = getSession(uuid);
+        if (s == null) {
+            throw new OperationFailureException(err(IdentityErrors.INVALID_SESSION, "Session expired"));
+        }
 
-               sql(SessionVO.class).eq(SessionVO_.uuid, uuid).set(SessionVO_.expiredDate, expiredDate).update();
+        Timestamp expiredDate = new Timestamp(TimeUnit.SECONDS.toMillis(extendPeriod) + getCurrentSqlTime().getTime());
+        if (implicit && expiredDate.getTime() - s.getExpiredDate().getTime() < TimeUnit.SECONDS.toMillis(IdentityGlobalProperty.SESSION_RENEW_MIN_INTERVAL)) {
+            skippedRenewCount.increment();
+            return s;
+        }
 
-               return s;
-            }
-        }.execute();
+        SQL.New(SessionVO.class).eq(SessionVO_.uuid, uuid).set(SessionVO_.expiredDate, expiredDate).update();
+        s.setExpiredDate(expiredDate);
+        broadcast(uuid, expiredDate);
 
-        return session;
+        return s;
     }
 
     public static void logout(String uuid) {
         new SQLBatch() {
             @Override
             protected void scripts() {
-                SessionInventory s = sessions.remove(uuid);
+                CachedSession c = sessions.remove(uuid);
+                SessionInventory s = c == null ? null : c.inventory;
                 if (s == null) {
                     SessionVO vo = findByUuid(uuid, SessionVO.class);
                     s = vo == null ? null : SessionInventory.valueOf(vo);
@@ -147,53 +199,44 @@ public class Session implements Component {
                 sql(SessionVO.class).eq(SessionVO_.uuid, uuid).hardDelete();
             }
         }.execute();
+
+        broadcast(uuid, null);
     }
 
     /**
      * Check if session which matches specific uuid is expired.
      * Validate the session store in cache first. if it is expired,
-     * remove it from cache. And then check the expired date in db,
-     * if it is expired, logout the session (delete db record)
+     * check the expired date in db as another management node may
+     * have renewed it, if it is expired, logout the session (delete db record)
      * @param uuid uuid of a session
      * @return if session is expired, return an error code, else return null
      */
     public static ErrorCode checkSessionExpired(String uuid) {
-        return new SQLBatchWithReturn<ErrorCode>() {
-            @Transactional(readOnly = true)
-            private Timestamp getCurrentSqlDate() {
-                Query query = databaseFacade.getEntityManager().createNativeQuery("select current_timestamp()");
-                return (Timestamp) query.getSingleResult();
-            }
+        SessionInventory s = getSession(uuid);
+        if (s == null) {
+            return err(IdentityErrors.INVALID_SESSION, "Session expired");
+        }
 
-            @Override
-            protected ErrorCode scripts() {
-                SessionInventory s = getSession(uuid);
-                if (s == null) {
-                    return err(IdentityErrors.INVALID_SESSION, "Session expired");
-                }
+        Timestamp curr = getCurrentSqlTime();
+        if (!curr.after(s.getExpiredDate())) {
+            return null;
+        }
 
-                Timestamp curr = getCurrentSqlDate();
-                if (curr.after(s.getExpiredDate())) {
-                    if (logger.isTraceEnabled()) {
-                        logger.debug(String.format("session expired[%s < %s] for account[uuid:%s] in cache", curr,
-                                s.getExpiredDate(), s.getAccountUuid()));
-                    }
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("session expired[%s < %s] for account[uuid:%s] in cache", curr,
+                    s.getExpiredDate(), s.getAccountUuid()));
+        }
 
-                    SessionVO vo = findByUuid(uuid, SessionVO.class);
-                    if (vo != null && curr.before(vo.getExpiredDate())) {
-                        logger.debug(String.format("session not expired[%s < %s] for account[uuid:%s] in DB, just remove it from session cache", curr,
-                                s.getExpiredDate(), s.getAccountUuid()));
-                        sessions.remove(uuid);
-                        return null;
-                    }
-
-                    logout(s.getUuid());
-                    return err(IdentityErrors.INVALID_SESSION, "Session expired");
-                }
+        SessionVO vo = Q.New(SessionVO.class).eq(SessionVO_.uuid, uuid).find();
+        if (vo != null && curr.before(vo.getExpiredDate())) {
+            logger.debug(String.format("session not expired[%s < %s] for account[uuid:%s] in DB, refresh the session cache", curr,
+                    vo.getExpiredDate(), s.getAccountUuid()));
+            cache(SessionInventory.valueOf(vo));
+            return null;
+        }
 
-                return null;
-            }
-        }.execute();
+        logout(s.getUuid());
+        return err(IdentityErrors.INVALID_SESSION, "Session expired");
     }
 
     public static void errorOnTimeout(String uuid) {
@@ -207,26 +250,32 @@ public class Session implements Component {
     }
 
     public static Map<String, SessionInventory> getSessionsCopy() {
-        return new HashMap<>(sessions);
+        Map<String, SessionInventory> ret = new HashMap<>();
+        sessions.forEach((uuid, c) -> ret.put(uuid, c.inventory));
+        return ret;
     }
 
     public static SessionInventory getSession(String uuid) {
-        SessionInventory s = sessions.get(uuid);
-        if (s == null) {
-            SessionVO vo = Q.New(SessionVO.class).eq(SessionVO_.uuid, uuid).find();
-            if (vo == null) {
-                return null;
-            }
+        CachedSession c = sessions.get(uuid);
+        if (c != null && c.cachedUntil > System.currentTimeMillis()) {
+            hitCount.increment();
+            return c.inventory;
+        }
 
-            s = SessionInventory.valueOf(vo);
-            sessions.put(s.getUuid(), s);
+        missCount.increment();
+        SessionVO vo = Q.New(SessionVO.class).eq(SessionVO_.uuid, uuid).find();
+        if (vo == null) {
+            sessions.remove(uuid);
+            return null;
         }
 
-        return s;
+        return cache(SessionInventory.valueOf(vo));
     }
 
     @Override
     public boolean start() {
+        updateSqlTimeOffset(dbf.getCurrentSqlTime());
+        jmxf.registerBean("SessionCache", this);
         setupGlobalConfig();
         startCleanUpStaleSessionTask();
         setupCanonicalEvents();
@@ -265,7 +314,8 @@ public class Session implements Component {
 
             private void deleteExpiredCachedSessions() {
                 Timestamp curr = getCurrentSqlDate();
-                List<String> staleSessionUuidInCache = sessions.entrySet().stream().filter(entry -> curr.after(entry.getValue().getExpiredDate())).map(entry -> entry.getKey()).collect(Collectors.toList());
+                updateSqlTimeOffset(curr);
+                List<String> staleSessionUuidInCache = sessions.entrySet().stream().filter(entry -> curr.after(entry.getValue().inventory.getExpiredDate())).map(entry -> entry.getKey()).collect(Collectors.toList());
 
                 for (String uuid : staleSessionUuidInCache) {
                     logger.debug(String.format("found session[uuid:%s] in cache expired, remove it", uuid));
@@ -311,7 +361,65 @@ public class Session implements Component {
         return true;
     }
 
+    @Override
+    public int getCachedSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hit = hitCount.sum();
+        long total = hit + missCount.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    @Override
+    public long getSkippedRenewCount() {
+        return skippedRenewCount.sum();
+    }
+
+    @Override
+    public long getSqlTimeOffsetMillis() {
+        return sqlTimeOffset;
+    }
+
     private void setupCanonicalEvents() {
+        evtf.on(IdentityCanonicalEvents.SESSION_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                IdentityCanonicalEvents.SessionChangedData d = (IdentityCanonicalEvents.SessionChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getNodeUuid())) {
+                    return;
+                }
+
+                invalidationCount.increment();
+                if (d.getExpiredDate() == null) {
+                    sessions.remove(d.getSessionUuid());
+                    return;
+                }
+
+                CachedSession c = sessions.get(d.getSessionUuid());
+                if (c != null && c.inventory.getExpiredDate().before(d.getExpiredDate())) {
+                    c.inventory.setExpiredDate(new Timestamp(d.getExpiredDate().getTime()));
+                }
+            }
+        });
+
         evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
             @Override
             public void run(Map tokens, Object data) {
@@ -343,7 +451,7 @@ public class Session implements Component {
                 IdentityCanonicalEvents.AccountDeletedData d = (IdentityCanonicalEvents.AccountDeletedData) data;
 
                 List<String> suuids = sessions.entrySet().stream()
-                        .filter(it -> it.getValue().getAccountUuid().equals(d.getAccountUuid()))
+                        .filter(it -> it.getValue().inventory.getAccountUuid().equals(d.getAccountUuid()))
                         .map(Map.Entry::getKey)
                         .collect(Collectors.toList());
 
@@ -0,0 +1,17 @@
+package org.zstack.identity;
+
+public interface SessionCacheMXBean {
+    int getCachedSessionCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getInvalidationCount();
+
+    long getSkippedRenewCount();
+
+    long getSqlTimeOffsetMillis();
+}
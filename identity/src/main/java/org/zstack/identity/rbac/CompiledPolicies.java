@@ -0,0 +1,151 @@
+package org.zstack.identity.rbac;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.rbac.PolicyMatcher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * policies of a session with the principals already evaluated. Which statements
+ * apply to an API is decided once per API name and remembered, so a later request
+ * to the same API doesn't match patterns again.
+ */
+public class CompiledPolicies {
+    private static final PolicyMatcher policyMatcher = new PolicyMatcher();
+
+    public static class Rule {
+        private final PolicyInventory policy;
+        private final String action;
+        private final String apiPattern;
+        private final String[] apiFields;
+
+        private Rule(PolicyInventory policy, String action, String apiPattern, String[] apiFields) {
+            this.policy = policy;
+            this.action = action;
+            this.apiPattern = apiPattern;
+            this.apiFields = apiFields;
+        }
+
+        public PolicyInventory getPolicy() {
+            return policy;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @return null if the whole API is denied, otherwise the API fields not permitted to set
+         */
+        public String[] getApiFields() {
+            return apiFields;
+        }
+    }
+
+    private static final Rule NO_MATCH = new Rule(null, null, null, null);
+
+    private final List<PolicyInventory> policies;
+    private final List<Rule> denyRules = new ArrayList<>();
+    private final List<Rule> allowRules = new ArrayList<>();
+
+    private final Map<String, List<Rule>> denyRulesByApi = new ConcurrentHashMap<>();
+    private final Map<String, Rule> allowRuleByApi = new ConcurrentHashMap<>();
+
+    public CompiledPolicies(List<PolicyInventory> policies, SessionInventory session) {
+        this.policies = Collections.unmodifiableList(policies);
+
+        for (PolicyInventory p : policies) {
+            for (PolicyStatement st : p.getStatements()) {
+                if (!isPrincipalMatched(st.getPrincipals(), session)) {
+                    continue;
+                }
+
+                for (String action : st.getActions()) {
+                    if (st.getEffect() == StatementEffect.Deny) {
+                        // action string format is:
+                        // api-full-name:optional-api-field-list-split-by-comma
+                        String[] ss = action.split(":", 2);
+                        denyRules.add(new Rule(p, action, ss[0], ss.length > 1 ? ss[1].split(",") : null));
+                    } else if (st.getEffect() == StatementEffect.Allow) {
+                        allowRules.add(new Rule(p, action, PolicyUtils.apiNamePatternFromAction(action, true), null));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isPrincipalMatched(List<String> principals, SessionInventory session) {
+        // if not principals specified, means the statement applies for all accounts/users
+        // if principals specified, check if they matches current account/user
+        if (principals == null || principals.isEmpty()) {
+            return true;
+        }
+
+        for (String s : principals) {
+            String[] ss = s.split(":", 2);
+            String principal = ss[0];
+            String uuidRegex = ss[1];
+
+            if (session.isAccountSession() && AccountConstant.PRINCIPAL_ACCOUNT.equals(principal)) {
+                if (policyMatcher.match(uuidRegex, session.getAccountUuid())) {
+                    return true;
+                }
+            } else if (AccountConstant.isAdminPermission(session)) {
+                if (policyMatcher.match(uuidRegex, session.getAccountUuid())) {
+                    return true;
+                }
+            } else if (session.isUserSession() && AccountConstant.PRINCIPAL_USER.equals(principal)) {
+                if (policyMatcher.match(uuidRegex, session.getUserUuid())) {
+                    return true;
+                }
+            } else {
+                throw new CloudRuntimeException(String.format("unknown principal[%s]", principal));
+            }
+        }
+
+        return false;
+    }
+
+    public List<PolicyInventory> getPolicies() {
+        return policies;
+    }
+
+    public boolean hasAllowRules() {
+        return !allowRules.isEmpty();
+    }
+
+    /**
+     * @return deny rules matching the API, in the order they are defined in policies
+     */
+    public List<Rule> getDenyRules(String apiName) {
+        return denyRulesByApi.computeIfAbsent(apiName, api -> {
+            List<Rule> ret = new ArrayList<>();
+            for (Rule r : denyRules) {
+                if (policyMatcher.match(r.apiPattern, api)) {
+                    ret.add(r);
+                }
+            }
+
+            return ret.isEmpty() ? Collections.emptyList() : ret;
+        });
+    }
+
+    /**
+     * @return the first allow rule matching the API, or null if no rule matches
+     */
+    public Rule getAllowRule(String apiName) {
+        Rule rule = allowRuleByApi.computeIfAbsent(apiName, api -> {
+            for (Rule r : allowRules) {
+                if (policyMatcher.match(r.apiPattern, api)) {
+                    return r;
+                }
+            }
+
+            return NO_MATCH;
+        });
+
+        return rule == NO_MATCH ? null : rule;
+    }
+}
@@ -50,8 +50,8 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         return policyMatcher.match(ap, msgName);
     }
 
-    protected List<PolicyInventory> getPoliciesForAPI() {
-        return RBACManager.getPoliciesByAPI(rbacEntity.getApiMessage());
+    protected CompiledPolicies getPoliciesForAPI() {
+        return RBACPolicyCache.get(rbacEntity.getApiMessage().getSession());
     }
 
     /**
@@ -61,13 +61,11 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
      * 5. then deny by default
      */
     protected void check() {
-        List<PolicyInventory> polices = getPoliciesForAPI();
-        Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(polices);
-        Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(polices);
+        CompiledPolicies policies = getPoliciesForAPI();
 
-        evalDenyStatements(denyStatements);
+        evalDenyRules(policies);
 
-        if (evalAllowStatements(allowStatements)) {
+        if (evalAllowRules(policies)) {
             // allowed
             return;
         }
@@ -84,139 +82,74 @@ public class RBACAPIRequestChecker implements APIRequestChecker {
         return CloudBusGson.toLogSafeJson(rbacEntity.getApiMessage());
     }
 
-    protected boolean evalAllowStatements(Map<PolicyInventory, List<PolicyStatement>> policies) {
-        Set<String> apiNeedToCheck = new HashSet<>();
-        apiNeedToCheck.add(rbacEntity.getApiName());
-        apiNeedToCheck.addAll(rbacEntity.getAdditionalApisToCheck());
+    private Set<String> apisNeedToCheck() {
+        Set<String> apis = new LinkedHashSet<>();
+        apis.add(rbacEntity.getApiName());
+        apis.addAll(rbacEntity.getAdditionalApisToCheck());
+        return apis;
+    }
 
-        for (Map.Entry<PolicyInventory, List<PolicyStatement>> e : policies.entrySet()) {
-            PolicyInventory policy = e.getKey();
-            for (PolicyStatement statement : e.getValue()) {
-                if (!isPrincipalMatched(statement.getPrincipals())) {
-                    continue;
-                }
+    protected boolean evalAllowRules(CompiledPolicies policies) {
+        if (!policies.hasAllowRules()) {
+            return false;
+        }
 
-                for (String as : statement.getActions()) {
-                    apiNeedToCheck.removeIf(api -> evalAllowStatement(as, api));
+        for (String api : apisNeedToCheck()) {
+            CompiledPolicies.Rule rule = policies.getAllowRule(api);
+            if (!RBAC.checkAPIPermission(rbacEntity.getApiMessage(), rule != null)) {
+                return false;
+            }
 
-                    if (apiNeedToCheck.isEmpty()) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API:\n%s", policy.getName(),
-                                    policy.getUuid(), as, jsonMessage()));
-                        }
-                        return true;
-                    }
-                }
+            if (rule != null && logger.isTraceEnabled()) {
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] allows the API[%s]:\n%s", rule.getPolicy().getName(),
+                        rule.getPolicy().getUuid(), rule.getAction(), api, jsonMessage()));
             }
         }
 
-        return false;
+        return true;
     }
 
-    protected boolean evalAllowStatement(String as, String targetApiName) {
-        String ap = PolicyUtils.apiNamePatternFromAction(as, true);
-        return RBAC.checkAPIPermission(rbacEntity.getApiMessage(), policyMatcher.match(ap, targetApiName));
-    }
-
-    protected boolean isPrincipalMatched(List<String> principals) {
-        // if not principals specified, means the statement applies for all accounts/users
-        // if principals specified, check if they matches current account/user
-        if (principals != null && !principals.isEmpty()) {
-            for (String s : principals) {
-                String[] ss = s.split(":", 2);
-                String principal = ss[0];
-                String uuidRegex = ss[1];
-
-                if (rbacEntity.getApiMessage().getSession().isAccountSession() && AccountConstant.PRINCIPAL_ACCOUNT.equals(principal)) {
-                    if (checkAccountPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else if (AccountConstant.isAdminPermission(rbacEntity.getApiMessage().getSession())) {
-                    if (checkAccountPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else if (rbacEntity.getApiMessage().getSession().isUserSession() && AccountConstant.PRINCIPAL_USER.equals(principal)) {
-                    if (checkUserPrincipal(uuidRegex)) {
-                        return true;
-                    }
-                } else {
-                    throw new CloudRuntimeException(String.format("unknown principal[%s]", principal));
-                }
+    protected void evalDenyRules(CompiledPolicies policies) {
+        for (String api : apisNeedToCheck()) {
+            for (CompiledPolicies.Rule rule : policies.getDenyRules(api)) {
+                evalDenyRule(rule);
             }
-
-            return false;
-        } else {
-            return true;
         }
     }
 
-    private boolean additionalApiMatch(String apiName) {
-        return rbacEntity.getAdditionalApisToCheck().stream().anyMatch(api -> policyMatcher.match(apiName, api));
-    }
+    private void evalDenyRule(CompiledPolicies.Rule rule) {
+        PolicyInventory p = rule.getPolicy();
 
-    protected void evalDenyStatements(Map<PolicyInventory, List<PolicyStatement>> denyPolices) {
-        // action string format is:
-        // api-full-name:optional-api-field-list-split-by-comma
-        denyPolices.forEach((p, sts)-> sts.forEach(st-> {
-            if (!isPrincipalMatched(st.getPrincipals())) {
-                return;
+        if (rule.getApiFields() == null) {
+            // no API fields specified, the API is denied by this statement
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
+                        p.getUuid(), rule.getAction(), jsonMessage()));
             }
 
-            st.getActions().forEach(statement-> {
-                String[] ss = statement.split(":",2);
-                String apiName = ss[0];
-                String apiFields = null;
-                if (ss.length > 1) {
-                    apiFields = ss[1];
-                }
-
-                if (!policyMatcher.match(apiName, rbacEntity.getApiName()) && !additionalApiMatch(apiName)) {
-                    // the statement not matching this API and not additional api need to check
-                    return;
-                }
+            throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
+        }
 
-                // the statement matching this API
+        Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
 
-                if (apiFields == null) {
-                    // no API fields specified, the API is denied by this statement
+        for (String fname : rule.getApiFields()) {
+            Field field = entity.getFields().get(fname);
+            try {
+                if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
                     if (logger.isTraceEnabled()) {
                         logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                p.getUuid(), statement, jsonMessage()));
-                    }
-
-                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s uuid:%s]", p.getName(), p.getUuid()));
-                }
-
-                Entity entity = Entity.getEntity(rbacEntity.getApiMessage().getClass());
-
-                for (String fname : apiFields.split(",")) {
-                    Field field = entity.getFields().get(fname);
-                    try {
-                        if (field != null && field.get(rbacEntity.getApiMessage()) != null) {
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("[RBAC] policy[name:%s, uuid:%s]'s statement[%s] denies the API:\n%s", p.getName(),
-                                        p.getUuid(), statement, jsonMessage()));
-                            }
-                            throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
-                        }
-                    } catch (IllegalAccessException e) {
-                        throw new CloudRuntimeException(e);
+                                p.getUuid(), rule.getAction(), jsonMessage()));
                     }
+                    throw new OperationFailureException(operr("the operation is denied by the policy[name:%s, uuid:%s], field[%s] is not permitted to set", p.getName(), p.getUuid(), fname));
                 }
-            });
-        }));
-    }
-
-    protected boolean checkUserPrincipal(String uuidRegex) {
-        return policyMatcher.match(uuidRegex, rbacEntity.getApiMessage().getSession().getUserUuid());
-    }
-
-    protected boolean checkAccountPrincipal(String uuidRegex) {
-        return policyMatcher.match(uuidRegex, rbacEntity.getApiMessage().getSession().getAccountUuid());
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
     }
 
     public Map<String, Boolean> evalAPIPermission(List<Class> classes, SessionInventory session) {
-        List<PolicyInventory> policies = RBACManager.getPoliciesBySession(session);
+        List<PolicyInventory> policies = RBACPolicyCache.get(session).getPolicies();
         Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(policies);
         Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(policies);
 
@@ -3,6 +3,8 @@ package org.zstack.identity.rbac;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
@@ -19,6 +21,7 @@ import org.zstack.header.identity.role.api.APICreateRoleMsg;
 import org.zstack.header.identity.role.api.RoleMessage;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
+import org.zstack.identity.IdentityGlobalConfig;
 import org.zstack.identity.IdentityResourceGenerateExtensionPoint;
 import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
@@ -41,12 +44,45 @@ public class RBACManagerImpl extends AbstractService implements RBACManager, Com
     private DatabaseFacade dbf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     @Override
     public boolean start() {
+        setupPolicyCacheInvalidation();
         return true;
     }
 
+    private void setupPolicyCacheInvalidation() {
+        evtf.on(IdentityCanonicalEvents.POLICY_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                IdentityCanonicalEvents.PolicyChangedData d = (IdentityCanonicalEvents.PolicyChangedData) data;
+                if (d.getUserUuid() == null) {
+                    RBACPolicyCache.invalidateAll();
+                } else {
+                    RBACPolicyCache.invalidateUser(d.getUserUuid());
+                }
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.USER_DELETED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                RBACPolicyCache.invalidateUser(((IdentityCanonicalEvents.UserDeletedData) data).getUserUuid());
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.ACCOUNT_DELETED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                RBACPolicyCache.invalidateAccount(((IdentityCanonicalEvents.AccountDeletedData) data).getAccountUuid());
+            }
+        });
+
+        IdentityGlobalConfig.RBAC_POLICY_CACHE.installUpdateExtension((oldConfig, newConfig) -> RBACPolicyCache.invalidateAll());
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -105,7 +141,7 @@ public class RBACManagerImpl extends AbstractService implements RBACManager, Com
 
         List<RBAC.Permission> permissions = RBAC.permissions.stream().filter(p -> p.getTargetResources().stream().anyMatch(resource -> resource.getSimpleName().equals(msg.getResourceType()))).collect(Collectors.toList());
 
-        List<PolicyInventory> policies = RBACManager.getPoliciesByAPI(msg);
+        List<PolicyInventory> policies = RBACPolicyCache.get(msg.getSession()).getPolicies();
         Map<PolicyInventory, List<PolicyStatement>> denyStatements = RBACManager.collectDenyStatements(policies);
         Map<PolicyInventory, List<PolicyStatement>> allowStatements = RBACManager.collectAllowedStatements(policies);
 
@@ -0,0 +1,56 @@
+package org.zstack.identity.rbac;
+
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.identity.IdentityGlobalConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * compiled policies cached by account and user. Entries are dropped by RBACManagerImpl
+ * on the identity canonical events, so every management node sees policy changes.
+ */
+public class RBACPolicyCache {
+    private static final Map<String, CompiledPolicies> cache = new ConcurrentHashMap<>();
+    // bumped on every invalidation, a load that raced with an invalidation is not cached
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static String key(String accountUuid, String userUuid) {
+        return accountUuid + ":" + userUuid;
+    }
+
+    public static CompiledPolicies get(SessionInventory session) {
+        if (!IdentityGlobalConfig.RBAC_POLICY_CACHE.value(Boolean.class)) {
+            return new CompiledPolicies(RBACManager.getPoliciesBySession(session), session);
+        }
+
+        String key = key(session.getAccountUuid(), session.getUserUuid());
+        CompiledPolicies compiled = cache.get(key);
+        if (compiled != null) {
+            return compiled;
+        }
+
+        long gen = generation.get();
+        CompiledPolicies loaded = new CompiledPolicies(RBACManager.getPoliciesBySession(session), session);
+        // checked under the lock of the key, an invalidation either bumps the generation
+        // before the check or removes the entry after it
+        cache.compute(key, (k, old) -> generation.get() == gen ? loaded : old);
+        return loaded;
+    }
+
+    public static void invalidateUser(String userUuid) {
+        generation.incrementAndGet();
+        cache.keySet().removeIf(k -> k.endsWith(":" + userUuid));
+    }
+
+    public static void invalidateAccount(String accountUuid) {
+        generation.incrementAndGet();
+        cache.keySet().removeIf(k -> k.startsWith(accountUuid + ":"));
+    }
+
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+}
@@ -0,0 +1,110 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * allocates ips from per ip range bitmaps of used addresses instead of probing UsedIpVO,
+ * a free address is found without touching the database in most cases
+ */
+public abstract class AbstractBitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy {
+    private static final CLogger logger = Utils.getLogger(AbstractBitmapIpAllocatorStrategy.class);
+
+    // shared by all bitmap strategies, lazily loaded on the first allocation in a range
+    private static final Map<String, IpRangeBitmap> bitmaps = new ConcurrentHashMap<>();
+
+    protected abstract boolean isRandom();
+
+    static boolean isInUse() {
+        return !bitmaps.isEmpty();
+    }
+
+    static void releaseIp(String ipRangeUuid, String ip) {
+        IpRangeBitmap bitmap = bitmaps.get(ipRangeUuid);
+        if (bitmap != null) {
+            bitmap.release(ip);
+        }
+    }
+
+    static void dropIpRange(String ipRangeUuid) {
+        bitmaps.remove(ipRangeUuid);
+    }
+
+    private IpRangeBitmap getBitmap(IpRangeVO vo) {
+        IpRangeBitmap bitmap = bitmaps.get(vo.getUuid());
+        if (bitmap != null && bitmap.isSameRange(vo)) {
+            return bitmap;
+        }
+
+        IpRangeBitmap nb = new IpRangeBitmap(vo);
+        nb.load();
+        bitmaps.put(vo.getUuid(), nb);
+        return nb;
+    }
+
+    private String allocateIp(IpRangeVO vo, String excludedIp) {
+        IpRangeBitmap bitmap = getBitmap(vo);
+        String ip = bitmap.allocate(isRandom(), excludedIp);
+        if (ip != null) {
+            return ip;
+        }
+
+        // the range looks full, ips may have been returned by other management nodes
+        bitmap.load();
+        return bitmap.allocate(isRandom(), excludedIp);
+    }
+
+    private UsedIpInventory reserveRequiredIp(IpAllocateMessage msg, boolean ipv4) {
+        UsedIpInventory inv = ipv4 ? allocateRequiredIp(msg) : allocateRequiredIpv6(msg);
+        if (inv != null && bitmaps.containsKey(inv.getIpRangeUuid())) {
+            bitmaps.get(inv.getIpRangeUuid()).markUsed(inv.getIp());
+        }
+
+        return inv;
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        if (msg.getRequiredIp() != null) {
+            return reserveRequiredIp(msg, NetworkUtils.isIpv4Address(msg.getRequiredIp()));
+        }
+
+        List<IpRangeVO> ranges;
+        /* when allocate ip address from address pool, ipRangeUuid is not null */
+        if (msg.getIpRangeUuid() != null) {
+            ranges = Q.New(IpRangeVO.class).eq(IpRangeVO_.uuid, msg.getIpRangeUuid()).list();
+        } else {
+            ranges = Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.l3NetworkUuid, msg.getL3NetworkUuid()).list();
+        }
+
+        if (isRandom()) {
+            Collections.shuffle(ranges);
+        }
+
+        for (IpRangeVO r : ranges) {
+            while (true) {
+                String ip = allocateIp(r, msg.getExcludedIp());
+                if (ip == null) {
+                    logger.debug(String.format("ip range[uuid:%s] has no ip available, try next one", r.getUuid()));
+                    break;
+                }
+
+                // a failure means the ip was taken by another management node, the bit stays set
+                UsedIpInventory inv = l3NwMgr.reserveIp(r, ip, msg.isDuplicatedIpAllowed());
+                if (inv != null) {
+                    return inv;
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package org.zstack.network.l3;
+
+import org.zstack.header.network.l3.IpAllocatorType;
+import org.zstack.header.network.l3.L3NetworkConstant;
+
+public class BitmapRandomIpAllocatorStrategy extends AbstractBitmapIpAllocatorStrategy {
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_RANDOM_IP_ALLOCATOR_STRATEGY);
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    @Override
+    protected boolean isRandom() {
+        return true;
+    }
+}
@@ -0,0 +1,147 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.Q;
+import org.zstack.header.network.l3.IpRangeVO;
+import org.zstack.header.network.l3.UsedIpVO;
+import org.zstack.header.network.l3.UsedIpVO_;
+import org.zstack.utils.network.IPv6Constants;
+import org.zstack.utils.network.IPv6NetworkUtils;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * used addresses of an ip range, one bit per address.
+ *
+ * The bitmap is a hint, UsedIpVO is the truth: an address picked from the bitmap is marked
+ * used at once and then reserved by L3NetworkManager.reserveIp(), which fails if another
+ * management node got it first. Addresses returned without going through this node are
+ * seen when the bitmap is reloaded, which happens when it looks full.
+ */
+class IpRangeBitmap {
+    // IPv6 ranges are tracked up to this many addresses, as RandomIpv6AllocatorStrategy does
+    static final int MAX_IPV6_ADDRESSES = 1 << 23;
+
+    private final String rangeUuid;
+    private final String startIp;
+    private final String endIp;
+    private final int ipVersion;
+    private final BigInteger start;
+    private final int size;
+    private final BitSet used;
+
+    IpRangeBitmap(IpRangeVO vo) {
+        rangeUuid = vo.getUuid();
+        startIp = vo.getStartIp();
+        endIp = vo.getEndIp();
+        ipVersion = vo.getIpVersion();
+
+        if (ipVersion == IPv6Constants.IPv4) {
+            start = BigInteger.valueOf(NetworkUtils.ipv4StringToLong(startIp));
+            size = NetworkUtils.getTotalIpInRange(startIp, endIp);
+        } else {
+            start = IPv6NetworkUtils.ipv6AddressToBigInteger(startIp);
+            BigInteger total = IPv6NetworkUtils.ipv6AddressToBigInteger(endIp).subtract(start).add(BigInteger.ONE);
+            size = total.min(BigInteger.valueOf(MAX_IPV6_ADDRESSES)).intValue();
+        }
+
+        used = new BitSet(size);
+    }
+
+    boolean isSameRange(IpRangeVO vo) {
+        return startIp.equals(vo.getStartIp()) && endIp.equals(vo.getEndIp());
+    }
+
+    synchronized void load() {
+        used.clear();
+
+        if (ipVersion == IPv6Constants.IPv4) {
+            List<Long> ips = Q.New(UsedIpVO.class).select(UsedIpVO_.ipInLong).eq(UsedIpVO_.ipRangeUuid, rangeUuid).listValues();
+            ips.forEach(ip -> markUsed(offsetOf(BigInteger.valueOf(ip))));
+        } else {
+            List<String> ips = Q.New(UsedIpVO.class).select(UsedIpVO_.ip).eq(UsedIpVO_.ipRangeUuid, rangeUuid).listValues();
+            ips.forEach(ip -> markUsed(offsetOf(ip)));
+        }
+    }
+
+    private int offsetOf(BigInteger address) {
+        BigInteger offset = address.subtract(start);
+        if (offset.signum() < 0 || offset.compareTo(BigInteger.valueOf(size)) >= 0) {
+            return -1;
+        }
+
+        return offset.intValue();
+    }
+
+    private int offsetOf(String ip) {
+        if (ipVersion == IPv6Constants.IPv4) {
+            return NetworkUtils.isIpv4Address(ip) ? offsetOf(BigInteger.valueOf(NetworkUtils.ipv4StringToLong(ip))) : -1;
+        } else {
+            return IPv6NetworkUtils.isIpv6Address(ip) ? offsetOf(IPv6NetworkUtils.ipv6AddressToBigInteger(ip)) : -1;
+        }
+    }
+
+    private String ipOf(int offset) {
+        BigInteger address = start.add(BigInteger.valueOf(offset));
+        if (ipVersion == IPv6Constants.IPv4) {
+            return NetworkUtils.longToIpv4String(address.longValue());
+        } else {
+            return IPv6NetworkUtils.ipv6AddressToString(address);
+        }
+    }
+
+    private void markUsed(int offset) {
+        if (offset >= 0) {
+            used.set(offset);
+        }
+    }
+
+    synchronized void markUsed(String ip) {
+        markUsed(offsetOf(ip));
+    }
+
+    synchronized void release(String ip) {
+        int offset = offsetOf(ip);
+        if (offset >= 0) {
+            used.clear(offset);
+        }
+    }
+
+    /**
+     * pick a free address and mark it used
+     *
+     * @return null if no address is free
+     */
+    synchronized String allocate(boolean random, String excludedIp) {
+        int excluded = excludedIp == null ? -1 : offsetOf(excludedIp);
+        boolean excludedWasUsed = excluded >= 0 && used.get(excluded);
+        markUsed(excluded);
+
+        try {
+            int offset;
+            if (random) {
+                int from = ThreadLocalRandom.current().nextInt(size);
+                offset = used.nextClearBit(from);
+                if (offset >= size) {
+                    offset = used.nextClearBit(0);
+                }
+            } else {
+                offset = used.nextClearBit(0);
+            }
+
+            if (offset >= size) {
+                return null;
+            }
+
+            used.set(offset);
+            return ipOf(offset);
+        } finally {
+            if (excluded >= 0 && !excludedWasUsed) {
+                used.clear(excluded);
+            }
+        }
+    }
+}
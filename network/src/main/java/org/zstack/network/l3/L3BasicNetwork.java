@@ -209,6 +209,10 @@ public class L3BasicNetwork implements L3Network {
 
     private void handle(ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
+        // hard delete doesn't trigger entity callbacks, give the ip back to the bitmap here
+        Tuple usedIp = !AbstractBitmapIpAllocatorStrategy.isInUse() ? null :
+                Q.New(UsedIpVO.class).select(UsedIpVO_.ipRangeUuid, UsedIpVO_.ip)
+                        .eq(UsedIpVO_.uuid, msg.getUsedIpUuid()).findTuple();
         new Retry<Void>() {
             String __name__ = String.format("return-ip-%s-for-l3-%s", msg.getUsedIpUuid(), msg.getL3NetworkUuid());
 
@@ -219,6 +223,9 @@ public class L3BasicNetwork implements L3Network {
                 return null;
             }
         }.run();
+        if (usedIp != null) {
+            AbstractBitmapIpAllocatorStrategy.releaseIp(usedIp.get(0, String.class), usedIp.get(1, String.class));
+        }
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
         bus.reply(msg, reply);
     }
@@ -228,6 +235,10 @@ public class L3BasicNetwork implements L3Network {
             return IpAllocatorType.valueOf(msg.getAllocatorStrategy());
         }
 
+        if (NetworkGlobalProperty.BITMAP_IP_ALLOCATOR) {
+            return BitmapRandomIpAllocatorStrategy.type;
+        }
+
         L3NetworkVO l3Vo = Q.New(L3NetworkVO.class).eq(L3NetworkVO_.uuid, msg.getL3NetworkUuid()).find();
         if (l3Vo.getIpVersion() == IPv6Constants.IPv4) {
             return RandomIpAllocatorStrategy.type;
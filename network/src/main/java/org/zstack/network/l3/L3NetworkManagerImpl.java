@@ -398,9 +398,19 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
     @Override
     public boolean start() {
         populateExtensions();
+        installIpBitmapCallbacks();
         return true;
     }
 
+    private void installIpBitmapCallbacks() {
+        dbf.installEntityLifeCycleCallback(UsedIpVO.class, EntityEvent.POST_REMOVE, (evt, o) -> {
+            UsedIpVO vo = (UsedIpVO) o;
+            AbstractBitmapIpAllocatorStrategy.releaseIp(vo.getIpRangeUuid(), vo.getIp());
+        });
+        dbf.installEntityLifeCycleCallback(IpRangeVO.class, EntityEvent.POST_REMOVE, (evt, o) ->
+                AbstractBitmapIpAllocatorStrategy.dropIpRange(((IpRangeVO) o).getUuid()));
+    }
+
     private void populateExtensions() {
         for (L3NetworkFactory f : pluginRgty.getExtensionList(L3NetworkFactory.class)) {
             L3NetworkFactory old = l3NetworkFactories.get(f.getType().toString());
@@ -15,4 +15,7 @@ public class NetworkGlobalProperty {
 
     @GlobalProperty(name = "bridge.disable.iptables", defaultValue = "false")
     public static boolean BRIDGE_DISABLE_IPTABLES;
+
+    @GlobalProperty(name = "l3.ipAllocator.bitmap", defaultValue = "false")
+    public static boolean BITMAP_IP_ALLOCATOR;
 }
@@ -26,6 +26,7 @@ import org.zstack.header.tag.TagType;
 import org.zstack.storage.ceph.CephConstants;
 import org.zstack.storage.ceph.CephGlobalProperty;
 import org.zstack.storage.ceph.MonStatus;
+import org.zstack.tag.TagManager;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -50,6 +51,8 @@ public class CephBackupStorageMetaDataMaker implements AddImageExtensionPoint, A
     private ErrorFacade errf;
     @Autowired
     private CloudBus bus;
+    @Autowired
+    private TagManager tagMgr;
 
     protected  String buildUrl( String hostName, Integer monPort,String subPath) {
         return String.format("http://%s:%s%s", hostName, monPort, subPath);
@@ -185,6 +188,9 @@ public class CephBackupStorageMetaDataMaker implements AddImageExtensionPoint, A
         dbf.persistCollection(imageVOs);
         dbf.persistCollection(backupStorageRefVOs);
         dbf.persistCollection(systemTagVOs);
+        systemTagVOs.stream().collect(Collectors.groupingBy(SystemTagVO::getResourceType,
+                Collectors.mapping(SystemTagVO::getResourceUuid, Collectors.toSet())))
+                .forEach((type, uuids) -> tagMgr.evictSystemTagIndex(type, uuids));
     }
 
     protected String getHostnameFromBackupStorage(CephBackupStorageInventory inv) {
@@ -1,5 +1,6 @@
 package org.zstack.network.service.flat;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
@@ -38,7 +39,6 @@ import org.zstack.identity.AccountManager;
 import org.zstack.kvm.*;
 import org.zstack.kvm.KvmCommandSender.SteppingSendCallback;
 import org.zstack.network.l3.IpRangeHelper;
-import org.zstack.network.service.MtuGetter;
 import org.zstack.network.service.NetworkProviderFinder;
 import org.zstack.network.service.NetworkServiceProviderLookup;
 import org.zstack.network.service.flat.IpStatisticConstants.VmType;
@@ -49,6 +49,7 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.TagUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
+import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.network.IPv6Constants;
 import org.zstack.utils.network.IPv6NetworkUtils;
@@ -87,6 +88,8 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
     private PluginRegistry pluginRgty;
     @Autowired
     private AccountManager acntMgr;
+    @Autowired
+    private FlatNetworkHostSnapshotBuilder snapshotBuilder;
 
     public static final String APPLY_DHCP_PATH = "/flatnetworkprovider/dhcp/apply";
     public static final String PREPARE_DHCP_PATH = "/flatnetworkprovider/dhcp/prepare";
@@ -99,112 +102,35 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         return String.format("%s_%s", brName, l3Uuid);
     }
 
-    @Transactional(readOnly = true)
-    private List<DhcpInfo> getDhcpInfoForConnectedKvmHost(KVMHostConnectedContext context) {
-        String sql = "select vm.uuid, vm.defaultL3NetworkUuid from VmInstanceVO vm where vm.hostUuid = :huuid and vm.state in (:states) and vm.type = :vtype";
-        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        q.setParameter("huuid", context.getInventory().getUuid());
-        q.setParameter("states", list(VmInstanceState.Running, VmInstanceState.Unknown, VmInstanceState.Starting,
-                VmInstanceState.Rebooting, VmInstanceState.Resuming, VmInstanceState.Migrating, VmInstanceState.VolumeMigrating));
-        q.setParameter("vtype", VmInstanceConstant.USER_VM_TYPE);
-        List<Tuple> ts = q.getResultList();
-        if (ts.isEmpty()) {
+    private List<DhcpInfo> getDhcpInfoForConnectedKvmHost(FlatNetworkHostSnapshot snapshot) {
+        if (snapshot.dhcpNics.isEmpty()) {
             return null;
         }
 
-        Map<String, String> vmDefaultL3 = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            vmDefaultL3.put(t.get(0, String.class), t.get(1, String.class));
-        }
-
-        sql = "select nic from VmNicVO nic, L3NetworkVO l3, NetworkServiceL3NetworkRefVO ref, NetworkServiceProviderVO provider, UsedIpVO ip" +
-                " where nic.uuid = ip.vmNicUuid and ip.l3NetworkUuid = l3.uuid" +
-                " and ref.l3NetworkUuid = l3.uuid and ref.networkServiceProviderUuid = provider.uuid " +
-                " and ref.networkServiceType = :dhcpType " +
-                " and provider.type = :ptype and nic.vmInstanceUuid in (:vmUuids) group by nic.uuid";
-
-        TypedQuery<VmNicVO> nq = dbf.getEntityManager().createQuery(sql, VmNicVO.class);
-        nq.setParameter("ptype", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING);
-        nq.setParameter("dhcpType", NetworkServiceType.DHCP.toString());
-        nq.setParameter("vmUuids", vmDefaultL3.keySet());
-        List<VmNicVO> nics = nq.getResultList();
-        if (nics.isEmpty()) {
-            return null;
-        }
-
-        List<String> l3Uuids = new ArrayList<>();
-        for (VmNicVO nic : nics) {
-            for (UsedIpVO ip : nic.getUsedIps()) {
-                l3Uuids.add(ip.getL3NetworkUuid());
-            }
-        }
-        l3Uuids = l3Uuids.stream().distinct().collect(Collectors.toList());
-
-        sql = "select t.tag, l3.uuid from SystemTagVO t, L3NetworkVO l3 where t.resourceType = :ttype and t.tag like :tag" +
-                " and t.resourceUuid = l3.l2NetworkUuid and l3.uuid in (:l3Uuids)";
-        TypedQuery<Tuple> tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(KVMSystemTags.L2_BRIDGE_NAME.getTagFormat()));
-        tq.setParameter("l3Uuids", l3Uuids);
-        tq.setParameter("ttype", L2NetworkVO.class.getSimpleName());
-        ts = tq.getResultList();
-
-        Map<String, String> bridgeNames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            bridgeNames.put(t.get(1, String.class), t.get(0, String.class));
-        }
-
-        sql = "select t.tag, vm.uuid from SystemTagVO t, VmInstanceVO vm where t.resourceType = :ttype" +
-                " and t.tag like :tag and t.resourceUuid = vm.uuid and vm.uuid in (:vmUuids)";
-        tq = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        tq.setParameter("tag", TagUtils.tagPatternToSqlPattern(VmSystemTags.HOSTNAME.getTagFormat()));
-        tq.setParameter("ttype", VmInstanceVO.class.getSimpleName());
-        tq.setParameter("vmUuids", vmDefaultL3.keySet());
-        ts = tq.getResultList();
-        Map<String, String> hostnames = new HashMap<String, String>();
-        for (Tuple t : ts) {
-            hostnames.put(t.get(1, String.class), VmSystemTags.HOSTNAME.getTokenByTag(t.get(0, String.class), VmSystemTags.HOSTNAME_TOKEN));
-        }
-
-        sql = "select l3 from L3NetworkVO l3 where l3.uuid in (:l3Uuids)";
-        TypedQuery<L3NetworkVO> l3q = dbf.getEntityManager().createQuery(sql, L3NetworkVO.class);
-        l3q.setParameter("l3Uuids", l3Uuids);
-        List<L3NetworkVO> l3s = l3q.getResultList();
-        Map<String, L3NetworkVO> l3Map = new HashMap<String, L3NetworkVO>();
-        for (L3NetworkVO l3 : l3s) {
-            l3Map.put(l3.getUuid(), l3);
-        }
-
         Map<String, List<VmNicVO>> defaultNicMap = new HashMap<>();
-        for (VmNicVO nic : nics) {
-            if (!nic.getL3NetworkUuid().equals(vmDefaultL3.get(nic.getVmInstanceUuid()))) {
+        for (VmNicVO nic : snapshot.dhcpNics) {
+            if (!nic.getL3NetworkUuid().equals(snapshot.vms.get(nic.getVmInstanceUuid()).defaultL3NetworkUuid)) {
                 continue;
             }
-            List<VmNicVO> value = defaultNicMap.get(nic.getVmInstanceUuid());
-            if (value == null) {
-                value = new ArrayList<>();
-            }
-            value.add(nic);
-            defaultNicMap.put(nic.getVmInstanceUuid(), value);
+            defaultNicMap.computeIfAbsent(nic.getVmInstanceUuid(), k -> new ArrayList<>()).add(nic);
         }
 
         List<DhcpInfo> dhcpInfoList = new ArrayList<DhcpInfo>();
-        for (VmNicVO nic : nics) {
+        for (VmNicVO nic : snapshot.dhcpNics) {
+            FlatNetworkHostSnapshot.VmView vm = snapshot.vms.get(nic.getVmInstanceUuid());
             for (UsedIpVO ip : nic.getUsedIps()) {
-
-                String vmMultiGateway = VmSystemTags.MULTIPLE_GATEWAY.getTokenByResourceUuid(nic.getVmInstanceUuid(),
-                        VmSystemTags.MULTIPLE_GATEWAY_TOKEN);
-                boolean multiGateway = Boolean.valueOf(vmMultiGateway);
+                FlatNetworkHostSnapshot.L3View l3 = snapshot.l3Networks.get(ip.getL3NetworkUuid());
                 DhcpInfo info = new DhcpInfo();
-                info.bridgeName = KVMSystemTags.L2_BRIDGE_NAME.getTokenByTag(bridgeNames.get(nic.getL3NetworkUuid()), KVMSystemTags.L2_BRIDGE_NAME_TOKEN);
+                info.bridgeName = l3.bridgeName;
                 info.namespaceName = makeNamespaceName(
                         info.bridgeName,
                         ip.getL3NetworkUuid()
                 );
                 DebugUtils.Assert(info.bridgeName != null, "bridge name cannot be null");
-                info.mtu = new MtuGetter().getMtu(ip.getL3NetworkUuid());
+                info.mtu = l3.mtu;
                 info.mac = nic.getMac();
                 info.netmask = ip.getNetmask();
-                info.isDefaultL3Network = ip.getL3NetworkUuid().equals(vmDefaultL3.get(nic.getVmInstanceUuid()));
+                info.isDefaultL3Network = ip.getL3NetworkUuid().equals(vm.defaultL3NetworkUuid);
                 /*multi vnic case*/
                 if (info.isDefaultL3Network && defaultNicMap.get(nic.getVmInstanceUuid()) != null && defaultNicMap.get(nic.getVmInstanceUuid()).size() > 1) {
                     info.isDefaultL3Network = nic.equals(VmNicVO.findTheEarliestOne(defaultNicMap.get(nic.getVmInstanceUuid())));
@@ -214,16 +140,14 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                 info.gateway = ip.getGateway();
                 info.ipVersion = ip.getIpVersion();
 
-                L3NetworkVO l3 = l3Map.get(ip.getL3NetworkUuid());
-                info.dnsDomain = l3.getDnsDomain();
-                info.dns = getL3NetworkDns(ip.getL3NetworkUuid());
-                List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(l3);
-                info.firstIp = NetworkUtils.getSmallestIp(iprs.stream().map(IpRangeInventory::getStartIp).collect(Collectors.toList()));
-                info.endIp = NetworkUtils.getBiggesttIp(iprs.stream().map(IpRangeInventory::getEndIp).collect(Collectors.toList()));
-                info.prefixLength = IpRangeHelper.getNormalIpRanges(l3).stream().findAny().map(IpRangeInventory::getPrefixLen).orElse(null);
+                info.dnsDomain = l3.l3.getDnsDomain();
+                info.dns = l3.dns;
+                info.firstIp = l3.firstIp;
+                info.endIp = l3.endIp;
+                info.prefixLength = l3.prefixLength;
 
                 if (info.isDefaultL3Network) {
-                    info.hostname = hostnames.get(nic.getVmInstanceUuid());
+                    info.hostname = vm.hostname;
                     if (info.hostname == null && ip.getIp() != null) {
                         if (ip.getIpVersion() == IPv6Constants.IPv4) {
                             info.hostname = ip.getIp().replaceAll("\\.", "-");
@@ -237,9 +161,9 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                     }
                 }
 
-                info.l3NetworkUuid = l3.getUuid();
-                info.hostRoutes = getL3NetworkHostRoute(ip.getL3NetworkUuid());
-                info.vmMultiGateway = multiGateway;
+                info.l3NetworkUuid = l3.l3.getUuid();
+                info.hostRoutes = l3.hostRoutes;
+                info.vmMultiGateway = vm.multiGateway;
 
                 dhcpInfoList.add(info);
             }
@@ -768,7 +692,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         }
 
         // TODO: static allocate the IP to avoid the lock
-        GLock lock = new GLock(String.format("l3-%s-allocate-dhcp-ip", l3Uuid), TimeUnit.MINUTES.toSeconds(30));
+        GLock lock = new GLock(String.format("l3-%s-allocate-dhcp-ip", l3Uuid), TimeUnit.MINUTES.toSeconds(30), l3Uuid);
         lock.lock();
         Defer.defer(lock::unlock);
 
@@ -1358,7 +1282,20 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
 
             @Override
             public void run(final FlowTrigger trigger, Map data) {
-                final List<DhcpInfo> dhcpInfoList = getDhcpInfoForConnectedKvmHost(context);
+                snapshotBuilder.getSnapshot(context, data, new ReturnValueCompletion<FlatNetworkHostSnapshot>(trigger) {
+                    @Override
+                    public void success(FlatNetworkHostSnapshot snapshot) {
+                        prepareDhcp(trigger, getDhcpInfoForConnectedKvmHost(snapshot));
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        trigger.fail(errorCode);
+                    }
+                });
+            }
+
+            private void prepareDhcp(final FlowTrigger trigger, final List<DhcpInfo> dhcpInfoList) {
                 if (dhcpInfoList == null) {
                     trigger.next();
                     return;
@@ -1378,7 +1315,11 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                         if (!reply.isSuccess()) {
                             trigger.fail(reply.getError());
                         } else {
-                            applyDhcpToHosts(dhcpInfoList, context.getInventory().getUuid(), true, new Completion(trigger) {
+                            KVMHostAsyncHttpCallReply ar = reply.castReply();
+                            ConnectRsp rsp = ar.toResponse(ConnectRsp.class);
+                            // agents not reporting checksums get everything rebuilt
+                            Map<String, String> checksums = rsp.dhcpChecksums == null ? new HashMap<>() : rsp.dhcpChecksums;
+                            applyDhcpToHosts(dhcpInfoList, context.getInventory().getUuid(), true, checksums, new Completion(trigger) {
                                 @Override
                                 public void success() {
                                     trigger.next();
@@ -1444,6 +1385,12 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         public List<DhcpInfo> dhcp;
         public boolean rebuild;
         public String l3NetworkUuid;
+        /**
+         * only set when rebuilding the namespace of a connecting host, the agent keeps it
+         * and reports it in ConnectRsp; PREPARE_DHCP_PATH with unchanged parameters keeps it,
+         * any other change of the namespace drops it
+         */
+        public String checksum;
     }
 
     public static class ApplyDhcpRsp extends KVMAgentCommands.AgentResponse {
@@ -1473,6 +1420,12 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
     }
 
     public static class ConnectRsp extends KVMAgentCommands.AgentResponse {
+        /**
+         * l3 uuid -> checksum of the last rebuild, for the dhcp namespaces left untouched since then.
+         * The connect flushes ebtables, so namespaces with a matching checksum are still prepared
+         * again, only applying their dhcp is skipped
+         */
+        public Map<String, String> dhcpChecksums;
     }
 
     public static class ResetDefaultGatewayCmd extends KVMAgentCommands.AgentCommand {
@@ -1501,7 +1454,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         return FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE;
     }
 
-    private List<String> getL3NetworkDns(String l3NetworkUuid){
+    List<String> getL3NetworkDns(String l3NetworkUuid){
         List<String> dns = Q.New(L3NetworkDnsVO.class).eq(L3NetworkDnsVO_.l3NetworkUuid, l3NetworkUuid)
                 .select(L3NetworkDnsVO_.dns).orderBy(L3NetworkDnsVO_.id, SimpleQuery.Od.ASC).listValues();
         if (dns == null) {
@@ -1523,7 +1476,7 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         return dns;
     }
 
-    private List<HostRouteInfo> getL3NetworkHostRoute(String l3NetworkUuid){
+    List<HostRouteInfo> getL3NetworkHostRoute(String l3NetworkUuid){
         List<L3NetworkHostRouteVO> vos = Q.New(L3NetworkHostRouteVO.class).eq(L3NetworkHostRouteVO_.l3NetworkUuid, l3NetworkUuid).list();
         if (vos == null || vos.isEmpty()) {
             return new ArrayList<>();
@@ -1604,7 +1557,23 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
         });
     }
 
+    static String dhcpChecksum(List<DhcpInfo> info, PrepareDhcpCmd prepare) {
+        List<DhcpInfo> sorted = new ArrayList<>(info);
+        sorted.sort(Comparator.comparing(i -> i.mac + "/" + i.ip));
+        return DigestUtils.md5Hex(JSONObjectUtil.toJsonString(sorted) + JSONObjectUtil.toJsonString(prepare));
+    }
+
     private void applyDhcpToHosts(List<DhcpInfo> dhcpInfo, final String hostUuid, final boolean rebuild, final Completion completion) {
+        applyDhcpToHosts(dhcpInfo, hostUuid, rebuild, null, completion);
+    }
+
+    /**
+     * @param checksums checksums the host reports for its dhcp namespaces, l3 networks whose dhcp equals
+     *                  the reported checksum are prepared but not applied again; null to apply everything
+     *                  without a checksum
+     */
+    private void applyDhcpToHosts(List<DhcpInfo> dhcpInfo, final String hostUuid, final boolean rebuild,
+                                  final Map<String, String> checksums, final Completion completion) {
         final Map<String, List<DhcpInfo>> l3DhcpMap = new HashMap<String, List<DhcpInfo>>();
         for (DhcpInfo d : dhcpInfo) {
             List<DhcpInfo> lst = l3DhcpMap.get(d.l3NetworkUuid);
@@ -1636,6 +1605,8 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                     String dhcpServerIp;
                     String dhcpNetmask;
                     Integer prefixLen;
+                    String checksum;
+                    boolean unchanged;
 
                     @Override
                     public void setup() {
@@ -1682,6 +1653,12 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
                                 List<NormalIpRangeVO> rangeVOS = Q.New(NormalIpRangeVO.class).eq(NormalIpRangeVO_.l3NetworkUuid, l3Uuid).list();
                                 cmd.addressMode = rangeVOS.get(0).getAddressMode();
 
+                                // always prepare, DHCP_CONNECT_PATH has flushed the ebtables rules set up by it
+                                if (checksums != null) {
+                                    checksum = dhcpChecksum(info, cmd);
+                                    unchanged = checksum.equals(checksums.get(l3Uuid));
+                                }
+
                                 KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
                                 msg.setHostUuid(hostUuid);
                                 msg.setNoStatusCheck(true);
@@ -1714,10 +1691,18 @@ public class FlatDhcpBackend extends AbstractService implements NetworkServiceDh
 
                             @Override
                             public void run(final FlowTrigger trigger, Map data) {
+                                if (unchanged) {
+                                    logger.debug(String.format("dhcp of the l3 network[uuid:%s] on the host[uuid:%s] is not changed, skip applying it",
+                                            l3Uuid, hostUuid));
+                                    trigger.next();
+                                    return;
+                                }
+
                                 ApplyDhcpCmd cmd = new ApplyDhcpCmd();
                                 cmd.dhcp = info;
                                 cmd.rebuild = rebuild;
                                 cmd.l3NetworkUuid = l3Uuid;
+                                cmd.checksum = checksum;
 
                                 KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg();
                                 msg.setCommand(cmd);
@@ -10,4 +10,6 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class FlatNetworkGlobalProperty {
     @GlobalProperty(name="deleteDeprecatedFlatDHCPNameSpace", defaultValue = "false")
     public static boolean DELETE_DEPRECATED_DHCP_NAME_SPACE;
+    @GlobalProperty(name="flatNetwork.hostSnapshot.batchSize", defaultValue = "200")
+    public static int HOST_SNAPSHOT_BATCH_SIZE;
 }
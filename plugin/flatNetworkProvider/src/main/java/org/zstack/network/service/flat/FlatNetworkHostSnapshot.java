@@ -0,0 +1,54 @@
+package org.zstack.network.service.flat;
+
+import org.zstack.header.network.l3.L3NetworkVO;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmNicVO;
+import org.zstack.network.service.flat.FlatDhcpBackend.HostRouteInfo;
+
+import java.util.*;
+
+/**
+ * flat network service state of the vms on a host, loaded by FlatNetworkHostSnapshotBuilder
+ * when the host connects and shared by the connecting flows of the flat backends.
+ *
+ * L3View objects are shared by all snapshots built in the same batch and must not be modified.
+ */
+class FlatNetworkHostSnapshot {
+    static class VmView {
+        String uuid;
+        String defaultL3NetworkUuid;
+        VmInstanceState state;
+        String hostname;
+        boolean multiGateway;
+    }
+
+    static class DefaultIpView {
+        String ip;
+        String netmask;
+        String l3NetworkUuid;
+    }
+
+    static class L3View {
+        L3NetworkVO l3;
+        String bridgeName;
+        Integer mtu;
+        List<String> dns;
+        List<HostRouteInfo> hostRoutes;
+        String firstIp;
+        String endIp;
+        Integer prefixLength;
+        String addressMode;
+    }
+
+    final String hostUuid;
+    final Map<String, VmView> vms = new LinkedHashMap<>();
+    // nics of the vms on l3 networks served by the flat dhcp
+    final List<VmNicVO> dhcpNics = new ArrayList<>();
+    // ips on the default l3 network of the vms whose default l3 network is served by the flat userdata
+    final Map<String, DefaultIpView> userdataIps = new LinkedHashMap<>();
+    final Map<String, L3View> l3Networks = new HashMap<>();
+
+    FlatNetworkHostSnapshot(String hostUuid) {
+        this.hostUuid = hostUuid;
+    }
+}
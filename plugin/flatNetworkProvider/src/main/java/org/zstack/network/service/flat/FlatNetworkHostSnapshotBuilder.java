@@ -0,0 +1,281 @@
+package org.zstack.network.service.flat;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.compute.vm.VmSystemTags;
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.core.thread.ChainTask;
+import org.zstack.core.thread.SyncTaskChain;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.network.l3.IpRangeInventory;
+import org.zstack.header.network.l3.L3NetworkVO;
+import org.zstack.header.network.l3.L3NetworkVO_;
+import org.zstack.header.network.service.NetworkServiceType;
+import org.zstack.header.vm.VmInstanceConstant;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.vm.VmNicVO;
+import org.zstack.kvm.KVMHostConnectedContext;
+import org.zstack.network.l3.IpRangeHelper;
+import org.zstack.network.service.MtuGetter;
+import org.zstack.network.service.NetworkServiceFilter;
+import org.zstack.network.service.flat.FlatNetworkHostSnapshot.DefaultIpView;
+import org.zstack.network.service.flat.FlatNetworkHostSnapshot.L3View;
+import org.zstack.network.service.flat.FlatNetworkHostSnapshot.VmView;
+import org.zstack.network.service.userdata.UserdataConstant;
+import org.zstack.utils.TagUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.zstack.core.Platform.operr;
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * loads the flat network state of connecting hosts.
+ *
+ * When a lot of hosts reconnect together, e.g. after the management node restarts, the requests
+ * queued meanwhile are served by one batch of set based queries, and data of an l3 network,
+ * like dns, host routes and ip ranges, is loaded once per batch instead of once per ip.
+ */
+public class FlatNetworkHostSnapshotBuilder {
+    private static final CLogger logger = Utils.getLogger(FlatNetworkHostSnapshotBuilder.class);
+
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private FlatDhcpBackend dhcpBackend;
+
+    private static final String SNAPSHOT_KEY = FlatNetworkHostSnapshot.class.getName();
+
+    static final List<VmInstanceState> DHCP_VM_STATES = list(VmInstanceState.Running, VmInstanceState.Unknown, VmInstanceState.Starting,
+            VmInstanceState.Rebooting, VmInstanceState.Resuming, VmInstanceState.Migrating, VmInstanceState.VolumeMigrating);
+
+    private final Map<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>> pending = new LinkedHashMap<>();
+
+    /**
+     * the snapshot is kept in the data of the host connecting chain, so the flows of all flat backends share it
+     */
+    void getSnapshot(KVMHostConnectedContext context, Map data, ReturnValueCompletion<FlatNetworkHostSnapshot> completion) {
+        FlatNetworkHostSnapshot snapshot = (FlatNetworkHostSnapshot) data.get(SNAPSHOT_KEY);
+        if (snapshot != null) {
+            completion.success(snapshot);
+            return;
+        }
+
+        getSnapshot(context.getInventory().getUuid(), new ReturnValueCompletion<FlatNetworkHostSnapshot>(completion) {
+            @Override
+            public void success(FlatNetworkHostSnapshot returnValue) {
+                data.put(SNAPSHOT_KEY, returnValue);
+                completion.success(returnValue);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
+    }
+
+    void getSnapshot(String hostUuid, ReturnValueCompletion<FlatNetworkHostSnapshot> completion) {
+        synchronized (pending) {
+            pending.computeIfAbsent(hostUuid, k -> new ArrayList<>()).add(completion);
+        }
+
+        thdf.chainSubmit(new ChainTask(completion) {
+            @Override
+            public String getSyncSignature() {
+                return "flat-network-host-snapshot";
+            }
+
+            @Override
+            public void run(SyncTaskChain chain) {
+                Map<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>> batch = drain();
+                if (batch.isEmpty()) {
+                    // served by a former batch
+                    chain.next();
+                    return;
+                }
+
+                Map<String, FlatNetworkHostSnapshot> snapshots;
+                try {
+                    snapshots = build(batch.keySet());
+                } catch (Throwable t) {
+                    logger.warn(String.format("failed to load flat network state of hosts%s", batch.keySet()), t);
+                    ErrorCode err = operr("failed to load flat network state of hosts%s, %s", batch.keySet(), t.getMessage());
+                    chain.next();
+                    batch.values().forEach(cs -> cs.forEach(c -> c.fail(err)));
+                    return;
+                }
+
+                chain.next();
+                batch.forEach((huuid, cs) -> cs.forEach(c -> c.success(snapshots.get(huuid))));
+            }
+
+            @Override
+            public String getName() {
+                return String.format("load-flat-network-state-of-host-%s", hostUuid);
+            }
+        });
+    }
+
+    private Map<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>> drain() {
+        Map<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>> batch = new LinkedHashMap<>();
+        synchronized (pending) {
+            Iterator<Map.Entry<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < FlatNetworkGlobalProperty.HOST_SNAPSHOT_BATCH_SIZE) {
+                Map.Entry<String, List<ReturnValueCompletion<FlatNetworkHostSnapshot>>> e = it.next();
+                batch.put(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+
+        return batch;
+    }
+
+    Map<String, FlatNetworkHostSnapshot> build(Collection<String> hostUuids) {
+        Map<String, FlatNetworkHostSnapshot> ret = new HashMap<>();
+        hostUuids.forEach(huuid -> ret.put(huuid, new FlatNetworkHostSnapshot(huuid)));
+
+        List<Tuple> ts = SQL.New("select vm.uuid, vm.hostUuid, vm.defaultL3NetworkUuid, vm.state, vm.type from VmInstanceVO vm" +
+                " where vm.hostUuid in (:huuids) and vm.state in (:states)", Tuple.class)
+                .param("huuids", hostUuids)
+                .param("states", DHCP_VM_STATES)
+                .list();
+        if (ts.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, VmView> vms = new HashMap<>();
+        Map<String, String> vmHosts = new HashMap<>();
+        List<String> userVmUuids = new ArrayList<>();
+        List<String> runningVmUuids = new ArrayList<>();
+        for (Tuple t : ts) {
+            VmView vm = new VmView();
+            vm.uuid = t.get(0, String.class);
+            vm.defaultL3NetworkUuid = t.get(2, String.class);
+            vm.state = t.get(3, VmInstanceState.class);
+            vms.put(vm.uuid, vm);
+            vmHosts.put(vm.uuid, t.get(1, String.class));
+            ret.get(t.get(1, String.class)).vms.put(vm.uuid, vm);
+
+            if (VmInstanceConstant.USER_VM_TYPE.equals(t.get(4, String.class))) {
+                userVmUuids.add(vm.uuid);
+            }
+            if (vm.state == VmInstanceState.Running) {
+                runningVmUuids.add(vm.uuid);
+            }
+        }
+
+        loadVmTags(vms);
+
+        Set<String> l3Uuids = new HashSet<>();
+        if (!userVmUuids.isEmpty()) {
+            List<VmNicVO> nics = SQL.New("select nic from VmNicVO nic, L3NetworkVO l3, NetworkServiceL3NetworkRefVO ref, NetworkServiceProviderVO provider, UsedIpVO ip" +
+                    " where nic.uuid = ip.vmNicUuid and ip.l3NetworkUuid = l3.uuid" +
+                    " and ref.l3NetworkUuid = l3.uuid and ref.networkServiceProviderUuid = provider.uuid" +
+                    " and ref.networkServiceType = :dhcpType" +
+                    " and provider.type = :ptype and nic.vmInstanceUuid in (:vmUuids) group by nic.uuid", VmNicVO.class)
+                    .param("ptype", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING)
+                    .param("dhcpType", NetworkServiceType.DHCP.toString())
+                    .param("vmUuids", userVmUuids)
+                    .list();
+            for (VmNicVO nic : nics) {
+                ret.get(vmHosts.get(nic.getVmInstanceUuid())).dhcpNics.add(nic);
+                nic.getUsedIps().forEach(ip -> l3Uuids.add(ip.getL3NetworkUuid()));
+            }
+        }
+
+        if (!runningVmUuids.isEmpty()) {
+            List<String> userdataVmUuids = new NetworkServiceFilter().filterVmByServiceTypeAndProviderType(runningVmUuids,
+                    UserdataConstant.USERDATA_TYPE_STRING, FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING);
+            if (!userdataVmUuids.isEmpty()) {
+                ts = SQL.New("select vm.uuid, ip.ip, ip.l3NetworkUuid, ip.netmask from VmInstanceVO vm," +
+                        " VmNicVO nic, NetworkServiceL3NetworkRefVO ref," +
+                        " NetworkServiceProviderVO pro, UsedIpVO ip where" +
+                        " vm.uuid = nic.vmInstanceUuid and vm.uuid in (:uuids)" +
+                        " and nic.uuid = ip.vmNicUuid" +
+                        " and ip.l3NetworkUuid = vm.defaultL3NetworkUuid" +
+                        " and ref.networkServiceProviderUuid = pro.uuid" +
+                        " and ref.l3NetworkUuid = vm.defaultL3NetworkUuid" +
+                        " and pro.type = :proType", Tuple.class)
+                        .param("uuids", userdataVmUuids)
+                        .param("proType", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING)
+                        .list();
+                for (Tuple t : ts) {
+                    DefaultIpView ip = new DefaultIpView();
+                    ip.ip = t.get(1, String.class);
+                    ip.l3NetworkUuid = t.get(2, String.class);
+                    ip.netmask = t.get(3, String.class);
+                    ret.get(vmHosts.get(t.get(0, String.class))).userdataIps.put(t.get(0, String.class), ip);
+                    l3Uuids.add(ip.l3NetworkUuid);
+                }
+            }
+        }
+
+        Map<String, L3View> l3s = loadL3Networks(l3Uuids);
+        for (FlatNetworkHostSnapshot s : ret.values()) {
+            s.dhcpNics.forEach(nic -> nic.getUsedIps().forEach(ip -> s.l3Networks.put(ip.getL3NetworkUuid(), l3s.get(ip.getL3NetworkUuid()))));
+            s.userdataIps.values().forEach(ip -> s.l3Networks.put(ip.l3NetworkUuid, l3s.get(ip.l3NetworkUuid)));
+        }
+
+        return ret;
+    }
+
+    private void loadVmTags(Map<String, VmView> vms) {
+        List<Tuple> ts = SQL.New("select t.tag, t.resourceUuid from SystemTagVO t where t.resourceType = :ttype" +
+                " and t.tag like :tag and t.resourceUuid in (:vmUuids)", Tuple.class)
+                .param("tag", TagUtils.tagPatternToSqlPattern(VmSystemTags.HOSTNAME.getTagFormat()))
+                .param("ttype", VmInstanceVO.class.getSimpleName())
+                .param("vmUuids", vms.keySet())
+                .list();
+        for (Tuple t : ts) {
+            vms.get(t.get(1, String.class)).hostname = VmSystemTags.HOSTNAME.getTokenByTag(t.get(0, String.class), VmSystemTags.HOSTNAME_TOKEN);
+        }
+
+        ts = SQL.New("select t.tag, t.resourceUuid from SystemTagVO t where t.resourceType = :ttype" +
+                " and t.tag like :tag and t.resourceUuid in (:vmUuids)", Tuple.class)
+                .param("tag", TagUtils.tagPatternToSqlPattern(VmSystemTags.MULTIPLE_GATEWAY.getTagFormat()))
+                .param("ttype", VmInstanceVO.class.getSimpleName())
+                .param("vmUuids", vms.keySet())
+                .list();
+        for (Tuple t : ts) {
+            vms.get(t.get(1, String.class)).multiGateway = Boolean.valueOf(
+                    VmSystemTags.MULTIPLE_GATEWAY.getTokenByTag(t.get(0, String.class), VmSystemTags.MULTIPLE_GATEWAY_TOKEN));
+        }
+    }
+
+    private Map<String, L3View> loadL3Networks(Set<String> l3Uuids) {
+        Map<String, L3View> ret = new HashMap<>();
+        if (l3Uuids.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, String> bridgeNames = new BridgeNameFinder().findByL3Uuids(l3Uuids);
+        List<L3NetworkVO> l3vos = Q.New(L3NetworkVO.class).in(L3NetworkVO_.uuid, l3Uuids).list();
+        MtuGetter mtuGetter = new MtuGetter();
+        for (L3NetworkVO l3 : l3vos) {
+            L3View v = new L3View();
+            v.l3 = l3;
+            v.bridgeName = bridgeNames.get(l3.getUuid());
+            v.mtu = mtuGetter.getMtu(l3.getUuid());
+            v.dns = dhcpBackend.getL3NetworkDns(l3.getUuid());
+            v.hostRoutes = dhcpBackend.getL3NetworkHostRoute(l3.getUuid());
+
+            List<IpRangeInventory> iprs = IpRangeHelper.getNormalIpRanges(l3);
+            v.firstIp = NetworkUtils.getSmallestIp(iprs.stream().map(IpRangeInventory::getStartIp).collect(Collectors.toList()));
+            v.endIp = NetworkUtils.getBiggesttIp(iprs.stream().map(IpRangeInventory::getEndIp).collect(Collectors.toList()));
+            v.prefixLength = iprs.stream().findAny().map(IpRangeInventory::getPrefixLen).orElse(null);
+            v.addressMode = iprs.stream().findFirst().map(IpRangeInventory::getAddressMode).orElse(null);
+            ret.put(l3.getUuid(), v);
+        }
+
+        return ret;
+    }
+}
@@ -33,24 +33,20 @@ import org.zstack.header.network.service.NetworkServiceProviderType;
 import org.zstack.header.network.service.NetworkServiceProviderVO;
 import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.header.vm.VmInstanceMigrateExtensionPoint;
-import org.zstack.header.vm.VmInstanceState;
 import org.zstack.header.vm.VmNicInventory;
 import org.zstack.kvm.*;
 import org.zstack.kvm.KVMAgentCommands.AgentResponse;
 import org.zstack.network.service.NetworkProviderFinder;
-import org.zstack.network.service.NetworkServiceFilter;
 import org.zstack.network.service.userdata.*;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
-import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
 
@@ -69,6 +65,8 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
     private ApiTimeoutManager timeoutMgr;
     @Autowired
     private FlatDhcpBackend dhcpBackend;
+    @Autowired
+    private FlatNetworkHostSnapshotBuilder snapshotBuilder;
 
     public static final String APPLY_USER_DATA = "/flatnetworkprovider/userdata/apply";
     public static final String BATCH_APPLY_USER_DATA = "/flatnetworkprovider/userdata/batchapply";
@@ -80,114 +78,44 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
         return new NoRollbackFlow() {
             String __name__ = "prepare-userdata";
 
-            @Transactional(readOnly = true)
-            private List<String> getVmsNeedUserdataOnHost() {
-                String sql = "select vm.uuid from VmInstanceVO vm where vm.hostUuid = :huuid and vm.state = :state";
-                TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                q.setParameter("state", VmInstanceState.Running);
-                q.setParameter("huuid", context.getInventory().getUuid());
-                List<String> vmUuids = q.getResultList();
-                if (vmUuids.isEmpty()) {
-                    return null;
-                }
-
-                vmUuids = new NetworkServiceFilter().filterVmByServiceTypeAndProviderType(vmUuids, UserdataConstant.USERDATA_TYPE_STRING, FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING);
-                if (vmUuids.isEmpty()) {
-                    return null;
-                }
-
-                return vmUuids;
-            }
-
-            class VmIpL3Uuid {
-                String vmIp;
-                String netmask;
-                String l3Uuid;
-                String dhcpServerIp;
-            }
-
-            @Transactional(readOnly = true)
-            private Map<String, VmIpL3Uuid> getVmIpL3Uuid(List<String> vmUuids) {
-                String sql = "select vm.uuid, ip.ip, ip.l3NetworkUuid, ip.netmask from VmInstanceVO vm," +
-                        "VmNicVO nic, NetworkServiceL3NetworkRefVO ref," +
-                        "NetworkServiceProviderVO pro, UsedIpVO ip where " +
-                        " vm.uuid = nic.vmInstanceUuid and vm.uuid in (:uuids)" +
-                        " and nic.uuid = ip.vmNicUuid " +
-                        " and ip.l3NetworkUuid = vm.defaultL3NetworkUuid" +
-                        " and ref.networkServiceProviderUuid = pro.uuid" +
-                        " and ref.l3NetworkUuid = vm.defaultL3NetworkUuid" +
-                        " and pro.type = :proType";
-
-                TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                q.setParameter("uuids", vmUuids);
-                q.setParameter("proType", FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING);
-                List<Tuple> ts = q.getResultList();
-
-                Map<String, VmIpL3Uuid> ret = new HashMap<String, VmIpL3Uuid>();
-                for (Tuple t : ts) {
-                    String vmUuid = t.get(0, String.class);
-                    VmIpL3Uuid v = new VmIpL3Uuid();
-                    v.vmIp = t.get(1, String.class);
-                    v.l3Uuid = t.get(2, String.class);
-                    v.netmask = t.get(3, String.class);
-                    ret.put(vmUuid, v);
-                }
-
-                return ret;
-            }
-
-            private List<UserdataTO> getUserData() {
-                List<String> vmUuids = getVmsNeedUserdataOnHost();
-                if (vmUuids == null) {
-                    return null;
-                }
-
-                Map<String, VmIpL3Uuid> vmipl3 = getVmIpL3Uuid(vmUuids);
-                if (vmipl3.isEmpty()) {
-                    return null;
-                }
-
-                // filter out vm that not using flat network provider
-                vmUuids = vmUuids.stream().filter(vmipl3::containsKey).collect(Collectors.toList());
+            private List<UserdataTO> getUserData(FlatNetworkHostSnapshot snapshot) {
+                // vms not using the flat network provider on their default l3 network are not in the snapshot
+                List<String> vmUuids = new ArrayList<>(snapshot.userdataIps.keySet());
                 if (vmUuids.isEmpty()) {
                     return null;
                 }
 
                 Map<String, List<String>> userdata = new UserdataBuilder().buildByVmUuids(vmUuids);
-                Set<String> l3Uuids = new HashSet<String>();
-                for (VmIpL3Uuid l : vmipl3.values()) {
-                    String dhcpIp = dhcpBackend.allocateDhcpIp(l.l3Uuid);
-                    if (dhcpIp != null) {
-                        l.dhcpServerIp = dhcpIp;
+                Map<String, String> dhcpServerIps = new HashMap<String, String>();
+                for (FlatNetworkHostSnapshot.DefaultIpView ip : snapshot.userdataIps.values()) {
+                    if (!dhcpServerIps.containsKey(ip.l3NetworkUuid)) {
+                        dhcpServerIps.put(ip.l3NetworkUuid, dhcpBackend.allocateDhcpIp(ip.l3NetworkUuid));
                     }
-                    l3Uuids.add(l.l3Uuid);
                 }
 
-                Map<String, String> bridgeNames = new BridgeNameFinder().findByL3Uuids(l3Uuids);
-
                 List<UserdataTO> tos = new ArrayList<UserdataTO>();
                 for (String vmuuid : vmUuids) {
                     UserdataTO to = new UserdataTO();
                     MetadataTO mto = new MetadataTO();
                     mto.vmUuid = vmuuid;
-                    mto.vmHostname = VmSystemTags.HOSTNAME.getTokenByResourceUuid(vmuuid, VmSystemTags.HOSTNAME_TOKEN);
+                    mto.vmHostname = snapshot.vms.get(vmuuid).hostname;
                     to.metadata = mto;
 
-                    VmIpL3Uuid l = vmipl3.get(vmuuid);
-                    if (l.vmIp == null) {
+                    FlatNetworkHostSnapshot.DefaultIpView l = snapshot.userdataIps.get(vmuuid);
+                    if (l.ip == null) {
                         continue;
                     }
 
-                    to.dhcpServerIp = l.dhcpServerIp;
-                    to.vmIp = l.vmIp;
+                    to.dhcpServerIp = dhcpServerIps.get(l.l3NetworkUuid);
+                    to.vmIp = l.ip;
                     to.netmask = l.netmask;
-                    to.bridgeName = bridgeNames.get(l.l3Uuid);
-                    to.namespaceName = FlatDhcpBackend.makeNamespaceName(to.bridgeName, l.l3Uuid);
+                    to.bridgeName = snapshot.l3Networks.get(l.l3NetworkUuid).bridgeName;
+                    to.namespaceName = FlatDhcpBackend.makeNamespaceName(to.bridgeName, l.l3NetworkUuid);
                     if (userdata.get(vmuuid) != null) {
                         to.userdataList.addAll(userdata.get(vmuuid));
                     }
                     to.port = UserdataGlobalProperty.HOST_PORT;
-                    to.l3NetworkUuid = l.l3Uuid;
+                    to.l3NetworkUuid = l.l3NetworkUuid;
                     tos.add(to);
                 }
 
@@ -196,7 +124,20 @@ public class FlatUserdataBackend implements UserdataBackend, KVMHostConnectExten
 
             @Override
             public void run(final FlowTrigger trigger, Map data) {
-                List<UserdataTO> tos = getUserData();
+                snapshotBuilder.getSnapshot(context, data, new ReturnValueCompletion<FlatNetworkHostSnapshot>(trigger) {
+                    @Override
+                    public void success(FlatNetworkHostSnapshot snapshot) {
+                        applyUserdata(trigger, getUserData(snapshot));
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        trigger.fail(errorCode);
+                    }
+                });
+            }
+
+            private void applyUserdata(final FlowTrigger trigger, List<UserdataTO> tos) {
                 if (tos == null) {
                     trigger.next();
                     return;
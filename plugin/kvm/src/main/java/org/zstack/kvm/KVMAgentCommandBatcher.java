@@ -0,0 +1,123 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.rest.AsyncJsonBatchItem;
+import org.zstack.header.rest.AsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces async commands to the same KVM agent when kvm.agentCommand.batch is true.
+ *
+ * Commands are queued per agent, a sender drains the queue and posts all commands it
+ * got in one request to the agent's batch path. Each command still has its own taskUuid
+ * and its response comes back through the RESTFacade callback like a single async post.
+ * While a request is being posted, new commands pile up and go out with the next one,
+ * so a lone command is never delayed waiting for others.
+ */
+public class KVMAgentCommandBatcher {
+    @Autowired
+    private RESTFacade restf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private final Map<String, AgentChannel> channels = new ConcurrentHashMap<>();
+
+    private class AgentChannel {
+        final String batchUrl;
+        final Queue<AsyncJsonBatchItem> items = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean sending = new AtomicBoolean(false);
+
+        AgentChannel(String batchUrl) {
+            this.batchUrl = batchUrl;
+        }
+
+        void offer(AsyncJsonBatchItem item) {
+            items.offer(item);
+            kick();
+        }
+
+        private void kick() {
+            if (items.isEmpty() || !sending.compareAndSet(false, true)) {
+                return;
+            }
+
+            thdf.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return String.format("kvm-agent-command-batch-%s", batchUrl);
+                }
+
+                @Override
+                public Void call() {
+                    drain();
+                    return null;
+                }
+            });
+        }
+
+        private List<AsyncJsonBatchItem> poll() {
+            int max = KVMGlobalConfig.AGENT_COMMAND_BATCH_SIZE.value(Integer.class);
+            List<AsyncJsonBatchItem> batch = new ArrayList<>();
+            AsyncJsonBatchItem item;
+            while (batch.size() < max && (item = items.poll()) != null) {
+                batch.add(item);
+            }
+            return batch;
+        }
+
+        private void drain() {
+            try {
+                List<AsyncJsonBatchItem> batch;
+                while (!(batch = poll()).isEmpty()) {
+                    if (batch.size() == 1) {
+                        AsyncJsonBatchItem item = batch.get(0);
+                        restf.asyncJsonPost(item.getUrl(), item.getBody(), item.getHeaders(), item.getCallback(), item.getUnit(), item.getTimeout());
+                    } else {
+                        restf.asyncJsonPostBatch(batchUrl, batch);
+                    }
+                }
+            } finally {
+                sending.set(false);
+            }
+
+            // commands offered after the last poll found the sender busy, pick them up
+            kick();
+        }
+    }
+
+    private String getBatchUrl(String url) {
+        UriComponents uri = UriComponentsBuilder.fromHttpUrl(url).build();
+        UriComponentsBuilder ub = UriComponentsBuilder.newInstance();
+        ub.scheme(uri.getScheme());
+        ub.host(uri.getHost());
+        ub.port(uri.getPort());
+        if (!"".equals(KVMGlobalProperty.AGENT_URL_ROOT_PATH)) {
+            ub.path(KVMGlobalProperty.AGENT_URL_ROOT_PATH);
+        }
+        ub.path(KVMConstant.KVM_BATCH_COMMANDS_PATH);
+        return ub.build().toUriString();
+    }
+
+    public void asyncJsonPost(String url, String body, Map<String, String> headers, AsyncRESTCallback callback, TimeUnit unit, long timeout) {
+        if (!KVMGlobalConfig.AGENT_COMMAND_BATCH.value(Boolean.class)) {
+            restf.asyncJsonPost(url, body, headers, callback, unit, timeout);
+            return;
+        }
+
+        channels.computeIfAbsent(getBatchUrl(url), AgentChannel::new)
+                .offer(new AsyncJsonBatchItem(url, body, headers, callback, unit, timeout));
+    }
+}
@@ -1958,6 +1958,7 @@ public class KVMAgentCommands {
     public static class RefreshAllRulesOnHostCmd extends AgentCommand {
         private List<SecurityGroupRuleTO> ruleTOs;
         private List<SecurityGroupRuleTO> ipv6RuleTOs;
+        private long ruleVersion;
 
         public List<SecurityGroupRuleTO> getRuleTOs() {
             return ruleTOs;
@@ -1974,9 +1975,27 @@ public class KVMAgentCommands {
         public void setIpv6RuleTOs(List<SecurityGroupRuleTO> ipv6RuleTOs) {
             this.ipv6RuleTOs = ipv6RuleTOs;
         }
+
+        public long getRuleVersion() {
+            return ruleVersion;
+        }
+
+        public void setRuleVersion(long ruleVersion) {
+            this.ruleVersion = ruleVersion;
+        }
     }
 
     public static class RefreshAllRulesOnHostResponse extends AgentResponse {
+        // the ruleVersion of the command applied, echoed by the agent
+        private long ruleVersion;
+
+        public long getRuleVersion() {
+            return ruleVersion;
+        }
+
+        public void setRuleVersion(long ruleVersion) {
+            this.ruleVersion = ruleVersion;
+        }
     }
 
     public static class CheckDefaultSecurityGroupCmd extends AgentCommand {
@@ -2013,6 +2032,7 @@ public class KVMAgentCommands {
     public static class ApplySecurityGroupRuleCmd extends AgentCommand {
         private List<SecurityGroupRuleTO> ruleTOs;
         private List<SecurityGroupRuleTO> ipv6RuleTOs;
+        private long ruleVersion;
 
         public List<SecurityGroupRuleTO> getRuleTOs() {
             return ruleTOs;
@@ -2029,9 +2049,27 @@ public class KVMAgentCommands {
         public void setIpv6RuleTOs(List<SecurityGroupRuleTO> ipv6RuleTOs) {
             this.ipv6RuleTOs = ipv6RuleTOs;
         }
+
+        public long getRuleVersion() {
+            return ruleVersion;
+        }
+
+        public void setRuleVersion(long ruleVersion) {
+            this.ruleVersion = ruleVersion;
+        }
     }
 
     public static class ApplySecurityGroupRuleResponse extends AgentResponse {
+        // the ruleVersion of the command applied, echoed by the agent
+        private long ruleVersion;
+
+        public long getRuleVersion() {
+            return ruleVersion;
+        }
+
+        public void setRuleVersion(long ruleVersion) {
+            this.ruleVersion = ruleVersion;
+        }
     }
 
     public static class MigrateVmCmd extends AgentCommand implements HasThreadContext {
@@ -0,0 +1,15 @@
+package org.zstack.kvm;
+
+import java.util.Map;
+
+/**
+ * called before a command is sent to the KVM agent, unlike KVMBeforeAsyncJsonPostExtensionPoint
+ * the command is not serialized and parsed back into a map
+ */
+public interface KVMBeforeAgentCommandExtensionPoint {
+    /**
+     * @param cmd the command, a LinkedHashMap if the command is given as a JSON string
+     * @return addons put into the kvmHostAddons of the command
+     */
+    Map kvmBeforeAgentCommand(String path, Object cmd, Map<String, String> header);
+}
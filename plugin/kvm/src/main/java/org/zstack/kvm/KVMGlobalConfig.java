@@ -27,6 +27,10 @@ public class KVMGlobalConfig {
     public static GlobalConfig HOST_SYNC_LEVEL = new GlobalConfig(CATEGORY, "host.syncLevel");
     @GlobalConfigValidation(numberGreaterThan = 2)
     public static GlobalConfig HOST_SNAPSHOT_SYNC_LEVEL = new GlobalConfig(CATEGORY, "host.snapshot.syncLevel");
+    @GlobalConfigValidation
+    public static GlobalConfig AGENT_COMMAND_BATCH = new GlobalConfig(CATEGORY, "agentCommand.batch");
+    @GlobalConfigValidation(numberGreaterThan = 1)
+    public static GlobalConfig AGENT_COMMAND_BATCH_SIZE = new GlobalConfig(CATEGORY, "agentCommand.batchSize");
     @GlobalConfigValidation(inNumberRange = {1, 10})
     public static GlobalConfig VM_CREATE_CONCURRENCY = new GlobalConfig(CATEGORY, "vm.createConcurrency");
     @GlobalConfigValidation
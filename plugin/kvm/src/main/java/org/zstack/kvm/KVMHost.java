@@ -94,6 +94,8 @@ public class KVMHost extends HostBase implements Host {
     @Autowired
     private RESTFacade restf;
     @Autowired
+    private KVMAgentCommandBatcher agentCommandBatcher;
+    @Autowired
     private KVMExtensionEmitter extEmitter;
     @Autowired
     private ErrorFacade errf;
@@ -330,7 +332,7 @@ public class KVMHost extends HostBase implements Host {
             header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, resourceUuid == null ? self.getUuid() : resourceUuid);
             runBeforeAsyncJsonPostExts(header);
             if (commandStr != null) {
-                restf.asyncJsonPost(path, commandStr, header, new JsonAsyncRESTCallback<T>(completion) {
+                agentCommandBatcher.asyncJsonPost(path, commandStr, header, new JsonAsyncRESTCallback<T>(completion) {
                     @Override
                     public void fail(ErrorCode err) {
                         completion.fail(err);
@@ -375,6 +377,24 @@ public class KVMHost extends HostBase implements Host {
         }
 
         void runBeforeAsyncJsonPostExts(Map<String, String> header) {
+            List<KVMBeforeAsyncJsonPostExtensionPoint> mapExts = pluginRegistry.getExtensionList(KVMBeforeAsyncJsonPostExtensionPoint.class);
+            List<KVMBeforeAgentCommandExtensionPoint> exts = pluginRegistry.getExtensionList(KVMBeforeAgentCommandExtensionPoint.class);
+
+            if (commandStr == null && cmd != null && mapExts.isEmpty()) {
+                // no extension needs the command as a map, put the addons in and serialize it once
+                LinkedHashMap kvmHostAddon = new LinkedHashMap();
+                for (KVMBeforeAgentCommandExtensionPoint extp : exts) {
+                    Map addon = extp.kvmBeforeAgentCommand(path, cmd, header);
+                    if (addon != null) {
+                        kvmHostAddon.putAll(addon);
+                    }
+                }
+
+                cmd.kvmHostAddons = kvmHostAddon;
+                commandStr = JSONObjectUtil.toJsonString(cmd);
+                return;
+            }
+
             if (commandStr == null) {
                 commandStr = JSONObjectUtil.toJsonString(cmd);
             }
@@ -386,7 +406,14 @@ public class KVMHost extends HostBase implements Host {
 
             LinkedHashMap commandMap = JSONObjectUtil.toObject(commandStr, LinkedHashMap.class);
             LinkedHashMap kvmHostAddon = new LinkedHashMap();
-            for (KVMBeforeAsyncJsonPostExtensionPoint extp : pluginRegistry.getExtensionList(KVMBeforeAsyncJsonPostExtensionPoint.class)) {
+            for (KVMBeforeAgentCommandExtensionPoint extp : exts) {
+                Map addon = extp.kvmBeforeAgentCommand(path, commandMap, header);
+                if (addon != null) {
+                    kvmHostAddon.putAll(addon);
+                }
+            }
+
+            for (KVMBeforeAsyncJsonPostExtensionPoint extp : mapExts) {
                 LinkedHashMap tmpHashMap = extp.kvmBeforeAsyncJsonPostExtensionPoint(path, commandMap, header);
 
                 if (tmpHashMap != null && !tmpHashMap.isEmpty()) {
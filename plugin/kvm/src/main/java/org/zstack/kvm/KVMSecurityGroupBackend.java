@@ -47,6 +47,7 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
 
     private void incrementallyApplyRules(final HostRuleTO hto, final Completion complete) {
         ApplySecurityGroupRuleCmd cmd = new ApplySecurityGroupRuleCmd();
+        cmd.setRuleVersion(hto.getRuleVersion());
         if (!hto.getRules().isEmpty()) {
             cmd.setRuleTOs(hto.getRules());
         }
@@ -75,6 +76,8 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
                     return;
                 }
 
+                // an agent not echoing the version never acknowledges, its rules are shipped every time
+                hto.setRuleVersionAcknowledged(rsp.getRuleVersion() == hto.getRuleVersion());
                 String info = String.format("successfully applied rules of security group rules to kvm host[uuid:%s]", hto.getHostUuid());
                 logger.debug(info);
                 complete.success();
@@ -84,6 +87,7 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
     
     private void reApplyAllRulesOnHost(final HostRuleTO hto, final Completion complete) {
         RefreshAllRulesOnHostCmd cmd = new RefreshAllRulesOnHostCmd();
+        cmd.setRuleVersion(hto.getRuleVersion());
         if (!hto.getRules().isEmpty()) {
             cmd.setRuleTOs(hto.getRules());
         }
@@ -113,6 +117,8 @@ public class KVMSecurityGroupBackend implements SecurityGroupHypervisorBackend,
                     return;
                 }
 
+                // an agent not echoing the version never acknowledges, its rules are shipped every time
+                hto.setRuleVersionAcknowledged(rsp.getRuleVersion() == hto.getRuleVersion());
                 String info = String.format("successfully applied rules of security group rules to kvm host[uuid:%s]", hto.getHostUuid());
                 logger.debug(info);
                 complete.success();
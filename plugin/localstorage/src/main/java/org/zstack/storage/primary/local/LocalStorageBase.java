@@ -38,6 +38,7 @@ import org.zstack.header.storage.snapshot.*;
 import org.zstack.header.vm.*;
 import org.zstack.header.volume.*;
 import org.zstack.storage.primary.PrimaryStorageBase;
+import org.zstack.storage.primary.PrimaryStorageCapacityLedger;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
 import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
 import org.zstack.storage.primary.local.APIGetLocalStorageHostDiskCapacityReply.HostDiskCapacity;
@@ -78,6 +79,8 @@ public class LocalStorageBase extends PrimaryStorageBase {
     private LocalStorageImageCleaner imageCacheCleaner;
     @Autowired
     private EventFacade eventf;
+    @Autowired
+    private PrimaryStorageCapacityLedger capacityLedger;
 
     static class FactoryCluster {
         LocalStorageHypervisorFactory factory;
@@ -653,6 +656,7 @@ public class LocalStorageBase extends PrimaryStorageBase {
                 originVolumeStatus = volume.getStatus();
                 volume.setStatus(VolumeStatus.Migrating);
                 SQL.New(VolumeVO.class).set(VolumeVO_.status, VolumeStatus.Migrating).eq(VolumeVO_.uuid, volume.getUuid()).update();
+                capacityLedger.volumesUpdated(Collections.singletonList(volume.getUuid()));
             }
 
             @Override
@@ -2503,6 +2507,62 @@ public class LocalStorageBase extends PrimaryStorageBase {
         });
     }
 
+    @Override
+    protected void handle(final BatchSyncVolumeSizeOnPrimaryStorageMsg msg) {
+        BatchSyncVolumeSizeOnPrimaryStorageReply reply = new BatchSyncVolumeSizeOnPrimaryStorageReply();
+        if (msg.getVolumeInstallPaths().isEmpty()) {
+            bus.reply(msg, reply);
+            return;
+        }
+
+        // one command for all volumes on the same host
+        Map<String, Map<String, String>> volumesByHost = new HashMap<>();
+        List<Tuple> ts = SQL.New("select ref.resourceUuid, ref.hostUuid from LocalStorageResourceRefVO ref" +
+                " where ref.resourceUuid in (:uuids) and ref.primaryStorageUuid = :psUuid", Tuple.class)
+                .param("uuids", msg.getVolumeInstallPaths().keySet())
+                .param("psUuid", self.getUuid())
+                .list();
+        for (Tuple t : ts) {
+            String volUuid = t.get(0, String.class);
+            volumesByHost.computeIfAbsent(t.get(1, String.class), k -> new HashMap<>())
+                    .put(volUuid, msg.getVolumeInstallPaths().get(volUuid));
+        }
+
+        new While<>(volumesByHost.entrySet()).step((e, com) -> {
+            LocalStorageHypervisorBackend bkd;
+            try {
+                bkd = getHypervisorBackendFactoryByHostUuid(e.getKey()).getHypervisorBackend(self);
+            } catch (OperationFailureException ex) {
+                logger.warn(ex.getMessage());
+                com.done();
+                return;
+            }
+
+            bkd.batchSyncVolumeSize(e.getKey(), e.getValue(), new ReturnValueCompletion<BatchSyncVolumeSizeOnPrimaryStorageReply>(com) {
+                @Override
+                public void success(BatchSyncVolumeSizeOnPrimaryStorageReply r) {
+                    synchronized (reply) {
+                        reply.getActualSizes().putAll(r.getActualSizes());
+                        reply.getSizes().putAll(r.getSizes());
+                    }
+                    com.done();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    logger.warn(String.format("failed to get sizes of %s volumes on the host[uuid:%s] of the local primary storage[uuid:%s], %s",
+                            e.getValue().size(), e.getKey(), self.getUuid(), errorCode));
+                    com.done();
+                }
+            });
+        }, 10).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
     protected void setCapacity(Long total, Long avail, Long totalPhysical, Long availPhysical) {
         PrimaryStorageCapacityUpdater updater = new PrimaryStorageCapacityUpdater(self.getUuid());
         updater.update(total, avail, totalPhysical, availPhysical);
@@ -8,6 +8,7 @@ import org.zstack.header.image.ImageInventory;
 import org.zstack.header.storage.primary.*;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by frank on 6/30/2015.
@@ -64,6 +65,8 @@ public abstract class LocalStorageHypervisorBackend extends LocalStorageBase {
 
     abstract void handle(SyncVolumeSizeOnPrimaryStorageMsg msg, String hostUuid, ReturnValueCompletion<SyncVolumeSizeOnPrimaryStorageReply> completion);
 
+    abstract void batchSyncVolumeSize(String hostUuid, Map<String, String> volumeInstallPaths, ReturnValueCompletion<BatchSyncVolumeSizeOnPrimaryStorageReply> completion);
+
     abstract void handle(UploadBitsFromLocalStorageToBackupStorageMsg msg, String hostUuid, ReturnValueCompletion<UploadBitsFromLocalStorageToBackupStorageReply> completion);
 
     abstract void handle(GetVolumeRootImageUuidFromPrimaryStorageMsg msg, String hostUuid, ReturnValueCompletion<GetVolumeRootImageUuidFromPrimaryStorageReply> completion);
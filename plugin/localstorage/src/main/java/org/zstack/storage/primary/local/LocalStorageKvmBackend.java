@@ -658,6 +658,17 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
         public long size;
     }
 
+    public static class BatchGetVolumeSizeCmd extends AgentCommand {
+        // volume uuid -> install path
+        public Map<String, String> volumeUuidInstallPaths;
+    }
+
+    public static class BatchGetVolumeSizeRsp extends AgentResponse {
+        // volume uuid -> size, volumes failed to get sizes are not in the maps
+        public Map<String, Long> actualSizes;
+        public Map<String, Long> sizes;
+    }
+
     public static class GetQCOW2ReferenceCmd extends AgentCommand {
         public String path;
         public String searchingDir;
@@ -729,6 +740,7 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
     public static final String CHECK_MD5_PATH = "/localstorage/checkmd5";
     public static final String GET_BACKING_FILE_PATH = "/localstorage/volume/getbackingfile";
     public static final String GET_VOLUME_SIZE = "/localstorage/volume/getsize";
+    public static final String BATCH_GET_VOLUME_SIZE = "/localstorage/volume/batchgetsize";
     public static final String GET_BASE_IMAGE_PATH = "/localstorage/volume/getbaseimagepath";
     public static final String GET_QCOW2_REFERENCE = "/localstorage/getqcow2reference";
     public static final String CHECK_INITIALIZED_FILE = "/localstorage/check/initializedfile";
@@ -2034,6 +2046,40 @@ public class LocalStorageKvmBackend extends LocalStorageHypervisorBackend {
         });
     }
 
+    @Override
+    void batchSyncVolumeSize(String hostUuid, Map<String, String> volumeInstallPaths, final ReturnValueCompletion<BatchSyncVolumeSizeOnPrimaryStorageReply> completion) {
+        BatchGetVolumeSizeCmd cmd = new BatchGetVolumeSizeCmd();
+        cmd.volumeUuidInstallPaths = volumeInstallPaths;
+        cmd.storagePath = self.getUrl();
+
+        KvmCommandSender sender = new KvmCommandSender(hostUuid);
+        sender.send(cmd, BATCH_GET_VOLUME_SIZE, new KvmCommandFailureChecker() {
+            @Override
+            public ErrorCode getError(KvmResponseWrapper wrapper) {
+                BatchGetVolumeSizeRsp rsp = wrapper.getResponse(BatchGetVolumeSizeRsp.class);
+                return rsp.isSuccess() ? null : operr("operation error, because:%s", rsp.getError());
+            }
+        }, new ReturnValueCompletion<KvmResponseWrapper>(completion) {
+            @Override
+            public void success(KvmResponseWrapper returnValue) {
+                BatchGetVolumeSizeRsp rsp = returnValue.getResponse(BatchGetVolumeSizeRsp.class);
+                BatchSyncVolumeSizeOnPrimaryStorageReply reply = new BatchSyncVolumeSizeOnPrimaryStorageReply();
+                if (rsp.actualSizes != null) {
+                    reply.setActualSizes(rsp.actualSizes);
+                }
+                if (rsp.sizes != null) {
+                    reply.setSizes(rsp.sizes);
+                }
+                completion.success(reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
+    }
+
     @Override
     void handle(final UploadBitsFromLocalStorageToBackupStorageMsg msg, String hostUuid, final ReturnValueCompletion<UploadBitsFromLocalStorageToBackupStorageReply> completion) {
         final BackupStorageVO bs = dbf.findByUuid(msg.getBackupStorageUuid(), BackupStorageVO.class);
@@ -34,6 +34,8 @@ import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.HashMap;
+
 /**
  * Created by frank on 7/1/2015.
  */
@@ -351,6 +353,24 @@ public class LocalStorageSimulator {
         return null;
     }
 
+    @RequestMapping(value=LocalStorageKvmBackend.BATCH_GET_VOLUME_SIZE, method= RequestMethod.POST)
+    public @ResponseBody
+    String batchGetVolumeSize(HttpEntity<String> entity) {
+        BatchGetVolumeSizeCmd cmd = JSONObjectUtil.toObject(entity.getBody(), BatchGetVolumeSizeCmd.class);
+        BatchGetVolumeSizeRsp rsp = new BatchGetVolumeSizeRsp();
+        rsp.actualSizes = new HashMap<>();
+        rsp.sizes = new HashMap<>();
+
+        for (String volUuid : cmd.volumeUuidInstallPaths.keySet()) {
+            Long asize = config.getVolumeSizeCmdActualSize.get(volUuid);
+            rsp.actualSizes.put(volUuid, asize == null ? 0 : asize);
+            Long size = config.getVolumeSizeCmdSize.get(volUuid);
+            rsp.sizes.put(volUuid, size == null ? 0 : size);
+        }
+        reply(entity, rsp);
+        return null;
+    }
+
     @RequestMapping(value=LocalStorageKvmBackend.OFFLINE_MERGE_PATH, method= RequestMethod.POST)
     public @ResponseBody
     String offlineMerge(HttpEntity<String> entity) {
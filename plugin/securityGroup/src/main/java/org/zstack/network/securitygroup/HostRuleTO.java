@@ -9,6 +9,9 @@ public class HostRuleTO {
     private String hostUuid;
     private String hypervisorType;
     private boolean refreshHost;
+    private long ruleVersion;
+    // set by the backend when the agent reported it applied the rule version
+    private boolean ruleVersionAcknowledged;
 
     public HostRuleTO() {
         rules = new ArrayList<SecurityGroupRuleTO>();
@@ -42,6 +45,18 @@ public class HostRuleTO {
     public void setRefreshHost(boolean refreshHost) {
         this.refreshHost = refreshHost;
     }
+    public long getRuleVersion() {
+        return ruleVersion;
+    }
+    public void setRuleVersion(long ruleVersion) {
+        this.ruleVersion = ruleVersion;
+    }
+    public boolean isRuleVersionAcknowledged() {
+        return ruleVersionAcknowledged;
+    }
+    public void setRuleVersionAcknowledged(boolean ruleVersionAcknowledged) {
+        this.ruleVersionAcknowledged = ruleVersionAcknowledged;
+    }
 
     public void setActionCodeForAllSecurityGroupRuleTOs(String actionCode) {
         for (SecurityGroupRuleTO rto : rules) {
@@ -0,0 +1,170 @@
+package org.zstack.network.securitygroup;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.*;
+
+/**
+ * the rules of vm nics last shipped to each host, and a version bumped on every shipment.
+ *
+ * A rule or membership change only needs the nic chains whose rules differ from what the
+ * host already has; chains equal to the last shipment are skipped once the agent has
+ * acknowledged the version they were shipped with by echoing it in its response. Chains
+ * not acknowledged yet are shipped again. What a host has is only known while this node is
+ * the one changing it, so the record of a host is dropped when the host reconnects (which
+ * is also how a restarted agent is found), when applying rules to it fails, and when another
+ * management node ships rules to it; the next shipment to that host then carries every
+ * calculated chain again.
+ */
+class HostRuleVersions {
+    private static class Chain {
+        private final String fingerprint;
+        // the version of the shipment carrying the chain
+        private final long version;
+        private boolean acknowledged;
+
+        Chain(String fingerprint, long version) {
+            this.fingerprint = fingerprint;
+            this.version = version;
+        }
+    }
+
+    private static class HostRules {
+        private long version;
+        // key is nic uuid and ip version
+        private final Map<String, Chain> chains = new HashMap<>();
+    }
+
+    private final Map<String, HostRules> hosts = new HashMap<>();
+    // a nic has its chains on one host only, remembered to drop them from the old host after migration
+    private final Map<String, String> hostOfChain = new HashMap<>();
+
+    private static String key(SecurityGroupRuleTO to, boolean ipv6) {
+        return to.getVmNicUuid() + (ipv6 ? ":6" : ":4");
+    }
+
+    static String fingerprint(SecurityGroupRuleTO to) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(to.getVmNicInternalName()).append('|')
+                .append(to.getVmNicMac()).append('|')
+                .append(to.getIngressDefaultPolicy()).append('|')
+                .append(to.getEgressDefaultPolicy()).append('|')
+                .append(sorted(to.getVmNicIp()));
+
+        List<String> rules = new ArrayList<>();
+        to.getRules().forEach(r -> rules.add(r.toString()));
+        if (to.getSecurityGroupBaseRules() != null) {
+            to.getSecurityGroupBaseRules().forEach(r -> rules.add(r.toString()));
+        }
+        sb.append('|').append(sorted(rules));
+
+        return DigestUtils.md5Hex(sb.toString());
+    }
+
+    private static List<String> sorted(Collection<String> lst) {
+        List<String> ret = lst == null ? new ArrayList<>() : new ArrayList<>(lst);
+        Collections.sort(ret);
+        return ret;
+    }
+
+    /**
+     * record the chains going to be shipped to the host and bump its version
+     *
+     * @param skipUnchanged leave out chains equal to an acknowledged shipment, ignored when refreshing the whole host
+     * @return the HostRuleTO to ship, null if nothing changed
+     */
+    synchronized HostRuleTO track(HostRuleTO hto, boolean skipUnchanged) {
+        if (hto.getHostUuid() == null) {
+            return hto;
+        }
+
+        HostRules host = hosts.computeIfAbsent(hto.getHostUuid(), k -> new HostRules());
+        if (hto.isRefreshHost()) {
+            host.chains.clear();
+            hostOfChain.values().removeIf(hto.getHostUuid()::equals);
+            skipUnchanged = false;
+        }
+
+        long version = host.version + 1;
+        HostRuleTO ret = new HostRuleTO();
+        ret.setHostUuid(hto.getHostUuid());
+        ret.setHypervisorType(hto.getHypervisorType());
+        ret.setRefreshHost(hto.isRefreshHost());
+        ret.setRules(track(host, hto.getHostUuid(), hto.getRules(), false, skipUnchanged, version));
+        ret.setIpv6Rules(track(host, hto.getHostUuid(), hto.getIpv6Rules(), true, skipUnchanged, version));
+
+        if (!ret.isRefreshHost() && ret.getRules().isEmpty() && ret.getIpv6Rules().isEmpty()) {
+            return null;
+        }
+
+        host.version = version;
+        ret.setRuleVersion(version);
+        return ret;
+    }
+
+    private List<SecurityGroupRuleTO> track(HostRules host, String hostUuid, List<SecurityGroupRuleTO> tos, boolean ipv6,
+                                            boolean skipUnchanged, long version) {
+        List<SecurityGroupRuleTO> ret = new ArrayList<>();
+        for (SecurityGroupRuleTO to : tos) {
+            String key = key(to, ipv6);
+            String oldHost = hostOfChain.get(key);
+            if (oldHost != null && !oldHost.equals(hostUuid) && hosts.containsKey(oldHost)) {
+                hosts.get(oldHost).chains.remove(key);
+            }
+
+            if (SecurityGroupRuleTO.ACTION_CODE_DELETE_CHAIN.equals(to.getActionCode())) {
+                host.chains.remove(key);
+                hostOfChain.remove(key);
+                ret.add(to);
+                continue;
+            }
+
+            String fingerprint = fingerprint(to);
+            Chain old = host.chains.get(key);
+            if (skipUnchanged && old != null && old.acknowledged && fingerprint.equals(old.fingerprint)) {
+                continue;
+            }
+
+            host.chains.put(key, new Chain(fingerprint, version));
+            hostOfChain.put(key, hostUuid);
+            ret.add(to);
+        }
+
+        return ret;
+    }
+
+    /**
+     * the agent of the host applied the shipment of the version
+     */
+    synchronized void acknowledge(String hostUuid, long version) {
+        HostRules host = hosts.get(hostUuid);
+        if (host == null) {
+            return;
+        }
+
+        host.chains.values().stream().filter(c -> c.version == version).forEach(c -> c.acknowledged = true);
+    }
+
+    synchronized long getVersion(String hostUuid) {
+        HostRules host = hosts.get(hostUuid);
+        return host == null ? 0 : host.version;
+    }
+
+    /**
+     * forget what the host has, the version keeps growing so a reader can tell the record was reset
+     */
+    synchronized void invalidate(String hostUuid) {
+        HostRules host = hosts.get(hostUuid);
+        if (host == null) {
+            return;
+        }
+
+        host.chains.clear();
+        hostOfChain.values().removeIf(hostUuid::equals);
+    }
+
+    synchronized void remove(String hostUuid) {
+        invalidate(hostUuid);
+        hosts.remove(hostUuid);
+    }
+}
@@ -0,0 +1,49 @@
+package org.zstack.network.securitygroup;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.Date;
+
+public class SecurityGroupCanonicalEvents {
+    public static final String HOST_RULES_CHANGED_PATH = "/securityGroup/hostRules/changed";
+
+    @NeedJsonSchema
+    public static class HostRulesChangedData {
+        private String nodeUuid;
+        private String hostUuid;
+        private long ruleVersion;
+        private Date date = new Date();
+
+        public String getNodeUuid() {
+            return nodeUuid;
+        }
+
+        public void setNodeUuid(String nodeUuid) {
+            this.nodeUuid = nodeUuid;
+        }
+
+        public String getHostUuid() {
+            return hostUuid;
+        }
+
+        public void setHostUuid(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        public long getRuleVersion() {
+            return ruleVersion;
+        }
+
+        public void setRuleVersion(long ruleVersion) {
+            this.ruleVersion = ruleVersion;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+}
@@ -6,7 +6,10 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
 import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfig;
 import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
@@ -47,6 +50,7 @@ import org.zstack.identity.AccountManager;
 import org.zstack.identity.QuotaUtil;
 import org.zstack.network.l3.IpRangeHelper;
 import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO;
+import org.zstack.network.securitygroup.SecurityGroupCanonicalEvents.HostRulesChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.CollectionUtils;
@@ -93,8 +97,13 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     private TagManager tagMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
 
     protected Map<String, SecurityGroupHypervisorBackend> hypervisorBackends;
+    private final HostRuleVersions hostRuleVersions = new HostRuleVersions();
     private int failureHostWorkerInterval;
     private int failureHostEachTimeTake;
     private Future<Void> failureHostCopingThread;
@@ -173,6 +182,11 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<VmInstanceState> vmStates;
         private List<SecurityGroupState> sgStates;
 
+        // rules loaded once per calculation, many nics share the same security groups
+        private final Map<String, List<RuleTO>> rulesBySecurityGroup = new HashMap<>();
+        private final Map<String, List<RuleTO>> baseRulesBySecurityGroup = new HashMap<>();
+        private final Map<String, List<String>> remoteGroupVmIps = new HashMap<>();
+
         List<HostRuleTO> calculate() {
             if (sgStates == null) {
                 sgStates = new ArrayList<SecurityGroupState>();
@@ -307,38 +321,69 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             return calculateByVmNic();
         }
 
+        private void loadSecurityGroupRules(Collection<String> sgUuids) {
+            List<String> toLoad = sgUuids.stream().filter(it -> !rulesBySecurityGroup.containsKey(it))
+                    .distinct().collect(Collectors.toList());
+            if (toLoad.isEmpty()) {
+                return;
+            }
+
+            toLoad.forEach(it -> {
+                rulesBySecurityGroup.put(it, new ArrayList<>());
+                baseRulesBySecurityGroup.put(it, new ArrayList<>());
+            });
+
+            List<String> sgs = Q.New(SecurityGroupVO.class).select(SecurityGroupVO_.uuid)
+                    .in(SecurityGroupVO_.uuid, toLoad).in(SecurityGroupVO_.state, sgStates).listValues();
+            if (sgs.isEmpty()) {
+                return;
+            }
+
+            List<SecurityGroupRuleVO> rules = Q.New(SecurityGroupRuleVO.class).in(SecurityGroupRuleVO_.securityGroupUuid, sgs)
+                    .isNull(SecurityGroupRuleVO_.remoteSecurityGroupUuid).list();
+            for (SecurityGroupRuleVO r : rules) {
+                RuleTO rto = new RuleTO();
+                rto.setIpVersion(r.getIpVersion());
+                rto.setAllowedCidr(r.getAllowedCidr());
+                rto.setEndPort(r.getEndPort());
+                rto.setProtocol(r.getProtocol().toString());
+                rto.setStartPort(r.getStartPort());
+                rto.setType(r.getType().toString());
+                rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
+                rulesBySecurityGroup.get(r.getSecurityGroupUuid()).add(rto);
+            }
+
+            String sql = "select r from SecurityGroupRuleVO r,SecurityGroupVO sg  where r.securityGroupUuid in (:sgUuids)" +
+                    " and r.remoteSecurityGroupUuid is not null and r.remoteSecurityGroupUuid = sg.uuid and sg.state in (:sgStates)";
+            TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
+            q.setParameter("sgUuids", toLoad);
+            q.setParameter("sgStates", sgStates);
+            for (SecurityGroupRuleVO r : q.getResultList()) {
+                RuleTO rule = new RuleTO();
+                rule.setIpVersion(r.getIpVersion());
+                rule.setStartPort(r.getStartPort());
+                rule.setEndPort(r.getEndPort());
+                rule.setProtocol(r.getProtocol().toString());
+                rule.setType(r.getType().toString());
+                rule.setAllowedCidr(r.getAllowedCidr());
+                rule.setSecurityGroupUuid(r.getSecurityGroupUuid());
+                rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
+                // the same remote group is queried once, sorted so unchanged members give unchanged rules
+                rule.setRemoteGroupVmIps(remoteGroupVmIps.computeIfAbsent(r.getRemoteSecurityGroupUuid(), uuid -> {
+                    List<String> ips = getVmIpsBySecurityGroup(uuid);
+                    Collections.sort(ips);
+                    return ips;
+                }));
+                baseRulesBySecurityGroup.get(r.getSecurityGroupUuid()).add(rule);
+            }
+        }
+
         private List<RuleTO> calculateRuleTOBySecurityGroup(List<String> sgUuids, List<String> l3Uuids) {
-            List<RuleTO> ret = new ArrayList<>();
+            loadSecurityGroupRules(sgUuids);
 
+            List<RuleTO> ret = new ArrayList<>();
             for (String sgUuid : sgUuids) {
-                List<SecurityGroupRuleVO> rules = new ArrayList<>();
-                SecurityGroupVO sg = Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, sgUuid).in(SecurityGroupVO_.state, sgStates).find();
-                if (sg == null) {
-                    continue;
-                }
-                rules = Q.New(SecurityGroupRuleVO.class).eq(SecurityGroupRuleVO_.securityGroupUuid,sgUuid )
-                        .isNull(SecurityGroupRuleVO_.remoteSecurityGroupUuid).list();
-                if (rules.isEmpty()) {
-                    continue;
-                }
-
-                for (SecurityGroupRuleVO r : rules) {
-                    if ( r.getRemoteSecurityGroupUuid() != null) {
-                        SecurityGroupVO remoteSg = Q.New(SecurityGroupVO.class).eq(SecurityGroupVO_.uuid, r.getRemoteSecurityGroupUuid()).in(SecurityGroupVO_.state, sgStates).find();
-                        if (remoteSg == null) {
-                            continue;
-                        }
-                    }
-                    RuleTO rto = new RuleTO();
-                    rto.setIpVersion(r.getIpVersion());
-                    rto.setAllowedCidr(r.getAllowedCidr());
-                    rto.setEndPort(r.getEndPort());
-                    rto.setProtocol(r.getProtocol().toString());
-                    rto.setStartPort(r.getStartPort());
-                    rto.setType(r.getType().toString());
-                    rto.setSecurityGroupUuid(r.getSecurityGroupUuid());
-                    ret.add(rto);
-                }
+                ret.addAll(rulesBySecurityGroup.get(sgUuid));
             }
 
             if (logger.isTraceEnabled()) {
@@ -354,32 +399,13 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
 
         private List<RuleTO> calculateSecurityGroupBaseRule(List<String> sgUuids, List<String> l3Uuids){
+            loadSecurityGroupRules(sgUuids);
+
             List<RuleTO> rules = new ArrayList<>();
-            for(String sgUuid : sgUuids){
-                String sql = "select r from SecurityGroupRuleVO r,SecurityGroupVO sg  where r.securityGroupUuid = :sgUuid" +
-                        " and r.remoteSecurityGroupUuid is not null and r.remoteSecurityGroupUuid = sg.uuid and sg.state in (:sgStates)";
-                TypedQuery<SecurityGroupRuleVO> q = dbf.getEntityManager().createQuery(sql, SecurityGroupRuleVO.class);
-                q.setParameter("sgUuid", sgUuid);
-                q.setParameter("sgStates", sgStates);
-                List<SecurityGroupRuleVO> remoteRules = q.getResultList();
-
-                for(SecurityGroupRuleVO r : remoteRules){
-                    RuleTO rule = new RuleTO();
-                    rule.setIpVersion(r.getIpVersion());
-                    rule.setStartPort(r.getStartPort());
-                    rule.setEndPort(r.getEndPort());
-                    rule.setProtocol(r.getProtocol().toString());
-                    rule.setType(r.getType().toString());
-                    rule.setAllowedCidr(r.getAllowedCidr());
-                    rule.setSecurityGroupUuid(sgUuid);
-                    rule.setRemoteGroupUuid(r.getRemoteSecurityGroupUuid());
-                    // TODO: the same group only transport once
-                    rule.setRemoteGroupVmIps(getVmIpsBySecurityGroup(r.getRemoteSecurityGroupUuid()));
-                    rules.add(rule);
-                }
+            for (String sgUuid : sgUuids) {
+                rules.addAll(baseRulesBySecurityGroup.get(sgUuid));
             }
             return rules;
-
         }
 
         private List<String> getVmIpsBySecurityGroup(String sgUuid){
@@ -504,31 +530,41 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         private List<HostRuleTO> calculateByVmNic() {
             Map<String, HostRuleTO> hostRuleMap = new HashMap<String, HostRuleTO>();
             List<HostRuleTO> htos = new ArrayList<HostRuleTO>();
+            if (vmNicUuids.isEmpty()) {
+                return htos;
+            }
 
-            for (String nicUuid : vmNicUuids) {
-                List<Tuple> tuples;
-                if (vmStates != null && !vmStates.isEmpty()) {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
-                                     " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                                     " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
-                                     " and vm.state in (:vmStates) and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) " +
-                                     " and nic.uuid = ip.vmNicUuid and sg.ipVersion = ip.ipVersion";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    q.setParameter("vmStates", vmStates);
-                    q.setParameter("sgStates", sgStates);
-                    tuples = q.getResultList();
-                } else {
-                    String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion" +
-                            " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
-                            " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid = :nicUuid " +
-                            " and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) and nic.uuid = ip.vmNicUuid and sg.ipVersion = ip.ipVersion";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("nicUuid", nicUuid);
-                    q.setParameter("sgStates", sgStates);
-                    tuples = q.getResultList();
-                }
+            Map<String, List<Tuple>> tuplesByNic = new LinkedHashMap<>();
+            vmNicUuids.forEach(it -> tuplesByNic.put(it, new ArrayList<>()));
+            if (vmStates != null && !vmStates.isEmpty()) {
+                String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
+                                 " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
+                                 " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
+                                 " and vm.state in (:vmStates) and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) " +
+                                 " and nic.uuid = ip.vmNicUuid and sg.ipVersion = ip.ipVersion";
+                TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+                q.setParameter("nicUuids", tuplesByNic.keySet());
+                q.setParameter("vmStates", vmStates);
+                q.setParameter("sgStates", sgStates);
+                q.getResultList().forEach(t -> tuplesByNic.get(t.get(8, String.class)).add(t));
+            } else {
+                String sql = "select ref.securityGroupUuid, vm.hostUuid, vm.hypervisorType, nic.internalName, ip.l3NetworkUuid, nic.mac, ip.ip, ip.ipVersion, nic.uuid" +
+                        " from VmNicSecurityGroupRefVO ref, VmInstanceVO vm, VmNicVO nic, SecurityGroupVO sg, UsedIpVO ip" +
+                        " where ref.vmNicUuid = nic.uuid and nic.vmInstanceUuid = vm.uuid and ref.vmNicUuid in (:nicUuids) " +
+                        " and ref.securityGroupUuid = sg.uuid and sg.state in (:sgStates) and nic.uuid = ip.vmNicUuid and sg.ipVersion = ip.ipVersion";
+                TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+                q.setParameter("nicUuids", tuplesByNic.keySet());
+                q.setParameter("sgStates", sgStates);
+                q.getResultList().forEach(t -> tuplesByNic.get(t.get(8, String.class)).add(t));
+            }
 
+            /* rules of all security groups of the nics are loaded at once, instead of nic by nic */
+            loadSecurityGroupRules(tuplesByNic.values().stream().flatMap(List::stream)
+                    .map(t -> t.get(0, String.class)).collect(Collectors.toSet()));
+
+            for (Map.Entry<String, List<Tuple>> e : tuplesByNic.entrySet()) {
+                String nicUuid = e.getKey();
+                List<Tuple> tuples = e.getValue();
                 if (tuples.isEmpty()) {
                     // vm is not in vmStates or not in security group
                     continue;
@@ -722,6 +758,9 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     private void handle(RefreshSecurityGroupRulesOnHostMsg msg) {
+        // the host may have lost its rules, what was shipped before means nothing now
+        hostRuleVersions.invalidate(msg.getHostUuid());
+
         RuleCalculator cal = new RuleCalculator();
         cal.hostUuids = asList(msg.getHostUuid());
         // refreshing may happen when host is reconnecting; at that time VMs' states are Unknown
@@ -907,7 +946,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             cal.vmStates = asList(VmInstanceState.Running);
             List<HostRuleTO> htos = cal.calculate();
 
-            applyRules(htos);
+            applyRuleChanges(htos);
             HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(msg.getUuid());
             if (!groupMemberTO.getHostUuids().isEmpty()) {
                 updateGroupMembers(groupMemberTO);
@@ -984,7 +1023,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
         List<HostRuleTO> finalHtos = cal.mergeMultiHostRuleTO(htos1, htos2);
 
-        applyRules(finalHtos);
+        applyRuleChanges(finalHtos);
 
         // update security group member
         HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(sgUuid);
@@ -1028,7 +1067,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
                 htos = cal.mergeMultiHostRuleTO(htos, toRemove);
             }
-            applyRules(htos);
+            applyRuleChanges(htos);
         }
 
         List<String> sgUuids = Q.New(SecurityGroupRuleVO.class).select(SecurityGroupRuleVO_.securityGroupUuid).eq(SecurityGroupRuleVO_.remoteSecurityGroupUuid, uuid).listValues();
@@ -1039,7 +1078,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             rcal.securityGroupUuids = sgUuids;
             rcal.vmStates = asList(VmInstanceState.Running);
             List<HostRuleTO> rhtos = rcal.calculate();
-            applyRules(rhtos);
+            applyRuleChanges(rhtos);
         }
 
         HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(uuid);
@@ -1081,7 +1120,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
 
                 htos = cal.mergeMultiHostRuleTO(htos, toRemove);
             }
-            applyRules(htos);
+            applyRuleChanges(htos);
         }
 
         if(!groupMemberTO.getHostUuids().isEmpty()){
@@ -1109,7 +1148,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             cal.vmStates = asList(VmInstanceState.Running);
 
             List<HostRuleTO> htos = cal.calculate();
-            applyRules(htos);
+            applyRuleChanges(htos);
         }
 
         APIDeleteSecurityGroupRuleEvent evt = new APIDeleteSecurityGroupRuleEvent(msg.getId());
@@ -1185,7 +1224,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             if (triggerApplyRules) {
                 cal.vmNicUuids = msg.getVmNicUuids();
                 List<HostRuleTO> htos = cal.calculate();
-                applyRules(htos);
+                applyRuleChanges(htos);
             }
 
             HostSecurityGroupMembersTO groupMemberTO = cal.returnHostSecurityGroupMember(msg.getSecurityGroupUuid());
@@ -1218,16 +1257,43 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     }
 
     private void applyRules(Collection<HostRuleTO> htos) {
-        for (final HostRuleTO h : htos) {
+        applyRules(htos, false);
+    }
+
+    /**
+     * apply rules calculated for a rule or membership change, nic chains equal to
+     * what the agent acknowledged last are left out for hosts managed by this node
+     */
+    private void applyRuleChanges(Collection<HostRuleTO> htos) {
+        applyRules(htos, true);
+    }
+
+    private void applyRules(Collection<HostRuleTO> htos, boolean skipUnchanged) {
+        for (final HostRuleTO hto : htos) {
+            // only the node managing the host ships rules to it in order, others push everything
+            boolean skip = skipUnchanged && hto.getHostUuid() != null && destMaker.isManagedByUs(hto.getHostUuid());
+            final HostRuleTO h = hostRuleVersions.track(hto, skip);
+            if (h == null) {
+                logger.debug(String.format("security group rules on host[uuid:%s] are unchanged, skip applying", hto.getHostUuid()));
+                continue;
+            }
+
+            fireHostRulesChanged(h);
+
             SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(h.getHypervisorType());
             bkend.applyRules(h, new Completion(null) {
                 private void copeWithFailureHost() {
+                    hostRuleVersions.invalidate(h.getHostUuid());
                     createFailureHostTask(h.getHostUuid());
                 }
 
                 @Override
                 public void success() {
-                    logger.debug(String.format("successfully applied security rules on host[uuid:%s]", h.getHostUuid()));
+                    logger.debug(String.format("successfully applied security rules[version:%s, acknowledged:%s] on host[uuid:%s]",
+                            h.getRuleVersion(), h.isRuleVersionAcknowledged(), h.getHostUuid()));
+                    if (h.isRuleVersionAcknowledged()) {
+                        hostRuleVersions.acknowledge(h.getHostUuid(), h.getRuleVersion());
+                    }
                 }
 
                 @Override
@@ -1239,6 +1305,33 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
         }
     }
 
+    private void fireHostRulesChanged(HostRuleTO hto) {
+        if (hto.getHostUuid() == null) {
+            return;
+        }
+
+        HostRulesChangedData data = new HostRulesChangedData();
+        data.setNodeUuid(Platform.getManagementServerId());
+        data.setHostUuid(hto.getHostUuid());
+        data.setRuleVersion(hto.getRuleVersion());
+        evtf.fire(SecurityGroupCanonicalEvents.HOST_RULES_CHANGED_PATH, data);
+    }
+
+    private void installHostRuleVersionsInvalidation() {
+        // rules shipped by another management node make what this node recorded for the host stale
+        evtf.on(SecurityGroupCanonicalEvents.HOST_RULES_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                HostRulesChangedData d = (HostRulesChangedData) data;
+                if (!Platform.getManagementServerId().equals(d.getNodeUuid())) {
+                    hostRuleVersions.invalidate(d.getHostUuid());
+                }
+            }
+        });
+
+        dbf.installEntityLifeCycleCallback(HostVO.class, EntityEvent.POST_REMOVE, (evt, o) -> hostRuleVersions.remove(((HostVO) o).getUuid()));
+    }
+
     private void checkDefaultRulesOnHost(String hostUuid) {
         String hypervisorType = Q.New(HostVO.class).select(HostVO_.hypervisorType).eq(HostVO_.uuid, hostUuid).findValue();
         SecurityGroupHypervisorBackend bkend = hypervisorBackends.get(hypervisorType);
@@ -1325,7 +1418,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             cal.securityGroupUuids = asList(msg.getSecurityGroupUuid());
             cal.vmStates = asList(VmInstanceState.Running);
             List<HostRuleTO> htos = cal.calculate();
-            applyRules(htos);
+            applyRuleChanges(htos);
         }
       
         sgvo =  dbf.reload(sgvo);
@@ -1460,6 +1553,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
     public boolean start() {
         prepareGlobalConfig();
         populateExtensions();
+        installHostRuleVersionsInvalidation();
         return true;
     }
 
@@ -1501,6 +1595,7 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             checkDefaultRulesOnHost(inv.getHostUuid());
         }
 
+        hostRuleVersions.invalidate(inv.getLastHostUuid());
         SecurityGroupHypervisorBackend bkd = getHypervisorBackend(inv.getHypervisorType());
         bkd.cleanUpUnusedRuleOnHost(inv.getLastHostUuid(), new Completion(null) {
             @Override
@@ -1608,6 +1703,8 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
             }
 
             for (final SecurityGroupFailureHostVO vo : vos) {
+                hostRuleVersions.invalidate(vo.getHostUuid());
+
                 RuleCalculator cal = new RuleCalculator();
                 cal.hostUuids = asList(vo.getHostUuid());
                 cal.vmStates = asList(VmInstanceState.Running);
@@ -1619,19 +1716,24 @@ public class SecurityGroupManagerImpl extends AbstractService implements Securit
                     continue;
                 }
 
-                final HostRuleTO hto = htos.get(0);
-                hto.setRefreshHost(true);
+                htos.get(0).setRefreshHost(true);
+                final HostRuleTO hto = hostRuleVersions.track(htos.get(0), false);
+                fireHostRulesChanged(hto);
                 SecurityGroupHypervisorBackend bd = getHypervisorBackend(hto.getHypervisorType());
                 bd.applyRules(hto, new Completion(null) {
                     @Override
                     public void success() {
                         logger.debug(String.format("successfully re-apply security group rules to host[uuid:%s]", hto.getHostUuid()));
+                        if (hto.isRuleVersionAcknowledged()) {
+                            hostRuleVersions.acknowledge(hto.getHostUuid(), hto.getRuleVersion());
+                        }
                         dbf.remove(vo);
                     }
 
                     @Override
                     public void fail(ErrorCode errorCode) {
                         logger.debug(String.format("failed to re-apply security group rules to host[uuid:%s], because %s, try it later", hto.getHostUuid(), errorCode));
+                        hostRuleVersions.invalidate(hto.getHostUuid());
                         copeWithFailureHost(vo);
                     }
                 });
@@ -27,6 +27,7 @@ import org.zstack.header.tag.SystemTagInventory;
 import org.zstack.header.tag.SystemTagVO;
 import org.zstack.header.tag.SystemTagVO_;
 import org.zstack.header.tag.TagType;
+import org.zstack.tag.TagManager;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -52,6 +53,8 @@ public class SftpBackupStorageMetaDataMaker implements AddImageExtensionPoint, A
     private ErrorFacade errf;
     @Autowired
     private SftpBackupStorageDumpMetadataInfo dumpInfo;
+    @Autowired
+    private TagManager tagMgr;
 
     private String buildUrl(String subPath, String hostName) {
         UriComponentsBuilder ub = UriComponentsBuilder.newInstance();
@@ -194,6 +197,9 @@ public class SftpBackupStorageMetaDataMaker implements AddImageExtensionPoint, A
         dbf.persistCollection(imageVOs);
         dbf.persistCollection(backupStorageRefVOs);
         dbf.persistCollection(systemTagVOs);
+        systemTagVOs.stream().collect(Collectors.groupingBy(SystemTagVO::getResourceType,
+                Collectors.mapping(SystemTagVO::getResourceUuid, Collectors.toSet())))
+                .forEach((type, uuids) -> tagMgr.evictSystemTagIndex(type, uuids));
     }
 
 
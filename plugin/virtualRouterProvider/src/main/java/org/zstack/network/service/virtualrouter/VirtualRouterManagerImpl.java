@@ -640,6 +640,7 @@ public class VirtualRouterManagerImpl extends AbstractService implements Virtual
                         map(e(VirtualRouterSystemTags.VIRTUAL_ROUTER_OFFERING_TOKEN, resourceUuid))))).collect(Collectors.toList());
 
                 SQL.New(SystemTagVO.class).in(SystemTagVO_.tag, tags).delete();
+                tagMgr.evictSystemTagIndex(VirtualRouterSystemTags.VIRTUAL_ROUTER_OFFERING.getResourceClass().getSimpleName(), null);
             }
         }
 
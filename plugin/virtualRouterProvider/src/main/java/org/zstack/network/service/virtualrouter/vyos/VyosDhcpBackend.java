@@ -63,7 +63,7 @@ public class VyosDhcpBackend extends VirtualRouterDhcpBackend implements Virtual
     @Deferred
     private boolean isDhcpEnabledOnVirtualRouter(String l3Uuid, String vrUuid) {
         // TODO: ui will call APICreateVpcVRouterMsg at same time, we need a lock here
-        GLock lock = new GLock(String.format("set-vpc-uuid-for-vyos-dhcp-%s", l3Uuid), TimeUnit.MINUTES.toSeconds(30));
+        GLock lock = new GLock(String.format("set-vpc-uuid-for-vyos-dhcp-%s", l3Uuid), TimeUnit.MINUTES.toSeconds(30), l3Uuid);
         lock.lock();
         Defer.defer(lock::unlock);
 
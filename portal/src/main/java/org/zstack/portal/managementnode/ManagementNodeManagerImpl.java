@@ -44,6 +44,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,6 +59,9 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
     private static final CLogger logger = Utils.getLogger(ManagementNodeManager.class);
 
     private List<ComponentWrapper> components;
+    // costs in milliseconds of bootstrap phases and of starting each component, reported when the node is up
+    private final Map<String, Long> bootPhaseCosts = new LinkedHashMap<>();
+    private final Map<String, Long> componentStartCosts = new HashMap<>();
     private List<PrepareDbInitialValueExtensionPoint> prepareDbExts;
     private ManagementNodeVO node;
     private volatile boolean isRunning = true;
@@ -238,6 +243,23 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
         }
     }
 
+    private void timeBootPhase(String phase, Runnable runnable) {
+        long start = System.currentTimeMillis();
+        runnable.run();
+        bootPhaseCosts.put(phase, System.currentTimeMillis() - start);
+    }
+
+    private void reportBootCosts() {
+        StringBuilder sb = new StringBuilder(String.format("management node[%s] boot costs:", Platform.getManagementServerId()));
+        bootPhaseCosts.forEach((phase, cost) -> sb.append(String.format("\n    %s: %d ms", phase, cost)));
+        sb.append("\n    slowest components to start:");
+        componentStartCosts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(10)
+                .forEach(e -> sb.append(String.format("\n        %s: %d ms", e.getKey(), e.getValue())));
+        logger.info(sb.toString());
+    }
+
     private void stopComponents() {
         for (final ComponentWrapper c : components) {
             try {
@@ -280,6 +302,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
                     c.start();
                     long end = System.currentTimeMillis();
                     logger.info(String.format("component[%s] starts successfully, cost %d ms to start", c.getClass(), end - start));
+                    componentStartCosts.put(c.getClass().getName(), end - start);
                     isStart = true;
                 }
 
@@ -391,7 +414,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    populateComponents();
+                    timeBootPhase(__name__, () -> populateComponents());
                     trigger.next();
                 }
             }).then(new Flow() {
@@ -413,7 +436,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    callPrepareDbExtensions();
+                    timeBootPhase(__name__, () -> callPrepareDbExtensions());
                     trigger.next();
                 }
             }).then(new Flow() {
@@ -421,7 +444,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    startComponents();
+                    timeBootPhase(__name__, () -> startComponents());
                     trigger.next();
                 }
 
@@ -476,7 +499,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    apim.start();
+                    timeBootPhase(__name__, () -> apim.start());
                     trigger.next();
                 }
 
@@ -507,9 +530,11 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
 
                 @Override
                 public void run(FlowTrigger trigger, Map data) {
-                    for (ManagementNodeReadyExtensionPoint ext : pluginRgty.getExtensionList(ManagementNodeReadyExtensionPoint.class)) {
-                        ext.managementNodeReady();
-                    }
+                    timeBootPhase(__name__, () -> {
+                        for (ManagementNodeReadyExtensionPoint ext : pluginRgty.getExtensionList(ManagementNodeReadyExtensionPoint.class)) {
+                            ext.managementNodeReady();
+                        }
+                    });
 
                     trigger.next();
                 }
@@ -536,6 +561,7 @@ public class ManagementNodeManagerImpl extends AbstractService implements Manage
             }).done(new FlowDoneHandler(null) {
                 @Override
                 public void handle(Map data) {
+                    reportBootCosts();
                     ret.success = true;
                 }
             }).error(new FlowErrorHandler(null) {
@@ -10,6 +10,8 @@ import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.config.*;
 import org.zstack.core.db.*;
 import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.header.vm.VmCanonicalEvents;
+import org.zstack.header.volume.VolumeCanonicalEvents;
 import org.zstack.header.vo.ResourceInventory;
 import org.zstack.header.vo.ResourceVO;
 import org.zstack.header.vo.ResourceVO_;
@@ -17,7 +19,10 @@ import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import static org.zstack.core.Platform.operr;
 import static org.zstack.utils.CollectionDSL.e;
@@ -48,6 +53,22 @@ public class ResourceConfig {
     private List<ResourceConfigDeleteExtensionPoint> deleteExtensions = new ArrayList<>();
     private List<ResourceConfigValidatorExtensionPoint> validatorExtensions = new ArrayList<>();
 
+    // all values of this config, resource type -> (resource uuid -> value). Written through by
+    // updateValue()/deleteValue() and kept in line with other management nodes by the canonical events
+    private final Map<String, Map<String, String>> valuesByType = new ConcurrentHashMap<>();
+
+    private static final int RESOURCE_TYPE_CACHE_SIZE = 50000;
+    private static final int PARENT_CACHE_SIZE = 10000;
+
+    // the type of a resource never changes, the cache is shared by all resource configs
+    private static final Map<String, String> resourceTypes = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(RESOURCE_TYPE_CACHE_SIZE, 0.9f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return this.size() > RESOURCE_TYPE_CACHE_SIZE;
+                }
+            });
+
     public static ResourceConfig valueOf(GlobalConfig globalConfig, BindResourceConfig bindInfo) {
         ResourceConfig result = new ResourceConfig();
         result.globalConfig = globalConfig;
@@ -94,9 +115,91 @@ public class ResourceConfig {
         return TypeUtils.stringToValue(value, clz);
     }
 
+    public <T> Map<String, T> getResourceConfigValues(List<String> resourceUuids, Class<T> clz) {
+        Map<String, T> ret = new LinkedHashMap<>();
+        if (!hasValues()) {
+            T value = globalConfig.value(clz);
+            resourceUuids.forEach(uuid -> ret.put(uuid, value));
+            return ret;
+        }
+
+        loadResourceTypes(resourceUuids);
+        resourceUuids.forEach(uuid -> ret.put(uuid, TypeUtils.stringToValue(getResourceConfigValue(uuid), clz)));
+        return ret;
+    }
+
     void init() {
         installEventTrigger();
         initResourceConfigNodes();
+        loadValues();
+    }
+
+    private void loadValues() {
+        List<Tuple> ts = Q.New(ResourceConfigVO.class)
+                .select(ResourceConfigVO_.resourceUuid, ResourceConfigVO_.resourceType, ResourceConfigVO_.value)
+                .eq(ResourceConfigVO_.category, globalConfig.getCategory())
+                .eq(ResourceConfigVO_.name, globalConfig.getName())
+                .listTuple();
+        ts.forEach(t -> putValue(t.get(0, String.class), t.get(1, String.class), t.get(2, String.class)));
+    }
+
+    private void putValue(String resourceUuid, String resourceType, String value) {
+        if (value == null) {
+            removeValue(resourceUuid, resourceType);
+            return;
+        }
+
+        valuesByType.computeIfAbsent(resourceType, k -> new ConcurrentHashMap<>()).put(resourceUuid, value);
+    }
+
+    private void removeValue(String resourceUuid, String resourceType) {
+        Map<String, String> values = valuesByType.get(resourceType);
+        if (values != null) {
+            values.remove(resourceUuid);
+        }
+    }
+
+    private String getValue(String resourceUuid, String resourceType) {
+        Map<String, String> values = valuesByType.get(resourceType);
+        return values == null ? null : values.get(resourceUuid);
+    }
+
+    private boolean hasValues() {
+        return valuesByType.values().stream().anyMatch(it -> !it.isEmpty());
+    }
+
+    private boolean hasValues(String resourceType) {
+        Map<String, String> values = valuesByType.get(resourceType);
+        return values != null && !values.isEmpty();
+    }
+
+    private String getCachedResourceType(String resourceUuid) {
+        String resourceType = resourceTypes.get(resourceUuid);
+        if (resourceType != null) {
+            return resourceType;
+        }
+
+        resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        if (resourceType != null) {
+            resourceTypes.put(resourceUuid, resourceType);
+        }
+
+        return resourceType;
+    }
+
+    private void loadResourceTypes(List<String> resourceUuids) {
+        List<String> missing = resourceUuids.stream().filter(uuid -> !resourceTypes.containsKey(uuid)).collect(Collectors.toList());
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        List<Tuple> ts = Q.New(ResourceVO.class).select(ResourceVO_.uuid, ResourceVO_.resourceType)
+                .in(ResourceVO_.uuid, missing).listTuple();
+        ts.forEach(t -> resourceTypes.put(t.get(0, String.class), t.get(1, String.class)));
+    }
+
+    private void evictParents(String resourceUuid) {
+        configGetter.values().forEach(it -> it.parentUuids.remove(resourceUuid));
     }
 
     private void installEventTrigger() {
@@ -118,7 +221,8 @@ public class ResourceConfig {
                         .eq(ResourceConfigVO_.name, globalConfig.getName())
                         .findValue();
 
-                updateValue(evt.getResourceUuid(), evt.getResourceType(), newValue, false);
+                String resourceType = evt.getResourceType() != null ? evt.getResourceType() : getCachedResourceType(evt.getResourceUuid());
+                updateValue(evt.getResourceUuid(), resourceType, newValue, false);
                 logger.info(String.format("ResourceConfig [resourceUuid:%s, category:%s, name:%s] was updated in other" +
                                 " management node[uuid:%s], in line with that change, updated ours. %s --> %s",
                         evt.getResourceUuid(), globalConfig.getCategory(), globalConfig.getName(), nodeUuid, evt.getOldValue(), newValue));
@@ -143,6 +247,22 @@ public class ResourceConfig {
                         evt.getResourceUuid(), globalConfig.getCategory(), globalConfig.getName(), nodeUuid));
             }
         });
+
+        // resources may be moved to other parents, e.g. a vm started in another cluster or
+        // a volume instantiated on a primary storage, drop the cached parents of them
+        evtf.on(VmCanonicalEvents.VM_FULL_STATE_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                evictParents(((VmCanonicalEvents.VmStateChangedData) data).getVmUuid());
+            }
+        });
+
+        evtf.on(VolumeCanonicalEvents.VOLUME_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                evictParents(((VolumeCanonicalEvents.VolumeStatusChangedData) data).getVolumeUuid());
+            }
+        });
     }
 
     private void initResourceConfigNodes() {
@@ -163,6 +283,11 @@ public class ResourceConfig {
                     it.validateGlobalConfig(globalConfig.getCategory(), globalConfig.getName(), oldValue, newValue));
             validatorExtensions.forEach(it -> it.validateResourceConfig(resourceUuid, oldValue, newValue));
             updateValueInDb(resourceUuid, resourceType, newValue);
+        }
+
+        putValue(resourceUuid, resourceType, newValue);
+
+        if (localUpdate) {
             localUpdateExtensions.forEach(it -> it.updateResourceConfig(this, resourceUuid, resourceType, oldValue, newValue));
         }
 
@@ -171,6 +296,7 @@ public class ResourceConfig {
         if (localUpdate) {
             UpdateEvent evt = new UpdateEvent();
             evt.setResourceUuid(resourceUuid);
+            evt.setResourceType(resourceType);
             evt.setOldValue(oldValue);
             evtf.fire(makeUpdateEventPath(), evt);
         }
@@ -185,6 +311,11 @@ public class ResourceConfig {
 
         if (localDelete) {
             deleteInDb(resourceUuid);
+        }
+
+        removeValue(resourceUuid, resourceType);
+
+        if (localDelete) {
             localDeleteExtensions.forEach(it -> it.deleteResourceConfig(this, resourceUuid, resourceType, originValue));
         }
 
@@ -203,9 +334,13 @@ public class ResourceConfig {
     }
 
 
-    @Transactional(readOnly = true)
     protected String getResourceConfigValue(String resourceUuid) {
-        String resourceType = Q.New(ResourceVO.class).select(ResourceVO_.resourceType).eq(ResourceVO_.uuid, resourceUuid).findValue();
+        if (!hasValues()) {
+            // no resource has its own value, skip resolving the resource
+            return globalConfig.value();
+        }
+
+        String resourceType = getCachedResourceType(resourceUuid);
         if (resourceType == null) {
             logger.warn(String.format("no resource[uuid:%s] found, cannot get it's resource config," +
                     " use global config instead", resourceUuid));
@@ -243,20 +378,55 @@ public class ResourceConfig {
     private class ResourceConfigGetter {
         String resourceType;
         List<String> parentTypeSql = new ArrayList<>();
+        List<String> parentTypes = new ArrayList<>();
+
+        // resource uuid -> uuids of parents, in the order of parentTypeSql
+        final Map<String, String[]> parentUuids = Collections.synchronizedMap(
+                new LinkedHashMap<String, String[]>(PARENT_CACHE_SIZE, 0.9f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry eldest) {
+                        return this.size() > PARENT_CACHE_SIZE;
+                    }
+                });
+
+        private String[] getParentUuids(String resourceUuid) {
+            String[] parents = parentUuids.get(resourceUuid);
+            if (parents != null) {
+                return parents;
+            }
+
+            parents = new String[parentTypeSql.size()];
+            boolean complete = true;
+            for (int i = 0; i < parentTypeSql.size(); i++) {
+                parents[i] = SQL.New(String.format(parentTypeSql.get(i), resourceUuid), String.class).find();
+                complete = complete && parents[i] != null;
+            }
+
+            // a missing parent may show up later, e.g. a volume not instantiated yet
+            if (complete) {
+                parentUuids.put(resourceUuid, parents);
+            }
+
+            return parents;
+        }
 
         private String getResourceConfigValue(String resourceUuid) {
-            String v = loadConfigValue(resourceUuid);
+            String v = getValue(resourceUuid, resourceType);
             if (v != null) {
                 return v;
             }
 
-            for (String sql : parentTypeSql) {
-                String resUuid = SQL.New(String.format(sql, resourceUuid), String.class).find();
-                if (resUuid == null) {
+            if (parentTypes.stream().noneMatch(ResourceConfig.this::hasValues)) {
+                return globalConfig.value();
+            }
+
+            String[] parents = getParentUuids(resourceUuid);
+            for (int i = 0; i < parents.length; i++) {
+                if (parents[i] == null) {
                     continue;
                 }
 
-                v = loadConfigValue(resUuid);
+                v = getValue(parents[i], parentTypes.get(i));
                 if (v != null) {
                     return v;
                 }
@@ -282,14 +452,15 @@ public class ResourceConfig {
         }
 
         private void init(List<Class> connectedClasses) {
-            ResourceConfigGetter getter = new ResourceConfigGetter();
             Class resourceClass = connectedClasses.get(0);
             for (Class parentClass : connectedClasses.subList(1, connectedClasses.size())) {
-                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex ->
-                        parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, "'%s'")));
+                Optional.ofNullable(DBGraph.findVerticesWithSmallestWeight(resourceClass, parentClass)).ifPresent(vertex -> {
+                    parentTypeSql.add(vertex.toSQL("uuid", SimpleQuery.Op.EQ, "'%s'"));
+                    parentTypes.add(parentClass.getSimpleName());
+                });
             }
 
-            getter.resourceType = resourceClass.getSimpleName();
+            resourceType = resourceClass.getSimpleName();
         }
     }
 
@@ -342,7 +513,7 @@ public class ResourceConfig {
     }
 
     private String makeDeleteEventPath() {
-        return s(ResourceConfigCanonicalEvents.UPDATE_EVENT_PATH).formatByMap(map(
+        return s(ResourceConfigCanonicalEvents.DELETE_EVENT_PATH).formatByMap(map(
                 e("nodeUuid", Platform.getManagementServerId()),
                 e("category", globalConfig.getCategory()),
                 e("name", globalConfig.getName())
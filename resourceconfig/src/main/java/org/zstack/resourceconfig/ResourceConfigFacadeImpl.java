@@ -137,6 +137,20 @@ public class ResourceConfigFacadeImpl extends AbstractService implements Resourc
         return rc.getResourceConfigValue(resourceUuid, clz);
     }
 
+    @Override
+    public <T> Map<String, T> getResourceConfigValues(GlobalConfig gc, List<String> resourceUuids, Class<T> clz) {
+        ResourceConfig rc = resourceConfigs.get(gc.getIdentity());
+        if (rc == null) {
+            logger.debug(String.format("resources%s are not bound to global config[category:%s, name:%s], use global config instead", resourceUuids, gc.getCategory(), gc.getName()));
+            T value = gc.value(clz);
+            Map<String, T> ret = new LinkedHashMap<>();
+            resourceUuids.forEach(uuid -> ret.put(uuid, value));
+            return ret;
+        }
+
+        return rc.getResourceConfigValues(resourceUuids, clz);
+    }
+
     protected void buildResourceConfig(Field field) throws Exception {
         BindResourceConfig at = field.getAnnotation(BindResourceConfig.class);
         GlobalConfig gc = (GlobalConfig) field.get(null);
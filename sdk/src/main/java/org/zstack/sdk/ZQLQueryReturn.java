@@ -44,4 +44,12 @@ public class ZQLQueryReturn  {
         return this.name;
     }
 
+    public java.lang.String next;
+    public void setNext(java.lang.String next) {
+        this.next = next;
+    }
+    public java.lang.String getNext() {
+        return this.next;
+    }
+
 }
@@ -30,6 +30,26 @@ doc {
 					optional true
 					since "0.6"
 					
+				}
+				column {
+					name "chunkSize"
+					enclosedIn ""
+					desc "分批获取结果时每批的条数，结果按主键排序"
+					location "query"
+					type "Integer"
+					optional true
+					since "4.0"
+					
+				}
+				column {
+					name "cursor"
+					enclosedIn ""
+					desc "上一批结果返回的next，不填时获取第一批"
+					location "query"
+					type "String"
+					optional true
+					since "4.0"
+					
 				}
 				column {
 					name "systemTags"
@@ -209,7 +209,12 @@ public class QueryFacadeImpl extends AbstractService implements QueryFacade, Glo
             }
 
             private void doCall(ReturnValueCompletion<List<ZQLQueryReturn>> completion) {
-                completion.success(ZQL.fromString(msg.getZql()).getResultList());
+                ZQL zql = ZQL.fromString(msg.getZql());
+                if (msg.getChunkSize() != null) {
+                    zql.keyset(msg.getCursor(), msg.getChunkSize());
+                }
+
+                completion.success(zql.getResultList());
             }
 
             @Override
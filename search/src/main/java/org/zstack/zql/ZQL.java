@@ -3,6 +3,8 @@ package org.zstack.zql;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
@@ -24,13 +26,10 @@ import org.zstack.query.MysqlQueryBuilderImpl3;
 import org.zstack.utils.BeanUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
-import org.zstack.zql.antlr4.ZQLLexer;
-import org.zstack.zql.antlr4.ZQLParser;
 import org.zstack.zql.ast.ZQLMetadata;
-import org.zstack.zql.ast.parser.visitors.CountVisitor;
-import org.zstack.zql.ast.parser.visitors.SumVisitor;
 import org.zstack.zql.ast.visitors.QueryVisitor;
 import org.zstack.zql.ast.visitors.ReturnWithVisitor;
+import org.zstack.zql.ast.visitors.ZQLError;
 import org.zstack.zql.ast.visitors.result.QueryResult;
 import org.zstack.zql.ast.visitors.result.ReturnWithResult;
 
@@ -46,9 +45,13 @@ public class ZQL {
 
     private QueryResult astResult;
     private String text;
+    private String keysetCursor;
+    private Integer keysetChunkSize;
 
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private ZQLQueryCache queryCache;
 
     static class ThrowingErrorListener extends BaseErrorListener {
         String text;
@@ -87,6 +90,95 @@ public class ZQL {
         return zql;
     }
 
+    /**
+     * fetch the results of a query in chunks of chunkSize, ordered by the primary key.
+     * The cursor is ZQLQueryReturn.next of the previous chunk, or null for the first chunk;
+     * the total is only counted for the first chunk
+     */
+    public ZQL keyset(String cursor, int chunkSize) {
+        keysetCursor = cursor;
+        keysetChunkSize = chunkSize;
+        return this;
+    }
+
+    private Field getPrimaryKeyField(ASTNode.Query node) {
+        ZQLMetadata.InventoryMetadata inventoryMetadata = ZQLMetadata.findInventoryMetadata(node.getTarget().getEntity());
+        return EntityMetadata.getPrimaryKeyField(inventoryMetadata.inventoryAnnotation.mappingVOClass());
+    }
+
+    private void applyKeyset(ASTNode.Query node) {
+        if (node.getOrderBy() != null || node.getLimit() != null || node.getOffset() != null
+                || node.getGroupBy() != null || node.getTarget().getFunction() != null) {
+            throw new ZQLError("order by, limit, offset, group by and functions cannot be used when fetching results in chunks");
+        }
+
+        Field priKey = getPrimaryKeyField(node);
+
+        ASTNode.OrderByExpr orderByExpr = new ASTNode.OrderByExpr();
+        orderByExpr.setField(priKey.getName());
+        orderByExpr.setDirection("asc");
+        ASTNode.OrderBy orderBy = new ASTNode.OrderBy();
+        orderBy.setExprs(new ArrayList<>(Collections.singletonList(orderByExpr)));
+        node.setOrderBy(orderBy);
+
+        ASTNode.Limit limit = new ASTNode.Limit();
+        limit.setLimit(keysetChunkSize);
+        node.setLimit(limit);
+
+        if (keysetCursor == null) {
+            return;
+        }
+
+        ASTNode.PlainValue value = new ASTNode.PlainValue();
+        if (String.class == priKey.getType()) {
+            if (keysetCursor.contains("'")) {
+                throw new ZQLError(String.format("invalid cursor[%s]", keysetCursor));
+            }
+            value.setText(String.format("'%s'", keysetCursor));
+            value.setType(String.class);
+        } else {
+            try {
+                value.setText(String.valueOf(Long.parseLong(keysetCursor)));
+            } catch (NumberFormatException e) {
+                throw new ZQLError(String.format("invalid cursor[%s]", keysetCursor));
+            }
+            value.setType(Long.class);
+        }
+        value.setCtype(value.getType().getName());
+
+        ASTNode.Expr expr = new ASTNode.Expr();
+        expr.setLeft(new ArrayList<>(Collections.singletonList(priKey.getName())));
+        expr.setOperator(">");
+        expr.setRight(value);
+
+        if (node.getConditions() == null || node.getConditions().isEmpty()) {
+            node.setConditions(new ArrayList<>(Collections.singletonList(expr)));
+        } else {
+            int last = node.getConditions().size() - 1;
+            ASTNode.LogicalOperator and = new ASTNode.LogicalOperator();
+            and.setOperator("and");
+            and.setLeft(node.getConditions().get(last));
+            and.setRight(expr);
+            node.getConditions().set(last, and);
+        }
+    }
+
+    private String getKeysetCursor(Object row, Integer primaryKeyIndex, Field priKey) {
+        Object key;
+        if (primaryKeyIndex != null) {
+            key = row instanceof Object[] ? ((Object[]) row)[primaryKeyIndex] : row;
+        } else {
+            try {
+                priKey.setAccessible(true);
+                key = priKey.get(row);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        return key == null ? null : key.toString();
+    }
+
     private List entityVOtoInventories(List vos) {
         List ret = new ArrayList();
         if (astResult.targetFieldNames != null && !astResult.targetFieldNames.isEmpty()) {
@@ -147,6 +239,7 @@ public class ZQL {
     class ReturnWithQueryNodeWrapper {
         ASTNode.Query node;
         boolean primaryKeyAdded;
+        boolean keyset;
         String voPrimaryKeyName;
 
         public ReturnWithQueryNodeWrapper(ASTNode.Query node) {
@@ -167,7 +260,8 @@ public class ZQL {
         }
 
         public void addPrimaryKeyFieldToTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery() {
-            if (!isReturnWithEnabled()) {
+            // keyset pagination reads the primary key of the last row as well
+            if (!keyset && !isReturnWithEnabled()) {
                 return;
             }
 
@@ -204,12 +298,13 @@ public class ZQL {
     public List<ZQLQueryReturn> getResultList() {
         List<ZQLQueryReturn> rs = new ArrayList<>();
 
-        ZQLLexer l = new ZQLLexer(CharStreams.fromString(text));
-        ZQLParser p = new ZQLParser(new CommonTokenStream(l));
-        p.addErrorListener(new ThrowingErrorListener(text));
-
         Map currentContext = ZQLContext.get();
-        p.zqls().zql().forEach(ctx -> {
+        List<ZQLQueryCache.Statement> statements = queryCache.getStatements(text);
+        if (keysetChunkSize != null && (statements.size() != 1 || statements.get(0).type != ZQLQueryCache.StatementType.QUERY)) {
+            throw new ZQLError("only a single query can be fetched in chunks");
+        }
+
+        statements.forEach(statement -> {
             ZQLContext.set(currentContext);
 
             ZQLQueryReturn qr = new ZQLQueryReturn();
@@ -217,12 +312,15 @@ public class ZQL {
             class Ret {
                 Long count;
                 List vos;
+                List inventories;
+                int rows;
+                Object lastRow;
             }
 
             Ret ret = new Ret();
 
-            if (ctx instanceof ZQLParser.CountGrammarContext) {
-                ASTNode.Query query = ((ZQLParser.CountGrammarContext)ctx).count().accept(new CountVisitor());
+            if (statement.type == ZQLQueryCache.StatementType.COUNT) {
+                ASTNode.Query query = statement.node;
 
                 Runnable clean = prepareZQLContext(query);
 
@@ -267,10 +365,15 @@ public class ZQL {
                 qr.name = query.getName();
 
                 clean.run();
-            } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
-                ASTNode.Query query = ((ZQLParser.QueryGrammarContext) ctx).query().accept(new org.zstack.zql.ast.parser.visitors.QueryVisitor());
+            } else if (statement.type == ZQLQueryCache.StatementType.QUERY) {
+                ASTNode.Query query = statement.node;
                 ReturnWithQueryNodeWrapper wrapper = new ReturnWithQueryNodeWrapper(query);
 
+                if (keysetChunkSize != null) {
+                    applyKeyset(query);
+                    wrapper.keyset = true;
+                }
+
                 wrapper.addPrimaryKeyFieldToTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery();
 
                 Runnable clean = prepareZQLContext(query);
@@ -284,19 +387,57 @@ public class ZQL {
 
                 beforeExecuteQuery(astResult, ZQLContext.getAPISession());
 
+                Field priKey = keysetChunkSize == null ? null : getPrimaryKeyField(query);
+                Integer primaryKeyIndex = keysetChunkSize != null && wrapper.isFieldsQuery() ? wrapper.primaryKeyFieldIndex() : null;
+                // without return with extensions needing the VOs, convert rows while reading them
+                // from a forward-only cursor instead of holding the whole chunk of entities
+                boolean streaming = keysetChunkSize != null && (astResult.returnWith == null || astResult.returnWith.isEmpty());
+                if (streaming) {
+                    wrapper.removePrimaryKeyFieldFromTargetFieldNamesWhenReturnWithEnabledAndIsFieldQuery(astResult);
+                }
+
                 new SQLBatch() {
                     @Override
                     protected void scripts() {
                         Query q = astResult.createJPAQuery.apply(databaseFacade.getEntityManager());
-                        ret.vos = q.getResultList();
+                        if (streaming) {
+                            ret.inventories = new ArrayList();
+                            ScrollableResults rs = q.unwrap(org.hibernate.query.Query.class)
+                                    .setFetchSize(keysetChunkSize)
+                                    .scroll(ScrollMode.FORWARD_ONLY);
+                            // field queries return Object[] or scalar rows, only entities can be detached
+                            boolean entityRows = astResult.targetFieldNames.isEmpty();
+                            try {
+                                while (rs.next()) {
+                                    Object[] cols = rs.get();
+                                    Object row = cols.length == 1 ? cols[0] : cols;
+                                    ret.inventories.add(entityRows ? ToInventory.toInventory(row) : entityVOtoInventory(row));
+                                    ret.rows++;
+                                    ret.lastRow = row;
+                                    if (entityRows) {
+                                        databaseFacade.getEntityManager().detach(row);
+                                    }
+                                }
+                            } finally {
+                                rs.close();
+                            }
+                        } else {
+                            ret.vos = q.getResultList();
+                            ret.rows = ret.vos.size();
+                            ret.lastRow = ret.vos.isEmpty() ? null : ret.vos.get(ret.vos.size() - 1);
+                        }
 
-                        if (astResult.createSimpleCountQuery != null) {
+                        if (astResult.createSimpleCountQuery != null && (keysetChunkSize == null || keysetCursor == null)) {
                             q = astResult.createSimpleCountQuery.apply(databaseFacade.getEntityManager());
                             ret.count = (Long) q.getSingleResult();
                         }
                     }
                 }.execute();
 
+                if (keysetChunkSize != null && ret.rows == keysetChunkSize) {
+                    qr.next = getKeysetCursor(ret.lastRow, primaryKeyIndex, priKey);
+                }
+
                 qr.returnWith = callReturnWithExtensions(astResult, wrapper, ret.vos);
                 qr.name = query.getName();
 
@@ -304,9 +445,13 @@ public class ZQL {
 
                 clean.run();
 
-                qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
-            } else if (ctx instanceof ZQLParser.SumGrammarContext) {
-                ASTNode.Sum sum = ((ZQLParser.SumGrammarContext) ctx).sum().accept(new SumVisitor());
+                if (streaming) {
+                    qr.inventories = ret.inventories;
+                } else {
+                    qr.inventories = ret.vos != null ? entityVOtoInventories(ret.vos) : null;
+                }
+            } else if (statement.type == ZQLQueryCache.StatementType.SUM) {
+                ASTNode.Sum sum = (ASTNode.Sum) statement.node;
 
                 Runnable clean = prepareZQLContext(sum);
                 callExtensions(sum);
@@ -332,7 +477,7 @@ public class ZQL {
 
                 clean.run();
             } else {
-                throw new CloudRuntimeException(String.format("should not be here, %s", ctx));
+                throw new CloudRuntimeException(String.format("should not be here, %s", statement.type));
             }
 
 
@@ -0,0 +1,254 @@
+package org.zstack.zql;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import groovy.lang.MetaClass;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.header.Component;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.zql.ASTNode;
+import org.zstack.zql.antlr4.ZQLLexer;
+import org.zstack.zql.antlr4.ZQLParser;
+import org.zstack.zql.ast.parser.visitors.CountVisitor;
+import org.zstack.zql.ast.parser.visitors.SumVisitor;
+
+import javax.management.MXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Caches the AST of ZQL texts, so polling the same query doesn't run the ANTLR
+ * parser and the parse tree visitors again.
+ *
+ * The cache key is the token stream of the text with STRING/INT/FLOAT/BOOLEAN literals
+ * replaced by a placeholder, so queries only differing in condition values share an entry.
+ * Values of conditions and restrict by expressions are bound into a copy of the cached AST;
+ * other literals (limit, offset, named as, blocks) must be equal to hit the entry.
+ *
+ * Only the text-derived AST is cached. MarshalZQLASTTreeExtensionPoint and
+ * ZQLCustomizeContextExtensionPoint rewrite the tree per session, so the SQL
+ * generation still runs on every query.
+ */
+@MXBean
+public class ZQLQueryCache implements Component, ZQLQueryCacheMXBean {
+    @Autowired
+    private JmxFacade jmxf;
+
+    public enum StatementType {
+        QUERY,
+        COUNT,
+        SUM
+    }
+
+    public static class Statement {
+        public final StatementType type;
+        public final ASTNode.Query node;
+
+        Statement(StatementType type, ASTNode.Query node) {
+            this.type = type;
+            this.node = node;
+        }
+    }
+
+    private static class Plan {
+        List<Statement> statements;
+        // token index -> text of literals not bound as values
+        Map<Integer, String> fixedLiterals;
+
+        boolean matches(Map<Integer, String> literals) {
+            return fixedLiterals.entrySet().stream().allMatch(e -> e.getValue().equals(literals.get(e.getKey())));
+        }
+    }
+
+    private static final Map<Class, List<Field>> nodeFields = new ConcurrentHashMap<>();
+
+    private final Cache<String, Plan> plans = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(ZQLGlobalProperty.QUERY_CACHE_SIZE, 1))
+            .build();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static boolean isLiteral(Token t) {
+        int type = t.getType();
+        return type == ZQLLexer.STRING || type == ZQLLexer.INT || type == ZQLLexer.FLOAT || type == ZQLLexer.BOOLEAN;
+    }
+
+    private static List<Field> getNodeFields(Class clz) {
+        return nodeFields.computeIfAbsent(clz, k -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || f.isSynthetic() || MetaClass.class.isAssignableFrom(f.getType())) {
+                        continue;
+                    }
+
+                    f.setAccessible(true);
+                    fields.add(f);
+                }
+            }
+            return fields;
+        });
+    }
+
+    private static Object copy(Object o) {
+        if (o instanceof List) {
+            return ((List<?>) o).stream().map(ZQLQueryCache::copy).collect(Collectors.toCollection(ArrayList::new));
+        }
+
+        if (!(o instanceof ASTNode)) {
+            return o;
+        }
+
+        try {
+            Object n = o.getClass().getConstructor().newInstance();
+            for (Field f : getNodeFields(o.getClass())) {
+                f.set(n, copy(f.get(o)));
+            }
+            return n;
+        } catch (Exception e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private static void walk(Object o, Consumer<ASTNode> consumer) {
+        if (o instanceof List) {
+            ((List<?>) o).forEach(it -> walk(it, consumer));
+            return;
+        }
+
+        if (!(o instanceof ASTNode)) {
+            return;
+        }
+
+        consumer.accept((ASTNode) o);
+        try {
+            for (Field f : getNodeFields(o.getClass())) {
+                walk(f.get(o), consumer);
+            }
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+    }
+
+    private static List<Statement> copy(List<Statement> statements, Map<Integer, String> literals) {
+        List<Statement> ret = new ArrayList<>(statements.size());
+        for (Statement s : statements) {
+            ASTNode.Query node = (ASTNode.Query) copy(s.node);
+            walk(node, n -> {
+                if (n instanceof ASTNode.PlainValue && ((ASTNode.PlainValue) n).getTokenIndex() >= 0) {
+                    ASTNode.PlainValue v = (ASTNode.PlainValue) n;
+                    String text = literals.get(v.getTokenIndex());
+                    v.setText(v.getType() == Boolean.class ? StringUtils.strip(text, "'") : text);
+                }
+            });
+            ret.add(new Statement(s.type, node));
+        }
+        return ret;
+    }
+
+    private static List<Statement> parse(String text, CommonTokenStream tokens) {
+        ZQLParser p = new ZQLParser(tokens);
+        p.addErrorListener(new ZQL.ThrowingErrorListener(text));
+
+        return p.zqls().zql().stream().map(ctx -> {
+            if (ctx instanceof ZQLParser.CountGrammarContext) {
+                return new Statement(StatementType.COUNT, ((ZQLParser.CountGrammarContext) ctx).count().accept(new CountVisitor()));
+            } else if (ctx instanceof ZQLParser.QueryGrammarContext) {
+                return new Statement(StatementType.QUERY, ((ZQLParser.QueryGrammarContext) ctx).query().accept(new org.zstack.zql.ast.parser.visitors.QueryVisitor()));
+            } else if (ctx instanceof ZQLParser.SumGrammarContext) {
+                return new Statement(StatementType.SUM, ((ZQLParser.SumGrammarContext) ctx).sum().accept(new SumVisitor()));
+            } else {
+                throw new CloudRuntimeException(String.format("should not be here, %s", ctx));
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * @return statements of the text, callers are free to modify the returned ASTs
+     */
+    public List<Statement> getStatements(String text) {
+        CommonTokenStream tokens = new CommonTokenStream(new ZQLLexer(CharStreams.fromString(text)));
+        if (ZQLGlobalProperty.QUERY_CACHE_SIZE <= 0) {
+            return parse(text, tokens);
+        }
+
+        tokens.fill();
+        StringBuilder key = new StringBuilder();
+        Map<Integer, String> literals = new HashMap<>();
+        for (Token t : tokens.getTokens()) {
+            key.append(t.getType()).append(':');
+            if (isLiteral(t)) {
+                key.append('?');
+                literals.put(t.getTokenIndex(), t.getText());
+            } else {
+                key.append(t.getText());
+            }
+            key.append('\u0000');
+        }
+
+        Plan plan = plans.getIfPresent(key.toString());
+        if (plan != null && plan.matches(literals)) {
+            hits.incrementAndGet();
+            return copy(plan.statements, literals);
+        }
+
+        misses.incrementAndGet();
+        List<Statement> statements = parse(text, tokens);
+
+        Set<Integer> boundIndexes = new HashSet<>();
+        statements.forEach(s -> walk(s.node, n -> {
+            if (n instanceof ASTNode.PlainValue && ((ASTNode.PlainValue) n).getTokenIndex() >= 0) {
+                boundIndexes.add(((ASTNode.PlainValue) n).getTokenIndex());
+            }
+        }));
+
+        plan = new Plan();
+        plan.fixedLiterals = new HashMap<>(literals);
+        plan.fixedLiterals.keySet().removeAll(boundIndexes);
+        plan.statements = copy(statements, literals);
+        plans.put(key.toString(), plan);
+
+        return statements;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getSize() {
+        return plans.size();
+    }
+
+    @Override
+    public void invalidateAll() {
+        plans.invalidateAll();
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("ZQLQueryCache", this);
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
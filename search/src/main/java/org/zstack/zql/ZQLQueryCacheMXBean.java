@@ -0,0 +1,13 @@
+package org.zstack.zql;
+
+/**
+ */
+public interface ZQLQueryCacheMXBean {
+    long getHitCount();
+
+    long getMissCount();
+
+    long getSize();
+
+    void invalidateAll();
+}
@@ -18,4 +18,10 @@ doc {
 		type "Long"
 		since "0.6"
 	}
+	field {
+		name "next"
+		desc "分批获取结果时下一批的cursor，没有更多结果时为空"
+		type "String"
+		since "4.0"
+	}
 }
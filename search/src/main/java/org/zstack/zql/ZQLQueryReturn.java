@@ -10,4 +10,6 @@ public class ZQLQueryReturn {
     public Long total;
     public Map returnWith;
     public String name;
+    // cursor of the next chunk when fetching in chunks, null if no more
+    public String next;
 }
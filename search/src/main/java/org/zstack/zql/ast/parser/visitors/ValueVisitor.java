@@ -24,6 +24,7 @@ public class ValueVisitor extends ZQLBaseVisitor<ASTNode.Value> {
 
         ASTNode.PlainValue v = new ASTNode.PlainValue();
         v.setText(ctx.getText());
+        v.setTokenIndex(ctx.getStart().getTokenIndex());
         if (ctx.INT() != null) {
             v.setType(Long.class);
         } else if (ctx.FLOAT() != null) {
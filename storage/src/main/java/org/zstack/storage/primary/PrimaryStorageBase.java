@@ -330,6 +330,8 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
             handle((AskVolumeSnapshotCapabilityMsg) msg);
         } else if (msg instanceof SyncVolumeSizeOnPrimaryStorageMsg) {
             handle((SyncVolumeSizeOnPrimaryStorageMsg) msg);
+        } else if (msg instanceof BatchSyncVolumeSizeOnPrimaryStorageMsg) {
+            handle((BatchSyncVolumeSizeOnPrimaryStorageMsg) msg);
         } else if (msg instanceof PingPrimaryStorageMsg) {
             handle((PingPrimaryStorageMsg) msg);
         } else if (msg instanceof ChangePrimaryStorageStatusMsg) {
@@ -1346,6 +1348,45 @@ public abstract class PrimaryStorageBase extends AbstractPrimaryStorage {
         });
     }
 
+    // if the storage can get sizes of many volumes at once, override it
+    protected void handle(BatchSyncVolumeSizeOnPrimaryStorageMsg msg) {
+        BatchSyncVolumeSizeOnPrimaryStorageReply reply = new BatchSyncVolumeSizeOnPrimaryStorageReply();
+        List<SyncVolumeSizeOnPrimaryStorageMsg> msgs = msg.getVolumeInstallPaths().entrySet().stream().map(e -> {
+            SyncVolumeSizeOnPrimaryStorageMsg smsg = new SyncVolumeSizeOnPrimaryStorageMsg();
+            smsg.setPrimaryStorageUuid(self.getUuid());
+            smsg.setVolumeUuid(e.getKey());
+            smsg.setInstallPath(e.getValue());
+            bus.makeTargetServiceIdByResourceUuid(smsg, PrimaryStorageConstant.SERVICE_ID, self.getUuid());
+            return smsg;
+        }).collect(Collectors.toList());
+
+        if (msgs.isEmpty()) {
+            bus.reply(msg, reply);
+            return;
+        }
+
+        bus.send(msgs, 10, new CloudBusListCallBack(msg) {
+            @Override
+            public void run(List<MessageReply> replies) {
+                for (int i = 0; i < replies.size(); i++) {
+                    MessageReply r = replies.get(i);
+                    String volUuid = msgs.get(i).getVolumeUuid();
+                    if (!r.isSuccess()) {
+                        logger.warn(String.format("failed to get size of the volume[uuid:%s] on the primary storage[uuid:%s], %s",
+                                volUuid, self.getUuid(), r.getError()));
+                        continue;
+                    }
+
+                    SyncVolumeSizeOnPrimaryStorageReply sr = r.castReply();
+                    reply.getActualSizes().put(volUuid, sr.getActualSize());
+                    reply.getSizes().put(volUuid, sr.getSize());
+                }
+
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
     private  void stopAllVms(List<String> vmUuids) {
         final List<StopVmInstanceMsg> msgs = new ArrayList<StopVmInstanceMsg>();
         for (String vmUuid : vmUuids) {
@@ -0,0 +1,725 @@
+package org.zstack.storage.primary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.db.*;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.AsyncThread;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.core.ExceptionSafe;
+import org.zstack.header.storage.primary.ImageCacheVO;
+import org.zstack.header.storage.primary.PrimaryStorageCanonicalEvent;
+import org.zstack.header.storage.primary.PrimaryStorageCanonicalEvent.PrimaryStorageUsageChange;
+import org.zstack.header.storage.primary.PrimaryStorageCanonicalEvent.PrimaryStorageUsageChangedData;
+import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.storage.primary.PrimaryStorageVO_;
+import org.zstack.header.storage.snapshot.VolumeSnapshotEO;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.volume.VolumeAO;
+import org.zstack.header.volume.VolumeEO;
+import org.zstack.header.volume.VolumeStatus;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.management.MXBean;
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A management node local ledger of the space volumes, image caches and volume snapshots take
+ * on each primary storage, for readers that can live with a view a little behind the database.
+ * Each node has its own ledger and learns changes of other nodes from unordered events, so
+ * PrimaryStorageCapacityRecalculator never persists it, it sums up the database by queryUsages().
+ *
+ * The ledger remembers the size each entity takes on which primary storage and is driven by
+ * the entity lifecycle callbacks of this node. A change seen in a transaction is applied after
+ * the transaction commits, so a rollback leaves nothing behind. Applied changes are broadcast
+ * to the other management nodes right away, changes coming in while a broadcast is on the way
+ * go with the next one. A primary storage is loaded from the database the first time it's
+ * asked for. Changes bypassing the entity manager, like bulk SQL updates, are not seen, so a
+ * periodic reconciliation reloads the primary storages from the database and reports the drift
+ * it found through JMX. The ledger is off unless PrimaryStorage.capacityLedgerOn is set.
+ */
+@MXBean
+public class PrimaryStorageCapacityLedger implements Component, SoftDeleteEntityExtensionPoint,
+        HardDeleteEntityExtensionPoint, PrimaryStorageCapacityLedgerMXBean {
+    private static final CLogger logger = Utils.getLogger(PrimaryStorageCapacityLedger.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private JmxFacade jmxf;
+
+    static final List<VolumeStatus> COUNTED_VOLUME_STATUS = asList(VolumeStatus.Creating, VolumeStatus.Ready, VolumeStatus.Deleted);
+
+    private static final int MAX_CHANGES_PER_EVENT = 1000;
+
+    enum EntityType {
+        Volume,
+        ImageCache,
+        VolumeSnapshot
+    }
+
+    public static class Usage {
+        private long volumeSize;
+        private long imageCacheSize;
+        private long snapshotSize;
+
+        Usage() {
+        }
+
+        Usage(Usage other) {
+            volumeSize = other.volumeSize;
+            imageCacheSize = other.imageCacheSize;
+            snapshotSize = other.snapshotSize;
+        }
+
+        /**
+         * virtual size of the volumes, the over-provisioning ratio is not applied
+         */
+        public long getVolumeSize() {
+            return volumeSize;
+        }
+
+        public long getImageCacheSize() {
+            return imageCacheSize;
+        }
+
+        public long getSnapshotSize() {
+            return snapshotSize;
+        }
+
+        long total() {
+            return volumeSize + imageCacheSize + snapshotSize;
+        }
+
+        void add(EntityType type, long size) {
+            if (type == EntityType.Volume) {
+                volumeSize += size;
+            } else if (type == EntityType.ImageCache) {
+                imageCacheSize += size;
+            } else {
+                snapshotSize += size;
+            }
+        }
+    }
+
+    private static class Entry {
+        final String primaryStorageUuid;
+        final long size;
+
+        Entry(String primaryStorageUuid, long size) {
+            this.primaryStorageUuid = primaryStorageUuid;
+            this.size = size;
+        }
+    }
+
+    private static class Change {
+        final EntityType type;
+        final String key;
+        // null if the entity doesn't take space on any primary storage
+        final String primaryStorageUuid;
+        final long size;
+
+        Change(EntityType type, String key, String primaryStorageUuid, long size) {
+            this.type = type;
+            this.key = key;
+            this.primaryStorageUuid = primaryStorageUuid;
+            this.size = size;
+        }
+    }
+
+    // only entities on loaded primary storages are kept
+    private final Map<EntityType, Map<String, Entry>> entries = new EnumMap<>(EntityType.class);
+    private final Map<String, Usage> usages = new HashMap<>();
+    // changes seen while loading primary storages from the database, replayed on what is loaded
+    private List<Change> journal;
+    private final Object loadLock = new Object();
+    // changes of this node not broadcast yet, the latest change of an entity wins
+    private final Map<String, Change> outbox = new LinkedHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final AtomicLong reconciliationCount = new AtomicLong();
+    private final AtomicLong driftedReconciliationCount = new AtomicLong();
+    private final AtomicLong totalDriftBytes = new AtomicLong();
+    private final Map<String, Long> lastDriftBytes = new ConcurrentHashMap<>();
+
+    private volatile boolean tracking;
+    private boolean callbacksInstalled;
+    private Future<Void> syncTask;
+    private Future<Void> reconcileTask;
+
+    public PrimaryStorageCapacityLedger() {
+        for (EntityType type : EntityType.values()) {
+            entries.put(type, new HashMap<>());
+        }
+    }
+
+    public boolean isEnabled() {
+        return tracking;
+    }
+
+    /**
+     * the space taken on the primary storages, those not in the ledger yet are loaded from the database
+     */
+    public Map<String, Usage> getUsages(Collection<String> psUuids) {
+        if (!isEnabled()) {
+            return queryUsages(psUuids);
+        }
+
+        List<String> toLoad;
+        synchronized (this) {
+            toLoad = psUuids.stream().filter(it -> !usages.containsKey(it)).collect(Collectors.toList());
+        }
+
+        if (!toLoad.isEmpty()) {
+            load(toLoad);
+        }
+
+        Map<String, Usage> ret = new HashMap<>();
+        synchronized (this) {
+            for (String psUuid : psUuids) {
+                Usage u = usages.get(psUuid);
+                ret.put(psUuid, u == null ? new Usage() : new Usage(u));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * the space taken on the primary storages summed up from the database
+     */
+    Map<String, Usage> queryUsages(Collection<String> psUuids) {
+        Map<String, Usage> ret = new HashMap<>();
+        psUuids.forEach(it -> ret.put(it, new Usage()));
+
+        List<Tuple> ts = SQL.New("select sum(vol.size), vol.primaryStorageUuid" +
+                " from VolumeVO vol" +
+                " where vol.primaryStorageUuid in (:psUuids)" +
+                " and vol.status in (:volStatus)" +
+                " group by vol.primaryStorageUuid", Tuple.class)
+                .param("psUuids", psUuids)
+                .param("volStatus", COUNTED_VOLUME_STATUS)
+                .list();
+        for (Tuple t : ts) {
+            if (t.get(0, Long.class) != null) {
+                ret.get(t.get(1, String.class)).volumeSize = t.get(0, Long.class);
+            }
+        }
+
+        ts = SQL.New("select sum(i.size), i.primaryStorageUuid" +
+                " from ImageCacheVO i" +
+                " where i.primaryStorageUuid in (:psUuids)" +
+                " group by i.primaryStorageUuid", Tuple.class)
+                .param("psUuids", psUuids)
+                .list();
+        for (Tuple t : ts) {
+            if (t.get(0, Long.class) != null) {
+                ret.get(t.get(1, String.class)).imageCacheSize = t.get(0, Long.class);
+            }
+        }
+
+        ts = SQL.New("select sum(snapshot.size), snapshot.primaryStorageUuid" +
+                " from VolumeSnapshotVO snapshot" +
+                " where snapshot.primaryStorageUuid in (:psUuids)" +
+                " group by snapshot.primaryStorageUuid", Tuple.class)
+                .param("psUuids", psUuids)
+                .list();
+        for (Tuple t : ts) {
+            if (t.get(0, Long.class) != null) {
+                ret.get(t.get(1, String.class)).snapshotSize = t.get(0, Long.class);
+            }
+        }
+
+        return ret;
+    }
+
+    private List<Change> queryEntries(Collection<String> psUuids) {
+        List<Change> ret = new ArrayList<>();
+
+        List<Tuple> ts = SQL.New("select vol.uuid, vol.primaryStorageUuid, vol.size" +
+                " from VolumeVO vol" +
+                " where vol.primaryStorageUuid in (:psUuids)" +
+                " and vol.status in (:volStatus)", Tuple.class)
+                .param("psUuids", psUuids)
+                .param("volStatus", COUNTED_VOLUME_STATUS)
+                .list();
+        for (Tuple t : ts) {
+            ret.add(new Change(EntityType.Volume, t.get(0, String.class), t.get(1, String.class), t.get(2, Long.class)));
+        }
+
+        ts = SQL.New("select i.id, i.primaryStorageUuid, i.size" +
+                " from ImageCacheVO i" +
+                " where i.primaryStorageUuid in (:psUuids)", Tuple.class)
+                .param("psUuids", psUuids)
+                .list();
+        for (Tuple t : ts) {
+            ret.add(new Change(EntityType.ImageCache, String.valueOf(t.get(0, Long.class)), t.get(1, String.class), t.get(2, Long.class)));
+        }
+
+        ts = SQL.New("select snapshot.uuid, snapshot.primaryStorageUuid, snapshot.size" +
+                " from VolumeSnapshotVO snapshot" +
+                " where snapshot.primaryStorageUuid in (:psUuids)", Tuple.class)
+                .param("psUuids", psUuids)
+                .list();
+        for (Tuple t : ts) {
+            ret.add(new Change(EntityType.VolumeSnapshot, t.get(0, String.class), t.get(1, String.class), t.get(2, Long.class)));
+        }
+
+        return ret;
+    }
+
+    /**
+     * (re)load the primary storages from the database
+     *
+     * @return bytes the ledger differed from the database by, for the primary storages already loaded
+     */
+    private Map<String, Long> load(Collection<String> psUuids) {
+        synchronized (loadLock) {
+            synchronized (this) {
+                journal = new ArrayList<>();
+            }
+
+            List<Change> rows;
+            try {
+                rows = queryEntries(psUuids);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    journal = null;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                Set<String> uuids = new HashSet<>(psUuids);
+                Map<String, Long> before = new HashMap<>();
+                for (String psUuid : uuids) {
+                    Usage u = usages.get(psUuid);
+                    if (u != null) {
+                        before.put(psUuid, u.total());
+                    }
+                }
+
+                entries.values().forEach(m -> m.values().removeIf(e -> uuids.contains(e.primaryStorageUuid)));
+                uuids.forEach(it -> usages.put(it, new Usage()));
+                rows.forEach(this::apply);
+
+                // the database read may miss changes not committed yet
+                List<Change> replay = journal;
+                journal = null;
+                replay.forEach(this::apply);
+
+                Map<String, Long> drift = new HashMap<>();
+                before.forEach((psUuid, total) -> drift.put(psUuid, total - usages.get(psUuid).total()));
+                return drift;
+            }
+        }
+    }
+
+    // must be called with the ledger locked
+    private void apply(Change c) {
+        Map<String, Entry> m = entries.get(c.type);
+        Entry old = m.remove(c.key);
+        if (old != null) {
+            usages.get(old.primaryStorageUuid).add(c.type, -old.size);
+        }
+
+        Usage usage = c.primaryStorageUuid == null ? null : usages.get(c.primaryStorageUuid);
+        if (usage != null) {
+            usage.add(c.type, c.size);
+            m.put(c.key, new Entry(c.primaryStorageUuid, c.size));
+        }
+    }
+
+    private synchronized void record(Change c) {
+        if (journal != null) {
+            journal.add(c);
+        }
+
+        apply(c);
+    }
+
+    private void changed(EntityType type, String key, String psUuid, long size) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Change c = new Change(type, key, psUuid, size);
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            committed(c);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                committed(c);
+            }
+        });
+    }
+
+    private void committed(Change c) {
+        try {
+            record(c);
+            synchronized (outbox) {
+                outbox.put(c.type + ":" + c.key, c);
+            }
+
+            if (flushScheduled.compareAndSet(false, true)) {
+                flushInBackground();
+            }
+        } catch (Throwable t) {
+            // never fail the database operation firing the callback, the reconciliation fixes the ledger
+            logger.warn(String.format("failed to record the change of %s[%s] in the primary storage capacity ledger", c.type, c.key), t);
+        }
+    }
+
+    @AsyncThread
+    @ExceptionSafe
+    void flushInBackground() {
+        flushScheduled.set(false);
+        flush();
+    }
+
+    private void removed(EntityType type, String key) {
+        changed(type, key, null, 0);
+    }
+
+    private void volumeChanged(VolumeAO vol) {
+        boolean counted = COUNTED_VOLUME_STATUS.contains(vol.getStatus());
+        changed(EntityType.Volume, vol.getUuid(), counted ? vol.getPrimaryStorageUuid() : null, vol.getSize());
+    }
+
+    /**
+     * re-read the volumes from the database after they are changed by bulk SQL updates
+     * which don't fire entity lifecycle callbacks
+     */
+    public void volumesUpdated(Collection<String> volumeUuids) {
+        if (!isEnabled() || volumeUuids.isEmpty()) {
+            return;
+        }
+
+        List<Tuple> ts = SQL.New("select vol.uuid, vol.primaryStorageUuid, vol.size, vol.status" +
+                " from VolumeVO vol" +
+                " where vol.uuid in (:uuids)", Tuple.class)
+                .param("uuids", volumeUuids)
+                .list();
+        for (Tuple t : ts) {
+            boolean counted = COUNTED_VOLUME_STATUS.contains(t.get(3, VolumeStatus.class));
+            changed(EntityType.Volume, t.get(0, String.class), counted ? t.get(1, String.class) : null, t.get(2, Long.class));
+        }
+    }
+
+    private synchronized void forget(String psUuid) {
+        entries.values().forEach(m -> m.values().removeIf(e -> psUuid.equals(e.primaryStorageUuid)));
+        usages.remove(psUuid);
+        lastDriftBytes.remove(psUuid);
+    }
+
+    private void flush() {
+        List<Change> changes;
+        synchronized (outbox) {
+            if (outbox.isEmpty()) {
+                return;
+            }
+
+            changes = new ArrayList<>(outbox.values());
+            outbox.clear();
+        }
+
+        for (int i = 0; i < changes.size(); i += MAX_CHANGES_PER_EVENT) {
+            PrimaryStorageUsageChangedData d = new PrimaryStorageUsageChangedData();
+            d.setNodeUuid(Platform.getManagementServerId());
+            for (Change c : changes.subList(i, Math.min(i + MAX_CHANGES_PER_EVENT, changes.size()))) {
+                PrimaryStorageUsageChange uc = new PrimaryStorageUsageChange();
+                uc.setType(c.type.toString());
+                uc.setKey(c.key);
+                uc.setPrimaryStorageUuid(c.primaryStorageUuid);
+                uc.setSize(c.size);
+                d.getChanges().add(uc);
+            }
+
+            evtf.fire(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_USAGE_CHANGED_PATH, d);
+        }
+    }
+
+    void reconcile() {
+        List<String> psUuids;
+        synchronized (this) {
+            psUuids = new ArrayList<>(usages.keySet());
+        }
+
+        if (psUuids.isEmpty()) {
+            return;
+        }
+
+        List<String> existing = Q.New(PrimaryStorageVO.class).select(PrimaryStorageVO_.uuid)
+                .in(PrimaryStorageVO_.uuid, psUuids).listValues();
+        psUuids.stream().filter(it -> !existing.contains(it)).forEach(this::forget);
+
+        for (String psUuid : existing) {
+            long drift = load(Collections.singletonList(psUuid)).getOrDefault(psUuid, 0L);
+            reconciliationCount.incrementAndGet();
+            lastDriftBytes.put(psUuid, drift);
+            if (drift != 0) {
+                driftedReconciliationCount.incrementAndGet();
+                totalDriftBytes.addAndGet(Math.abs(drift));
+                logger.warn(String.format("the capacity ledger of the primary storage[uuid:%s] drifted %s bytes" +
+                        " from the database, reconciled", psUuid, drift));
+            }
+        }
+    }
+
+    private void installCallbacks() {
+        dbf.installEntityLifeCycleCallback(VolumeVO.class, EntityEvent.POST_PERSIST, (evt, o) -> volumeChanged((VolumeVO) o));
+        dbf.installEntityLifeCycleCallback(VolumeVO.class, EntityEvent.POST_UPDATE, (evt, o) -> volumeChanged((VolumeVO) o));
+        dbf.installEntityLifeCycleCallback(VolumeVO.class, EntityEvent.POST_REMOVE, (evt, o) -> removed(EntityType.Volume, ((VolumeVO) o).getUuid()));
+        dbf.installEntityLifeCycleCallback(VolumeEO.class, EntityEvent.POST_UPDATE, (evt, o) -> {
+            VolumeEO vol = (VolumeEO) o;
+            if (vol.getDeleted() != null) {
+                removed(EntityType.Volume, vol.getUuid());
+            }
+        });
+
+        dbf.installEntityLifeCycleCallback(ImageCacheVO.class, EntityEvent.POST_PERSIST, (evt, o) -> {
+            ImageCacheVO i = (ImageCacheVO) o;
+            changed(EntityType.ImageCache, String.valueOf(i.getId()), i.getPrimaryStorageUuid(), i.getSize());
+        });
+        dbf.installEntityLifeCycleCallback(ImageCacheVO.class, EntityEvent.POST_UPDATE, (evt, o) -> {
+            ImageCacheVO i = (ImageCacheVO) o;
+            changed(EntityType.ImageCache, String.valueOf(i.getId()), i.getPrimaryStorageUuid(), i.getSize());
+        });
+        dbf.installEntityLifeCycleCallback(ImageCacheVO.class, EntityEvent.POST_REMOVE, (evt, o) ->
+                removed(EntityType.ImageCache, String.valueOf(((ImageCacheVO) o).getId())));
+
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_PERSIST, (evt, o) -> {
+            VolumeSnapshotVO s = (VolumeSnapshotVO) o;
+            changed(EntityType.VolumeSnapshot, s.getUuid(), s.getPrimaryStorageUuid(), s.getSize());
+        });
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_UPDATE, (evt, o) -> {
+            VolumeSnapshotVO s = (VolumeSnapshotVO) o;
+            changed(EntityType.VolumeSnapshot, s.getUuid(), s.getPrimaryStorageUuid(), s.getSize());
+        });
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotVO.class, EntityEvent.POST_REMOVE, (evt, o) ->
+                removed(EntityType.VolumeSnapshot, ((VolumeSnapshotVO) o).getUuid()));
+        dbf.installEntityLifeCycleCallback(VolumeSnapshotEO.class, EntityEvent.POST_UPDATE, (evt, o) -> {
+            VolumeSnapshotEO s = (VolumeSnapshotEO) o;
+            if (s.getDeleted() != null) {
+                removed(EntityType.VolumeSnapshot, s.getUuid());
+            }
+        });
+
+        evtf.on(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_USAGE_CHANGED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                PrimaryStorageUsageChangedData d = (PrimaryStorageUsageChangedData) data;
+                if (!isEnabled() || Platform.getManagementServerId().equals(d.getNodeUuid())) {
+                    return;
+                }
+
+                for (PrimaryStorageUsageChange c : d.getChanges()) {
+                    record(new Change(EntityType.valueOf(c.getType()), c.getKey(), c.getPrimaryStorageUuid(), c.getSize()));
+                }
+            }
+        });
+
+        evtf.on(PrimaryStorageCanonicalEvent.PRIMARY_STORAGE_DELETED_PATH, new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+                PrimaryStorageCanonicalEvent.PrimaryStorageDeletedData d = (PrimaryStorageCanonicalEvent.PrimaryStorageDeletedData) data;
+                forget(d.getPrimaryStorageUuid());
+            }
+        });
+    }
+
+    private void entitiesDeleted(Collection entityIds, Class entityClass) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        EntityType type = entityClass == VolumeVO.class ? EntityType.Volume :
+                entityClass == ImageCacheVO.class ? EntityType.ImageCache : EntityType.VolumeSnapshot;
+        for (Object id : entityIds) {
+            removed(type, id.toString());
+        }
+    }
+
+    @Override
+    public List<Class> getEntityClassForSoftDeleteEntityExtension() {
+        return asList(VolumeVO.class, VolumeSnapshotVO.class);
+    }
+
+    @Override
+    public void postSoftDelete(Collection entityIds, Class entityClass) {
+        entitiesDeleted(entityIds, entityClass);
+    }
+
+    @Override
+    public List<Class> getEntityClassForHardDeleteEntityExtension() {
+        return asList(VolumeVO.class, VolumeSnapshotVO.class, ImageCacheVO.class);
+    }
+
+    @Override
+    public void postHardDelete(Collection entityIds, Class entityClass) {
+        entitiesDeleted(entityIds, entityClass);
+    }
+
+    @Override
+    public synchronized int getLoadedPrimaryStorageCount() {
+        return usages.size();
+    }
+
+    @Override
+    public synchronized long getTrackedEntityCount() {
+        return entries.values().stream().mapToLong(Map::size).sum();
+    }
+
+    @Override
+    public long getReconciliationCount() {
+        return reconciliationCount.get();
+    }
+
+    @Override
+    public long getDriftedReconciliationCount() {
+        return driftedReconciliationCount.get();
+    }
+
+    @Override
+    public long getTotalDriftBytes() {
+        return totalDriftBytes.get();
+    }
+
+    @Override
+    public Map<String, Long> getLastDriftBytes() {
+        return new HashMap<>(lastDriftBytes);
+    }
+
+    @Override
+    public void reconcileNow() {
+        reconcile();
+    }
+
+    synchronized void startTracking() {
+        if (tracking) {
+            return;
+        }
+
+        if (!callbacksInstalled) {
+            // callbacks can't be uninstalled, they do nothing when the ledger is off
+            installCallbacks();
+            callbacksInstalled = true;
+        }
+
+        syncTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalProperty.CAPACITY_LEDGER_SYNC_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "broadcast-primary-storage-usage-changes";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    logger.warn("failed to broadcast primary storage usage changes", t);
+                }
+            }
+        });
+
+        reconcileTask = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return PrimaryStorageGlobalProperty.CAPACITY_LEDGER_RECONCILE_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "reconcile-primary-storage-capacity-ledger";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Throwable t) {
+                    logger.warn("failed to reconcile the primary storage capacity ledger", t);
+                }
+            }
+        });
+
+        tracking = true;
+    }
+
+    synchronized void stopTracking() {
+        if (!tracking) {
+            return;
+        }
+
+        tracking = false;
+        if (syncTask != null) {
+            syncTask.cancel(true);
+        }
+        if (reconcileTask != null) {
+            reconcileTask.cancel(true);
+        }
+
+        entries.values().forEach(Map::clear);
+        usages.clear();
+        lastDriftBytes.clear();
+        synchronized (outbox) {
+            outbox.clear();
+        }
+    }
+
+    @Override
+    public boolean start() {
+        jmxf.registerBean("PrimaryStorageCapacityLedger", this);
+
+        if (PrimaryStorageGlobalProperty.CAPACITY_LEDGER_ON) {
+            startTracking();
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        stopTracking();
+        return true;
+    }
+}
@@ -0,0 +1,21 @@
+package org.zstack.storage.primary;
+
+import java.util.Map;
+
+/**
+ */
+public interface PrimaryStorageCapacityLedgerMXBean {
+    int getLoadedPrimaryStorageCount();
+
+    long getTrackedEntityCount();
+
+    long getReconciliationCount();
+
+    long getDriftedReconciliationCount();
+
+    long getTotalDriftBytes();
+
+    Map<String, Long> getLastDriftBytes();
+
+    void reconcileNow();
+}
@@ -10,18 +10,14 @@ import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.storage.primary.*;
-import org.zstack.header.volume.VolumeStatus;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static java.util.Arrays.asList;
-
 /**
  * Created by AlanJager on 2017/4/25.
  */
@@ -39,6 +35,8 @@ public class PrimaryStorageCapacityRecalculator {
     private PrimaryStorageOverProvisioningManager ratioMgr;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private PrimaryStorageCapacityLedger ledger;
 
     public List<String> psUuids;
     private Map<String, RecalculatePrimaryStorageCapacityExtensionPoint> recalculateCapacityExtensions = new HashMap<>();
@@ -61,179 +59,56 @@ public class PrimaryStorageCapacityRecalculator {
             return;
         }
 
-        final Map<String, Long> psCap = new HashMap<>();
-        new Runnable() {
-            @Override
-            @Transactional(readOnly = true)
-            public void run() {
-                // calculate all volume size
-                {
-                    String sql = "select sum(vol.size), vol.primaryStorageUuid" +
-                            " from VolumeVO vol" +
-                            " where vol.primaryStorageUuid in (:psUuids)" +
-                            " and vol.status in (:volStatus)" +
-                            " group by vol.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<VolumeStatus> needCountVolumeStates = asList(VolumeStatus.Creating, VolumeStatus.Ready, VolumeStatus.Deleted);
-                    q.setParameter("volStatus", needCountVolumeStates);
-                    List<Tuple> ts = q.getResultList();
-
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no volume
-                            continue;
-                        }
-
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        psCap.put(psUuid, ratioMgr.calculateByRatio(psUuid, cap));
+        // the value persisted is summed up from the database, the ledger of this node may lag behind others
+        Map<String, PrimaryStorageCapacityLedger.Usage> usages = ledger.queryUsages(psUuids);
+        for (final String psUuid : psUuids) {
+            PrimaryStorageCapacityLedger.Usage usage = usages.get(psUuid);
+            // templates in image cache are physical size
+            // do not calculate over-provisioning
+            final long used = ratioMgr.calculateByRatio(psUuid, usage.getVolumeSize())
+                    + usage.getImageCacheSize()
+                    + usage.getSnapshotSize();
+
+            new Runnable() {
+                @Override
+                @Transactional
+                public void run() {
+                    String sql = "select ps.type" +
+                            " from PrimaryStorageVO ps" +
+                            " where ps.uuid = :psUuid";
+                    TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
+                    q.setParameter("psUuid", psUuid);
+                    String type = q.getSingleResult();
+
+                    RecalculatePrimaryStorageCapacityExtensionPoint ext = recalculateCapacityExtensions.get(type);
+                    RecalculatePrimaryStorageCapacityStruct struct = new RecalculatePrimaryStorageCapacityStruct();
+                    struct.setPrimaryStorageUuid(psUuid);
+
+                    if (ext != null) {
+                        ext.beforeRecalculatePrimaryStorageCapacity(struct);
                     }
-                }
 
-                // calculate all image cache size
-                {
-                    String sql = "select sum(i.size), i.primaryStorageUuid" +
-                            " from ImageCacheVO i" +
-                            " where i.primaryStorageUuid in (:psUuids)" +
-                            " group by i.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<Tuple> ts = q.getResultList();
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no image cache
-                            continue;
+                    PrimaryStorageCapacityUpdater updater = new PrimaryStorageCapacityUpdater(psUuid);
+                    updater.run(new PrimaryStorageCapacityUpdaterRunnable() {
+                        @Override
+                        public PrimaryStorageCapacityVO call(PrimaryStorageCapacityVO cap) {
+                            long before = cap.getAvailableCapacity();
+                            long now = cap.getTotalCapacity()
+                                    - used
+                                    - (cap.getSystemUsedCapacity() == null ? 0 : cap.getSystemUsedCapacity());
+                            cap.setAvailableCapacity(now);
+                            logger.debug(String.format("re-calculated available capacity of the primary storage" +
+                                            "[uuid:%s, before:%s, now:%s] with over-provisioning ratio[%s]",
+                                    psUuid, before, now, ratioMgr.getRatio(psUuid)));
+                            return cap;
                         }
+                    });
 
-                        // templates in image cache are physical size
-                        // do not calculate over-provisioning
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        Long ncap = psCap.get(psUuid);
-                        ncap = ncap == null ? cap : ncap + cap;
-                        psCap.put(psUuid, ncap);
+                    if (ext != null) {
+                        ext.afterRecalculatePrimaryStorageCapacity(struct);
                     }
                 }
-
-                // calculate all snapshot size
-                {
-                    String sql = "select sum(snapshot.size), snapshot.primaryStorageUuid" +
-                            " from VolumeSnapshotVO snapshot" +
-                            " where snapshot.primaryStorageUuid in (:psUuids)" +
-                            " group by snapshot.primaryStorageUuid";
-                    TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-                    q.setParameter("psUuids", psUuids);
-                    List<Tuple> ts = q.getResultList();
-
-                    for (Tuple t : ts) {
-                        if (t.get(0, Long.class) == null) {
-                            // no snapshot
-                            continue;
-                        }
-
-                        long cap = t.get(0, Long.class);
-                        String psUuid = t.get(1, String.class);
-                        Long ncap = psCap.get(psUuid);
-                        ncap = ncap == null ? cap : ncap + cap;
-                        psCap.put(psUuid, ncap);
-                    }
-                }
-            }
-        }.run();
-
-
-        if (psCap.isEmpty()) {
-            // the primary storage is empty
-            for (String psUuid : psUuids) {
-                new Runnable() {
-                    @Override
-                    @Transactional
-                    public void run() {
-                        String sql = "select ps.type" +
-                                " from PrimaryStorageVO ps" +
-                                " where ps.uuid = :psUuid";
-                        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                        q.setParameter("psUuid", psUuid);
-                        String type = q.getSingleResult();
-
-                        RecalculatePrimaryStorageCapacityExtensionPoint ext = recalculateCapacityExtensions.get(type);
-                        RecalculatePrimaryStorageCapacityStruct struct = new RecalculatePrimaryStorageCapacityStruct();
-                        struct.setPrimaryStorageUuid(psUuid);
-
-                        if (ext != null) {
-                            ext.beforeRecalculatePrimaryStorageCapacity(struct);
-                        }
-
-                        PrimaryStorageCapacityUpdater updater = new PrimaryStorageCapacityUpdater(psUuid);
-                        updater.run(new PrimaryStorageCapacityUpdaterRunnable() {
-                            @Override
-                            public PrimaryStorageCapacityVO call(PrimaryStorageCapacityVO cap) {
-
-                                long before = cap.getAvailableCapacity();
-                                long now = cap.getTotalCapacity()
-                                        - (cap.getSystemUsedCapacity() == null ? 0 : cap.getSystemUsedCapacity());
-                                cap.setAvailableCapacity(now);
-                                logger.debug(String.format("re-calculated available capacity of the primary storage" +
-                                                "[uuid:%s, before:%s, now:%s] with over-provisioning ratio[%s]",
-                                        psUuid, before, now, ratioMgr.getRatio(psUuid)));
-                                return cap;
-                            }
-                        });
-
-                        if (ext != null) {
-                            ext.afterRecalculatePrimaryStorageCapacity(struct);
-                        }
-                    }
-                }.run();
-            }
-        } else {
-            // there are volumes/images on the primary storage, re-calculate the available capacity
-            for (final Map.Entry<String, Long> e : psCap.entrySet()) {
-                final String psUuid = e.getKey();
-                final long used = e.getValue();
-
-                new Runnable() {
-                    @Override
-                    @Transactional
-                    public void run() {
-                        String sql = "select ps.type" +
-                                " from PrimaryStorageVO ps" +
-                                " where ps.uuid = :psUuid";
-                        TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
-                        q.setParameter("psUuid", psUuid);
-                        String type = q.getSingleResult();
-
-                        RecalculatePrimaryStorageCapacityExtensionPoint ext = recalculateCapacityExtensions.get(type);
-                        RecalculatePrimaryStorageCapacityStruct struct = new RecalculatePrimaryStorageCapacityStruct();
-                        struct.setPrimaryStorageUuid(psUuid);
-
-                        if (ext != null) {
-                            ext.beforeRecalculatePrimaryStorageCapacity(struct);
-                        }
-
-                        PrimaryStorageCapacityUpdater updater = new PrimaryStorageCapacityUpdater(psUuid);
-                        updater.run(new PrimaryStorageCapacityUpdaterRunnable() {
-                            @Override
-                            public PrimaryStorageCapacityVO call(PrimaryStorageCapacityVO cap) {
-                                long before = cap.getAvailableCapacity();
-                                long now = cap.getTotalCapacity()
-                                        - used
-                                        - (cap.getSystemUsedCapacity() == null ? 0 : cap.getSystemUsedCapacity());
-                                cap.setAvailableCapacity(now);
-                                logger.debug(String.format("re-calculated available capacity of the primary storage" +
-                                                "[uuid:%s, before:%s, now:%s] with over-provisioning ratio[%s]",
-                                        psUuid, before, now, ratioMgr.getRatio(psUuid)));
-                                return cap;
-                            }
-                        });
-
-                        if (ext != null) {
-                            ext.afterRecalculatePrimaryStorageCapacity(struct);
-                        }
-                    }
-                }.run();
-            }
+            }.run();
         }
     }
 }
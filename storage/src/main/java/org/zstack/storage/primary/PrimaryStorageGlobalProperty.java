@@ -10,4 +10,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class PrimaryStorageGlobalProperty {
     @GlobalProperty(name="PrimaryStorage.capacityTrackerOn", defaultValue = "false")
     public static boolean CAPACITY_TRACKER_ON;
+    @GlobalProperty(name="PrimaryStorage.capacityLedgerOn", defaultValue = "false")
+    public static boolean CAPACITY_LEDGER_ON;
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.syncInterval", defaultValue = "1")
+    public static long CAPACITY_LEDGER_SYNC_INTERVAL;
+    @GlobalProperty(name="PrimaryStorage.capacityLedger.reconcileInterval", defaultValue = "600")
+    public static long CAPACITY_LEDGER_RECONCILE_INTERVAL;
 }
@@ -12,4 +12,8 @@ public class VolumeGlobalProperty {
     public static boolean ROOT_VOLUME_FIND_MISSING_IMAGE_UUID;
     @GlobalProperty(name="syncVolumeSize", defaultValue = "false")
     public static boolean SYNC_VOLUME_SIZE;
+    @GlobalProperty(name="volumeSizeTracker.batchSize", defaultValue = "500")
+    public static int VOLUME_SIZE_TRACKER_BATCH_SIZE;
+    @GlobalProperty(name="volumeSizeTracker.maxIdleIntervalMultiplier", defaultValue = "8")
+    public static int VOLUME_SIZE_TRACKER_MAX_IDLE_INTERVAL_MULTIPLIER;
 }
@@ -43,6 +43,7 @@ import org.zstack.header.volume.*;
 import org.zstack.header.volume.APIGetVolumeFormatReply.VolumeFormatReplyStruct;
 import org.zstack.header.volume.VolumeDeletionPolicyManager.VolumeDeletionPolicy;
 import org.zstack.identity.AccountManager;
+import org.zstack.storage.primary.PrimaryStorageCapacityLedger;
 import org.zstack.storage.primary.PrimaryStorageDeleteBitGC;
 import org.zstack.storage.primary.PrimaryStorageGlobalConfig;
 import org.zstack.tag.TagManager;
@@ -55,6 +56,7 @@ import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -83,6 +85,8 @@ public class VolumeManagerImpl extends AbstractService implements VolumeManager,
     private VolumeDeletionPolicyManager deletionPolicyMgr;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private PrimaryStorageCapacityLedger capacityLedger;
 
     private Future<Void> volumeExpungeTask;
 
@@ -906,12 +910,14 @@ public class VolumeManagerImpl extends AbstractService implements VolumeManager,
             SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vm.getRootVolumeUuid())
                     .set(VolumeVO_.status, VolumeStatus.Deleted)
                     .update();
+            capacityLedger.volumesUpdated(Collections.singletonList(vm.getRootVolumeUuid()));
         }
         if (oldState == VmInstanceState.VolumeMigrating && newState == VmInstanceState.Stopped && vm != null && vm.getRootVolumeUuid() != null) {
             // maybe restart mn, and we need restore from VolumeMigrating state
             SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vm.getRootVolumeUuid()).eq(VolumeVO_.status, VolumeStatus.Migrating)
                     .set(VolumeVO_.status, VolumeStatus.Ready)
                     .update();
+            capacityLedger.volumesUpdated(Collections.singletonList(vm.getRootVolumeUuid()));
         }
     }
 }
@@ -1,32 +1,64 @@
 package org.zstack.storage.volume;
 
+import com.google.common.collect.Lists;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.CloudBus;
-import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusSteppingCallback;
 import org.zstack.core.cloudbus.ResourceDestinationMaker;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.core.db.SQLBatch;
 import org.zstack.core.thread.PeriodicTask;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.Component;
 import org.zstack.header.core.ExceptionSafe;
-import org.zstack.header.core.NopeNoErrorCompletion;
 import org.zstack.header.message.MessageReply;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.header.storage.primary.BatchSyncVolumeSizeOnPrimaryStorageMsg;
+import org.zstack.header.storage.primary.BatchSyncVolumeSizeOnPrimaryStorageReply;
+import org.zstack.header.storage.primary.PrimaryStorageConstant;
 import org.zstack.header.volume.*;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.persistence.Tuple;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * refreshes sizes of the volumes reported by RefreshVolumeSizeExtensionPoint.
+ *
+ * Volumes are grouped by primary storage and sizes of many volumes are got in one message,
+ * only volumes whose sizes changed are written back, merged by the entity manager in one SQLBatch
+ * transaction. A volume whose size changed is refreshed every REFRESH_VOLUME_SIZE_INTERVAL, the
+ * interval of an idle volume doubles on each refresh finding nothing changed, up to
+ * VOLUME_SIZE_TRACKER_MAX_IDLE_INTERVAL_MULTIPLIER times of it. trackVolume() marks a volume
+ * written and refreshes it on the next round.
+ */
 public class VolumeSizeTrackerImpl implements VolumeSizeTracker, Component {
     private final static CLogger logger = Utils.getLogger(VolumeSizeTrackerImpl.class);
 
-    private final Set<String> volumeUuids = Collections.synchronizedSet(new HashSet<>());
-    private Set<String> volumeInTracking = Collections.synchronizedSet(new HashSet<>());
+    private static class TrackedVolume {
+        volatile int intervalMultiplier = 1;
+        volatile long nextRefreshTime;
+    }
+
+    private static class VolumeSize {
+        final long size;
+        final long actualSize;
+
+        VolumeSize(Long size, Long actualSize) {
+            this.size = size == null ? 0 : size;
+            this.actualSize = actualSize == null ? 0 : actualSize;
+        }
+    }
+
+    private final Map<String, TrackedVolume> volumes = new ConcurrentHashMap<>();
+    private final Set<String> volumeInTracking = ConcurrentHashMap.newKeySet();
     private Future<Void> trackerThread = null;
 
     @Autowired
@@ -41,30 +73,32 @@ public class VolumeSizeTrackerImpl implements VolumeSizeTracker, Component {
 
     @Override
     public void trackVolume(String volUuid) {
-        volumeUuids.add(volUuid);
+        volumes.put(volUuid, new TrackedVolume());
     }
 
     @Override
     public void untrackVolume(String volUuid) {
-        volumeUuids.remove(volUuid);
+        volumes.remove(volUuid);
     }
 
     @Override
     public void trackVolume(Collection<String> volUuids) {
-        volumeUuids.addAll(volUuids);
+        volUuids.forEach(this::trackVolume);
     }
 
     @Override
     public void untrackVolume(Collection<String> volUuids) {
-        volumeUuids.removeAll(volUuids);
+        volumes.keySet().removeAll(volUuids);
     }
 
     @Override
     public void reScanVolume() {
-        volumeUuids.clear();
-        volumeUuids.addAll(getNeedRefreshSizeVolumeUuids().stream()
+        Set<String> uuids = getNeedRefreshSizeVolumeUuids().stream()
                 .filter(it -> destMaker.isManagedByUs(it))
-                .collect(Collectors.toList()));
+                .collect(Collectors.toSet());
+        // keep the schedule of volumes still needing refresh
+        volumes.keySet().retainAll(uuids);
+        uuids.forEach(it -> volumes.putIfAbsent(it, new TrackedVolume()));
     }
 
     @Override
@@ -116,27 +150,139 @@ public class VolumeSizeTrackerImpl implements VolumeSizeTracker, Component {
         });
     }
 
-    private void syncVolumeSize(){
-        new While<>(volumeUuids).step((volUuid, completion) -> {
-            if (!volumeInTracking.add(volUuid)) {
-                completion.done();
-                return;
+    private void syncVolumeSize() {
+        long now = System.currentTimeMillis();
+        List<String> due = volumes.entrySet().stream()
+                .filter(e -> e.getValue().nextRefreshTime <= now)
+                .map(Map.Entry::getKey)
+                .filter(volumeInTracking::add)
+                .collect(Collectors.toList());
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Map<String, VolumeSize> current = new HashMap<>();
+        List<BatchSyncVolumeSizeOnPrimaryStorageMsg> msgs = new ArrayList<>();
+        for (List<String> uuids : Lists.partition(due, VolumeGlobalProperty.VOLUME_SIZE_TRACKER_BATCH_SIZE)) {
+            List<Tuple> ts = SQL.New("select vol.uuid, vol.primaryStorageUuid, vol.installPath, vol.size, vol.actualSize" +
+                    " from VolumeVO vol" +
+                    " where vol.uuid in (:uuids)" +
+                    " and vol.primaryStorageUuid is not null", Tuple.class)
+                    .param("uuids", uuids)
+                    .list();
+
+            Map<String, BatchSyncVolumeSizeOnPrimaryStorageMsg> msgByPs = new HashMap<>();
+            for (Tuple t : ts) {
+                String volUuid = t.get(0, String.class);
+                current.put(volUuid, new VolumeSize(t.get(3, Long.class), t.get(4, Long.class)));
+                msgByPs.computeIfAbsent(t.get(1, String.class), psUuid -> {
+                    BatchSyncVolumeSizeOnPrimaryStorageMsg msg = new BatchSyncVolumeSizeOnPrimaryStorageMsg();
+                    msg.setPrimaryStorageUuid(psUuid);
+                    bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, psUuid);
+                    return msg;
+                }).getVolumeInstallPaths().put(volUuid, t.get(2, String.class));
+            }
+            msgs.addAll(msgByPs.values());
+        }
+
+        // volumes gone are dropped by the next rescan
+        due.stream().filter(it -> !current.containsKey(it)).forEach(volumeInTracking::remove);
+        if (msgs.isEmpty()) {
+            return;
+        }
+
+        bus.send(msgs, 10, new CloudBusSteppingCallback(null) {
+            @Override
+            public void run(NeedReplyMessage msg, MessageReply reply) {
+                BatchSyncVolumeSizeOnPrimaryStorageMsg bmsg = (BatchSyncVolumeSizeOnPrimaryStorageMsg) msg;
+                try {
+                    applyVolumeSizes(bmsg, reply, current);
+                } catch (Throwable t) {
+                    logger.warn(String.format("failed to refresh sizes of volumes on the primary storage[uuid:%s]",
+                            bmsg.getPrimaryStorageUuid()), t);
+                } finally {
+                    volumeInTracking.removeAll(bmsg.getVolumeInstallPaths().keySet());
+                }
+            }
+        });
+    }
+
+    private void applyVolumeSizes(BatchSyncVolumeSizeOnPrimaryStorageMsg msg, MessageReply reply, Map<String, VolumeSize> current) {
+        Set<String> requested = msg.getVolumeInstallPaths().keySet();
+        if (!reply.isSuccess()) {
+            logger.warn(String.format("failed to refresh sizes of %s volumes on the primary storage[uuid:%s], try again soon, %s",
+                    requested.size(), msg.getPrimaryStorageUuid(), reply.getError()));
+            return;
+        }
+
+        BatchSyncVolumeSizeOnPrimaryStorageReply r = reply.castReply();
+        List<String> refreshed = requested.stream()
+                .filter(it -> r.getSizes().containsKey(it) && r.getActualSizes().containsKey(it))
+                .collect(Collectors.toList());
+        if (refreshed.size() < requested.size()) {
+            logger.warn(String.format("failed to refresh sizes of %s volumes on the primary storage[uuid:%s], try again soon",
+                    requested.size() - refreshed.size(), msg.getPrimaryStorageUuid()));
+        }
+        if (refreshed.isEmpty()) {
+            return;
+        }
+
+        // the actual size = volume actual size + all snapshot size
+        Map<String, Long> snapshotSizes = new HashMap<>();
+        List<Tuple> ts = SQL.New("select sp.volumeUuid, sum(sp.size) from VolumeSnapshotVO sp" +
+                " where sp.volumeUuid in (:uuids)" +
+                " group by sp.volumeUuid", Tuple.class)
+                .param("uuids", refreshed)
+                .list();
+        for (Tuple t : ts) {
+            snapshotSizes.put(t.get(0, String.class), t.get(1, Long.class));
+        }
+
+        Map<String, VolumeSize> updates = new HashMap<>();
+        for (String volUuid : refreshed) {
+            long size = r.getSizes().get(volUuid);
+            long actualSize = r.getActualSizes().get(volUuid) + snapshotSizes.getOrDefault(volUuid, 0L);
+            VolumeSize old = current.get(volUuid);
+            if (old.size != size || old.actualSize != actualSize) {
+                updates.put(volUuid, new VolumeSize(size, actualSize));
             }
+        }
 
-            SyncVolumeSizeMsg msg = new SyncVolumeSizeMsg();
-            msg.setVolumeUuid(volUuid);
-            bus.makeTargetServiceIdByResourceUuid(msg, VolumeConstant.SERVICE_ID, volUuid);
-            bus.send(msg, new CloudBusCallBack(msg) {
+        List<String> changed = new ArrayList<>(updates.keySet());
+        if (!updates.isEmpty()) {
+            // through the entity manager in one transaction, so lastOpDate and the entity
+            // lifecycle callbacks like the capacity ledger see the changes
+            new SQLBatch() {
                 @Override
-                public void run(MessageReply reply) {
-                    volumeInTracking.remove(msg.getVolumeUuid());
-                    if (!reply.isSuccess()) {
-                        logger.warn(String.format("fail to refresh volume[uuid:%s] size, try again soon", volUuid));
+                protected void scripts() {
+                    List<VolumeVO> vos = q(VolumeVO.class).in(VolumeVO_.uuid, changed).list();
+                    for (VolumeVO vo : vos) {
+                        VolumeSize size = updates.get(vo.getUuid());
+                        vo.setSize(size.size);
+                        vo.setActualSize(size.actualSize);
+                        merge(vo);
                     }
-                    completion.done();
                 }
-            });
-        }, 50).run(new NopeNoErrorCompletion());
+            }.execute();
+        }
+
+        logger.debug(String.format("refreshed sizes of %s volumes on the primary storage[uuid:%s], %s changed",
+                refreshed.size(), msg.getPrimaryStorageUuid(), changed.size()));
+
+        Set<String> changedSet = new HashSet<>(changed);
+        long interval = TimeUnit.SECONDS.toMillis(VolumeGlobalConfig.REFRESH_VOLUME_SIZE_INTERVAL.value(Long.class));
+        long now = System.currentTimeMillis();
+        for (String volUuid : refreshed) {
+            TrackedVolume v = volumes.get(volUuid);
+            if (v == null) {
+                continue;
+            }
+
+            v.intervalMultiplier = changedSet.contains(volUuid) ? 1 :
+                    Math.min(v.intervalMultiplier * 2, VolumeGlobalProperty.VOLUME_SIZE_TRACKER_MAX_IDLE_INTERVAL_MULTIPLIER);
+            // half an interval earlier not to miss the round it's due in
+            v.nextRefreshTime = now + interval * v.intervalMultiplier - interval / 2;
+        }
     }
 
     private List<String> getNeedRefreshSizeVolumeUuids(){
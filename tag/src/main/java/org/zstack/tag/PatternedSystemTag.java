@@ -10,6 +10,7 @@ import org.zstack.header.tag.SystemTagVO_;
 import org.zstack.utils.TagUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -158,6 +159,7 @@ public class PatternedSystemTag extends SystemTag {
         svo.setResourceType(dstResourceClass.getSimpleName());
         svo.setTag(getTag(srcUuid, srcResourceClass));
         dbf.persistAndRefresh(svo);
+        tagMgr.evictSystemTagIndex(dstResourceClass.getSimpleName(), Collections.singletonList(dstUuid));
     }
 
     public boolean updateTagByToken(String resourceUuid, String tokenName, String newTag) {
@@ -174,6 +176,7 @@ public class PatternedSystemTag extends SystemTag {
 
         vo.setTag(vo.getTag().replace(oldTag, newTag));
         dbf.updateAndRefresh(vo);
+        tagMgr.evictSystemTagIndex(vo.getResourceType(), Collections.singletonList(resourceUuid));
 
         return true;
     }
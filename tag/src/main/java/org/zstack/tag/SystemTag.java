@@ -22,6 +22,7 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 
@@ -42,6 +43,8 @@ public class SystemTag {
     protected List<SystemTagValidator> validators = new ArrayList<>();
     protected List<SystemTagLifeCycleListener> lifeCycleListeners = new ArrayList<>();
     protected List<SystemTagOperationJudger> judgers = new ArrayList<>();
+    // useTagFormat() as a regex, used to match tags loaded by SystemTagIndex
+    private volatile Pattern storedTagPattern;
 
     public SystemTag(String tagFormat, Class resourceClass) {
         this.tagFormat = tagFormat;
@@ -112,7 +115,31 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    protected boolean useIndex() {
+        return tagMgr != null && SystemTagIndex.isUsable();
+    }
+
+    /**
+     * @return whether a tag stored in database is found by the query of useOp() and useTagFormat()
+     */
+    boolean isStoredTagMatched(String tag) {
+        if (useOp() != Op.LIKE) {
+            // the collation of SystemTagVO.tag is case insensitive
+            return useTagFormat().equalsIgnoreCase(tag);
+        }
+
+        if (storedTagPattern == null) {
+            storedTagPattern = SystemTagIndex.sqlLikeToPattern(useTagFormat());
+        }
+
+        return storedTagPattern.matcher(tag).matches();
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        if (useIndex()) {
+            return !tagMgr.getTagIndex().getTags(this, resourceClass.getSimpleName(), resourceUuid).isEmpty();
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -125,6 +152,10 @@ public class SystemTag {
             return new ArrayList<>();
         }
 
+        if (useIndex()) {
+            return new ArrayList<>(tagMgr.getTagIndex().getTags(this, resourceClass.getSimpleName(), resourceUuids).keySet());
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.IN, resourceUuids);
@@ -151,6 +182,10 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        if (useIndex()) {
+            return tagMgr.getTagIndex().getTags(this, resourceClass.getSimpleName(), resourceUuid);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -176,6 +211,10 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(Collection<String> resourceUuids, Class resourceClass) {
+        if (useIndex()) {
+            return tagMgr.getTagIndex().getTags(this, resourceClass.getSimpleName(), resourceUuids);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
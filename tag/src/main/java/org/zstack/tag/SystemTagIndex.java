@@ -0,0 +1,210 @@
+package org.zstack.tag;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.zstack.core.db.Q;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * system tags of resources kept in memory, keyed by resource type and resource uuid.
+ *
+ * All tags of a resource are loaded by one indexed query, which tags match a SystemTag
+ * is decided in memory and remembered per SystemTag, so hasTag()/getTags() don't run
+ * a LIKE query for every call. Reads inside a transaction go to the database because
+ * the transaction may have changed tags not committed yet.
+ *
+ * TagManagerImpl drops entries when tags are created, updated or deleted; other management
+ * nodes drop theirs on TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH.
+ */
+class SystemTagIndex {
+    private static class Entry {
+        private final List<String> tags;
+        private final Map<SystemTag, List<String>> matched = new ConcurrentHashMap<>();
+
+        Entry(List<String> tags) {
+            this.tags = tags;
+        }
+
+        List<String> match(SystemTag stag) {
+            return matched.computeIfAbsent(stag, t -> {
+                List<String> ret = new ArrayList<>();
+                for (String tag : tags) {
+                    if (t.isStoredTagMatched(tag)) {
+                        ret.add(tag);
+                    }
+                }
+
+                return ret.isEmpty() ? Collections.emptyList() : ret;
+            });
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    // bumped on every eviction, a load that raced with an eviction is not cached
+    private final AtomicLong generation = new AtomicLong();
+    // called after the eviction is visible to this node, to tell other nodes
+    private final BiConsumer<String, List<String>> evictionNotifier;
+
+    SystemTagIndex(int size, BiConsumer<String, List<String>> evictionNotifier) {
+        this.evictionNotifier = evictionNotifier;
+        entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(size, 0.9f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return this.size() > size;
+            }
+        });
+    }
+
+    private static String key(String resourceType, String resourceUuid) {
+        return resourceType + ":" + resourceUuid;
+    }
+
+    static boolean isUsable() {
+        return TagGlobalProperty.SYSTEM_TAG_INDEX && !TransactionSynchronizationManager.isActualTransactionActive();
+    }
+
+    /**
+     * @return a pattern matching the same strings as the SQL LIKE pattern does
+     * with the default case insensitive collation of MySQL
+     */
+    static Pattern sqlLikeToPattern(String like) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < like.length(); i++) {
+            char c = like.charAt(i);
+            if (c == '\\' && i + 1 < like.length()) {
+                literal.append(like.charAt(++i));
+            } else if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    sb.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                sb.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            sb.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
+    List<String> getTags(SystemTag stag, String resourceType, String resourceUuid) {
+        String key = key(resourceType, resourceUuid);
+        Entry e = entries.get(key);
+        if (e == null) {
+            long gen = generation.get();
+            List<String> tags = Q.New(SystemTagVO.class).select(SystemTagVO_.tag)
+                    .eq(SystemTagVO_.resourceType, resourceType)
+                    .eq(SystemTagVO_.resourceUuid, resourceUuid)
+                    .listValues();
+            e = new Entry(tags);
+            if (generation.get() == gen) {
+                entries.put(key, e);
+            }
+        }
+
+        return new ArrayList<>(e.match(stag));
+    }
+
+    /**
+     * @return tags matching the stag, resources without a matching tag are not in the map
+     */
+    Map<String, List<String>> getTags(SystemTag stag, String resourceType, Collection<String> resourceUuids) {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        List<String> missed = new ArrayList<>();
+        for (String uuid : new LinkedHashSet<>(resourceUuids)) {
+            Entry e = entries.get(key(resourceType, uuid));
+            if (e == null) {
+                missed.add(uuid);
+                continue;
+            }
+
+            List<String> tags = e.match(stag);
+            if (!tags.isEmpty()) {
+                ret.put(uuid, new ArrayList<>(tags));
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return ret;
+        }
+
+        long gen = generation.get();
+        Map<String, List<String>> loaded = new LinkedHashMap<>();
+        missed.forEach(uuid -> loaded.put(uuid, new ArrayList<>()));
+        List<Tuple> ts = Q.New(SystemTagVO.class).select(SystemTagVO_.tag, SystemTagVO_.resourceUuid)
+                .eq(SystemTagVO_.resourceType, resourceType)
+                .in(SystemTagVO_.resourceUuid, missed)
+                .listTuple();
+        for (Tuple t : ts) {
+            loaded.computeIfAbsent(t.get(1, String.class), k -> new ArrayList<>()).add(t.get(0, String.class));
+        }
+
+        boolean cache = generation.get() == gen;
+        loaded.forEach((uuid, tags) -> {
+            Entry e = new Entry(tags);
+            if (cache) {
+                entries.put(key(resourceType, uuid), e);
+            }
+
+            List<String> matched = e.match(stag);
+            if (!matched.isEmpty()) {
+                ret.put(uuid, new ArrayList<>(matched));
+            }
+        });
+
+        return ret;
+    }
+
+    /**
+     * drop the tags of resources, resourceUuids being null drops all resources of the resourceType.
+     * When called in a transaction, the resources are dropped again after the transaction completes
+     * and other nodes are told only then, so nobody caches tags that are not committed yet.
+     */
+    void evict(String resourceType, Collection<String> resourceUuids) {
+        List<String> uuids = resourceUuids == null ? null : new ArrayList<>(resourceUuids);
+        evictLocal(resourceType, uuids);
+
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            evictionNotifier.accept(resourceType, uuids);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                evictLocal(resourceType, uuids);
+                evictionNotifier.accept(resourceType, uuids);
+            }
+        });
+    }
+
+    void evictLocal(String resourceType, Collection<String> resourceUuids) {
+        generation.incrementAndGet();
+
+        if (resourceType == null) {
+            entries.clear();
+        } else if (resourceUuids == null) {
+            String prefix = resourceType + ":";
+            synchronized (entries) {
+                entries.keySet().removeIf(k -> k.startsWith(prefix));
+            }
+        } else {
+            for (String uuid : resourceUuids) {
+                entries.remove(key(resourceType, uuid));
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name="SystemTag.index", defaultValue = "true")
+    public static boolean SYSTEM_TAG_INDEX;
+    @GlobalProperty(name="SystemTag.indexSize", defaultValue = "100000")
+    public static int SYSTEM_TAG_INDEX_SIZE;
+}
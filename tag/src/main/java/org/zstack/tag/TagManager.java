@@ -59,4 +59,12 @@ public interface TagManager {
     void createTags(List<String> systemTags, List<String> userTags, String resourceUuid, String resourceType);
 
     List<String> filterSystemTags(List<String> systemTags, String resourceType);
+
+    /**
+     * must be called after changing SystemTagVO without TagManager, otherwise SystemTag
+     * may return stale tags of the resources
+     *
+     * @param resourceUuids null means all resources of the resourceType
+     */
+    void evictSystemTagIndex(String resourceType, Collection<String> resourceUuids);
 }
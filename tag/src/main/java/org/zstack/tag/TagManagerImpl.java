@@ -4,6 +4,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.*;
@@ -23,6 +25,7 @@ import org.zstack.header.message.APICreateMessage;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.TagCanonicalEvents.SystemTagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -55,6 +58,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     protected ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private EventFacade evtf;
 
     private List<SystemTag> systemTags = new ArrayList<>();
     private List<SystemTag> adminOnlySystemTags = new ArrayList<>();
@@ -66,6 +71,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<>();
     private List<CreateTagFromMsgExtensionPoint> createTagExtensions = new ArrayList<>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagIndex tagIndex;
 
 
     private void initSystemTags() throws IllegalAccessException {
@@ -122,6 +128,14 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void init() {
+        tagIndex = new SystemTagIndex(TagGlobalProperty.SYSTEM_TAG_INDEX_SIZE, (resourceType, resourceUuids) -> {
+            SystemTagChangedData data = new SystemTagChangedData();
+            data.setNodeUuid(Platform.getManagementServerId());
+            data.setResourceType(resourceType);
+            data.setResourceUuids(resourceUuids);
+            evtf.fire(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, data);
+        });
+
         for (EntityType<?> entity : dbf.getEntityManager().getMetamodel().getEntities()) {
             Class type = entity.getJavaType();
             String name = type.getSimpleName();
@@ -267,7 +281,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         SystemTagInventory inv = SystemTagInventory.valueOf(vo);
 
         final SystemTagVO finalVo = vo;
-        Defer.guard(() -> dbf.remove(finalVo));
+        Defer.guard(() -> {
+            dbf.remove(finalVo);
+            evictSystemTagIndex(resourceType, list(resourceUuid));
+        });
 
         fireTagCreated(list(inv));
         return inv;
@@ -369,6 +386,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        tagIndex.evict(dstResourceType, list(dstResourceUuid));
     }
 
     @Override
@@ -490,7 +509,27 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    SystemTagIndex getTagIndex() {
+        return tagIndex;
+    }
+
+    @Override
+    public void evictSystemTagIndex(String resourceType, Collection<String> resourceUuids) {
+        tagIndex.evict(resourceType, resourceUuids);
+    }
+
+    private void evictTagIndex(List<SystemTagInventory> tags) {
+        Map<String, Set<String>> uuidsByType = new HashMap<>();
+        for (SystemTagInventory tag : tags) {
+            uuidsByType.computeIfAbsent(tag.getResourceType(), k -> new HashSet<>()).add(tag.getResourceUuid());
+        }
+
+        uuidsByType.forEach((type, uuids) -> tagIndex.evict(type, uuids));
+    }
+
     void fireTagDeleted(List<SystemTagInventory> tags) {
+        evictTagIndex(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -506,6 +545,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void fireTagCreated(List<SystemTagInventory> tags) {
+        evictTagIndex(tags);
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -521,6 +562,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        tagIndex.evict(old.getResourceType(), list(old.getResourceUuid()));
+
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -709,9 +752,24 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        installTagIndexEviction();
         return true;
     }
 
+    private void installTagIndexEviction() {
+        evtf.on(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                SystemTagChangedData d = (SystemTagChangedData) data;
+                if (Platform.getManagementServerId().equals(d.getNodeUuid())) {
+                    return;
+                }
+
+                tagIndex.evictLocal(d.getResourceType(), d.getResourceUuids());
+            }
+        });
+    }
+
     @Override
     public boolean stop() {
         return true;
@@ -740,7 +798,10 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
-        q.executeUpdate();
+        if (q.executeUpdate() > 0) {
+            List<String> uuids = (List<String>) entityIds.stream().map(it -> String.valueOf(it)).collect(Collectors.toList());
+            rtypes.forEach(rtype -> tagIndex.evict(rtype, uuids));
+        }
 
         sql = "delete from UserTagVO s" +
                 " where s.resourceType in (:resourceTypes)" +
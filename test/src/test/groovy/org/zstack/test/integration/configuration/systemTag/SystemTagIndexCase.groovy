@@ -0,0 +1,122 @@
+package org.zstack.test.integration.configuration.systemTag
+
+import org.zstack.compute.host.HostSystemTags
+import org.zstack.core.db.SQL
+import org.zstack.header.host.HostVO
+import org.zstack.header.tag.SystemTagVO
+import org.zstack.header.tag.SystemTagVO_
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.SystemTagInventory
+import org.zstack.tag.TagManager
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * system tags read by SystemTag are served from the in-memory index,
+ * tag changes must be seen at once
+ */
+class SystemTagIndexCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    kvm {
+                        name = "kvm2"
+                        managementIp = "127.0.0.2"
+                        username = "root"
+                        password = "password"
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testTagChangesSeenByIndex()
+            testEvictAfterDirectDatabaseChange()
+        }
+    }
+
+    void testTagChangesSeenByIndex() {
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+        HostInventory kvm2 = env.inventoryByName("kvm2")
+
+        // loads both hosts into the index with no matching tag
+        assert !HostSystemTags.RESERVED_MEMORY_CAPACITY.hasTag(kvm1.uuid)
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.filterResourceHasTag([kvm1.uuid, kvm2.uuid]).isEmpty()
+
+        SystemTagInventory tag = createSystemTag {
+            resourceType = HostVO.class.simpleName
+            resourceUuid = kvm1.uuid
+            delegate.tag = "reservedMemory::1G"
+        }
+
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.hasTag(kvm1.uuid)
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTokenByResourceUuid(kvm1.uuid, HostSystemTags.RESERVED_MEMORY_CAPACITY_TOKEN) == "1G"
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.filterResourceHasTag([kvm1.uuid, kvm2.uuid]) == [kvm1.uuid]
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTags([kvm1.uuid, kvm2.uuid]) == [(kvm1.uuid): ["reservedMemory::1G"]]
+        // tags of other formats are not matched
+        assert !HostSystemTags.RESERVED_CPU_CAPACITY.hasTag(kvm1.uuid)
+
+        updateSystemTag {
+            uuid = tag.uuid
+            delegate.tag = "reservedMemory::2G"
+        }
+
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTokenByResourceUuid(kvm1.uuid, HostSystemTags.RESERVED_MEMORY_CAPACITY_TOKEN) == "2G"
+
+        deleteTag {
+            uuid = tag.uuid
+        }
+
+        assert !HostSystemTags.RESERVED_MEMORY_CAPACITY.hasTag(kvm1.uuid)
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTags([kvm1.uuid, kvm2.uuid]).isEmpty()
+    }
+
+    void testEvictAfterDirectDatabaseChange() {
+        HostInventory kvm2 = env.inventoryByName("kvm2")
+
+        SystemTagInventory tag = createSystemTag {
+            resourceType = HostVO.class.simpleName
+            resourceUuid = kvm2.uuid
+            delegate.tag = "reservedMemory::1G"
+        }
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTokenByResourceUuid(kvm2.uuid, HostSystemTags.RESERVED_MEMORY_CAPACITY_TOKEN) == "1G"
+
+        SQL.New(SystemTagVO.class).eq(SystemTagVO_.uuid, tag.uuid).set(SystemTagVO_.tag, "reservedMemory::3G").update()
+        bean(TagManager.class).evictSystemTagIndex(HostVO.class.simpleName, [kvm2.uuid])
+
+        assert HostSystemTags.RESERVED_MEMORY_CAPACITY.getTokenByResourceUuid(kvm2.uuid, HostSystemTags.RESERVED_MEMORY_CAPACITY_TOKEN) == "3G"
+
+        deleteTag {
+            uuid = tag.uuid
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.zstack.test.integration.core
+
+import org.zstack.core.thread.HashedWheelTimeoutScheduler
+import org.zstack.core.thread.ThreadFacadeImpl
+import org.zstack.core.thread.TimeoutTaskStatistic
+import org.zstack.core.thread.TimerTask
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
+
+/**
+ * schedule lots of timeout tasks, cancel half of them and make sure only
+ * the rest get executed
+ */
+class TimeoutTaskCase extends SubCase {
+    static final int TASK_NUM = 10000
+
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    @Override
+    void test() {
+        testTimeoutTasks()
+        testTimeoutWheel()
+        testTimerTask()
+    }
+
+    // schedule TASK_NUM tasks with submit, cancel the even ones and make sure only the odd ones run
+    private List<ThreadFacadeImpl.TimeoutTaskReceipt> runHalfCancelledTasks(Closure<ThreadFacadeImpl.TimeoutTaskReceipt> submit) {
+        Set<Integer> executed = ConcurrentHashMap.newKeySet()
+        List<ThreadFacadeImpl.TimeoutTaskReceipt> receipts = (0..<TASK_NUM).collect { int i ->
+            return submit({ executed.add(i) } as Runnable, 200L + i % 300)
+        }
+
+        receipts.eachWithIndex { r, i ->
+            if (i % 2 == 0) {
+                assert r.cancel()
+                assert !r.cancel()
+            }
+        }
+
+        retryInSecs {
+            assert executed.size() == TASK_NUM.intdiv(2)
+        }
+        assert executed.every { it % 2 == 1 }
+
+        TimeUnit.MILLISECONDS.sleep(500)
+        assert executed.size() == TASK_NUM.intdiv(2)
+
+        receipts.each { assert !it.cancel() }
+        return receipts
+    }
+
+    void testTimeoutTasks() {
+        ThreadFacadeImpl thdf = bean(ThreadFacadeImpl.class)
+        runHalfCancelledTasks { Runnable task, long delay ->
+            return thdf.submitTimeoutTask(task, TimeUnit.MILLISECONDS, delay)
+        }
+    }
+
+    void testTimeoutWheel() {
+        // a wheel of our own, the statistics of the facade's one also count other components' timeouts
+        ExecutorService executor = Executors.newFixedThreadPool(4)
+        HashedWheelTimeoutScheduler wheel = new HashedWheelTimeoutScheduler(10L, 4096, { Runnable r -> executor.execute(r) } as Consumer<Runnable>)
+
+        try {
+            runHalfCancelledTasks { Runnable task, long delay ->
+                return wheel.schedule(task, TimeUnit.MILLISECONDS, delay)
+            }
+
+            TimeoutTaskStatistic statistic = wheel.getStatistic()
+            assert statistic.pendingTaskNum == 0
+            assert statistic.expiredTaskNum == TASK_NUM.intdiv(2)
+            assert statistic.cancelledTaskNum == TASK_NUM.intdiv(2)
+            assert statistic.maxExpiryLagInMillis >= statistic.averageExpiryLagInMillis
+        } finally {
+            wheel.stop()
+            executor.shutdownNow()
+        }
+    }
+
+    void testTimerTask() {
+        ThreadFacadeImpl thdf = bean(ThreadFacadeImpl.class)
+
+        AtomicInteger count = new AtomicInteger()
+        thdf.submitTimerTask({ count.incrementAndGet(); return true } as TimerTask, TimeUnit.MILLISECONDS, 100L)
+        Runnable cancel = thdf.submitTimerTask({ count.incrementAndGet(); return true } as TimerTask, TimeUnit.SECONDS, 1L)
+        cancel.run()
+
+        retryInSecs {
+            assert count.get() == 1
+        }
+
+        TimeUnit.SECONDS.sleep(2L)
+        assert count.get() == 1
+    }
+}
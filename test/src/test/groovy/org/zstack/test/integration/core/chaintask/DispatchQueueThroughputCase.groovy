@@ -0,0 +1,128 @@
+package org.zstack.test.integration.core.chaintask
+
+import org.zstack.core.thread.ChainTask
+import org.zstack.core.thread.SyncTask
+import org.zstack.core.thread.SyncTaskChain
+import org.zstack.core.thread.ThreadFacade
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * measure chainSubmit/syncSubmit throughput with 1, 16 and 64 submitting threads,
+ * each task uses one of many distinct signatures like tasks of VMs/hosts/volumes do
+ */
+class DispatchQueueThroughputCase extends SubCase {
+    private static final CLogger logger = Utils.getLogger(DispatchQueueThroughputCase.class)
+
+    static final int TASK_NUM = 50000
+    static final int SIGNATURE_NUM = 10000
+
+    ThreadFacade thdf
+
+    @Override
+    void clean() {
+    }
+
+    @Override
+    void setup() {
+    }
+
+    @Override
+    void environment() {
+    }
+
+    long runSubmitters(int threadNum, Closure submit) {
+        CountDownLatch done = new CountDownLatch(TASK_NUM)
+        CountDownLatch start = new CountDownLatch(1)
+
+        List<Thread> submitters = (0..<threadNum).collect { idx ->
+            Thread.start {
+                start.await()
+                for (int i = idx; i < TASK_NUM; i += threadNum) {
+                    submit("dispatch-queue-benchmark-${i % SIGNATURE_NUM}".toString(), done)
+                }
+            }
+        }
+
+        long begin = System.nanoTime()
+        start.countDown()
+        submitters.each { it.join() }
+        assert done.await(120, TimeUnit.SECONDS)
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)
+    }
+
+    void submitChainTask(String signature, CountDownLatch done) {
+        thdf.chainSubmit(new ChainTask(null) {
+            @Override
+            String getSyncSignature() {
+                return signature
+            }
+
+            @Override
+            void run(SyncTaskChain chain) {
+                done.countDown()
+                chain.next()
+            }
+
+            @Override
+            String getName() {
+                return signature
+            }
+        })
+    }
+
+    void submitSyncTask(String signature, CountDownLatch done) {
+        thdf.syncSubmit(new SyncTask<Void>() {
+            @Override
+            String getSyncSignature() {
+                return signature
+            }
+
+            @Override
+            int getSyncLevel() {
+                return 1
+            }
+
+            @Override
+            String getName() {
+                return signature
+            }
+
+            @Override
+            Void call() throws Exception {
+                done.countDown()
+                return null
+            }
+        })
+    }
+
+    void testThroughput() {
+        [1, 16, 64].each { threadNum ->
+            long chainCost = runSubmitters(threadNum, this.&submitChainTask)
+            long syncCost = runSubmitters(threadNum, this.&submitSyncTask)
+
+            logger.debug(String.format("[dispatch queue benchmark] submitting threads: %s, %s tasks on %s signatures," +
+                    " chain tasks: %s ms (%s tasks/s), sync tasks: %s ms (%s tasks/s)",
+                    threadNum, TASK_NUM, SIGNATURE_NUM,
+                    chainCost, (long) (TASK_NUM * 1000 / Math.max(chainCost, 1)),
+                    syncCost, (long) (TASK_NUM * 1000 / Math.max(syncCost, 1))))
+        }
+
+        retryInSecs {
+            (0..<SIGNATURE_NUM).each {
+                assert !thdf.isChainTaskRunning("dispatch-queue-benchmark-${it}".toString())
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        thdf = bean(ThreadFacade.class)
+
+        testThroughput()
+    }
+}
@@ -0,0 +1,301 @@
+package org.zstack.test.integration.core.cloudbus
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonParser
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
+import org.springframework.web.client.HttpServerErrorException
+import org.springframework.web.client.ResourceAccessException
+import org.springframework.web.client.RestTemplate
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.CloudBusBatchTransport
+import org.zstack.core.cloudbus.CloudBusCallBack
+import org.zstack.core.cloudbus.CloudBusGlobalProperty
+import org.zstack.core.cloudbus.CloudBusGson
+import org.zstack.core.thread.ThreadFacade
+import org.zstack.header.AbstractService
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.message.Message
+import org.zstack.header.message.MessageReply
+import org.zstack.header.vm.StartVmInstanceMsg
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.logging.CLogger
+
+import javax.servlet.http.HttpServletResponse
+import java.net.ConnectException
+import java.net.SocketTimeoutException
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
+
+/**
+ * compare the throughput of the plain HTTP path and the batch transport,
+ * both go through the loopback HTTP server of this node;
+ * and check ordering, failure and retry of the transport with a stub HTTP client
+ */
+class CloudBusBatchTransportCase extends SubCase {
+    private static final CLogger logger = Utils.getLogger(CloudBusBatchTransportCase.class)
+
+    static final int MESSAGE_NUM = 2000
+
+    CloudBus bus
+    String SERVICE_ID = "testBatchTransport"
+    int connectionsPerNode
+
+    /**
+     * records posted batches, each post is answered by the handler,
+     * which returns a response or throws like RestTemplate does
+     */
+    static class StubRestTemplate extends RestTemplate {
+        List<List<Message>> batches = new CopyOnWriteArrayList<>()
+        int posts
+        Closure handler = { ResponseEntity.ok("") }
+
+        @Override
+        synchronized <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity, Class<T> responseType, Object... uriVariables) {
+            posts++
+            JsonArray body = new JsonParser().parse(requestEntity.body as String).getAsJsonArray()
+            batches.add(body.collect { CloudBusGson.fromJson(it) })
+            return handler(posts) as ResponseEntity<T>
+        }
+
+        List<String> vmUuids() {
+            return batches.flatten().collect { (it as StartVmInstanceMsg).vmInstanceUuid }
+        }
+    }
+
+    static class FailureRecorder implements Consumer<ErrorCode> {
+        List<ErrorCode> errors = new CopyOnWriteArrayList<>()
+
+        @Override
+        void accept(ErrorCode errorCode) {
+            errors.add(errorCode)
+        }
+    }
+
+    @Override
+    void clean() {
+        CloudBusGlobalProperty.HTTP_ALWAYS = false
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = false
+        CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE = connectionsPerNode
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    long sendMessages() {
+        AtomicInteger success = new AtomicInteger(0)
+        CountDownLatch latch = new CountDownLatch(MESSAGE_NUM)
+
+        long start = System.currentTimeMillis()
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: Platform.uuid)
+            bus.makeLocalServiceId(msg, SERVICE_ID)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    if (reply.isSuccess()) {
+                        success.incrementAndGet()
+                    }
+                    latch.countDown()
+                }
+            })
+        }
+
+        assert latch.await(120, TimeUnit.SECONDS)
+        assert success.get() == MESSAGE_NUM
+        return System.currentTimeMillis() - start
+    }
+
+    void testBatchTransportThroughput() {
+        def service = new AbstractService() {
+            @Override
+            void handleMessage(Message msg) {
+                bus.reply(msg, new MessageReply())
+            }
+
+            @Override
+            String getId() {
+                return bus.makeLocalServiceId(SERVICE_ID)
+            }
+
+            @Override
+            boolean start() {
+                return true
+            }
+
+            @Override
+            boolean stop() {
+                return true
+            }
+        }
+
+        bus.registerService(service)
+
+        CloudBusGlobalProperty.HTTP_ALWAYS = true
+
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = false
+        long httpCost = sendMessages()
+
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = true
+        long batchCost = sendMessages()
+
+        logger.debug(String.format("[cloudbus transport benchmark] %s messages, http: %s ms (%s msg/s), batch: %s ms (%s msg/s)",
+                MESSAGE_NUM, httpCost, (long) (MESSAGE_NUM * 1000 / Math.max(httpCost, 1)),
+                batchCost, (long) (MESSAGE_NUM * 1000 / Math.max(batchCost, 1))))
+
+        CloudBusGlobalProperty.HTTP_ALWAYS = false
+        CloudBusGlobalProperty.HTTP_BATCH_TRANSPORT = false
+        bus.unregisterService(service)
+    }
+
+    void testMessagesSentInOrderAsQueued() {
+        StubRestTemplate http = new StubRestTemplate()
+        def transport = new CloudBusBatchTransport(bean(ThreadFacade.class), 0, http)
+        def failures = new FailureRecorder()
+
+        // batches to a node go out one by one with a single connection
+        CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE = 1
+        List<String> uuids = []
+        for (int i = 0; i < 500; i++) {
+            StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: "vm-${i}".toString())
+            transport.send("http://127.0.0.1/batch", msg, failures)
+            uuids.add(msg.vmInstanceUuid)
+            // the message was serialized when queued
+            msg.vmInstanceUuid = "changed"
+        }
+
+        retryInSecs {
+            assert http.vmUuids().size() == uuids.size()
+        }
+
+        assert http.vmUuids() == uuids
+        assert failures.errors.isEmpty()
+        CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE = connectionsPerNode
+    }
+
+    void testFailedBatchOnlyFailsItsMessages() {
+        StubRestTemplate http = new StubRestTemplate()
+        http.handler = { int post ->
+            if (post == 1) {
+                throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR)
+            }
+            return ResponseEntity.ok("")
+        }
+
+        def transport = new CloudBusBatchTransport(bean(ThreadFacade.class), 0, http)
+        def failed = new FailureRecorder()
+        def sent = new FailureRecorder()
+
+        transport.send("http://127.0.0.1/batch", new StartVmInstanceMsg(vmInstanceUuid: "failed"), failed)
+        retryInSecs {
+            assert failed.errors.size() == 1
+        }
+
+        transport.send("http://127.0.0.1/batch", new StartVmInstanceMsg(vmInstanceUuid: "sent"), sent)
+        retryInSecs {
+            assert http.posts == 2
+        }
+
+        // a server error is not retried, the request may have been processed
+        assert http.vmUuids() == ["failed", "sent"]
+        assert failed.errors.size() == 1
+        assert sent.errors.isEmpty()
+    }
+
+    void testRetryOnlyOnConnectFailure() {
+        StubRestTemplate http = new StubRestTemplate()
+        http.handler = { int post ->
+            if (post == 1) {
+                throw new ResourceAccessException("connection refused", new ConnectException("connection refused"))
+            }
+            return ResponseEntity.ok("")
+        }
+
+        def transport = new CloudBusBatchTransport(bean(ThreadFacade.class), 0, http)
+        def failures = new FailureRecorder()
+        transport.send("http://127.0.0.1/batch", new StartVmInstanceMsg(vmInstanceUuid: "retried"), failures)
+        retryInSecs {
+            assert http.posts == 2
+        }
+        assert failures.errors.isEmpty()
+
+        // the peer may have got the batch before the read timed out, don't send it twice
+        http = new StubRestTemplate()
+        http.handler = { int post ->
+            throw new ResourceAccessException("read timed out", new SocketTimeoutException("read timed out"))
+        }
+
+        transport = new CloudBusBatchTransport(bean(ThreadFacade.class), 0, http)
+        transport.send("http://127.0.0.1/batch", new StartVmInstanceMsg(vmInstanceUuid: "not-retried"), failures)
+        retryInSecs {
+            assert failures.errors.size() == 1
+        }
+        TimeUnit.SECONDS.sleep(3)
+        assert http.posts == 1
+    }
+
+    void testBrokenMessageNotDropBatch() {
+        def received = new CopyOnWriteArrayList<String>()
+        def service = new AbstractService() {
+            @Override
+            void handleMessage(Message msg) {
+                received.add((msg as StartVmInstanceMsg).vmInstanceUuid)
+            }
+
+            @Override
+            String getId() {
+                return bus.makeLocalServiceId(SERVICE_ID)
+            }
+
+            @Override
+            boolean start() {
+                return true
+            }
+
+            @Override
+            boolean stop() {
+                return true
+            }
+        }
+        bus.registerService(service)
+
+        StartVmInstanceMsg msg = new StartVmInstanceMsg(vmInstanceUuid: "delivered")
+        bus.makeLocalServiceId(msg, SERVICE_ID)
+        JsonArray batch = new JsonArray()
+        batch.add(new JsonParser().parse('{"org.zstack.NoSuchMsg": {}}'))
+        batch.add(CloudBusGson.toJsonTree(msg))
+
+        bus.handleHttpBatchRequest(new HttpEntity<String>(batch.toString()), [setStatus: { int status -> }] as HttpServletResponse)
+        retryInSecs {
+            assert received == ["delivered"]
+        }
+
+        bus.unregisterService(service)
+    }
+
+    @Override
+    void test() {
+        bus = bean(CloudBus.class)
+        connectionsPerNode = CloudBusGlobalProperty.HTTP_BATCH_CONNECTIONS_PER_NODE
+
+        testMessagesSentInOrderAsQueued()
+        testFailedBatchOnlyFailsItsMessages()
+        testRetryOnlyOnConnectFailure()
+        testBrokenMessageNotDropBatch()
+        testBatchTransportThroughput()
+    }
+}
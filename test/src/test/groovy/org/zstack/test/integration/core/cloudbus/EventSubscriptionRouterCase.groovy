@@ -0,0 +1,166 @@
+package org.zstack.test.integration.core.cloudbus
+
+import org.zstack.core.Platform
+import org.zstack.core.cloudbus.*
+import org.zstack.header.AbstractService
+import org.zstack.header.managementnode.ManagementNodeInventory
+import org.zstack.header.message.Message
+import org.zstack.header.message.MessageReply
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.SubCase
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+/**
+ * another management node is played by a service registered with the peer's service id,
+ * messages to it go through the HTTP path of the bus like the ones to a real node
+ */
+class EventSubscriptionRouterCase extends SubCase {
+    CloudBus bus
+    EventFacade evtf
+    EventSubscriptionRouter router
+    ResourceDestinationMakerImpl destMaker
+
+    ManagementNodeInventory peerNode
+    List<EventSubscriptionAdvertisementMsg> peerReceived = new CopyOnWriteArrayList<>()
+    List<EventCallback> callbacks = []
+
+    @Override
+    void clean() {
+        callbacks.each { evtf.off(it) }
+        if (peerNode != null) {
+            destMaker.nodeLeft(peerNode)
+        }
+        router.stop()
+        CloudBusGlobalProperty.EVENT_SUBSCRIBER_AWARE_ROUTING = false
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+    }
+
+    EventCallback on(String path) {
+        EventCallback cb = new EventCallback() {
+            @Override
+            protected void run(Map tokens, Object data) {
+            }
+        }
+
+        evtf.on(path, cb)
+        callbacks.add(cb)
+        return cb
+    }
+
+    AbstractService peerRouter(long applyDelayInSecs) {
+        return new AbstractService() {
+            @Override
+            void handleMessage(Message msg) {
+                // a peer busy with other work applies the advertisement late
+                TimeUnit.SECONDS.sleep(applyDelayInSecs)
+                peerReceived.add(msg as EventSubscriptionAdvertisementMsg)
+                bus.reply(msg, new MessageReply())
+            }
+
+            @Override
+            String getId() {
+                return bus.makeServiceIdByManagementNodeId(EventSubscriptionRouter.SERVICE_ID, peerNode.uuid)
+            }
+
+            @Override
+            boolean start() {
+                return true
+            }
+
+            @Override
+            boolean stop() {
+                return true
+            }
+        }
+    }
+
+    boolean peerHasPath(String path) {
+        return peerReceived.any { msg ->
+            msg.eventTypes.contains(new CanonicalEvent().getType().toString()) &&
+                    (msg.canonicalEventPathGlobs == null || msg.canonicalEventPathGlobs.any { path.matches(it) })
+        }
+    }
+
+    void testPeerAppliesNewSubscriptionBeforeOnReturns() {
+        def peer = peerRouter(2)
+        bus.registerService(peer)
+
+        String path = "/test/event-subscription-router/${Platform.uuid}".toString()
+        on(path)
+
+        // no waiting, the acknowledgement came before on() returned
+        assert peerHasPath(path)
+
+        bus.unregisterService(peer)
+    }
+
+    void testUnacknowledgedPeerDoesNotFailSubscriber() {
+        // no service of the peer, the advertisement fails
+        peerReceived.clear()
+        String path = "/test/event-subscription-router/${Platform.uuid}".toString()
+
+        long start = System.currentTimeMillis()
+        on(path)
+        assert System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(CloudBusGlobalProperty.EVENT_SUBSCRIPTION_ACK_TIMEOUT + 5)
+        assert !peerHasPath(path)
+    }
+
+    void testEventsFilteredByPeerSubscription() {
+        CanonicalEvent subscribed = new CanonicalEvent(path: "/test/peer/subscribed")
+        CanonicalEvent other = new CanonicalEvent(path: "/test/peer/other")
+
+        // the peer hasn't advertised, it gets every event
+        assert router.isInterested(peerNode.uuid, other)
+
+        EventSubscriptionAdvertisementMsg msg = new EventSubscriptionAdvertisementMsg(
+                managementNodeUuid: peerNode.uuid,
+                version: 2,
+                eventTypes: [subscribed.getType().toString()] as Set,
+                canonicalEventPathGlobs: ["/test/peer/subscribed"] as Set
+        )
+        bus.makeLocalServiceId(msg, EventSubscriptionRouter.SERVICE_ID)
+        assert bus.call(msg).isSuccess()
+
+        assert router.isInterested(peerNode.uuid, subscribed)
+        assert !router.isInterested(peerNode.uuid, other)
+
+        // a stale advertisement arriving late is ignored
+        msg = new EventSubscriptionAdvertisementMsg(
+                managementNodeUuid: peerNode.uuid,
+                version: 1,
+                eventTypes: [] as Set,
+                canonicalEventPathGlobs: [] as Set
+        )
+        bus.makeLocalServiceId(msg, EventSubscriptionRouter.SERVICE_ID)
+        assert bus.call(msg).isSuccess()
+        assert router.isInterested(peerNode.uuid, subscribed)
+    }
+
+    @Override
+    void test() {
+        bus = bean(CloudBus.class)
+        evtf = bean(EventFacade.class)
+        router = bean(EventSubscriptionRouter.class)
+        destMaker = bean(ResourceDestinationMakerImpl.class)
+
+        CloudBusGlobalProperty.EVENT_SUBSCRIBER_AWARE_ROUTING = true
+        router.start()
+
+        peerNode = new ManagementNodeInventory(uuid: Platform.uuid, hostName: Platform.getManagementServerIp())
+        destMaker.nodeJoin(peerNode)
+
+        testPeerAppliesNewSubscriptionBeforeOnReturns()
+        testUnacknowledgedPeerDoesNotFailSubscriber()
+        testEventsFilteredByPeerSubscription()
+    }
+}
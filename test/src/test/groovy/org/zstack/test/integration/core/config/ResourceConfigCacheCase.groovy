@@ -0,0 +1,124 @@
+package org.zstack.test.integration.core.config
+
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.resourceconfig.ResourceConfigFacade
+import org.zstack.sdk.ClusterInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.ZoneInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * resolve a host -> cluster -> zone bound config for several hosts while values
+ * are set and deleted on each level
+ */
+class ResourceConfigCacheCase extends SubCase {
+    EnvSpec env
+    ResourceConfigFacade rcf
+    ZoneInventory zone
+    ClusterInventory cluster
+    HostInventory kvm1
+    HostInventory kvm2
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    kvm {
+                        name = "kvm2"
+                        managementIp = "127.0.0.2"
+                        username = "root"
+                        password = "password"
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            rcf = bean(ResourceConfigFacade.class)
+            zone = env.inventoryByName("zone") as ZoneInventory
+            cluster = env.inventoryByName("cluster") as ClusterInventory
+            kvm1 = env.inventoryByName("kvm1") as HostInventory
+            kvm2 = env.inventoryByName("kvm2") as HostInventory
+
+            testResolveThroughParents()
+        }
+    }
+
+    void update(String resourceUuid, int value) {
+        updateResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            delegate.resourceUuid = resourceUuid
+            delegate.value = value.toString()
+        }
+    }
+
+    void delete(String resourceUuid) {
+        deleteResourceConfig {
+            category = HostGlobalConfig.CATEGORY
+            name = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.name
+            delegate.resourceUuid = resourceUuid
+        }
+    }
+
+    void checkValues(int v1, int v2) {
+        Map<String, Integer> values = rcf.getResourceConfigValues(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO,
+                [kvm1.uuid, kvm2.uuid], Integer.class)
+        assert values == [(kvm1.uuid): v1, (kvm2.uuid): v2]
+        assert rcf.getResourceConfigValue(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO, kvm1.uuid, Integer.class) == v1
+        assert rcf.getResourceConfigValue(HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO, kvm2.uuid, Integer.class) == v2
+    }
+
+    void testResolveThroughParents() {
+        int defaultValue = HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.value(Integer.class)
+        checkValues(defaultValue, defaultValue)
+
+        update(zone.uuid, 20)
+        checkValues(20, 20)
+
+        update(cluster.uuid, 30)
+        checkValues(30, 30)
+
+        update(kvm1.uuid, 40)
+        checkValues(40, 30)
+
+        update(kvm1.uuid, 50)
+        checkValues(50, 30)
+
+        delete(kvm1.uuid)
+        checkValues(30, 30)
+
+        delete(cluster.uuid)
+        checkValues(20, 20)
+
+        delete(zone.uuid)
+        checkValues(defaultValue, defaultValue)
+    }
+}
@@ -1,11 +1,21 @@
 package org.zstack.test.integration.core.database
 
 
+import com.mchange.v2.c3p0.ComboPooledDataSource
+import org.zstack.core.Platform
+import org.zstack.core.db.DatabaseFacade
+import org.zstack.core.db.DatabaseGlobalProperty
 import org.zstack.core.db.GLock
+import org.zstack.core.db.GLockJMX
 import org.zstack.header.exception.CloudRuntimeException
 import org.zstack.test.integration.ZStackTest
 import org.zstack.testlib.EnvSpec
 import org.zstack.testlib.SubCase
+
+import java.sql.Connection
+import java.sql.ResultSet
+import java.util.concurrent.TimeUnit
+
 /**
  * Created by mingjian.deng on 2019/12/28.*/
 class GLockCase extends SubCase {
@@ -35,6 +45,8 @@ class GLockCase extends SubCase {
             prepare()
             testGLockTimeout()
             testGlock()
+            testLocalGLock()
+            testMoreLocksThanPoolConnections()
         }
 
     }
@@ -95,4 +107,111 @@ class GLockCase extends SubCase {
         logger.debug("locker.debug: t1=${t1}, t2=${t2}")
         assert t1 <= t2
     }
+
+    void testLocalGLock() {
+        GLockJMX jmx = bean(GLockJMX.class)
+        long local = jmx.localAcquiredCount
+        long distributed = jmx.distributedAcquiredCount
+
+        // the only management node manages all resources, it keeps the mysql lock as an owner lease
+        String resourceUuid = Platform.uuid
+        lock1 = new GLock(lockName, 1, resourceUuid)
+        lock2 = new GLock(lockName, 1, resourceUuid)
+        lock1.lock()
+        assert jmx.localAcquiredCount == local + 1
+        assert jmx.distributedAcquiredCount == distributed
+        assert jmx.holders.containsKey(lockName)
+        assert jmx.ownerLeaseCount >= 1
+
+        boolean timeout = false
+        Thread.start {
+            try {
+                lock2.lock()
+            } catch (CloudRuntimeException e) {
+                timeout = true
+            }
+        }.join()
+        assert timeout
+
+        // another management node taking the lock waits for the owner
+        assert !getLockInDatabase()
+
+        lock1.unlock()
+        assert !jmx.holders.containsKey(lockName)
+        // the lease is kept after unlock
+        assert jmx.ownerLeaseCount >= 1
+        assert !getLockInDatabase()
+
+        lock2.lock()
+        lock2.unlock()
+        assert jmx.localAcquiredCount == local + 2
+        assert jmx.ownerLeaseCount >= 1
+
+        // a lock without owner resource on this node uses the lease too
+        lock1 = new GLock(lockName, 1)
+        lock1.lock()
+        lock1.unlock()
+        assert jmx.ownerLeaseCount >= 1
+
+        // idle leases are released, then other nodes get the lock
+        retryInSecs {
+            assert getLockInDatabase()
+        }
+    }
+
+    void testMoreLocksThanPoolConnections() {
+        GLockJMX jmx = bean(GLockJMX.class)
+        ComboPooledDataSource pool = bean(DatabaseFacade.class).lockDataSource as ComboPooledDataSource
+        assert pool.maxPoolSize >= DatabaseGlobalProperty.GLockMaxOwnerLeases + DatabaseGlobalProperty.GLockPoolHeadroom
+
+        int checkoutTimeout = pool.checkoutTimeout
+        pool.checkoutTimeout = 2000
+        List<GLock> held = []
+        try {
+            // owner locks of distinct resources leave leases pinning connections
+            (1..DatabaseGlobalProperty.GLockMaxOwnerLeases).each {
+                GLock l = new GLock("glock-case-lease-${it}".toString(), 1, Platform.uuid)
+                l.lock()
+                l.unlock()
+            }
+            assert jmx.ownerLeaseCount == DatabaseGlobalProperty.GLockMaxOwnerLeases
+
+            // more distinct locks than the connections left, idle leases are released for them
+            (1..pool.maxPoolSize).each {
+                GLock l = new GLock("glock-case-held-${it}".toString(), 1)
+                l.lock()
+                held.add(l)
+            }
+            assert jmx.ownerLeaseCount == 0
+
+            // no connection left, the lock fails instead of waiting forever
+            long start = System.currentTimeMillis()
+            expect(CloudRuntimeException.class) {
+                new GLock("glock-case-one-more", 1).lock()
+            }
+            assert System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(10)
+        } finally {
+            held.each { it.unlock() }
+            pool.checkoutTimeout = checkoutTimeout
+        }
+
+        GLock l = new GLock("glock-case-one-more", 1)
+        l.lock()
+        l.unlock()
+    }
+
+    boolean getLockInDatabase() {
+        Connection conn = bean(DatabaseFacade.class).lockDataSource.connection
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("select get_lock('${lockName}', 0)".toString())
+            rs.first()
+            boolean locked = rs.getInt(1) == 1
+            if (locked) {
+                conn.createStatement().executeQuery("select release_lock('${lockName}')".toString())
+            }
+            return locked
+        } finally {
+            conn.close()
+        }
+    }
 }
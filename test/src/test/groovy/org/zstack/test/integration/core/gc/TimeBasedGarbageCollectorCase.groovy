@@ -1,5 +1,6 @@
 package org.zstack.test.integration.core.gc
 
+import org.zstack.core.Platform
 import org.zstack.core.db.DatabaseFacade
 import org.zstack.core.db.SQL
 import org.zstack.core.gc.GCCompletion
@@ -12,6 +13,7 @@ import org.zstack.core.gc.TimeBasedGarbageCollector
 import org.zstack.sdk.GarbageCollectorInventory
 import org.zstack.testlib.SubCase
 
+import java.lang.management.ManagementFactory
 import java.util.concurrent.TimeUnit
 import static org.zstack.core.Platform.operr
 
@@ -22,6 +24,7 @@ class TimeBasedGarbageCollectorCase extends SubCase {
     DatabaseFacade dbf
     GarbageCollectorManagerImpl gcMgr
     String adminSessionUuid
+    List<TimeBasedGC1> pendingGCs = []
 
     static enum Behavior {
         SUCCESS,
@@ -36,6 +39,10 @@ class TimeBasedGarbageCollectorCase extends SubCase {
             cancel()
         }
 
+        void doCancelTimer() {
+            cancelTimer()
+        }
+
         @Override
         protected void triggerNow(GCCompletion completion) {
             def ret = triggerNowLogic()
@@ -334,6 +341,32 @@ class TimeBasedGarbageCollectorCase extends SubCase {
         assert inv.status == GCStatus.Idle.toString()
     }
 
+    void testManyPendingJobsShareScheduler() {
+        def threads = ManagementFactory.getThreadMXBean()
+        int threadCount = threads.threadCount
+        int pending = gcMgr.pendingTimeBasedJobCount
+
+        (1..10000).each {
+            def gc = new TimeBasedGC1()
+            gc.NAME = "testManyPendingJobsShareScheduler"
+            gc.uuid = Platform.uuid
+            gc.NEXT_TIME = 1
+            gc.NEXT_TIME_UNIT = TimeUnit.DAYS
+            gc.triggerNowLogic = { return Behavior.SUCCESS }
+            gc.setupTimer()
+            pendingGCs.add(gc)
+        }
+
+        assert gcMgr.pendingTimeBasedJobCount == pending + 10000
+        assert gcMgr.pendingTimeBasedJobs[TimeBasedGC1.class.name] >= 10000
+        // no thread per pending job
+        assert threads.threadCount - threadCount < 20
+
+        pendingGCs.each { it.doCancelTimer() }
+        pendingGCs.clear()
+        assert gcMgr.pendingTimeBasedJobCount == pending
+    }
+
     @Override
     void test() {
         dbf = bean(DatabaseFacade.class)
@@ -350,10 +383,13 @@ class TimeBasedGarbageCollectorCase extends SubCase {
         testGCInDBTriggeredByApiWithMgmtUuidNull()
         testGCInDBTriggeredByApiWithMgmtUuidNotNull()
         testQueryGCJob()
+        testManyPendingJobsShareScheduler()
     }
 
     @Override
     void clean() {
+        // the timers are 1 day later, don't leave them in the scheduler if the test failed
+        pendingGCs.each { it.doCancelTimer() }
         SQL.New(GarbageCollectorVO.class).delete()
     }
 }
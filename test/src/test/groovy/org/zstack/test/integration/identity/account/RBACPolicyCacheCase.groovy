@@ -0,0 +1,158 @@
+package org.zstack.test.integration.identity.account
+
+import org.zstack.sdk.PolicyInventory
+import org.zstack.sdk.PolicyStatement
+import org.zstack.sdk.PolicyStatementEffect
+import org.zstack.sdk.SessionInventory
+import org.zstack.sdk.UserGroupInventory
+import org.zstack.sdk.UserInventory
+import org.zstack.test.integration.ZStackTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * the compiled policies of a user are cached, make sure attaching/detaching policies
+ * and changing group membership take effect on the next API call
+ */
+class RBACPolicyCacheCase extends SubCase {
+    EnvSpec env
+    SessionInventory accountSession
+    SessionInventory userSession
+    UserInventory user
+    PolicyInventory denyPolicy
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(ZStackTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {}
+    }
+
+    @Override
+    void test() {
+        env.create {
+            prepare()
+            testAttachPolicyToUser()
+            testGroupMembership()
+            testDeletePolicy()
+        }
+    }
+
+    void prepare() {
+        createAccount {
+            name = "cache"
+            password = "password"
+        }
+
+        accountSession = logInByAccount {
+            accountName = "cache"
+            password = "password"
+        } as SessionInventory
+
+        user = createUser {
+            name = "cache-user"
+            password = "password"
+            sessionId = accountSession.uuid
+        } as UserInventory
+
+        userSession = logInByUser {
+            accountName = "cache"
+            userName = "cache-user"
+            password = "password"
+        } as SessionInventory
+
+        denyPolicy = createPolicy {
+            name = "deny-query-zone"
+            statements = [new PolicyStatement(
+                    name: "deny",
+                    effect: PolicyStatementEffect.Deny,
+                    actions: ["org.zstack.header.zone.APIQueryZoneMsg"]
+            )]
+            sessionId = accountSession.uuid
+        } as PolicyInventory
+    }
+
+    void queryZoneAllowed() {
+        queryZone {
+            sessionId = userSession.uuid
+        }
+    }
+
+    void queryZoneDenied() {
+        expect(AssertionError.class) {
+            queryZone {
+                sessionId = userSession.uuid
+            }
+        }
+    }
+
+    void testAttachPolicyToUser() {
+        // fill the cache
+        queryZoneAllowed()
+
+        attachPolicyToUser {
+            userUuid = user.uuid
+            policyUuid = denyPolicy.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneDenied()
+
+        detachPolicyFromUser {
+            userUuid = user.uuid
+            policyUuid = denyPolicy.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneAllowed()
+    }
+
+    void testGroupMembership() {
+        UserGroupInventory group = createUserGroup {
+            name = "cache-group"
+            sessionId = accountSession.uuid
+        } as UserGroupInventory
+
+        attachPolicyToUserGroup {
+            groupUuid = group.uuid
+            policyUuid = denyPolicy.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneAllowed()
+
+        addUserToGroup {
+            userUuid = user.uuid
+            groupUuid = group.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneDenied()
+
+        removeUserFromGroup {
+            userUuid = user.uuid
+            groupUuid = group.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneAllowed()
+
+        addUserToGroup {
+            userUuid = user.uuid
+            groupUuid = group.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneDenied()
+    }
+
+    void testDeletePolicy() {
+        deletePolicy {
+            uuid = denyPolicy.uuid
+            sessionId = accountSession.uuid
+        }
+        queryZoneAllowed()
+    }
+}
@@ -1,8 +1,10 @@
 package org.zstack.test.integration.identity.account
 
+import org.zstack.core.cloudbus.EventFacade
 import org.zstack.core.db.DatabaseFacade
 import org.zstack.core.db.DatabaseFacadeImpl
 import org.zstack.header.identity.AccountConstant
+import org.zstack.header.identity.IdentityCanonicalEvents
 import org.zstack.identity.AccountManagerImpl
 import org.zstack.identity.IdentityGlobalConfig
 import org.zstack.identity.Session
@@ -55,9 +57,56 @@ class SessionCase extends SubCase {
             testInvalidSession()
             testValidateSessionApi()
             testMaxCurrentSessionExceeded()
+            testSessionCache()
         }
     }
 
+    void testSessionCache() {
+        createAccount {
+            name = "cache"
+            password = "password"
+        }
+
+        SessionInventory session = logInByAccount {
+            accountName = "cache"
+            password = "password"
+        } as SessionInventory
+
+        Session s = bean(Session.class)
+        long hit = s.hitCount
+        long miss = s.missCount
+        queryAccount {
+            sessionId = session.uuid
+        }
+        assert s.hitCount > hit
+        assert s.missCount == miss
+
+        // a renew without duration in the min renew interval doesn't touch the database
+        long skipped = s.skippedRenewCount
+        Session.renewSession(session.uuid, null)
+        assert s.skippedRenewCount == skipped + 1
+
+        // another management node renews the session
+        EventFacade evtf = bean(EventFacade.class)
+        Timestamp expiredDate = new Timestamp(Session.getSession(session.uuid).expiredDate.time + TimeUnit.HOURS.toMillis(1))
+        IdentityCanonicalEvents.SessionChangedData data = new IdentityCanonicalEvents.SessionChangedData()
+        data.nodeUuid = "another-node"
+        data.sessionUuid = session.uuid
+        data.expiredDate = expiredDate
+        evtf.fire(IdentityCanonicalEvents.SESSION_CHANGED_PATH, data)
+        retryInSecs {
+            assert acntMgr.getSessionsCopy().get(session.uuid).expiredDate.time == expiredDate.time
+        }
+
+        // another management node logs the session out
+        data.expiredDate = null
+        evtf.fire(IdentityCanonicalEvents.SESSION_CHANGED_PATH, data)
+        retryInSecs {
+            assert acntMgr.getSessionsCopy().get(session.uuid) == null
+        }
+        assert s.invalidationCount >= 2
+    }
+
     void testMaxCurrentSessionExceeded() {
         IdentityGlobalConfig.MAX_CONCURRENT_SESSION.updateValue(1)
 
@@ -91,7 +140,7 @@ class SessionCase extends SubCase {
             password = "password"
         } as SessionInventory
 
-        Session.sessions.get(session.uuid).expiredDate = new Timestamp(new Date().getTime() - 1000)
+        Session.sessions.get(session.uuid).inventory.expiredDate = new Timestamp(new Date().getTime() - 1000)
 
         assert validateSession {
             sessionUuid = session.uuid
@@ -0,0 +1,216 @@
+package org.zstack.test.integration.kvm.host
+
+import org.springframework.http.HttpEntity
+import org.zstack.compute.host.HostGlobalConfig
+import org.zstack.compute.host.HostTrackImpl
+import org.zstack.core.db.Q
+import org.zstack.header.host.*
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMConstant
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * ping hosts with ping.batchMode on
+ */
+class HostBatchPingCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void clean() {
+        HostGlobalConfig.PING_IN_BATCH.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    kvm {
+                        name = "kvm2"
+                        managementIp = "127.0.0.2"
+                        username = "root"
+                        password = "password"
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            HostGlobalConfig.PING_HOST_INTERVAL.updateValue(2)
+            HostGlobalConfig.PING_BATCH_SIZE.updateValue(1)
+            HostGlobalConfig.PING_BATCH_JITTER.updateValue(0)
+            HostGlobalConfig.PING_IN_BATCH.updateValue(true)
+
+            testAllHostsPinged()
+            testNoPingWhenHostMaintained()
+            testHostReconnectAfterPingFailure()
+            testHostPingedAgainAfterBatchFailure()
+            testLatenciesDroppedWithHost()
+        }
+    }
+
+    void testAllHostsPinged() {
+        Map<String, Integer> counts = new ConcurrentHashMap<>()
+        def cleanup = notifyWhenReceivedMessage(PingHostMsg.class) { PingHostMsg msg ->
+            counts.merge(msg.hostUuid, 1, Integer.&sum)
+        }
+
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+        HostInventory kvm2 = env.inventoryByName("kvm2")
+        retryInSecs {
+            assert counts[kvm1.uuid] >= 2
+            assert counts[kvm2.uuid] >= 2
+        }
+        cleanup()
+
+        def latencies = bean(HostTrackImpl.class).getPingLatencies()
+        assert latencies.find { it.hostUuid == kvm1.uuid }.sampleCount > 0
+        assert latencies.find { it.hostUuid == kvm2.uuid }.sampleCount > 0
+    }
+
+    void testNoPingWhenHostMaintained() {
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+
+        changeHostState {
+            uuid = kvm1.uuid
+            stateEvent = HostStateEvent.maintain
+        }
+
+        retryInSecs {
+            assert Q.New(HostVO.class).select(HostVO_.state).eq(HostVO_.uuid, kvm1.uuid).findValue() == HostState.Maintenance
+        }
+
+        int count = 0
+        def cleanup = notifyWhenReceivedMessage(PingHostMsg.class) { PingHostMsg msg ->
+            if (msg.hostUuid == kvm1.uuid) {
+                count ++
+            }
+        }
+
+        TimeUnit.SECONDS.sleep(5L)
+        assert count == 0
+
+        changeHostState {
+            uuid = kvm1.uuid
+            stateEvent = HostStateEvent.enable
+        }
+
+        retryInSecs {
+            assert count > 0
+        }
+        cleanup()
+    }
+
+    void testHostReconnectAfterPingFailure() {
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+
+        boolean pingSuccess = false
+        env.simulator(KVMConstant.KVM_PING_PATH) { HttpEntity<String> e, EnvSpec espec ->
+            KVMAgentCommands.PingCmd cmd = JSONObjectUtil.toObject(e.getBody(), KVMAgentCommands.PingCmd.class)
+            if (cmd.hostUuid == kvm1.uuid && !pingSuccess) {
+                throw new RuntimeException("failure on purpose")
+            }
+
+            def rsp = new KVMAgentCommands.PingResponse()
+            rsp.hostUuid = cmd.hostUuid
+            return rsp
+        }
+
+        retryInSecs {
+            assert Q.New(HostVO.class).select(HostVO_.status).eq(HostVO_.uuid, kvm1.uuid).findValue() == HostStatus.Disconnected
+        }
+
+        pingSuccess = true
+        retryInSecs {
+            assert Q.New(HostVO.class).select(HostVO_.status).eq(HostVO_.uuid, kvm1.uuid).findValue() == HostStatus.Connected
+        }
+
+        env.cleanSimulatorHandlers()
+    }
+
+    void testHostPingedAgainAfterBatchFailure() {
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+        HostTrackImpl tracker = bean(HostTrackImpl.class)
+
+        // make the batch containing kvm1 fail after its trackers are taken from the idle pool
+        AtomicBoolean fail = new AtomicBoolean(true)
+        AtomicInteger failures = new AtomicInteger(0)
+        Map failing = new ConcurrentHashMap() {
+            @Override
+            Object get(Object key) {
+                if (fail.get() && key == kvm1.uuid && Thread.currentThread().stackTrace.any { it.methodName.contains("pingBatch") }) {
+                    failures.incrementAndGet()
+                    throw new RuntimeException("failure on purpose")
+                }
+
+                return super.get(key)
+            }
+        }
+        failing.putAll(tracker.trackers)
+        tracker.trackers = failing
+
+        retryInSecs {
+            assert failures.get() > 0
+        }
+
+        int count = 0
+        def cleanup = notifyWhenReceivedMessage(PingHostMsg.class) { PingHostMsg msg ->
+            if (msg.hostUuid == kvm1.uuid) {
+                count ++
+            }
+        }
+
+        fail.set(false)
+        retryInSecs {
+            assert count > 0
+        }
+        cleanup()
+
+        tracker.trackers = new ConcurrentHashMap(failing)
+    }
+
+    void testLatenciesDroppedWithHost() {
+        HostInventory kvm2 = env.inventoryByName("kvm2")
+        HostTrackImpl tracker = bean(HostTrackImpl.class)
+        retryInSecs {
+            assert tracker.getPingLatencies().find { it.hostUuid == kvm2.uuid } != null
+        }
+
+        deleteHost {
+            uuid = kvm2.uuid
+        }
+
+        retryInSecs {
+            assert tracker.getPingLatencies().find { it.hostUuid == kvm2.uuid } == null
+        }
+    }
+}
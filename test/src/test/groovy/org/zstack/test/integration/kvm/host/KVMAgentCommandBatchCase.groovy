@@ -0,0 +1,109 @@
+package org.zstack.test.integration.kvm.host
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.CloudBusCallBack
+import org.zstack.header.host.HostConstant
+import org.zstack.header.message.MessageReply
+import org.zstack.kvm.KVMConstant
+import org.zstack.kvm.KVMGlobalConfig
+import org.zstack.kvm.KVMHostAsyncHttpCallMsg
+import org.zstack.kvm.KVMHostAsyncHttpCallReply
+import org.zstack.sdk.HostInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * send many async commands to a host at once with kvm.agentCommand.batch on,
+ * every command must get its own response
+ */
+class KVMAgentCommandBatchCase extends SubCase {
+    static final String TEST_PATH = "/test/batched-command"
+    static final int COMMAND_NUM = 100
+
+    EnvSpec env
+
+    static class TestCmd {
+        int id
+    }
+
+    @Override
+    void clean() {
+        KVMGlobalConfig.AGENT_COMMAND_BATCH.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+
+                    kvm {
+                        name = "kvm1"
+                        managementIp = "127.0.0.1"
+                        username = "root"
+                        password = "password"
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            KVMGlobalConfig.AGENT_COMMAND_BATCH.updateValue(true)
+            testResponsesMatchCommands()
+        }
+    }
+
+    void testResponsesMatchCommands() {
+        env.simulator(TEST_PATH) { HttpEntity<String> e ->
+            TestCmd cmd = JSONObjectUtil.toObject(e.body, TestCmd.class)
+            return [id: cmd.id]
+        }
+
+        HostInventory kvm1 = env.inventoryByName("kvm1")
+        CloudBus bus = bean(CloudBus.class)
+
+        Map<Integer, Integer> results = new ConcurrentHashMap<>()
+        CountDownLatch latch = new CountDownLatch(COMMAND_NUM)
+        (0..<COMMAND_NUM).each { i ->
+            KVMHostAsyncHttpCallMsg msg = new KVMHostAsyncHttpCallMsg()
+            msg.hostUuid = kvm1.uuid
+            msg.path = TEST_PATH
+            msg.command = new TestCmd(id: i)
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, kvm1.uuid)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    if (reply.isSuccess()) {
+                        results.put(i, ((KVMHostAsyncHttpCallReply) reply).toResponse(TestCmd.class).id)
+                    }
+                    latch.countDown()
+                }
+            })
+        }
+
+        assert latch.await(60, TimeUnit.SECONDS)
+        assert results.size() == COMMAND_NUM
+        results.each { k, v -> assert k == v }
+
+        assert env.getSimulatorSize(KVMConstant.KVM_BATCH_COMMANDS_PATH) > 0
+    }
+}
@@ -0,0 +1,182 @@
+package org.zstack.test.integration.kvm.hostallocator
+
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.compute.allocator.HostAllocatorIndex
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.allocator.HostCapacityVO_
+import org.zstack.header.host.HostState
+import org.zstack.header.host.HostVO
+import org.zstack.header.host.HostVO_
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.ImageInventory
+import org.zstack.sdk.InstanceOfferingInventory
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * allocate hosts with the in-memory host index and check the index
+ * follows host state and capacity changes
+ */
+class HostAllocatorIndexCase extends SubCase {
+    EnvSpec env
+    HostAllocatorIndex index
+
+    @Override
+    void clean() {
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.updateValue(false)
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.noVmThreeHostEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            index = bean(HostAllocatorIndex.class)
+            assert !index.isEnabled()
+            HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.updateValue(true)
+            assert index.isEnabled()
+
+            testIndexFollowsHostState()
+            testIndexFollowsCapacity()
+            testAllocationAnsweredByIndex()
+            testStaleHostRejectedAtReservation()
+            testDisabledIndexTracksNothing()
+        }
+    }
+
+    VmInstanceInventory createVm(String vmName) {
+        return createVmInstance {
+            name = vmName
+            instanceOfferingUuid = (env.inventoryByName("instanceOffering") as InstanceOfferingInventory).uuid
+            imageUuid = (env.inventoryByName("image1") as ImageInventory).uuid
+            l3NetworkUuids = [(env.inventoryByName("l3") as L3NetworkInventory).uuid]
+        } as VmInstanceInventory
+    }
+
+    void testIndexFollowsHostState() {
+        def kvm1 = env.inventoryByName("kvm1") as HostInventory
+        def kvm2 = env.inventoryByName("kvm2") as HostInventory
+        def kvm3 = env.inventoryByName("kvm3") as HostInventory
+        def l3 = env.inventoryByName("l3") as L3NetworkInventory
+
+        assert index.getEnabledAndConnectedHosts("KVM").collect { it.uuid }.toSet() == [kvm1.uuid, kvm2.uuid, kvm3.uuid].toSet()
+        assert index.getHostsAttachedToL3Networks([l3.uuid], null).size() == 3
+
+        [kvm2, kvm3].each { host ->
+            changeHostState {
+                uuid = host.uuid
+                stateEvent = HostState.Disabled.toString()
+            }
+        }
+
+        assert index.getEnabledAndConnectedHosts("KVM").collect { it.uuid } == [kvm1.uuid]
+
+        VmInstanceInventory vm = createVm("vm1")
+        assert vm.hostUuid == kvm1.uuid
+
+        [kvm2, kvm3].each { host ->
+            changeHostState {
+                uuid = host.uuid
+                stateEvent = HostState.Enabled.toString()
+            }
+        }
+
+        destroyVmInstance {
+            uuid = vm.uuid
+        }
+    }
+
+    void testIndexFollowsCapacity() {
+        VmInstanceInventory vm = createVm("vm2")
+
+        long available = Q.New(HostCapacityVO.class).eq(HostCapacityVO_.uuid, vm.hostUuid)
+                .select(HostCapacityVO_.availableCpu).findValue()
+        assert index.getEnabledAndConnectedHosts("KVM").find { it.uuid == vm.hostUuid }.capacity.availableCpu == available
+
+        destroyVmInstance {
+            uuid = vm.uuid
+        }
+    }
+
+    void testAllocationAnsweredByIndex() {
+        long lookups = index.getLookupCount()
+        long misses = index.getMissCount()
+
+        VmInstanceInventory vm = createVm("vm-index")
+
+        // the state and the L2 attachment filters are both answered by the index
+        assert index.getLookupCount() - lookups >= 2
+        assert index.getMissCount() == misses
+
+        destroyVmInstance {
+            uuid = vm.uuid
+        }
+    }
+
+    void testStaleHostRejectedAtReservation() {
+        def kvm1 = env.inventoryByName("kvm1") as HostInventory
+        def kvm2 = env.inventoryByName("kvm2") as HostInventory
+        def kvm3 = env.inventoryByName("kvm3") as HostInventory
+
+        [kvm2, kvm3].each { host ->
+            changeHostState {
+                uuid = host.uuid
+                stateEvent = HostState.Disabled.toString()
+            }
+        }
+
+        // bypass the entity callbacks, the index still takes kvm1 as Enabled
+        SQL.New(HostVO.class).eq(HostVO_.uuid, kvm1.uuid).set(HostVO_.state, HostState.Disabled).update()
+        assert index.getEnabledAndConnectedHosts("KVM").collect { it.uuid } == [kvm1.uuid]
+
+        expect(AssertionError.class) {
+            createVm("vm3")
+        }
+
+        SQL.New(HostVO.class).eq(HostVO_.uuid, kvm1.uuid).set(HostVO_.state, HostState.Enabled).update()
+        [kvm2, kvm3].each { host ->
+            changeHostState {
+                uuid = host.uuid
+                stateEvent = HostState.Enabled.toString()
+            }
+        }
+    }
+
+    void testDisabledIndexTracksNothing() {
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.updateValue(false)
+        assert !index.isEnabled()
+        assert index.getEnabledAndConnectedHosts("KVM").isEmpty()
+
+        def kvm2 = env.inventoryByName("kvm2") as HostInventory
+        changeHostState {
+            uuid = kvm2.uuid
+            stateEvent = HostState.Disabled.toString()
+        }
+        assert index.getEnabledAndConnectedHosts("KVM").isEmpty()
+
+        // enabling the index loads it again
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_USE_INDEX.updateValue(true)
+        assert index.isEnabled()
+        assert index.getEnabledAndConnectedHosts("KVM").size() == 2
+
+        changeHostState {
+            uuid = kvm2.uuid
+            stateEvent = HostState.Enabled.toString()
+        }
+        assert index.getEnabledAndConnectedHosts("KVM").size() == 3
+    }
+}
@@ -0,0 +1,182 @@
+package org.zstack.test.integration.kvm.hostallocator
+
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig
+import org.zstack.core.db.Q
+import org.zstack.header.allocator.HostCapacityVO
+import org.zstack.header.vm.VmInstanceState
+import org.zstack.header.vm.VmInstanceVO
+import org.zstack.header.vm.VmInstanceVO_
+import org.zstack.sdk.*
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.Utils
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.logging.CLogger
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * create VMs concurrently in two zones with the host allocation queue
+ * partitioned by nothing, zone and cluster, and compare allocations per second.
+ * Host capacity must never be oversubscribed whatever the partition is
+ */
+class PartitionedHostAllocationCase extends SubCase {
+    private static final CLogger logger = Utils.getLogger(PartitionedHostAllocationCase.class)
+
+    static final int VM_NUM_PER_ZONE = 20
+
+    EnvSpec env
+
+    @Override
+    void clean() {
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_PARTITION.updateValue("none")
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image"
+                    url = "http://zstack.org/download/test.qcow2"
+                }
+            }
+
+            ["zone1", "zone2"].eachWithIndex { String zoneName, int idx ->
+                zone {
+                    name = zoneName
+
+                    cluster {
+                        name = "${zoneName}-cluster".toString()
+                        hypervisorType = "KVM"
+
+                        kvm {
+                            name = "${zoneName}-host1".toString()
+                            managementIp = "127.0.${idx + 1}.1".toString()
+                            username = "root"
+                            password = "password"
+                            totalMem = SizeUnit.GIGABYTE.toByte(100)
+                            totalCpu = 100
+                        }
+
+                        kvm {
+                            name = "${zoneName}-host2".toString()
+                            managementIp = "127.0.${idx + 1}.2".toString()
+                            username = "root"
+                            password = "password"
+                            totalMem = SizeUnit.GIGABYTE.toByte(100)
+                            totalCpu = 100
+                        }
+
+                        attachPrimaryStorage("${zoneName}-local".toString())
+                        attachL2Network("${zoneName}-l2".toString())
+                    }
+
+                    localPrimaryStorage {
+                        name = "${zoneName}-local".toString()
+                        url = "/local_ps"
+                    }
+
+                    l2NoVlanNetwork {
+                        name = "${zoneName}-l2".toString()
+                        physicalInterface = "eth0"
+
+                        l3Network {
+                            name = "${zoneName}-l3".toString()
+
+                            ip {
+                                startIp = "192.168.${idx}.2".toString()
+                                endIp = "192.168.${idx}.254".toString()
+                                netmask = "255.255.255.0"
+                                gateway = "192.168.${idx}.1".toString()
+                            }
+                        }
+                    }
+
+                    attachBackupStorage("sftp")
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            ["none", "zone", "cluster"].each {
+                testConcurrentAllocation(it)
+            }
+        }
+    }
+
+    void testConcurrentAllocation(String partition) {
+        HostAllocatorGlobalConfig.HOST_ALLOCATOR_PARTITION.updateValue(partition)
+
+        def offering = env.inventoryByName("instanceOffering") as InstanceOfferingInventory
+        def image = env.inventoryByName("image") as ImageInventory
+        def l3s = ["zone1-l3", "zone2-l3"].collect { (env.inventoryByName(it) as L3NetworkInventory).uuid }
+
+        Map<String, Long> availableCpu = Q.New(HostCapacityVO.class).list().collectEntries { HostCapacityVO cap ->
+            [(cap.uuid): cap.availableCpu]
+        }
+
+        AtomicInteger success = new AtomicInteger(0)
+        List<Thread> threads = []
+        long start = System.currentTimeMillis()
+        l3s.each { String l3Uuid ->
+            (0..<VM_NUM_PER_ZONE).each { i ->
+                threads.add(Thread.start {
+                    createVmInstance {
+                        name = "vm-${partition}-${i}".toString()
+                        instanceOfferingUuid = offering.uuid
+                        imageUuid = image.uuid
+                        l3NetworkUuids = [l3Uuid]
+                    }
+
+                    success.incrementAndGet()
+                })
+            }
+        }
+        threads.each { it.join() }
+        long cost = System.currentTimeMillis() - start
+
+        int total = VM_NUM_PER_ZONE * l3s.size()
+        assert success.get() == total
+        logger.debug(String.format("[host allocation benchmark] partition: %s, %s VMs in 2 zones: %s ms (%s allocations/s)",
+                partition, total, cost, (long) (total * 1000 / Math.max(cost, 1))))
+
+        Q.New(HostCapacityVO.class).list().each { HostCapacityVO cap ->
+            assert cap.availableCpu >= 0
+            assert cap.availableMemory >= 0
+        }
+
+        Q.New(VmInstanceVO.class).eq(VmInstanceVO_.state, VmInstanceState.Running)
+                .select(VmInstanceVO_.uuid).listValues().each { String vmUuid ->
+            destroyVmInstance {
+                uuid = vmUuid
+            }
+        }
+
+        Q.New(HostCapacityVO.class).list().each { HostCapacityVO cap ->
+            assert cap.availableCpu == availableCpu[cap.uuid]
+        }
+    }
+}
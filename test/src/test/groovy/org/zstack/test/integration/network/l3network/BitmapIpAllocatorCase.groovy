@@ -0,0 +1,137 @@
+package org.zstack.test.integration.network.l3network
+
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.db.Q
+import org.zstack.core.db.SQL
+import org.zstack.header.message.MessageReply
+import org.zstack.header.network.l3.*
+import org.zstack.network.l3.BitmapFirstAvailableIpAllocatorStrategy
+import org.zstack.network.l3.BitmapRandomIpAllocatorStrategy
+import org.zstack.network.l3.L3NetworkManager
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.test.integration.network.NetworkTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+
+/**
+ * allocate ips with the bitmap ip allocator strategies
+ */
+class BitmapIpAllocatorCase extends SubCase {
+    EnvSpec env
+    L3NetworkInventory l3
+    IpAllocatorStrategy firstAvailable
+    IpAllocatorStrategy random
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(NetworkTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            zone {
+                name = "zone"
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.19"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            l3 = env.inventoryByName("l3") as L3NetworkInventory
+            L3NetworkManager l3Mgr = bean(L3NetworkManager.class)
+            firstAvailable = l3Mgr.getIpAllocatorStrategy(BitmapFirstAvailableIpAllocatorStrategy.type)
+            random = l3Mgr.getIpAllocatorStrategy(BitmapRandomIpAllocatorStrategy.type)
+
+            testFirstAvailableAllocation()
+            testReturnedIpReused()
+            testRandomAllocation()
+        }
+    }
+
+    AllocateIpMsg allocateIpMsg() {
+        AllocateIpMsg msg = new AllocateIpMsg()
+        msg.l3NetworkUuid = l3.uuid
+        return msg
+    }
+
+    long usedIpCount() {
+        return Q.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3.uuid).count()
+    }
+
+    void returnIp(UsedIpInventory ip) {
+        ReturnIpMsg msg = new ReturnIpMsg()
+        msg.usedIpUuid = ip.uuid
+        msg.l3NetworkUuid = l3.uuid
+        CloudBus bus = bean(CloudBus.class)
+        bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, l3.uuid)
+        MessageReply reply = bus.call(msg)
+        assert reply.success
+    }
+
+    void testFirstAvailableAllocation() {
+        assert firstAvailable.allocateIp(allocateIpMsg()).ip == "192.168.100.10"
+
+        AllocateIpMsg msg = allocateIpMsg()
+        msg.excludedIp = "192.168.100.11"
+        assert firstAvailable.allocateIp(msg).ip == "192.168.100.12"
+
+        List<UsedIpInventory> ips = (1..7).collect { firstAvailable.allocateIp(allocateIpMsg()) }
+        assert ips.collect { it.ip } == (13..19).collect { "192.168.100.${it}".toString() }
+        assert usedIpCount() == 9
+
+        assert firstAvailable.allocateIp(allocateIpMsg()).ip == "192.168.100.11"
+        assert firstAvailable.allocateIp(allocateIpMsg()) == null
+    }
+
+    void testReturnedIpReused() {
+        UsedIpVO ip10 = Q.New(UsedIpVO.class).eq(UsedIpVO_.ip, "192.168.100.10").find()
+        returnIp(UsedIpInventory.valueOf(ip10))
+        assert firstAvailable.allocateIp(allocateIpMsg()).ip == "192.168.100.10"
+
+        // removed behind the allocator's back, e.g. by another management node,
+        // found when the bitmap is reloaded
+        SQL.New(UsedIpVO.class).eq(UsedIpVO_.ip, "192.168.100.15").hardDelete()
+        assert firstAvailable.allocateIp(allocateIpMsg()).ip == "192.168.100.15"
+        assert firstAvailable.allocateIp(allocateIpMsg()) == null
+    }
+
+    void testRandomAllocation() {
+        Q.New(UsedIpVO.class).eq(UsedIpVO_.l3NetworkUuid, l3.uuid).list().each {
+            returnIp(UsedIpInventory.valueOf(it as UsedIpVO))
+        }
+        assert usedIpCount() == 0
+
+        Set<String> ips = new HashSet<>()
+        10.times {
+            UsedIpInventory ip = random.allocateIp(allocateIpMsg())
+            assert ip != null
+            ips.add(ip.ip)
+        }
+
+        assert ips.size() == 10
+        assert random.allocateIp(allocateIpMsg()) == null
+    }
+}
@@ -0,0 +1,205 @@
+package org.zstack.test.integration.networkservice.provider.flat.dhcp
+
+import org.springframework.http.HttpEntity
+import org.zstack.header.network.service.NetworkServiceType
+import org.zstack.network.service.flat.FlatDhcpBackend
+import org.zstack.network.service.flat.FlatNetworkServiceConstant
+import org.zstack.network.service.flat.FlatUserdataBackend
+import org.zstack.network.service.userdata.UserdataConstant
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.L3NetworkInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.utils.gson.JSONObjectUtil
+
+/**
+ * a reconnecting host reporting the checksum of a dhcp namespace equal to what would be
+ * rebuilt doesn't get the namespace rebuilt, it's still prepared as connecting flushes ebtables
+ */
+class DhcpChecksumOnReconnectHostCase extends SubCase {
+    EnvSpec env
+    HostInventory host
+    L3NetworkInventory l3
+    VmInstanceInventory vm
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = env {
+            instanceOffering {
+                name = "instanceOffering"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 2
+            }
+
+            sftpBackupStorage {
+                name = "sftp"
+                url = "/sftp"
+                username = "root"
+                password = "password"
+                hostname = "localhost"
+
+                image {
+                    name = "image"
+                    url  = "http://zstack.org/download/test.qcow2"
+                }
+            }
+
+            zone {
+                name = "zone"
+
+                cluster {
+                    name = "cluster"
+                    hypervisorType = "KVM"
+
+                    kvm {
+                        name = "kvm"
+                        managementIp = "localhost"
+                        username = "root"
+                        password = "password"
+                    }
+
+                    attachPrimaryStorage("local")
+                    attachL2Network("l2")
+                }
+
+                localPrimaryStorage {
+                    name = "local"
+                    url = "/local_ps"
+                }
+
+                l2NoVlanNetwork {
+                    name = "l2"
+                    physicalInterface = "eth0"
+
+                    l3Network {
+                        name = "l3"
+
+                        service {
+                            provider = FlatNetworkServiceConstant.FLAT_NETWORK_SERVICE_TYPE_STRING
+                            types = [NetworkServiceType.DHCP.toString(), UserdataConstant.USERDATA_TYPE_STRING]
+                        }
+
+                        ip {
+                            startIp = "192.168.100.10"
+                            endIp = "192.168.100.100"
+                            netmask = "255.255.255.0"
+                            gateway = "192.168.100.1"
+                        }
+                    }
+                }
+
+                attachBackupStorage("sftp")
+            }
+
+            vm {
+                name = "vm"
+                useImage("image")
+                useDefaultL3Network("l3")
+                useL3Networks("l3")
+                useInstanceOffering("instanceOffering")
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            host = env.inventoryByName("kvm") as HostInventory
+            l3 = env.inventoryByName("l3") as L3NetworkInventory
+            vm = env.inventoryByName("vm") as VmInstanceInventory
+
+            testRebuildUnchangedDhcpSkipped()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    void testRebuildUnchangedDhcpSkipped() {
+        List<FlatDhcpBackend.ApplyDhcpCmd> applyCmds = []
+        int prepareCalled = 0
+        List<FlatUserdataBackend.BatchApplyUserdataCmd> userdataCmds = []
+        env.afterSimulator(FlatDhcpBackend.APPLY_DHCP_PATH) { rsp, HttpEntity<String> e ->
+            applyCmds.add(JSONObjectUtil.toObject(e.body, FlatDhcpBackend.ApplyDhcpCmd.class))
+            return rsp
+        }
+        env.afterSimulator(FlatDhcpBackend.PREPARE_DHCP_PATH) { rsp ->
+            prepareCalled += 1
+            return rsp
+        }
+        env.afterSimulator(FlatUserdataBackend.BATCH_APPLY_USER_DATA) { rsp, HttpEntity<String> e ->
+            userdataCmds.add(JSONObjectUtil.toObject(e.body, FlatUserdataBackend.BatchApplyUserdataCmd.class))
+            return rsp
+        }
+
+        // the agent doesn't report checksums, everything is rebuilt with a checksum
+        reconnectHost {
+            uuid = host.uuid
+        }
+        assert applyCmds.size() == 1
+        assert applyCmds[0].rebuild
+        assert applyCmds[0].l3NetworkUuid == l3.uuid
+        assert applyCmds[0].checksum != null
+        assert prepareCalled == 1
+        assert userdataCmds.size() == 1
+        assert userdataCmds[0].userdata.collect { it.metadata.vmUuid } == [vm.uuid]
+        String checksum = applyCmds[0].checksum
+
+        // the same checksum is reported, nothing to rebuild
+        env.simulator(FlatDhcpBackend.DHCP_CONNECT_PATH) {
+            FlatDhcpBackend.ConnectRsp rsp = new FlatDhcpBackend.ConnectRsp()
+            rsp.dhcpChecksums = [(l3.uuid): checksum]
+            return rsp
+        }
+        reconnectHost {
+            uuid = host.uuid
+        }
+        assert applyCmds.size() == 1
+        assert prepareCalled == 2
+        // userdata is rebuilt from the same host snapshot as before
+        assert userdataCmds.size() == 2
+        assert userdataCmds[1].userdata.collect { it.metadata.vmUuid } == [vm.uuid]
+
+        // the namespace changed on the host
+        env.simulator(FlatDhcpBackend.DHCP_CONNECT_PATH) {
+            FlatDhcpBackend.ConnectRsp rsp = new FlatDhcpBackend.ConnectRsp()
+            rsp.dhcpChecksums = [(l3.uuid): "stale"]
+            return rsp
+        }
+        reconnectHost {
+            uuid = host.uuid
+        }
+        assert applyCmds.size() == 2
+        assert applyCmds[1].checksum == checksum
+        assert prepareCalled == 3
+
+        // the vm's hostname changed, its dhcp is different from what the host reports
+        setVmHostname {
+            uuid = vm.uuid
+            hostname = "checksum-test"
+        }
+        env.simulator(FlatDhcpBackend.DHCP_CONNECT_PATH) {
+            FlatDhcpBackend.ConnectRsp rsp = new FlatDhcpBackend.ConnectRsp()
+            rsp.dhcpChecksums = [(l3.uuid): checksum]
+            return rsp
+        }
+        reconnectHost {
+            uuid = host.uuid
+        }
+        FlatDhcpBackend.ApplyDhcpCmd cmd = applyCmds.last()
+        assert cmd.rebuild
+        assert cmd.checksum != checksum
+        assert cmd.dhcp[0].hostname == "checksum-test"
+        assert userdataCmds.last().userdata[0].metadata.vmHostname == "checksum-test"
+    }
+}
@@ -0,0 +1,313 @@
+package org.zstack.test.integration.networkservice.provider.virtualrouter.securitygroup
+
+import org.springframework.http.HttpEntity
+import org.zstack.header.Constants
+import org.zstack.kvm.KVMAgentCommands
+import org.zstack.kvm.KVMSecurityGroupBackend
+import org.zstack.network.securitygroup.APIAddSecurityGroupRuleMsg
+import org.zstack.network.securitygroup.HostRuleTO
+import org.zstack.network.securitygroup.HostRuleVersions
+import org.zstack.network.securitygroup.RuleTO
+import org.zstack.network.securitygroup.SecurityGroupRuleProtocolType
+import org.zstack.network.securitygroup.SecurityGroupRuleTO
+import org.zstack.network.securitygroup.SecurityGroupRuleType
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.SecurityGroupInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.networkservice.provider.NetworkServiceProviderTest
+import org.zstack.test.integration.networkservice.provider.virtualrouter.VirtualRouterNetworkServiceEnv
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * only nic chains changed by a rule or membership change are shipped to hosts,
+ * a reconnecting host gets all its rules again
+ */
+class SecurityGroupRuleDeltaCase extends SubCase {
+    EnvSpec env
+    VmInstanceInventory vm1, vm2
+    HostInventory host1, host2
+    SecurityGroupInventory sg
+    Map<String, List<KVMAgentCommands.ApplySecurityGroupRuleCmd>> applyCmds = Collections.synchronizedMap([:])
+    volatile boolean agentEchoesVersion = true
+
+    @Override
+    void setup() {
+        useSpring(NetworkServiceProviderTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = VirtualRouterNetworkServiceEnv.fourVmThreeHostNoEipForSecurityGroupEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            vm1 = env.inventoryByName("vm1") as VmInstanceInventory // vm1 in host1
+            vm2 = env.inventoryByName("vm2") as VmInstanceInventory // vm2 in host2
+            host1 = env.inventoryByName("kvm1") as HostInventory
+            host2 = env.inventoryByName("kvm2") as HostInventory
+
+            env.simulator(KVMSecurityGroupBackend.SECURITY_GROUP_APPLY_RULE_PATH) { HttpEntity<String> e ->
+                String huuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+                def cmd = JSONObjectUtil.toObject(e.getBody(), KVMAgentCommands.ApplySecurityGroupRuleCmd.class)
+                applyCmds.computeIfAbsent(huuid, { [].asSynchronized() }).add(cmd)
+                def rsp = new KVMAgentCommands.ApplySecurityGroupRuleResponse()
+                if (agentEchoesVersion) {
+                    rsp.ruleVersion = cmd.ruleVersion
+                }
+                return rsp
+            }
+
+            testRuleChangeShipped()
+            testUnchangedRulesSkipped()
+            testReconnectRefreshesAllRules()
+            testUnacknowledgedRulesShippedAgain()
+            testLargeMemberSet()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    void testRuleChangeShipped() {
+        sg = createSecurityGroup {
+            name = "sg"
+        } as SecurityGroupInventory
+
+        attachSecurityGroupToL3Network {
+            securityGroupUuid = sg.uuid
+            l3NetworkUuid = vm1.vmNics[0].l3NetworkUuid
+        }
+
+        addVmNicToSecurityGroup {
+            securityGroupUuid = sg.uuid
+            vmNicUuids = [vm1.vmNics[0].uuid, vm2.vmNics[0].uuid]
+        }
+
+        retryInSecs {
+            assert applyCmds[host1.uuid]?.size() == 1
+            assert applyCmds[host2.uuid]?.size() == 1
+        }
+
+        APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO rule = new APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO()
+        rule.type = SecurityGroupRuleType.Ingress.toString()
+        rule.protocol = SecurityGroupRuleProtocolType.TCP.toString()
+        rule.startPort = 22
+        rule.endPort = 22
+        rule.allowedCidr = "10.0.0.0/8"
+        addSecurityGroupRule {
+            securityGroupUuid = sg.uuid
+            rules = [rule]
+        }
+
+        retryInSecs {
+            assert applyCmds[host1.uuid].size() == 2
+            assert applyCmds[host2.uuid].size() == 2
+        }
+
+        KVMAgentCommands.ApplySecurityGroupRuleCmd cmd = applyCmds[host1.uuid][1]
+        assert cmd.ruleTOs.size() == 1
+        assert cmd.ruleTOs[0].vmNicUuid == vm1.vmNics[0].uuid
+        assert cmd.ruleTOs[0].rules.find { it.startPort == 22 && it.allowedCidr == "10.0.0.0/8" } != null
+        assert cmd.ruleVersion > applyCmds[host1.uuid][0].ruleVersion
+    }
+
+    void testUnchangedRulesSkipped() {
+        // enabling an enabled group recalculates rules of all its nics, none of them changes
+        changeSecurityGroupState {
+            uuid = sg.uuid
+            stateEvent = "enable"
+        }
+
+        TimeUnit.SECONDS.sleep(1)
+        assert applyCmds[host1.uuid].size() == 2
+        assert applyCmds[host2.uuid].size() == 2
+    }
+
+    void testReconnectRefreshesAllRules() {
+        KVMAgentCommands.RefreshAllRulesOnHostCmd refreshCmd = null
+        env.afterSimulator(KVMSecurityGroupBackend.SECURITY_GROUP_REFRESH_RULE_ON_HOST_PATH) { rsp, HttpEntity<String> e ->
+            String huuid = e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID)
+            if (huuid == host1.uuid) {
+                refreshCmd = JSONObjectUtil.toObject(e.getBody(), KVMAgentCommands.RefreshAllRulesOnHostCmd.class)
+            }
+            return rsp
+        }
+
+        reconnectHost {
+            uuid = host1.uuid
+        }
+
+        retryInSecs {
+            assert refreshCmd != null
+        }
+        assert refreshCmd.ruleTOs.collect { it.vmNicUuid } == [vm1.vmNics[0].uuid]
+        assert refreshCmd.ruleVersion > applyCmds[host1.uuid][1].ruleVersion
+
+        changeSecurityGroupState {
+            uuid = sg.uuid
+            stateEvent = "enable"
+        }
+
+        TimeUnit.SECONDS.sleep(1)
+        assert applyCmds[host1.uuid].size() == 2
+    }
+
+    void testUnacknowledgedRulesShippedAgain() {
+        // an agent not echoing the rule version never acknowledges what it got
+        agentEchoesVersion = false
+
+        APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO rule = new APIAddSecurityGroupRuleMsg.SecurityGroupRuleAO()
+        rule.type = SecurityGroupRuleType.Ingress.toString()
+        rule.protocol = SecurityGroupRuleProtocolType.TCP.toString()
+        rule.startPort = 80
+        rule.endPort = 80
+        rule.allowedCidr = "10.0.0.0/8"
+        addSecurityGroupRule {
+            securityGroupUuid = sg.uuid
+            rules = [rule]
+        }
+
+        retryInSecs {
+            assert applyCmds[host1.uuid].size() == 3
+            assert applyCmds[host2.uuid].size() == 3
+        }
+
+        changeSecurityGroupState {
+            uuid = sg.uuid
+            stateEvent = "enable"
+        }
+
+        retryInSecs {
+            assert applyCmds[host1.uuid].size() == 4
+            assert applyCmds[host2.uuid].size() == 4
+        }
+
+        // acknowledged once, unchanged rules are skipped again
+        agentEchoesVersion = true
+        changeSecurityGroupState {
+            uuid = sg.uuid
+            stateEvent = "enable"
+        }
+
+        retryInSecs {
+            assert applyCmds[host1.uuid].size() == 5
+            assert applyCmds[host2.uuid].size() == 5
+        }
+
+        changeSecurityGroupState {
+            uuid = sg.uuid
+            stateEvent = "enable"
+        }
+
+        TimeUnit.SECONDS.sleep(1)
+        assert applyCmds[host1.uuid].size() == 5
+        assert applyCmds[host2.uuid].size() == 5
+    }
+
+    static SecurityGroupRuleTO nicRules(int i, List<RuleTO> rules, List<RuleTO> baseRules) {
+        SecurityGroupRuleTO to = new SecurityGroupRuleTO()
+        to.vmNicUuid = "nic-${i}".toString()
+        to.vmNicInternalName = "vnic${i}.0".toString()
+        to.vmNicMac = String.format("fa:00:00:%02x:%02x:%02x", (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff)
+        to.vmNicIp = [String.format("10.%d.%d.%d", (i >> 16) & 0xff, (i >> 8) & 0xff, i & 0xff)]
+        to.ingressDefaultPolicy = "deny"
+        to.egressDefaultPolicy = "allow"
+        to.rules = rules
+        to.securityGroupBaseRules = baseRules
+        return to
+    }
+
+    void testLargeMemberSet() {
+        int hostNum = 50
+        int nicNum = 5000
+
+        RuleTO remote = new RuleTO()
+        remote.type = SecurityGroupRuleType.Ingress.toString()
+        remote.protocol = SecurityGroupRuleProtocolType.ALL.toString()
+        remote.startPort = -1
+        remote.endPort = -1
+        remote.securityGroupUuid = "sg"
+        remote.remoteGroupUuid = "sg"
+        remote.remoteGroupVmIps = (0..<nicNum).collect { String.format("10.%d.%d.%d", (it >> 16) & 0xff, (it >> 8) & 0xff, it & 0xff) }
+
+        Closure<List<HostRuleTO>> calculate = { List<RuleTO> rules ->
+            Map<String, HostRuleTO> htos = [:]
+            for (int i = 0; i < nicNum; i++) {
+                String hostUuid = "host-${i % hostNum}".toString()
+                HostRuleTO hto = htos.computeIfAbsent(hostUuid, {
+                    HostRuleTO h = new HostRuleTO()
+                    h.hostUuid = hostUuid
+                    return h
+                })
+                hto.rules.add(nicRules(i, rules, [remote]))
+            }
+            return htos.values().toList()
+        }
+
+        RuleTO ssh = new RuleTO()
+        ssh.type = SecurityGroupRuleType.Ingress.toString()
+        ssh.protocol = SecurityGroupRuleProtocolType.TCP.toString()
+        ssh.startPort = 22
+        ssh.endPort = 22
+        ssh.allowedCidr = "0.0.0.0/0"
+        ssh.securityGroupUuid = "sg"
+
+        HostRuleVersions versions = new HostRuleVersions()
+        // the agent acknowledges every shipment
+        Closure<HostRuleTO> track = { HostRuleTO hto ->
+            HostRuleTO ret = versions.track(hto, true)
+            if (ret != null) {
+                versions.acknowledge(ret.hostUuid, ret.ruleVersion)
+            }
+            return ret
+        }
+
+        long start = System.currentTimeMillis()
+        int shipped = calculate([ssh]).collect { track(it) }.findAll { it != null }.sum { it.rules.size() } as int
+        logger.info("tracked ${nicNum} nic chains on ${hostNum} hosts in ${System.currentTimeMillis() - start}ms")
+        assert shipped == nicNum
+
+        start = System.currentTimeMillis()
+        assert calculate([ssh]).collect { track(it) }.every { it == null }
+        logger.info("diffed ${nicNum} unchanged nic chains in ${System.currentTimeMillis() - start}ms")
+
+        // the order of rules and member ips doesn't make a chain different
+        RuleTO http = new RuleTO()
+        http.type = SecurityGroupRuleType.Ingress.toString()
+        http.protocol = SecurityGroupRuleProtocolType.TCP.toString()
+        http.startPort = 80
+        http.endPort = 80
+        http.allowedCidr = "0.0.0.0/0"
+        http.securityGroupUuid = "sg"
+        assert calculate([ssh, http]).collect { track(it) }.findAll { it != null }.size() == hostNum
+        Collections.reverse(remote.remoteGroupVmIps)
+        assert calculate([http, ssh]).collect { track(it) }.every { it == null }
+
+        // one nic moves to another host, only that chain is shipped there
+        HostRuleTO moved = new HostRuleTO()
+        moved.hostUuid = "host-1"
+        moved.rules.add(nicRules(0, [ssh, http], [remote]))
+        HostRuleTO ret = track(moved)
+        assert ret.rules.size() == 1
+        assert ret.ruleVersion == versions.getVersion("host-1")
+
+        // a failed host is shipped everything again
+        versions.invalidate("host-2")
+        List<HostRuleTO> htos = calculate([ssh, http]).collect { track(it) }.findAll { it != null }
+        assert htos.collect { it.hostUuid } as Set == ["host-0", "host-2"] as Set
+        assert htos.find { it.hostUuid == "host-0" }.rules.collect { it.vmNicUuid } == ["nic-0"]
+        assert htos.find { it.hostUuid == "host-2" }.rules.size() == nicNum / hostNum
+
+        // chains the agent didn't acknowledge are shipped again
+        assert versions.track(calculate([ssh]).find { it.hostUuid == "host-3" }, true).rules.size() == nicNum / hostNum
+        assert versions.track(calculate([ssh]).find { it.hostUuid == "host-3" }, true).rules.size() == nicNum / hostNum
+    }
+}
@@ -0,0 +1,179 @@
+package org.zstack.test.integration.storage.primary
+
+import org.zstack.core.db.SQL
+import org.zstack.core.db.SQLBatch
+import org.zstack.header.volume.VolumeStatus
+import org.zstack.header.volume.VolumeVO
+import org.zstack.header.volume.VolumeVO_
+import org.zstack.sdk.DiskOfferingInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VolumeInventory
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO
+import org.zstack.storage.primary.PrimaryStorageCapacityLedger
+import org.zstack.storage.primary.PrimaryStorageCapacityRecalculator
+import org.zstack.storage.primary.local.LocalStorageSystemTags
+import org.zstack.test.integration.kvm.Env
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+
+import static org.zstack.utils.CollectionDSL.e
+import static org.zstack.utils.CollectionDSL.map
+
+/**
+ * the capacity ledger follows volume changes without recalculating from the database,
+ * the reconciliation finds and fixes changes the ledger missed
+ */
+class PrimaryStorageCapacityLedgerCase extends SubCase {
+    EnvSpec env
+    PrimaryStorageCapacityLedger ledger
+    PrimaryStorageInventory ps
+    HostInventory host
+    DiskOfferingInventory diskOffering
+
+    @Override
+    void setup() {
+        spring {
+            sftpBackupStorage()
+            localStorage()
+            virtualRouter()
+            securityGroup()
+            kvm()
+        }
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            ledger = bean(PrimaryStorageCapacityLedger.class)
+            // the ledger is off by default
+            assert !ledger.isEnabled()
+            ledger.startTracking()
+            ps = env.inventoryByName("local") as PrimaryStorageInventory
+            host = env.inventoryByName("kvm") as HostInventory
+            diskOffering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+
+            testLedgerFollowsVolumes()
+            testReconcileFixesDrift()
+            testRolledBackChangeNotApplied()
+        }
+    }
+
+    @Override
+    void clean() {
+        ledger.stopTracking()
+        env.delete()
+    }
+
+    long volumeSizeInLedger() {
+        return ledger.getUsages([ps.uuid])[ps.uuid].volumeSize
+    }
+
+    long volumeSizeInDb() {
+        Long size = SQL.New("select sum(vol.size) from VolumeVO vol where vol.primaryStorageUuid = :psUuid" +
+                " and vol.status in (:status)", Long.class)
+                .param("psUuid", ps.uuid)
+                .param("status", [VolumeStatus.Creating, VolumeStatus.Ready, VolumeStatus.Deleted])
+                .find()
+        return size == null ? 0 : size
+    }
+
+    long recalculateAvailableCapacity() {
+        PrimaryStorageCapacityRecalculator r = new PrimaryStorageCapacityRecalculator()
+        r.psUuids = [ps.uuid]
+        r.recalculate()
+        return dbFindByUuid(ps.uuid, PrimaryStorageCapacityVO.class).availableCapacity
+    }
+
+    VolumeInventory createVolume() {
+        return createDataVolume {
+            name = "data"
+            primaryStorageUuid = ps.uuid
+            diskOfferingUuid = diskOffering.uuid
+            systemTags = [LocalStorageSystemTags.DEST_HOST_FOR_CREATING_DATA_VOLUME.instantiateTag(
+                    map(e(LocalStorageSystemTags.DEST_HOST_FOR_CREATING_DATA_VOLUME_TOKEN, host.uuid)))]
+        } as VolumeInventory
+    }
+
+    void testLedgerFollowsVolumes() {
+        long before = volumeSizeInLedger()
+        assert before == volumeSizeInDb()
+
+        VolumeInventory vol = createVolume()
+        assert volumeSizeInLedger() == before + vol.size
+
+        // a deleted volume still takes space until it's expunged
+        deleteDataVolume {
+            uuid = vol.uuid
+        }
+        assert volumeSizeInLedger() == before + vol.size
+
+        expungeDataVolume {
+            uuid = vol.uuid
+        }
+        assert volumeSizeInLedger() == before
+        assert volumeSizeInLedger() == volumeSizeInDb()
+    }
+
+    void testReconcileFixesDrift() {
+        VolumeInventory vol = createVolume()
+        long inLedger = volumeSizeInLedger()
+        long drifted = ledger.driftedReconciliationCount
+
+        // a bulk update doesn't fire the entity callbacks
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vol.uuid).set(VolumeVO_.size, vol.size + SizeUnit.GIGABYTE.toByte(1)).update()
+        assert volumeSizeInLedger() == inLedger
+
+        // the recalculator persists what the database says, not the drifted ledger
+        long available = recalculateAvailableCapacity()
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vol.uuid).set(VolumeVO_.size, vol.size + SizeUnit.GIGABYTE.toByte(2)).update()
+        assert recalculateAvailableCapacity() == available - SizeUnit.GIGABYTE.toByte(1)
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vol.uuid).set(VolumeVO_.size, vol.size + SizeUnit.GIGABYTE.toByte(1)).update()
+        assert volumeSizeInLedger() == inLedger
+
+        ledger.reconcileNow()
+        assert ledger.driftedReconciliationCount == drifted + 1
+        assert ledger.lastDriftBytes[ps.uuid] == -SizeUnit.GIGABYTE.toByte(1)
+        assert volumeSizeInLedger() == volumeSizeInDb()
+
+        ledger.reconcileNow()
+        assert ledger.driftedReconciliationCount == drifted + 1
+        assert ledger.lastDriftBytes[ps.uuid] == 0
+
+        // a bulk status change followed by a refresh is seen right away
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vol.uuid).set(VolumeVO_.status, VolumeStatus.Migrating).update()
+        ledger.volumesUpdated([vol.uuid])
+        assert volumeSizeInLedger() == volumeSizeInDb()
+
+        SQL.New(VolumeVO.class).eq(VolumeVO_.uuid, vol.uuid).set(VolumeVO_.status, VolumeStatus.Ready).update()
+        ledger.volumesUpdated([vol.uuid])
+        assert volumeSizeInLedger() == volumeSizeInDb()
+    }
+
+    void testRolledBackChangeNotApplied() {
+        VolumeInventory vol = createVolume()
+        long inLedger = volumeSizeInLedger()
+
+        expect(RuntimeException.class) {
+            new SQLBatch() {
+                @Override
+                protected void scripts() {
+                    VolumeVO vo = findByUuid(vol.uuid, VolumeVO.class)
+                    vo.setSize(vo.getSize() + SizeUnit.GIGABYTE.toByte(1))
+                    merge(vo)
+                    flush()
+                    throw new RuntimeException("on purpose")
+                }
+            }.execute()
+        }
+
+        assert volumeSizeInLedger() == inLedger
+        assert volumeSizeInLedger() == volumeSizeInDb()
+    }
+}
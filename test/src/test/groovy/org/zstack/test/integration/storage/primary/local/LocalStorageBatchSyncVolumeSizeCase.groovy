@@ -0,0 +1,97 @@
+package org.zstack.test.integration.storage.primary.local
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.header.storage.primary.BatchSyncVolumeSizeOnPrimaryStorageMsg
+import org.zstack.header.storage.primary.BatchSyncVolumeSizeOnPrimaryStorageReply
+import org.zstack.header.storage.primary.PrimaryStorageConstant
+import org.zstack.sdk.DiskOfferingInventory
+import org.zstack.sdk.HostInventory
+import org.zstack.sdk.PrimaryStorageInventory
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.sdk.VolumeInventory
+import org.zstack.storage.primary.local.LocalStorageKvmBackend
+import org.zstack.storage.primary.local.LocalStorageSystemTags
+import org.zstack.test.integration.kvm.Env
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.gson.JSONObjectUtil
+
+import static org.zstack.utils.CollectionDSL.e
+import static org.zstack.utils.CollectionDSL.map
+
+/**
+ * sizes of the volumes on the same host of a local primary storage are got in one agent command
+ */
+class LocalStorageBatchSyncVolumeSizeCase extends SubCase {
+    EnvSpec env
+
+    @Override
+    void setup() {
+        spring {
+            sftpBackupStorage()
+            localStorage()
+            virtualRouter()
+            securityGroup()
+            kvm()
+        }
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testBatchSyncVolumeSize()
+        }
+    }
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    void testBatchSyncVolumeSize() {
+        PrimaryStorageInventory ps = env.inventoryByName("local") as PrimaryStorageInventory
+        HostInventory host = env.inventoryByName("kvm") as HostInventory
+        VmInstanceInventory vm = env.inventoryByName("vm") as VmInstanceInventory
+        DiskOfferingInventory diskOffering = env.inventoryByName("diskOffering") as DiskOfferingInventory
+
+        VolumeInventory data = createDataVolume {
+            name = "data"
+            primaryStorageUuid = ps.uuid
+            diskOfferingUuid = diskOffering.uuid
+            systemTags = [LocalStorageSystemTags.DEST_HOST_FOR_CREATING_DATA_VOLUME.instantiateTag(
+                    map(e(LocalStorageSystemTags.DEST_HOST_FOR_CREATING_DATA_VOLUME_TOKEN, host.uuid)))]
+        } as VolumeInventory
+
+        List<LocalStorageKvmBackend.BatchGetVolumeSizeCmd> cmds = []
+        env.simulator(LocalStorageKvmBackend.BATCH_GET_VOLUME_SIZE) { HttpEntity<String> e ->
+            def cmd = JSONObjectUtil.toObject(e.body, LocalStorageKvmBackend.BatchGetVolumeSizeCmd.class)
+            cmds.add(cmd)
+
+            def rsp = new LocalStorageKvmBackend.BatchGetVolumeSizeRsp()
+            rsp.sizes = [(vm.rootVolumeUuid): 100L]
+            rsp.actualSizes = [(vm.rootVolumeUuid): 10L]
+            return rsp
+        }
+
+        BatchSyncVolumeSizeOnPrimaryStorageMsg msg = new BatchSyncVolumeSizeOnPrimaryStorageMsg()
+        msg.primaryStorageUuid = ps.uuid
+        msg.volumeInstallPaths = [(vm.rootVolumeUuid): vm.allVolumes.find { it.uuid == vm.rootVolumeUuid }.installPath,
+                                  (data.uuid): data.installPath]
+        CloudBus bus = bean(CloudBus.class)
+        bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, ps.uuid)
+        BatchSyncVolumeSizeOnPrimaryStorageReply reply = bus.call(msg) as BatchSyncVolumeSizeOnPrimaryStorageReply
+
+        assert reply.success
+        assert cmds.size() == 1
+        assert cmds[0].volumeUuidInstallPaths.keySet() == [vm.rootVolumeUuid, data.uuid] as Set
+        // the volume the agent failed to get size of isn't in the reply
+        assert reply.sizes == [(vm.rootVolumeUuid): 100L]
+        assert reply.actualSizes == [(vm.rootVolumeUuid): 10L]
+    }
+}
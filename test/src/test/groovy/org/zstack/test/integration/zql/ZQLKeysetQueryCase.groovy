@@ -0,0 +1,127 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.sdk.ZQLQueryResult
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLQueryReturn
+import org.zstack.zql.ast.visitors.ZQLError
+
+/**
+ * page through instance offerings in chunks and make sure each row shows up exactly once
+ */
+class ZQLKeysetQueryCase extends SubCase {
+    static final int OFFERING_NUM = 25
+    static final int CHUNK_SIZE = 10
+
+    EnvSpec env
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            (0..<OFFERING_NUM).each { idx ->
+                instanceOffering {
+                    name = "offering-${idx}".toString()
+                    memory = SizeUnit.GIGABYTE.toByte(1)
+                    cpu = idx % 2 + 1
+                }
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            testFetchEntitiesInChunks()
+            testFetchFieldsInChunks()
+            testFetchInChunksByApi()
+            testUnsupportedClauses()
+        }
+    }
+
+    List<ZQLQueryReturn> fetchAll(String text) {
+        List<ZQLQueryReturn> chunks = []
+        String cursor = null
+        while (true) {
+            ZQLQueryReturn ret = ZQL.fromString(text).keyset(cursor, CHUNK_SIZE).getSingleResult()
+            chunks.add(ret)
+            assert ret.inventories.size() <= CHUNK_SIZE
+            if (ret.next == null) {
+                return chunks
+            }
+
+            cursor = ret.next
+        }
+    }
+
+    void testFetchEntitiesInChunks() {
+        List<ZQLQueryReturn> chunks = fetchAll("query instanceoffering return with (total)")
+        assert chunks.size() == 3
+        assert chunks[0].total == OFFERING_NUM
+        assert chunks[1..-1].every { it.total == null }
+
+        List<String> uuids = chunks.collectMany { it.inventories.collect { it.uuid } }
+        assert uuids.size() == OFFERING_NUM
+        assert uuids.toSet().size() == OFFERING_NUM
+        assert uuids == uuids.sort(false)
+
+        chunks = fetchAll("query instanceoffering where cpuNum = 2")
+        assert chunks.collectMany { it.inventories }.every { it.cpuNum == 2 }
+        assert chunks.sum { it.inventories.size() } == OFFERING_NUM.intdiv(2)
+    }
+
+    void testFetchFieldsInChunks() {
+        List<ZQLQueryReturn> chunks = fetchAll("query instanceoffering.name")
+        List<String> names = chunks.collectMany { it.inventories.collect { it.name } }
+        assert names.toSet() == (0..<OFFERING_NUM).collect { "offering-${it}".toString() }.toSet()
+        assert chunks.collectMany { it.inventories }.every { it.uuid == null }
+
+        // rows of several fields are streamed as arrays
+        chunks = fetchAll("query instanceoffering.name,cpuNum where cpuNum = 2")
+        List inventories = chunks.collectMany { it.inventories }
+        assert inventories.size() == OFFERING_NUM.intdiv(2)
+        assert inventories.every { it.cpuNum == 2 && it.name.startsWith("offering-") }
+    }
+
+    void testFetchInChunksByApi() {
+        Set<String> uuids = []
+        String cursor = null
+        while (true) {
+            def ret = zQLQuery {
+                zql = "query instanceoffering"
+                chunkSize = CHUNK_SIZE
+                delegate.cursor = cursor
+            } as ZQLQueryResult
+
+            ret.results[0].inventories.each { assert uuids.add(it.uuid) }
+            cursor = ret.results[0].next
+            if (cursor == null) {
+                break
+            }
+        }
+
+        assert uuids.size() == OFFERING_NUM
+    }
+
+    void testUnsupportedClauses() {
+        ["query instanceoffering limit 5",
+         "query instanceoffering order by cpuNum asc",
+         "query instanceoffering; query instanceoffering.name"].each { text ->
+            expect(ZQLError.class) {
+                ZQL.fromString(text).keyset(null, CHUNK_SIZE).getResultList()
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.zstack.test.integration.zql
+
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.SubCase
+import org.zstack.utils.data.SizeUnit
+import org.zstack.zql.ZQL
+import org.zstack.zql.ZQLQueryCache
+import org.zstack.zql.ZQLQueryReturn
+
+class ZQLQueryCacheCase extends SubCase {
+    EnvSpec env
+    ZQLQueryCache cache
+
+    @Override
+    void clean() {
+        env.delete()
+    }
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = makeEnv {
+            instanceOffering {
+                name = "small"
+                memory = SizeUnit.GIGABYTE.toByte(1)
+                cpu = 1
+            }
+
+            instanceOffering {
+                name = "large"
+                memory = SizeUnit.GIGABYTE.toByte(8)
+                cpu = 4
+            }
+        }
+    }
+
+    @Override
+    void test() {
+        env.create {
+            cache = bean(ZQLQueryCache.class)
+            cache.invalidateAll()
+
+            testDifferentLiteralsShareEntry()
+            testFixedLiteralsDoNotShareEntry()
+        }
+    }
+
+    List<String> queryNames(String text) {
+        def ret = ZQL.fromString(text).getSingleResult() as ZQLQueryReturn
+        return ret.inventories.collect { it.name }
+    }
+
+    void testDifferentLiteralsShareEntry() {
+        long misses = cache.missCount
+        long hits = cache.hitCount
+
+        assert queryNames("query instanceoffering where cpuNum = 1") == ["small"]
+        assert queryNames("query instanceoffering where cpuNum = 4") == ["large"]
+        assert queryNames("query instanceoffering where cpuNum = 4") == ["large"]
+        assert queryNames("query instanceoffering where name in ('small', 'large') and cpuNum > 1") == ["large"]
+        assert queryNames("query instanceoffering where name in ('small', 'large') and cpuNum > 0").toSet() == ["small", "large"].toSet()
+
+        assert cache.missCount == misses + 2
+        assert cache.hitCount == hits + 3
+    }
+
+    void testFixedLiteralsDoNotShareEntry() {
+        assert queryNames("query instanceoffering where cpuNum > 0 order by cpuNum asc limit 1") == ["small"]
+        assert queryNames("query instanceoffering where cpuNum > 0 order by cpuNum asc limit 2") == ["small", "large"]
+    }
+}
@@ -0,0 +1,62 @@
+package org.zstack.test.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.header.message.JsonSchemaBuilder;
+
+import java.util.*;
+
+/**
+ * the polymorphic only schema keeps only objects whose classes differ from the declared types
+ */
+public class TestJsonSchemaBuilder {
+    public static class Base {
+        String name = "base";
+    }
+
+    public static class Sub extends Base {
+        String extra = "sub";
+    }
+
+    public static class Holder {
+        Base exact = new Base();
+        Base poly = new Sub();
+        List<Base> list = new ArrayList<>();
+        Map<String, Base> map = new HashMap<>();
+        Sub sub = new Sub();
+        String text = "text";
+        int number = 1;
+        Base nil;
+    }
+
+    private Holder holder() {
+        Holder h = new Holder();
+        h.list.add(new Base());
+        h.list.add(new Sub());
+        h.map.put("a", new Sub());
+        h.map.put("b", new Base());
+        return h;
+    }
+
+    @Test
+    public void test() {
+        Map<String, String> full = new JsonSchemaBuilder(holder()).build();
+        Assert.assertEquals(7, full.size());
+        Assert.assertEquals(Base.class.getName(), full.get("exact"));
+        Assert.assertEquals(Sub.class.getName(), full.get("poly"));
+        Assert.assertEquals(Base.class.getName(), full.get("list[0]"));
+        Assert.assertEquals(Sub.class.getName(), full.get("list[1]"));
+        Assert.assertEquals(Sub.class.getName(), full.get("map.a"));
+        Assert.assertEquals(Base.class.getName(), full.get("map.b"));
+        Assert.assertEquals(Sub.class.getName(), full.get("sub"));
+
+        Map<String, String> poly = new JsonSchemaBuilder(holder(), true).build();
+        Assert.assertEquals(3, poly.size());
+        Assert.assertEquals(Sub.class.getName(), poly.get("poly"));
+        Assert.assertEquals(Sub.class.getName(), poly.get("list[1]"));
+        Assert.assertEquals(Sub.class.getName(), poly.get("map.a"));
+
+        // the plans are cached, a second build gets the same schema
+        Assert.assertEquals(full, new JsonSchemaBuilder(holder()).build());
+    }
+}
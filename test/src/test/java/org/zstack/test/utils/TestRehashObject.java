@@ -0,0 +1,123 @@
+package org.zstack.test.utils;
+
+import com.google.gson.JsonSyntaxException;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.kvm.KVMAgentCommands;
+import org.zstack.kvm.VolumeTO;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.util.*;
+
+/**
+ * rehashObject() binds a map to a class the same as a json string round trip does
+ */
+public class TestRehashObject {
+    public static class Numbers {
+        long size;
+        int count;
+        Long limit;
+    }
+
+    private LinkedHashMap startVmCmd() {
+        KVMAgentCommands.StartVmCmd cmd = new KVMAgentCommands.StartVmCmd();
+        cmd.setVmInstanceUuid(UUID.randomUUID().toString().replace("-", ""));
+        cmd.setVmName("vm");
+        cmd.setCpuNum(8);
+        cmd.setMemory(16L * 1024 * 1024 * 1024);
+        cmd.setBootDev(Arrays.asList("hd", "cdrom"));
+
+        List<VolumeTO> volumes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            VolumeTO vol = new VolumeTO();
+            vol.setVolumeUuid(UUID.randomUUID().toString().replace("-", ""));
+            vol.setInstallPath(String.format("/zstack_ps/dataVolumes/acct-36c27e8ff05c4780bf6d2fa65700f22e/vol-%s/%s.qcow2", i, i));
+            vol.setDeviceId(i);
+            vol.setDeviceType("file");
+            vol.setUseVirtio(true);
+            volumes.add(vol);
+        }
+        cmd.setRootVolume(volumes.remove(0));
+        cmd.setDataVolumes(volumes);
+
+        List<KVMAgentCommands.NicTO> nics = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            KVMAgentCommands.NicTO nic = new KVMAgentCommands.NicTO();
+            nic.setUuid(UUID.randomUUID().toString().replace("-", ""));
+            nic.setMac(String.format("fa:5e:2a:49:3d:0%s", i));
+            nic.setIps(Collections.singletonList(String.format("192.168.0.%s", i + 10)));
+            nic.setUseVirtio(true);
+            nics.add(nic);
+        }
+        cmd.setNics(nics);
+
+        Map<String, Object> addons = new HashMap<>();
+        addons.put("channel", Collections.singletonMap("socketPath", "/var/lib/libvirt/qemu/vm.agent"));
+        addons.put("numa", 2);
+        cmd.setAddons(addons);
+
+        // what the agent reply or a rest request is parsed to
+        return JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(cmd), LinkedHashMap.class);
+    }
+
+    private void assertSameAsStringRoundTrip(Map map) {
+        KVMAgentCommands.StartVmCmd byString = JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(map), KVMAgentCommands.StartVmCmd.class);
+        KVMAgentCommands.StartVmCmd byTree = JSONObjectUtil.rehashObject(map, KVMAgentCommands.StartVmCmd.class);
+        Assert.assertEquals(JSONObjectUtil.toJsonString(byString), JSONObjectUtil.toJsonString(byTree));
+    }
+
+    @Test
+    public void test() {
+        LinkedHashMap map = startVmCmd();
+        assertSameAsStringRoundTrip(map);
+
+        KVMAgentCommands.StartVmCmd cmd = JSONObjectUtil.rehashObject(map, KVMAgentCommands.StartVmCmd.class);
+        Assert.assertEquals(8, cmd.getCpuNum());
+        Assert.assertEquals(16L * 1024 * 1024 * 1024, cmd.getMemory());
+        Assert.assertEquals(Arrays.asList("hd", "cdrom"), cmd.getBootDev());
+        Assert.assertEquals(7, cmd.getDataVolumes().size());
+        Assert.assertEquals(4, cmd.getNics().size());
+
+        // fields missing from the map keep the defaults of the class
+        map.remove("dataVolumes");
+        map.remove("nics");
+        map.put("vmName", null);
+        assertSameAsStringRoundTrip(map);
+
+        assertSameAsStringRoundTrip(new LinkedHashMap());
+        Assert.assertNull(JSONObjectUtil.rehashObject(null, KVMAgentCommands.StartVmCmd.class));
+    }
+
+    private void assertRejected(Map<String, Object> map) {
+        try {
+            JSONObjectUtil.toObject(JSONObjectUtil.toJsonString(map), Numbers.class);
+            Assert.fail("json string round trip accepted " + map);
+        } catch (JsonSyntaxException ignored) {
+        }
+
+        try {
+            JSONObjectUtil.rehashObject(map, Numbers.class);
+            Assert.fail("rehashObject accepted " + map);
+        } catch (JsonSyntaxException ignored) {
+        }
+    }
+
+    @Test
+    public void testNonIntegralNumbers() {
+        // integral numbers parsed as double from json are bound as before
+        Map<String, Object> map = new HashMap<>();
+        map.put("size", 1024.0);
+        map.put("count", 3.0);
+        map.put("limit", 10.0);
+        Numbers n = JSONObjectUtil.rehashObject(map, Numbers.class);
+        Assert.assertEquals(1024L, n.size);
+        Assert.assertEquals(3, n.count);
+        Assert.assertEquals(Long.valueOf(10), n.limit);
+
+        assertRejected(Collections.singletonMap("size", 1.5));
+        assertRejected(Collections.singletonMap("count", 1.5));
+        assertRejected(Collections.singletonMap("limit", 1.5));
+        assertRejected(Collections.singletonMap("size", "1.5"));
+        assertRejected(Collections.singletonMap("count", (double) Integer.MAX_VALUE + 1));
+    }
+}
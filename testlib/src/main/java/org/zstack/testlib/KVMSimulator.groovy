@@ -1,8 +1,13 @@
 package org.zstack.testlib
 
 import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.MediaType
+import org.springframework.web.client.RestTemplate
 import org.zstack.core.db.Q
 import org.zstack.header.Constants
+import org.zstack.header.rest.RESTConstant
 import org.zstack.header.storage.primary.PrimaryStorageVO
 import org.zstack.header.storage.primary.PrimaryStorageVO_
 import org.zstack.header.storage.snapshot.VolumeSnapshotVO
@@ -145,6 +150,26 @@ class KVMSimulator implements Simulator {
             return [:]
         }
 
+        spec.simulator(KVMConstant.KVM_BATCH_COMMANDS_PATH) { HttpEntity<String> e ->
+            // replay each command to its own simulator, which answers the callback with the command's taskUuid
+            String callbackUrl = e.getHeaders().getFirst(RESTConstant.CALLBACK_URL)
+            List<Map> cmds = JSONObjectUtil.toCollection(e.body, ArrayList.class, LinkedHashMap.class)
+            cmds.each { Map cmd ->
+                HttpHeaders headers = new HttpHeaders()
+                headers.setContentType(MediaType.APPLICATION_JSON)
+                headers.set(RESTConstant.TASK_UUID, cmd.taskUuid as String)
+                headers.set(RESTConstant.CALLBACK_URL, callbackUrl)
+                (cmd.headers as Map<String, String>)?.each { k, v -> headers.set(k, v) }
+
+                HttpEntity<String> req = new HttpEntity<String>(cmd.body as String, headers)
+                Thread.start {
+                    new RestTemplate().exchange("http://127.0.0.1:${WebBeanConstructor.port}${cmd.path}".toString(), HttpMethod.POST, req, String.class)
+                }
+            }
+
+            return [:]
+        }
+
         spec.simulator(KVMConstant.KVM_DETACH_VOLUME) {
             return new KVMAgentCommands.DetachDataVolumeResponse()
         }
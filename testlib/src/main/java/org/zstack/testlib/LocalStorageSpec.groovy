@@ -188,6 +188,26 @@ class LocalStorageSpec extends PrimaryStorageSpec {
                 return rsp
             }
 
+            simulator(LocalStorageKvmBackend.BATCH_GET_VOLUME_SIZE) { HttpEntity<String> e, EnvSpec spec ->
+                def cmd = JSONObjectUtil.toObject(e.body, LocalStorageKvmBackend.BatchGetVolumeSizeCmd.class)
+                LocalStorageKvmBackend.BatchGetVolumeSizeRsp rsp = new LocalStorageKvmBackend.BatchGetVolumeSizeRsp()
+                rsp.sizes = [:]
+                rsp.actualSizes = [:]
+                cmd.volumeUuidInstallPaths.keySet().each { String volUuid ->
+                    VolumeVO vol = Q.New(VolumeVO.class).eq(VolumeVO_.uuid, volUuid).find()
+                    if (vol == null) {
+                        return
+                    }
+
+                    boolean isSnapshotExist = Q.New(VolumeSnapshotVO.class)
+                            .eq(VolumeSnapshotVO_.volumeUuid, volUuid)
+                            .exists
+                    rsp.sizes[volUuid] = vol.size
+                    rsp.actualSizes[volUuid] = isSnapshotExist ? 1L : vol.actualSize
+                }
+                return rsp
+            }
+
             simulator(LocalStorageKvmBackend.OFFLINE_MERGE_PATH) {
                 return new LocalStorageKvmBackend.OfflineMergeSnapshotRsp()
             }
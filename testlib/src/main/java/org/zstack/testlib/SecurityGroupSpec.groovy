@@ -1,9 +1,11 @@
 package org.zstack.testlib
 
+import org.springframework.http.HttpEntity
 import org.zstack.kvm.KVMAgentCommands
 import org.zstack.kvm.KVMSecurityGroupBackend
 import org.zstack.sdk.SecurityGroupInventory
 import org.zstack.sdk.VmNicInventory
+import org.zstack.utils.gson.JSONObjectUtil
 
 /**
  * Created by xing5 on 2017/2/20.
@@ -29,12 +31,14 @@ class SecurityGroupSpec extends Spec implements HasSession {
                 xspec.simulator(arg1, arg2)
             }
 
-            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_APPLY_RULE_PATH) {
-                return new KVMAgentCommands.ApplySecurityGroupRuleResponse()
+            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_APPLY_RULE_PATH) { HttpEntity<String> e ->
+                def cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.ApplySecurityGroupRuleCmd.class)
+                return new KVMAgentCommands.ApplySecurityGroupRuleResponse(ruleVersion: cmd.ruleVersion)
             }
 
-            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_REFRESH_RULE_ON_HOST_PATH) {
-                return new KVMAgentCommands.RefreshAllRulesOnHostResponse()
+            simulator(KVMSecurityGroupBackend.SECURITY_GROUP_REFRESH_RULE_ON_HOST_PATH) { HttpEntity<String> e ->
+                def cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.RefreshAllRulesOnHostCmd.class)
+                return new KVMAgentCommands.RefreshAllRulesOnHostResponse(ruleVersion: cmd.ruleVersion)
             }
 
             simulator(KVMSecurityGroupBackend.SECURITY_GROUP_CLEANUP_UNUSED_RULE_ON_HOST_PATH) {
@@ -2,8 +2,6 @@ package org.zstack.utils;
 
 import org.apache.commons.beanutils.PropertyUtils;
 import org.reflections.Reflections;
-import org.reflections.scanners.*;
-import org.reflections.util.ClasspathHelper;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Iterator;
@@ -17,9 +15,7 @@ import static java.util.Arrays.asList;
 /**
  */
 public class BeanUtils {
-    public static Reflections reflections = new Reflections(ClasspathHelper.forPackage("org.zstack"),
-            new SubTypesScanner(), new MethodAnnotationsScanner(), new FieldAnnotationsScanner(),
-            new TypeAnnotationsScanner(), new MethodParameterScanner());
+    public static Reflections reflections = ReflectionsIndex.load();
 
     private static Object getProperty(Object bean, Iterator<String> it) throws IllegalAccessException, NoSuchMethodException, InvocationTargetException {
         String path = it.next();
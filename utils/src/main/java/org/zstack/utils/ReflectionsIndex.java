@@ -0,0 +1,108 @@
+package org.zstack.utils;
+
+import org.reflections.Reflections;
+import org.reflections.scanners.*;
+import org.reflections.serializers.JsonSerializer;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Reflections of org.zstack classes answered from indexes built at compile time.
+ *
+ * Modules save the metadata of their own classes to INDEX_RESOURCE in the process-classes phase
+ * by running main() of this class, see the reflections-index execution in the root pom.
+ * At runtime classpath roots carrying the index are loaded from it, and only roots without
+ * the index are scanned. Set -Dzstack.reflections.useIndex=false to scan all roots, for
+ * example when classes are compiled by an IDE which doesn't refresh the index.
+ */
+public class ReflectionsIndex {
+    private static final CLogger logger = Utils.getLogger(ReflectionsIndex.class);
+
+    public static final String INDEX_RESOURCE = "META-INF/reflections/zstack-reflections.json";
+    public static final String USE_INDEX_PROPERTY = "zstack.reflections.useIndex";
+
+    private static Scanner[] scanners() {
+        return new Scanner[]{new SubTypesScanner(), new MethodAnnotationsScanner(), new FieldAnnotationsScanner(),
+                new TypeAnnotationsScanner(), new MethodParameterScanner()};
+    }
+
+    private static Map<String, URL> findIndexes() {
+        Map<String, URL> ret = new HashMap<>();
+        for (ClassLoader loader : ClasspathHelper.classLoaders()) {
+            try {
+                Enumeration<URL> urls = loader.getResources(INDEX_RESOURCE);
+                while (urls.hasMoreElements()) {
+                    URL url = urls.nextElement();
+                    String path = url.toExternalForm();
+                    ret.put(path.substring(0, path.lastIndexOf(INDEX_RESOURCE)), url);
+                }
+            } catch (IOException e) {
+                logger.warn(String.format("unable to find reflections indexes by class loader %s", loader), e);
+            }
+        }
+
+        return ret;
+    }
+
+    public static Reflections load() {
+        long start = System.currentTimeMillis();
+
+        Map<String, URL> indexes = "false".equalsIgnoreCase(System.getProperty(USE_INDEX_PROPERTY)) ?
+                new HashMap<>() : findIndexes();
+
+        List<Reflections> loaded = new ArrayList<>();
+        List<URL> toScan = new ArrayList<>();
+        for (URL root : ClasspathHelper.forPackage("org.zstack")) {
+            URL index = indexes.get(root.toExternalForm());
+            if (index == null) {
+                toScan.add(root);
+                continue;
+            }
+
+            try (InputStream in = index.openStream()) {
+                loaded.add(new JsonSerializer().read(in));
+            } catch (Exception e) {
+                logger.warn(String.format("unable to read reflections index %s, scan %s instead", index, root), e);
+                toScan.add(root);
+            }
+        }
+
+        int indexed = loaded.size();
+        // Reflections warns on scanning no url, start from an index if all roots have one
+        Reflections reflections = toScan.isEmpty() && !loaded.isEmpty() ? loaded.remove(0) :
+                new Reflections(new ConfigurationBuilder().setUrls(toScan).setScanners(scanners()));
+        loaded.forEach(reflections::merge);
+
+        logger.info(String.format("loaded reflections of org.zstack classes in %s ms, %s classpath roots from indexes, %s roots scanned",
+                System.currentTimeMillis() - start, indexed, toScan.size()));
+        if (!toScan.isEmpty()) {
+            logger.debug(String.format("classpath roots scanned for lack of reflections index: %s", toScan));
+        }
+
+        return reflections;
+    }
+
+    public static void main(String[] args) throws MalformedURLException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("usage: ReflectionsIndex <class output directory>");
+        }
+
+        File dir = new File(args[0]);
+        if (!dir.isDirectory()) {
+            // modules packaged as pom have no classes
+            return;
+        }
+
+        Reflections reflections = new Reflections(new ConfigurationBuilder()
+                .setUrls(dir.toURI().toURL()).setScanners(scanners()));
+        reflections.save(new File(dir, INDEX_RESOURCE).getAbsolutePath(), new JsonSerializer());
+    }
+}
@@ -1,11 +1,17 @@
 package org.zstack.utils.gson;
 
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import org.json.JSONArray;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.zstack.utils.CollectionDSL.e;
 import static org.zstack.utils.CollectionDSL.map;
@@ -13,6 +19,72 @@ import static org.zstack.utils.CollectionDSL.map;
 public class JSONObjectUtil {
     private static final Gson gson;
     private static final Gson prettyGson;
+    // only builds json trees for rehashObject()
+    private static final Gson treeGson;
+    private static final Map<Class, TypeAdapter> typeAdapters = new ConcurrentHashMap<>();
+
+    /**
+     * a floating point number in a json tree. JsonTreeReader reads a number as long or int by
+     * truncating it, while JsonReader rejects 1.5 for a long field, this number keeps the latter
+     */
+    private static class StrictDouble extends Number {
+        private final double value;
+
+        StrictDouble(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public int intValue() {
+            int i = (int) value;
+            if (i != value) {
+                throw new NumberFormatException(String.format("Expected an int but was %s", value));
+            }
+
+            return i;
+        }
+
+        @Override
+        public long longValue() {
+            long l = (long) value;
+            if (l != value) {
+                throw new NumberFormatException(String.format("Expected a long but was %s", value));
+            }
+
+            return l;
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) value;
+        }
+
+        @Override
+        public double doubleValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Double.toString(value);
+        }
+    }
+
+    private static final TypeAdapter<Number> strictDoubleAdapter = new TypeAdapter<Number>() {
+        @Override
+        public void write(JsonWriter out, Number value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.value(new StrictDouble(value.doubleValue()));
+            }
+        }
+
+        @Override
+        public Number read(JsonReader in) {
+            throw new UnsupportedOperationException("only used to build json trees");
+        }
+    };
     
     static {
         gson = new GsonBuilder().registerTypeAdapter(Integer.class, new JsonDeserializer<Integer>() {
@@ -27,6 +99,12 @@ public class JSONObjectUtil {
             }
         }).disableHtmlEscaping().create();
         prettyGson = new GsonBuilder().setPrettyPrinting().create();
+        treeGson = new GsonBuilder()
+                .registerTypeAdapter(Double.class, strictDoubleAdapter)
+                .registerTypeAdapter(double.class, strictDoubleAdapter)
+                .registerTypeAdapter(Float.class, strictDoubleAdapter)
+                .registerTypeAdapter(float.class, strictDoubleAdapter)
+                .create();
     }
     
     public static <T, K extends Collection> K toCollection(String content, Class<K> collections, Class<T> clazz) {
@@ -54,13 +132,46 @@ public class JSONObjectUtil {
         return gson.fromJson(content, clazz);
     }
 
+    public static <T> T toObject(JsonElement content, Class<T> clazz) {
+        return bind(content, clazz);
+    }
+
+    private static <T> TypeAdapter<T> getTypeAdapter(Class<T> clazz) {
+        return typeAdapters.computeIfAbsent(clazz, k -> gson.getAdapter(TypeToken.get(k)));
+    }
+
+    /**
+     * binds a json tree to an object of the class, the same as gson.fromJson(JsonElement, Class)
+     * but with the type adapter of the class cached
+     */
+    private static <T> T bind(JsonElement tree, Class<T> clazz) {
+        if (tree == null || tree.isJsonNull()) {
+            return null;
+        }
+
+        try {
+            return getTypeAdapter(clazz).fromJsonTree(tree);
+        } catch (IllegalStateException e) {
+            // as gson.fromJson() does
+            throw new JsonSyntaxException(e);
+        }
+    }
+
     public static String toJsonString(Object obj) {
         return gson.toJson(obj);
     }
 
+    /**
+     * converts an object, mostly a map got from json, to an object of the class. The object is
+     * turned into a json tree and bound to the class, without an intermediate json string.
+     * As with the json string, a number like 1.5 is rejected for an integral field
+     */
     public static <T> T rehashObject(Object obj, Class<T> clazz) {
-        String str = toJsonString(obj);
-        return toObject(str, clazz);
+        if (obj == null) {
+            return null;
+        }
+
+        return bind(obj instanceof JsonElement ? (JsonElement) obj : treeGson.toJsonTree(obj), clazz);
     }
 
     public static String toTypedJsonString(Object obj) {
@@ -0,0 +1,100 @@
+package org.zstack.utils.hash;
+
+import java.util.*;
+
+/**
+ * An immutable consistent hash ring of string nodes.
+ *
+ * Virtual nodes are kept in a sorted int array searched by binary search, so get() takes no
+ * lock and allocates nothing. add() and remove() return a new ring, the owner swaps the
+ * reference to publish it. Virtual nodes with the same hash are ordered by node name, so
+ * rings having the same nodes map keys the same way however the nodes were added.
+ */
+public class ConsistentHashRing {
+    private final int numberOfReplicas;
+    private final Set<String> nodes;
+    private final int[] hashes;
+    private final String[] owners;
+
+    public ConsistentHashRing(int numberOfReplicas) {
+        this(numberOfReplicas, Collections.emptySet());
+    }
+
+    private ConsistentHashRing(int numberOfReplicas, Set<String> nodes) {
+        this.numberOfReplicas = numberOfReplicas;
+        this.nodes = Collections.unmodifiableSet(nodes);
+
+        List<String> sortedNodes = new ArrayList<>(nodes);
+        Collections.sort(sortedNodes);
+
+        long[] points = new long[sortedNodes.size() * numberOfReplicas];
+        int n = 0;
+        for (int nodeIndex = 0; nodeIndex < sortedNodes.size(); nodeIndex++) {
+            String node = sortedNodes.get(nodeIndex);
+            for (int i = 0; i < numberOfReplicas; i++) {
+                // sort by hash and then by node, both packed in one long
+                points[n++] = ((long) Murmur3Hash.hash(node + i) << 32) | nodeIndex;
+            }
+        }
+        Arrays.sort(points);
+
+        hashes = new int[points.length];
+        owners = new String[points.length];
+        for (int i = 0; i < points.length; i++) {
+            hashes[i] = (int) (points[i] >> 32);
+            owners[i] = sortedNodes.get((int) points[i]);
+        }
+    }
+
+    public ConsistentHashRing add(String node) {
+        if (nodes.contains(node)) {
+            return this;
+        }
+
+        Set<String> s = new HashSet<>(nodes);
+        s.add(node);
+        return new ConsistentHashRing(numberOfReplicas, s);
+    }
+
+    public ConsistentHashRing remove(String node) {
+        if (!nodes.contains(node)) {
+            return this;
+        }
+
+        Set<String> s = new HashSet<>(nodes);
+        s.remove(node);
+        return new ConsistentHashRing(numberOfReplicas, s);
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean hasNode(String node) {
+        return nodes.contains(node);
+    }
+
+    /**
+     * @return the node owning the key, or null if the ring is empty
+     */
+    public String get(String key) {
+        if (hashes.length == 0) {
+            return null;
+        }
+
+        int hash = Murmur3Hash.hash(key);
+        // the first virtual node whose hash >= the key's, wrapping around to the first one
+        int low = 0;
+        int high = hashes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (hashes[mid] < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return owners[low == hashes.length ? 0 : low];
+    }
+}
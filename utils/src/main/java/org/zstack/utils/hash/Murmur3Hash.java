@@ -0,0 +1,55 @@
+package org.zstack.utils.hash;
+
+/**
+ * 32 bits murmur3 over the UTF-16 chars of a string, the same as guava's
+ * Hashing.murmur3_32().hashUnencodedChars() but without allocating anything.
+ */
+public class Murmur3Hash implements HashFunction {
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    @Override
+    public int hash(Object obj) {
+        return hash(obj.toString());
+    }
+
+    public static int hash(CharSequence s) {
+        int h1 = 0;
+        int length = s.length();
+
+        for (int i = 1; i < length; i += 2) {
+            int k1 = s.charAt(i - 1) | (s.charAt(i) << 16);
+            h1 = mixH1(h1, mixK1(k1));
+        }
+
+        if ((length & 1) == 1) {
+            h1 ^= mixK1(s.charAt(length - 1));
+        }
+
+        return fmix(h1, 2 * length);
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+}
@@ -0,0 +1,98 @@
+package org.zstack.utils.test;
+
+import org.junit.Test;
+import org.zstack.utils.hash.ConsistentHashRing;
+
+import java.util.*;
+
+/**
+ * keys are spread evenly on the nodes, only keys of the new node move when a node is added,
+ * and the ring doesn't depend on the order nodes are added
+ */
+public class TestConsistentHashRing {
+    private static final int NODE_NUM = 10;
+    private static final int KEY_NUM = 100000;
+
+    private String uuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private List<String> uuids(int num) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            ret.add(uuid());
+        }
+        return ret;
+    }
+
+    private ConsistentHashRing ring(List<String> nodes) {
+        ConsistentHashRing ring = new ConsistentHashRing(500);
+        for (String node : nodes) {
+            ring = ring.add(node);
+        }
+        return ring;
+    }
+
+    @Test
+    public void testDistribution() {
+        List<String> nodes = uuids(NODE_NUM);
+        ConsistentHashRing ring = ring(nodes);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (String key : uuids(KEY_NUM)) {
+            counts.merge(ring.get(key), 1, Integer::sum);
+        }
+
+        assert counts.size() == NODE_NUM : String.format("keys landed on %s nodes, expected %s", counts.size(), NODE_NUM);
+
+        int expected = KEY_NUM / NODE_NUM;
+        for (String node : nodes) {
+            int count = counts.getOrDefault(node, 0);
+            assert Math.abs(count - expected) < expected * 0.25 : String.format("node[%s] got %s keys, expected about %s", node, count, expected);
+        }
+    }
+
+    @Test
+    public void testNodeAddAndRemove() {
+        List<String> nodes = uuids(5);
+        ConsistentHashRing ring = ring(nodes);
+        List<String> keys = uuids(10000);
+
+        String newNode = uuid();
+        ConsistentHashRing added = ring.add(newNode);
+        int moved = 0;
+        for (String key : keys) {
+            String before = ring.get(key);
+            String after = added.get(key);
+            if (!before.equals(after)) {
+                assert after.equals(newNode);
+                moved++;
+            }
+        }
+        // the new node should take about 1/6 of the keys from the 5 existing nodes
+        int expectedMoved = keys.size() / 6;
+        assert moved > expectedMoved / 2 && moved < expectedMoved * 2 : String.format("%s keys moved to the new node, expected about %s", moved, expectedMoved);
+
+        ConsistentHashRing removed = added.remove(newNode);
+        for (String key : keys) {
+            assert ring.get(key).equals(removed.get(key));
+        }
+
+        assert ring.getNodes().size() == 5;
+        assert added.hasNode(newNode);
+        assert !removed.hasNode(newNode);
+        assert new ConsistentHashRing(500).get(uuid()) == null;
+    }
+
+    @Test
+    public void testIndependentOfAddingOrder() {
+        List<String> nodes = uuids(NODE_NUM);
+        ConsistentHashRing ring1 = ring(nodes);
+        Collections.shuffle(nodes);
+        ConsistentHashRing ring2 = ring(nodes);
+
+        for (String key : uuids(10000)) {
+            assert ring1.get(key).equals(ring2.get(key));
+        }
+    }
+}